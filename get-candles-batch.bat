@@ -1,3 +1,3 @@
 echo "Running get candles batch job" && ^
-java -jar .\deployment\get-candles-historical-batch-0.0.1-SNAPSHOT.jar --spring.profiles.active=local && ^
+java --add-modules=jdk.incubator.vector -jar .\deployment\get-candles-historical-batch-0.0.1-SNAPSHOT.jar --spring.profiles.active=local && ^
 echo "DONE!"
\ No newline at end of file
@@ -4,5 +4,5 @@ export PATH="$JAVA_HOME/bin:$PATH"
 
 cd /home/max/dev/projects/get-candles-historical-batch
 echo "Running get candles batch job" && \
-java -jar ./deployment/get-candles-historical-batch-0.0.1-SNAPSHOT.jar --spring.profiles.active=local && \
+java --add-modules=jdk.incubator.vector -jar ./deployment/get-candles-historical-batch-0.0.1-SNAPSHOT.jar --spring.profiles.active=local && \
 echo "DONE!"
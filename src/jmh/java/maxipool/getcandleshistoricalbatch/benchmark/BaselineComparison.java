@@ -0,0 +1,105 @@
+package maxipool.getcandleshistoricalbatch.benchmark;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compares a JMH JSON result with the checked-in baseline, benchmark by benchmark: the score, and the bytes allocated
+ * per operation ({@code gc.alloc.rate.norm}, from {@code -prof gc}). Exits with 1 when one got worse by more than the
+ * tolerance, so that {@code mvn -Pjmh verify} fails. Without a baseline there is nothing to compare with: that only
+ * fails when a baseline is required.
+ * <br />
+ * Arguments: result file, baseline file, tolerance (0.10 for 10%), whether to record the result as the baseline
+ * instead of comparing with it, and whether a missing baseline fails.
+ */
+public class BaselineComparison {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private static final String ALLOC_RATE_NORM = "gc.alloc.rate.norm";
+
+  record Result(double score, boolean isHigherBetter, double allocatedBytesPerOp) {
+  }
+
+  public static void main(String[] args) throws IOException {
+    var resultPath = Path.of(args[0]);
+    var baselinePath = Path.of(args[1]);
+    var tolerance = Double.parseDouble(args[2]);
+    if (args.length > 3 && Boolean.parseBoolean(args[3])) {
+      Files.copy(resultPath, baselinePath, StandardCopyOption.REPLACE_EXISTING);
+      System.out.printf("Recorded %s as the baseline; commit it%n", baselinePath);
+      return;
+    }
+    if (!Files.exists(baselinePath)) {
+      System.out.printf("No baseline at %s; record one on the reference machine with -Djmh.recordBaseline=true%n",
+          baselinePath);
+      if (args.length > 4 && Boolean.parseBoolean(args[4])) {
+        System.exit(1);
+      }
+      return;
+    }
+    var results = read(resultPath);
+    var baseline = read(baselinePath);
+
+    var isRegression = false;
+    System.out.printf("%-70s %14s %14s %8s %14s %14s %8s%n",
+        "benchmark", "baseline", "score", "change", "B/op baseline", "B/op", "change");
+    for (var e : results.entrySet()) {
+      var before = baseline.get(e.getKey());
+      var after = e.getValue();
+      if (before == null) {
+        System.out.printf("%-70s %14s %14.3f%n", e.getKey(), "-", after.score());
+        continue;
+      }
+      // a positive change is always worse: slower, or more allocations
+      var scoreChange = (after.score() - before.score()) / before.score() * (after.isHigherBetter() ? -1 : 1);
+      var allocChange = before.allocatedBytesPerOp() > 0
+          ? (after.allocatedBytesPerOp() - before.allocatedBytesPerOp()) / before.allocatedBytesPerOp()
+          : 0;
+      var isWorse = scoreChange > tolerance || allocChange > tolerance;
+      isRegression |= isWorse;
+      System.out.printf("%-70s %14.3f %14.3f %+7.1f%% %14.0f %14.0f %+7.1f%%%s%n",
+          e.getKey(), before.score(), after.score(), scoreChange * 100,
+          before.allocatedBytesPerOp(), after.allocatedBytesPerOp(), allocChange * 100, isWorse ? "  <-- REGRESSION" : "");
+    }
+    if (isRegression) {
+      System.out.printf("Worse than the baseline by more than %.0f%%%n", tolerance * 100);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * @return by benchmark and parameters
+   */
+  static Map<String, Result> read(Path path) throws IOException {
+    var out = new LinkedHashMap<String, Result>();
+    for (var run : MAPPER.readTree(path.toFile())) {
+      var key = new StringBuilder(run.path("benchmark").asText());
+      run.path("params").properties().forEach(p -> key.append(' ').append(p.getKey()).append('=').append(p.getValue().asText()));
+      var primary = run.path("primaryMetric");
+      out.put(key.toString(), new Result(
+          primary.path("score").asDouble(),
+          "thrpt".equals(run.path("mode").asText()),
+          allocatedBytesPerOp(run.path("secondaryMetrics"))));
+    }
+    return out;
+  }
+
+  /**
+   * Older JMH versions prefix the names of the profiler metrics with a middle dot.
+   */
+  private static double allocatedBytesPerOp(JsonNode secondaryMetrics) {
+    for (var e : secondaryMetrics.properties()) {
+      if (e.getKey().replace("·", "").equals(ALLOC_RATE_NORM)) {
+        return e.getValue().path("score").asDouble();
+      }
+    }
+    return 0;
+  }
+
+}
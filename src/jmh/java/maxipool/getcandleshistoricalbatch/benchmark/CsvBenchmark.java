@@ -0,0 +1,45 @@
+package maxipool.getcandleshistoricalbatch.benchmark;
+
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Jackson CSV encoding of a month of M1 candles, and decoding of single rows as read back from the end of a file.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CsvBenchmark {
+
+  private List<CsvCandle> month;
+  private String[] rows;
+
+  @Setup
+  public void setup() {
+    month = Fixtures.m1Month();
+    rows = CsvUtil.candlesToCsvWithoutHeader(month.subList(0, 1_000)).split("\n");
+  }
+
+  @Benchmark
+  public String encodeMonth() {
+    return CsvUtil.candlesToCsvWithoutHeader(month);
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(1_000)
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public void decodeRow(Blackhole blackhole) {
+    for (var row : rows) {
+      blackhole.consume(CsvUtil.csvStringWithoutHeaderToCsvCandlePojo(row));
+    }
+  }
+
+}
@@ -0,0 +1,58 @@
+package maxipool.getcandleshistoricalbatch.benchmark;
+
+import maxipool.getcandleshistoricalbatch.common.file.CleanupUtil;
+import maxipool.getcandleshistoricalbatch.common.file.ReadFileUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+/**
+ * Cleanup of an M1 monthly file with duplicates, and reading the last row of one, as the batch does for every
+ * instrument/granularity whose manifest entry is stale.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FileBenchmark {
+  private static final String FILE_NAME = "EUR_USD-M1-2024_03.csv";
+
+  private Path source;
+  private Path duplicates;
+  private Path target;
+
+  @Setup(Level.Trial)
+  public void setup() throws IOException {
+    source = Fixtures.writeCsv(FILE_NAME, Fixtures.m1Month());
+    duplicates = Fixtures.writeCsv(FILE_NAME, Fixtures.m1MonthWithDuplicates());
+    target = duplicates.resolveSibling("target-" + FILE_NAME);
+  }
+
+  /**
+   * The cleanup rewrites the file: each invocation starts from the file with duplicates again.
+   */
+  @Setup(Level.Invocation)
+  public void restore() throws IOException {
+    Files.copy(duplicates, target, REPLACE_EXISTING);
+  }
+
+  @Benchmark
+  public Path cleanupM1MonthWithDuplicates() throws IOException {
+    CleanupUtil.cleanup(FILE_NAME, target);
+    return target;
+  }
+
+  @Benchmark
+  @OutputTimeUnit(TimeUnit.MICROSECONDS)
+  public String lastLineOfM1Month() {
+    return ReadFileUtil.getLastLineFromCsvCandleFile(source);
+  }
+
+}
@@ -0,0 +1,80 @@
+package maxipool.getcandleshistoricalbatch.benchmark;
+
+import lombok.experimental.UtilityClass;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+
+/**
+ * Realistic, reproducible candles for the benchmarks: a seeded random walk of M1 mid candles with 5 decimals, on the
+ * weekdays of a month, like an EUR_USD monthly file.
+ */
+@UtilityClass
+public class Fixtures {
+  public static final YearMonth MONTH = YearMonth.of(2024, 3);
+  private static final ZoneId UTC = ZoneId.of("UTC");
+  private static final long SEED = 20_240_301L;
+
+  /**
+   * About 31,000 candles: every minute of the weekdays of {@link #MONTH}.
+   */
+  public static List<CsvCandle> m1Month() {
+    var random = new SplittableRandom(SEED);
+    var candles = new ArrayList<CsvCandle>(32_000);
+    var price = 1.08;
+    for (var time = MONTH.atDay(1).atStartOfDay(UTC);
+         time.isBefore(MONTH.plusMonths(1).atDay(1).atStartOfDay(UTC));
+         time = time.plusMinutes(1)) {
+      if (time.getDayOfWeek() == DayOfWeek.SATURDAY || time.getDayOfWeek() == DayOfWeek.SUNDAY) {
+        continue;
+      }
+      var open = price;
+      var close = round(open + random.nextDouble(-0.0003, 0.0003));
+      var high = round(Math.max(open, close) + random.nextDouble(0, 0.0002));
+      var low = round(Math.min(open, close) - random.nextDouble(0, 0.0002));
+      candles.add(new CsvCandle(time, open, high, low, close, random.nextLong(1, 400), 1));
+      price = close;
+    }
+    return candles;
+  }
+
+  /**
+   * {@link #m1Month()} with one candle in 100 written twice, as after a run that was interrupted and started again.
+   */
+  public static List<CsvCandle> m1MonthWithDuplicates() {
+    var month = m1Month();
+    var candles = new ArrayList<CsvCandle>(month.size() + month.size() / 100);
+    for (var i = 0; i < month.size(); i++) {
+      candles.add(month.get(i));
+      if (i % 100 == 0) {
+        candles.add(month.get(i));
+      }
+    }
+    return candles;
+  }
+
+  /**
+   * Writes {@code candles} as a monthly CSV file, header included, in a new temporary folder.
+   */
+  public static Path writeCsv(String name, List<CsvCandle> candles) throws IOException {
+    var dir = Files.createTempDirectory("jmh-candles");
+    var path = dir.resolve(name);
+    writeCandlesToFileThatDoesntExist(path, candles);
+    return path;
+  }
+
+  private static double round(double price) {
+    return Math.round(price * 100_000) / 100_000.0;
+  }
+
+}
@@ -0,0 +1,91 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.oanda.v20.instrument.Candlestick;
+import com.oanda.v20.instrument.CandlestickData;
+import com.oanda.v20.pricing_common.PriceValue;
+import com.oanda.v20.primitives.DateTime;
+import maxipool.getcandleshistoricalbatch.benchmark.Fixtures;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.SortedMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping of the candles of a 5000-candle response, and their grouping by month before they are written. In this
+ * package to reach {@link CandlestickService#getCandlesByYM}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MappingBenchmark {
+  private static final int RESPONSE_SIZE = 5_000;
+
+  private final CandlestickMapper mapper = new CandlestickMapperImpl();
+  private Candlestick[] oandaCandles;
+  private CandleBlock response;
+  private Instant lastTime;
+
+  @Setup
+  public void setup() {
+    // the end of a month and the start of the next one, as in the first run of a month
+    var month = Fixtures.m1Month();
+    var csvCandles = month.subList(month.size() - RESPONSE_SIZE / 2, month.size());
+    var next = Fixtures.m1Month().subList(0, RESPONSE_SIZE / 2).stream()
+        .map(c -> new CsvCandle(c.getTime().plusMonths(1), c.getOpen(), c.getHigh(), c.getLow(), c.getClose(),
+            c.getVolume(), c.getIsComplete()))
+        .toList();
+    var candles = new ArrayList<>(csvCandles);
+    candles.addAll(next);
+
+    oandaCandles = candles.stream().map(MappingBenchmark::toOanda).toArray(Candlestick[]::new);
+    response = CandleBlock.fromCsvCandles(candles);
+    lastTime = candles.get(100).getTime().toInstant();
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RESPONSE_SIZE)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public void oandaCandleToCsvCandle(Blackhole blackhole) {
+    for (var candle : oandaCandles) {
+      blackhole.consume(mapper.oandaCandleToCsvCandle(candle));
+    }
+  }
+
+  @Benchmark
+  @OperationsPerInvocation(RESPONSE_SIZE)
+  @OutputTimeUnit(TimeUnit.NANOSECONDS)
+  public CandleBlock oandaCandleToCandleBlock() {
+    var block = new CandleBlock(RESPONSE_SIZE);
+    for (var candle : oandaCandles) {
+      mapper.addTo(block, candle);
+    }
+    return block;
+  }
+
+  @Benchmark
+  public SortedMap<YearMonth, CandleBlock> candlesByYM() {
+    return CandlestickService.getCandlesByYM(response, lastTime);
+  }
+
+  private static Candlestick toOanda(CsvCandle c) {
+    return new Candlestick()
+        .setTime(new DateTime(c.getTime().toInstant().toString().replace("Z", ".000000000Z")))
+        .setMid(new CandlestickData()
+            .setO(new PriceValue(c.getOpen().toString()))
+            .setH(new PriceValue(c.getHigh().toString()))
+            .setL(new PriceValue(c.getLow().toString()))
+            .setC(new PriceValue(c.getClose().toString())))
+        .setVolume(c.getVolume().intValue())
+        .setComplete(true);
+  }
+
+}
@@ -6,5 +6,11 @@ import java.time.DayOfWeek;
 import java.util.Set;
 
 @ConfigurationProperties(prefix = "app")
-public record AppProperties(Set<DayOfWeek> disableOnDays) {
+public record AppProperties(Set<DayOfWeek> disableOnDays,
+                            EAppMode mode) {
+
+  public AppProperties {
+    mode = mode == null ? EAppMode.BATCH : mode;
+  }
+
 }
@@ -0,0 +1,49 @@
+package maxipool.getcandleshistoricalbatch;
+
+public enum EAppMode {
+  /**
+   * Append the candles since the last run to the monthly files (default).
+   */
+  BATCH,
+  /**
+   * Walk back in time from the oldest monthly file of each instrument/granularity until its first candle.
+   */
+  BACKFILL,
+  /**
+   * Write the BIN file of every monthly CSV file that has none or an older one.
+   */
+  CONVERT,
+  /**
+   * Write the GORILLA file of every closed month that has none or an older one.
+   */
+  COMPRESS,
+  /**
+   * Compare the M15 candles built from the M1 files with the ones served by Oanda.
+   */
+  VALIDATE_DERIVED,
+  /**
+   * Find the candles missing from the store while the market was open, and fetch them.
+   */
+  REPAIR_GAPS,
+  /**
+   * Hash every monthly file of both disks and compare it with its recorded checksum and with its copy.
+   */
+  VERIFY_CHECKSUMS,
+  /**
+   * Check every monthly file for unreadable rows, candles out of order, duplicated or of another month, and prices that
+   * make no sense.
+   */
+  VERIFY_STORE,
+  /**
+   * {@link #VERIFY_STORE}, and rewrite the bad files with their good candles.
+   */
+  REPAIR_STORE,
+  /**
+   * Keep running and update each instrument/granularity just after each of its candles closes.
+   */
+  DAEMON,
+  /**
+   * Keep running and build the M1 candles from the pricing stream, reconciled with Oanda's M1 candles.
+   */
+  STREAM
+}
@@ -2,11 +2,22 @@ package maxipool.getcandleshistoricalbatch;
 
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.BackfillService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandleAggregationService;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ChecksumVerifyService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.DaemonService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.GapRepairService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.LiveCandleService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.StoreCompressionService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.StoreConverterService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.StoreVerifyService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
 import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.context.event.ApplicationReadyEvent;
 import org.springframework.context.event.EventListener;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Component;
 
 import java.io.*;
@@ -34,6 +45,16 @@ public class OnAppReadyManager {
   private final AppProperties appProperties;
   private final V20Properties v20Properties;
   private final CandlestickService candlestickService;
+  private final BackfillService backfillService;
+  private final StoreConverterService storeConverterService;
+  private final StoreCompressionService storeCompressionService;
+  private final AppendJournal appendJournal;
+  private final CandleAggregationService candleAggregationService;
+  private final DaemonService daemonService;
+  private final LiveCandleService liveCandleService;
+  private final GapRepairService gapRepairService;
+  private final ChecksumVerifyService checksumVerifyService;
+  private final StoreVerifyService storeVerifyService;
 
   @EventListener
   public void onAppReady(ApplicationReadyEvent ignored) {
@@ -48,7 +69,9 @@ public class OnAppReadyManager {
 
   private void exitIfDisabledDays() {
     var today = ZonedDateTime.now(TORONTO_ZONE).getDayOfWeek();
-    if (appProperties.disableOnDays().contains(today)) {
+    // the daemon and the stream idle through the disabled days on their own: there are no new candles to fetch
+    var isLongRunning = appProperties.mode() == EAppMode.DAEMON || appProperties.mode() == EAppMode.STREAM;
+    if (!isLongRunning && appProperties.disableOnDays().contains(today)) {
       log.warn("App disabled by configuration on days: {}", appProperties.disableOnDays());
       log.info("[DONE]");
       System.exit(0);
@@ -57,14 +80,43 @@ public class OnAppReadyManager {
 
   private void candles() {
     if (TRUE.equals(v20Properties.candlestick().enabled())) {
-      preventDuplicateRun(candlestickService::getOandaHistoricalMarketData);
+      switch (appProperties.mode()) {
+        // within the hour of the last run, only the pairs that failed since are retried
+        case BATCH -> preventDuplicateRun(
+            candlestickService::getOandaHistoricalMarketData, true, candlestickService::retryPending);
+        // a backfill can take hours; it must not wait for, nor hold back, the hourly batch
+        case BACKFILL -> preventDuplicateRun(backfillService::backfill, false);
+        case CONVERT -> preventDuplicateRun(storeConverterService::convert, false);
+        case COMPRESS -> preventDuplicateRun(storeCompressionService::compress, false);
+        case VALIDATE_DERIVED -> preventDuplicateRun(candleAggregationService::validate, false);
+        case REPAIR_GAPS -> preventDuplicateRun(gapRepairService::repair, false);
+        // holds the lock: no file may change while it is hashed
+        case VERIFY_CHECKSUMS -> preventDuplicateRun(checksumVerifyService::verify, false);
+        case VERIFY_STORE -> preventDuplicateRun(storeVerifyService::verify, false);
+        case REPAIR_STORE -> preventDuplicateRun(storeVerifyService::repair, false);
+        // holds the lock for as long as it runs, so that a batch started by cron meanwhile exits
+        case DAEMON -> preventDuplicateRun(daemonService::run, false);
+        case STREAM -> preventDuplicateRun(liveCandleService::run, false);
+      }
     }
   }
 
   @Value("${app.lock-file-path}")
   private String lockFilePath;
 
-  private void preventDuplicateRun(Supplier<Boolean> resultSupplier) {
+  private void preventDuplicateRun(Supplier<Boolean> resultSupplier, boolean isHourly) {
+    preventDuplicateRun(resultSupplier, isHourly, null);
+  }
+
+  /**
+   * @param isHourly           when true, skip if the last successful run was less than an hour ago and record this
+   *                           run's time
+   * @param withinHourSupplier run instead of skipping when the last successful run was less than an hour ago; the
+   *                           recorded time is left as is
+   */
+  private void preventDuplicateRun(Supplier<Boolean> resultSupplier,
+                                   boolean isHourly,
+                                   @Nullable Supplier<Boolean> withinHourSupplier) {
     var lockFile = new File(lockFilePath);
     var parentDir = lockFile.getParentFile();
     if (parentDir != null && !parentDir.exists()) {
@@ -85,15 +137,28 @@ public class OnAppReadyManager {
     try (var channel = FileChannel.open(lockFile.toPath(), READ, WRITE);
          var lock = channel.tryLock()) {
       log.info("Trying to acquire lock file: {}", lockFile);
-
       if (lock != null) {
+        // whatever the mode, the files must not keep a write torn by a crash of the previous run
+        appendJournal.recover();
+      }
+
+      if (lock != null && !isHourly) {
+        log.info("Lock File acquired, proceeding with script execution...");
+        resultSupplier.get();
+        log.info("Script execution completed.");
+      } else if (lock != null) {
         log.info("Lock File acquired, checking last run timestamp...");
 
         var lastTimestamp = readTimestampFromFile(channel);
         var currentTime = now().getEpochSecond();
 
         if (lastTimestamp != 0 && HOURS.between(ofEpochSecond(lastTimestamp), now()) < 1) {
-          log.info("The script was run less than an hour ago. Exiting gracefully.");
+          if (withinHourSupplier == null) {
+            log.info("The script was run less than an hour ago. Exiting gracefully.");
+          } else {
+            log.info("The script was run less than an hour ago. Running its retries only.");
+            withinHourSupplier.get();
+          }
           return;
         }
 
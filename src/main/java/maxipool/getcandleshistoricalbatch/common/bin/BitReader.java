@@ -0,0 +1,56 @@
+package maxipool.getcandleshistoricalbatch.common.bin;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Reads what {@link BitWriter} wrote, from {@code byteLength} bytes of a buffer starting at {@code offset}.
+ */
+class BitReader {
+  private final ByteBuffer buffer;
+  private final int offset;
+  private long bitPosition;
+
+  BitReader(ByteBuffer buffer, int offset) {
+    this.buffer = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+    this.offset = offset;
+  }
+
+  /**
+   * @param bits 1 to 64
+   */
+  long read(int bits) {
+    var index = (int) (bitPosition >>> 6);
+    var used = (int) (bitPosition & 63);
+    bitPosition += bits;
+    var word = buffer.getLong(offset + index * Long.BYTES) << used;
+    if (used + bits <= 64) {
+      return word >>> (64 - bits);
+    }
+    var next = buffer.getLong(offset + (index + 1) * Long.BYTES);
+    return (word >>> (64 - bits)) | (next >>> (128 - used - bits));
+  }
+
+  /**
+   * Inverse of {@link BitWriter#writeSigned(long)}.
+   */
+  long readSigned() {
+    if (read(1) == 0) {
+      return 0;
+    }
+    long zigzag;
+    if (read(1) == 0) {
+      zigzag = read(6);
+    } else if (read(1) == 0) {
+      zigzag = read(13);
+    } else if (read(1) == 0) {
+      zigzag = read(20);
+    } else if (read(1) == 0) {
+      zigzag = read(32);
+    } else {
+      zigzag = read(64);
+    }
+    return (zigzag >>> 1) ^ -(zigzag & 1);
+  }
+
+}
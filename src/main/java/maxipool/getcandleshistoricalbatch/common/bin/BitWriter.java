@@ -0,0 +1,72 @@
+package maxipool.getcandleshistoricalbatch.common.bin;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Appends bit fields, most significant bit first, to big-endian 64-bit words.
+ */
+class BitWriter {
+  private long[] words = new long[256];
+  private long bitCount;
+
+  /**
+   * Writes the low {@code bits} bits of {@code value}; {@code bits} is 1 to 64.
+   */
+  void write(long value, int bits) {
+    var index = (int) (bitCount >>> 6);
+    if (index + 1 >= words.length) {
+      words = Arrays.copyOf(words, words.length * 2);
+    }
+    var masked = bits == 64 ? value : value & ((1L << bits) - 1);
+    var free = 64 - (int) (bitCount & 63);
+    if (bits <= free) {
+      words[index] |= masked << (free - bits);
+    } else {
+      words[index] |= masked >>> (bits - free);
+      words[index + 1] |= masked << (64 - (bits - free));
+    }
+    bitCount += bits;
+  }
+
+  /**
+   * Writes a signed value as its zigzag encoding in the smallest of 6 buckets: {@code 0} for 0, then {@code 10},
+   * {@code 110}, {@code 1110}, {@code 11110} and {@code 11111} followed by 6, 13, 20, 32 and 64 bits.
+   */
+  void writeSigned(long value) {
+    var zigzag = (value << 1) ^ (value >> 63);
+    if (zigzag == 0) {
+      write(0, 1);
+    } else if (zigzag >>> 6 == 0) {
+      write(0b10, 2);
+      write(zigzag, 6);
+    } else if (zigzag >>> 13 == 0) {
+      write(0b110, 3);
+      write(zigzag, 13);
+    } else if (zigzag >>> 20 == 0) {
+      write(0b1110, 4);
+      write(zigzag, 20);
+    } else if (zigzag >>> 32 == 0) {
+      write(0b11110, 5);
+      write(zigzag, 32);
+    } else {
+      write(0b11111, 5);
+      write(zigzag, 64);
+    }
+  }
+
+  /**
+   * @return the number of bytes of the written words, a multiple of 8
+   */
+  int byteLength() {
+    return (int) ((bitCount + 63) >>> 6) * Long.BYTES;
+  }
+
+  void writeTo(ByteBuffer buffer) {
+    var wordCount = (int) ((bitCount + 63) >>> 6);
+    for (var i = 0; i < wordCount; i++) {
+      buffer.putLong(words[i]);
+    }
+  }
+
+}
@@ -0,0 +1,328 @@
+package maxipool.getcandleshistoricalbatch.common.bin;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.file.MappedFileUtil;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static maxipool.getcandleshistoricalbatch.common.bin.PriceScaleUtil.MAX_SCALE;
+import static maxipool.getcandleshistoricalbatch.common.bin.PriceScaleUtil.POW10;
+import static maxipool.getcandleshistoricalbatch.common.bin.PriceScaleUtil.scaleOf;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.NOT_PARSED;
+
+/**
+ * Fixed-width, column-oriented monthly candle file, next to (or instead of) the CSV of the same month.
+ * <pre>
+ * file   = header block*
+ * header = magic "CNDL" (int), version (int), reserved (long)                                  16 bytes
+ * block  = count (int), scale (int), first time (long), last time (long)                        24 bytes
+ *          time[count]   epoch seconds (long)
+ *          open[count], high[count], low[count], close[count]   price * 10^scale (long)
+ *          volume[count] (long)
+ *          complete[count] (byte), zero-padded to a multiple of 8
+ * </pre>
+ * Everything is little-endian. An append adds blocks without touching the existing ones, so updating the current
+ * month costs the size of the new candles. Reading a month is a sequential walk over arrays of {@code long}.
+ * <br />
+ * The scale of a block comes from {@link PriceScaleUtil#scaleOf}, so the prices read back are exactly the ones
+ * written.
+ */
+@Slf4j
+@UtilityClass
+public class CandleBinFile {
+  public static final String EXTENSION = "bin";
+
+  static final int MAGIC = 0x4C444E43; // "CNDL" little-endian
+  static final int VERSION = 1;
+  static final int FILE_HEADER_SIZE = 16;
+  static final int BLOCK_HEADER_SIZE = 24;
+  static final int MAX_BLOCK_COUNT = 4_096;
+
+  /**
+   * Creates the file; it must not exist.
+   */
+  public static void write(Path path, CandleBlock candles, int displayPrecision) throws IOException {
+    try (var channel = FileChannel.open(path, WRITE, CREATE_NEW)) {
+      writeFully(channel, fileHeader());
+      writeBlocks(channel, candles, displayPrecision);
+    }
+  }
+
+  /**
+   * Adds the candles at the end of an existing file.
+   */
+  public static void append(Path path, CandleBlock candles, int displayPrecision) throws IOException {
+    try (var channel = FileChannel.open(path, WRITE, APPEND)) {
+      writeBlocks(channel, candles, displayPrecision);
+    }
+  }
+
+  /**
+   * Replaces the content of the file with {@code candles} through a temporary file and an atomic rename.
+   */
+  public static void rewrite(Path path, CandleBlock candles, int displayPrecision) throws IOException {
+    var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.deleteIfExists(tmp);
+    try (var channel = FileChannel.open(tmp, WRITE, CREATE_NEW)) {
+      writeFully(channel, fileHeader());
+      writeBlocks(channel, candles, displayPrecision);
+      channel.force(true);
+    }
+    Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  public static CandleBlock read(Path path) throws IOException {
+    var buffer = MappedFileUtil.map(path).order(ByteOrder.LITTLE_ENDIAN);
+    var out = new CandleBlock(Math.max(16, buffer.limit() / 49));
+    var offset = checkFileHeader(buffer, path);
+    while (offset < buffer.limit()) {
+      offset = readBlock(buffer, offset, out, path);
+    }
+    return out;
+  }
+
+  /**
+   * Reads lazily the candles of {@code [from, to)} (epoch seconds), one {@link CandleBlock} per block of the file that
+   * has some. Only the headers of the other blocks are touched; inside a block, the time column is binary searched.
+   *
+   * @throws UncheckedIOException from the stream if a block is corrupt
+   */
+  public static Stream<CandleBlock> stream(Path path, long from, long to) throws IOException {
+    var buffer = MappedFileUtil.map(path).order(ByteOrder.LITTLE_ENDIAN);
+    var start = checkFileHeader(buffer, path);
+    return Stream
+        .iterate(start, o -> o < buffer.limit(), o -> o + blockSize(checkedCount(buffer, o, path)))
+        // blocks are in time order: nothing after a block that starts at or after `to`
+        .takeWhile(o -> firstTime(buffer, o, path) < to)
+        .filter(o -> buffer.getLong(o + 16) >= from)
+        .map(o -> readBlock(buffer, o, from, to, path));
+  }
+
+  /**
+   * Reads only block headers, e.g. to find where a file starts without reading its candles.
+   *
+   * @return the epoch second of the first candle, or
+   * {@link maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil#NOT_PARSED} if the file has none
+   */
+  public static long firstCandleTime(Path path) throws IOException {
+    var buffer = MappedFileUtil.map(path).order(ByteOrder.LITTLE_ENDIAN);
+    var offset = checkFileHeader(buffer, path);
+    while (offset < buffer.limit()) {
+      var count = checkBlock(buffer, offset, path);
+      if (count > 0) {
+        return buffer.getLong(offset + 8);
+      }
+      offset += blockSize(count);
+    }
+    return NOT_PARSED;
+  }
+
+  /**
+   * Sorts the file by time and drops duplicate times, rewriting it only if that changes something.
+   *
+   * @return true if the file was rewritten
+   */
+  public static boolean cleanup(Path path, int displayPrecision) throws IOException {
+    var candles = read(path);
+    var sorted = candles.sortedDistinct();
+    if (sorted.size() == candles.size() && isSorted(candles)) {
+      return false;
+    }
+    log.warn("{} had {} duplicate or unordered candles; rewriting it", path, candles.size() - sorted.size());
+    rewrite(path, sorted, displayPrecision);
+    return true;
+  }
+
+  /**
+   * @return the offset after the file header
+   */
+  static int checkFileHeader(ByteBuffer buffer, Path path) throws IOException {
+    if (buffer.limit() < FILE_HEADER_SIZE || buffer.getInt(0) != MAGIC) {
+      throw new IOException("%s is not a candle bin file".formatted(path));
+    }
+    if (buffer.getInt(4) != VERSION) {
+      throw new IOException("%s has unsupported version %d".formatted(path, buffer.getInt(4)));
+    }
+    return FILE_HEADER_SIZE;
+  }
+
+  static int blockSize(int count) {
+    return BLOCK_HEADER_SIZE + count * 6 * Long.BYTES + padded(count);
+  }
+
+  /**
+   * Reads the block at {@code offset} into {@code out}.
+   *
+   * @return the offset of the next block
+   */
+  static int readBlock(ByteBuffer buffer, int offset, CandleBlock out, Path path) throws IOException {
+    var count = checkBlock(buffer, offset, path);
+    readRows(buffer, offset, 0, count, out);
+    return offset + blockSize(count);
+  }
+
+  /**
+   * @return the number of candles of the block at {@code offset}
+   */
+  private static int checkBlock(ByteBuffer buffer, int offset, Path path) throws IOException {
+    if (offset + BLOCK_HEADER_SIZE > buffer.limit()) {
+      throw new IOException("%s ends with a partial block header at %d".formatted(path, offset));
+    }
+    var count = buffer.getInt(offset);
+    var scale = buffer.getInt(offset + 4);
+    if (count < 0 || scale < 0 || scale > MAX_SCALE || offset + blockSize(count) > buffer.limit()) {
+      throw new IOException("%s has a corrupt block at %d".formatted(path, offset));
+    }
+    return count;
+  }
+
+  private static long firstTime(ByteBuffer buffer, int offset, Path path) {
+    checkedCount(buffer, offset, path);
+    return buffer.getLong(offset + 8);
+  }
+
+  private static int checkedCount(ByteBuffer buffer, int offset, Path path) {
+    try {
+      return checkBlock(buffer, offset, path);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static CandleBlock readBlock(ByteBuffer buffer, int offset, long from, long to, Path path) {
+    try {
+      var count = checkBlock(buffer, offset, path);
+      var time = offset + BLOCK_HEADER_SIZE;
+      var lo = firstAtOrAfter(buffer, time, count, from);
+      var hi = firstAtOrAfter(buffer, time, count, to);
+      var out = new CandleBlock(Math.max(1, hi - lo));
+      readRows(buffer, offset, lo, hi, out);
+      return out;
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  /**
+   * Adds rows {@code [lo, hi)} of the block at {@code offset} to {@code out}.
+   */
+  private static void readRows(ByteBuffer buffer, int offset, int lo, int hi, CandleBlock out) {
+    var count = buffer.getInt(offset);
+    var pow10 = POW10[buffer.getInt(offset + 4)];
+    var time = offset + BLOCK_HEADER_SIZE;
+    var open = time + count * Long.BYTES;
+    var high = open + count * Long.BYTES;
+    var low = high + count * Long.BYTES;
+    var close = low + count * Long.BYTES;
+    var volume = close + count * Long.BYTES;
+    var complete = volume + count * Long.BYTES;
+    for (var i = lo; i < hi; i++) {
+      var o = i * Long.BYTES;
+      out.add(
+          buffer.getLong(time + o),
+          buffer.getLong(open + o) / pow10,
+          buffer.getLong(high + o) / pow10,
+          buffer.getLong(low + o) / pow10,
+          buffer.getLong(close + o) / pow10,
+          buffer.getLong(volume + o),
+          buffer.get(complete + i) != 0);
+    }
+  }
+
+  /**
+   * @return index of the first time of the column that is at or after {@code epochSecond}
+   */
+  private static int firstAtOrAfter(ByteBuffer buffer, int column, int count, long epochSecond) {
+    var lo = 0;
+    var hi = count;
+    while (lo < hi) {
+      var mid = (lo + hi) >>> 1;
+      if (buffer.getLong(column + mid * Long.BYTES) < epochSecond) {
+        lo = mid + 1;
+      } else {
+        hi = mid;
+      }
+    }
+    return lo;
+  }
+
+  private static void writeBlocks(FileChannel channel, CandleBlock candles, int displayPrecision) throws IOException {
+    for (var from = 0; from < candles.size(); from += MAX_BLOCK_COUNT) {
+      writeFully(channel, block(candles, from, Math.min(candles.size(), from + MAX_BLOCK_COUNT), displayPrecision));
+    }
+  }
+
+  private static ByteBuffer block(CandleBlock candles, int from, int to, int displayPrecision) throws IOException {
+    var count = to - from;
+    var scale = scaleOf(candles, from, to, displayPrecision);
+    var pow10 = POW10[scale];
+    var buffer = ByteBuffer.allocate(blockSize(count)).order(ByteOrder.LITTLE_ENDIAN);
+    buffer
+        .putInt(count)
+        .putInt(scale)
+        .putLong(candles.time(from))
+        .putLong(candles.time(to - 1));
+    for (var i = from; i < to; i++) {
+      buffer.putLong(candles.time(i));
+    }
+    for (var i = from; i < to; i++) {
+      buffer.putLong(Math.round(candles.open(i) * pow10));
+    }
+    for (var i = from; i < to; i++) {
+      buffer.putLong(Math.round(candles.high(i) * pow10));
+    }
+    for (var i = from; i < to; i++) {
+      buffer.putLong(Math.round(candles.low(i) * pow10));
+    }
+    for (var i = from; i < to; i++) {
+      buffer.putLong(Math.round(candles.close(i) * pow10));
+    }
+    for (var i = from; i < to; i++) {
+      buffer.putLong(candles.volume(i));
+    }
+    for (var i = from; i < to; i++) {
+      buffer.put((byte) (candles.complete(i) ? 1 : 0));
+    }
+    return buffer.position(buffer.limit()).flip();
+  }
+
+  private static boolean isSorted(CandleBlock candles) {
+    for (var i = 1; i < candles.size(); i++) {
+      if (candles.time(i) <= candles.time(i - 1)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static int padded(int count) {
+    return (count + 7) & ~7;
+  }
+
+  private static ByteBuffer fileHeader() {
+    return ByteBuffer.allocate(FILE_HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN)
+        .putInt(MAGIC)
+        .putInt(VERSION)
+        .putLong(0)
+        .flip();
+  }
+
+  private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+    while (buffer.hasRemaining()) {
+      channel.write(buffer);
+    }
+  }
+
+}
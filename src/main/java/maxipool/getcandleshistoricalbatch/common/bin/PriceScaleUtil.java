@@ -0,0 +1,58 @@
+package maxipool.getcandleshistoricalbatch.common.bin;
+
+import lombok.experimental.UtilityClass;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+import java.io.IOException;
+
+/**
+ * Prices stored as {@code price * 10^scale} in a {@code long}. The scale of a block of candles starts at the
+ * instrument's display precision and grows if a price of the block has more decimals.
+ */
+@UtilityClass
+public class PriceScaleUtil {
+  public static final int MAX_SCALE = 15;
+  public static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15};
+
+  /**
+   * @return the smallest scale from {@code minScale} at which every price of the candles survives the round trip
+   */
+  public static int scaleOf(CandleBlock candles, int from, int to, int minScale) throws IOException {
+    var scale = Math.clamp(minScale, 0, MAX_SCALE);
+    for (var i = from; i < to; i++) {
+      scale = scaleOf(candles.open(i), scale);
+      scale = scaleOf(candles.high(i), scale);
+      scale = scaleOf(candles.low(i), scale);
+      scale = scaleOf(candles.close(i), scale);
+      if (scale < 0) {
+        throw new IOException("price at %d cannot be stored as a scaled integer".formatted(candles.time(i)));
+      }
+    }
+    return scale;
+  }
+
+  /**
+   * Prices parsed from text are exact at their number of decimals; a price that went through arithmetic may only get
+   * within one ulp of itself, which is as close as the double can tell.
+   */
+  private static int scaleOf(double price, int scale) {
+    if (scale < 0) {
+      return scale;
+    }
+    for (var s = scale; s <= MAX_SCALE; s++) {
+      var scaled = price * POW10[s];
+      if (Math.abs(scaled) < 1L << 53 && Math.round(scaled) / POW10[s] == price) {
+        return s;
+      }
+    }
+    for (var s = scale; s <= MAX_SCALE; s++) {
+      var scaled = price * POW10[s];
+      if (Math.abs(scaled) < 1L << 53 && Math.abs(Math.round(scaled) / POW10[s] - price) <= Math.ulp(price)) {
+        return s;
+      }
+    }
+    return -1;
+  }
+
+}
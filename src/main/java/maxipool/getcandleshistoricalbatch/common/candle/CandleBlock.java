@@ -0,0 +1,244 @@
+package maxipool.getcandleshistoricalbatch.common.candle;
+
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Candles stored column by column in primitive arrays: one {@code long} epoch second, four {@code double} prices,
+ * one {@code long} volume and one {@code boolean} per candle, no object per candle.
+ */
+public class CandleBlock {
+
+  private static final int DEFAULT_CAPACITY = 256;
+  private static final ZoneId ZONE_ID_UTC = ZoneId.of("UTC");
+
+  private long[] time;
+  private double[] open;
+  private double[] high;
+  private double[] low;
+  private double[] close;
+  private long[] volume;
+  private boolean[] complete;
+  private int size;
+
+  public CandleBlock() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  public CandleBlock(int capacity) {
+    time = new long[capacity];
+    open = new double[capacity];
+    high = new double[capacity];
+    low = new double[capacity];
+    close = new double[capacity];
+    volume = new long[capacity];
+    complete = new boolean[capacity];
+  }
+
+  public void add(long epochSecond, double o, double h, double l, double c, long v, boolean isComplete) {
+    if (size == time.length) {
+      grow();
+    }
+    time[size] = epochSecond;
+    open[size] = o;
+    high[size] = h;
+    low[size] = l;
+    close[size] = c;
+    volume[size] = v;
+    complete[size] = isComplete;
+    size++;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public boolean isEmpty() {
+    return size == 0;
+  }
+
+  public void clear() {
+    size = 0;
+  }
+
+  public long time(int i) {
+    return time[i];
+  }
+
+  public double open(int i) {
+    return open[i];
+  }
+
+  public double high(int i) {
+    return high[i];
+  }
+
+  public double low(int i) {
+    return low[i];
+  }
+
+  public double close(int i) {
+    return close[i];
+  }
+
+  public long volume(int i) {
+    return volume[i];
+  }
+
+  public boolean complete(int i) {
+    return complete[i];
+  }
+
+  /**
+   * Appends candle {@code i} of {@code other}.
+   */
+  public void add(CandleBlock other, int i) {
+    add(other.time[i], other.open[i], other.high[i], other.low[i], other.close[i], other.volume[i], other.complete[i]);
+  }
+
+  public void addAll(CandleBlock other) {
+    for (var i = 0; i < other.size; i++) {
+      add(other, i);
+    }
+  }
+
+  /**
+   * @return the time of the last candle; the block must not be empty
+   */
+  public long lastTime() {
+    return time[size - 1];
+  }
+
+  /**
+   * @return a copy of the candles {@code [from, to)}
+   */
+  public CandleBlock copyOfRange(int from, int to) {
+    var copy = new CandleBlock(Math.max(1, to - from));
+    for (var i = from; i < to; i++) {
+      copy.add(this, i);
+    }
+    return copy;
+  }
+
+  /**
+   * @return a copy of the candles in reverse order
+   */
+  public CandleBlock reversed() {
+    var copy = new CandleBlock(Math.max(1, size));
+    for (var i = size - 1; i >= 0; i--) {
+      copy.add(this, i);
+    }
+    return copy;
+  }
+
+  /**
+   * @return a copy of the candles sorted by time; candles with the same time keep their order
+   */
+  public CandleBlock sorted() {
+    var sorted = new CandleBlock(Math.max(1, size));
+    if (isSortedByTime()) {
+      sorted.addAll(this);
+      return sorted;
+    }
+    for (var i : sortedIndexes()) {
+      sorted.add(this, i);
+    }
+    return sorted;
+  }
+
+  /**
+   * @return the candles sorted by time, keeping the first of candles with the same time
+   */
+  public CandleBlock sortedDistinct() {
+    var sorted = sorted();
+    var distinct = new CandleBlock(Math.max(1, sorted.size));
+    for (var i = 0; i < sorted.size; i++) {
+      if (distinct.isEmpty() || distinct.lastTime() != sorted.time[i]) {
+        distinct.add(sorted, i);
+      }
+    }
+    return distinct;
+  }
+
+  private boolean isSortedByTime() {
+    for (var i = 1; i < size; i++) {
+      if (time[i] < time[i - 1]) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Stable bottom-up merge sort of the indexes by time, without boxing them.
+   */
+  private int[] sortedIndexes() {
+    var indexes = new int[size];
+    var buffer = new int[size];
+    for (var i = 0; i < size; i++) {
+      indexes[i] = i;
+    }
+    for (var width = 1; width < size; width *= 2) {
+      for (var from = 0; from < size; from += 2 * width) {
+        var mid = Math.min(from + width, size);
+        var to = Math.min(from + 2 * width, size);
+        var left = from;
+        var right = mid;
+        for (var k = from; k < to; k++) {
+          buffer[k] = right >= to || (left < mid && time[indexes[left]] <= time[indexes[right]])
+              ? indexes[left++]
+              : indexes[right++];
+        }
+      }
+      var swap = indexes;
+      indexes = buffer;
+      buffer = swap;
+    }
+    return indexes;
+  }
+
+  /**
+   * Adapter for the code that still works with {@link CsvCandle}; every field must be present.
+   */
+  public static CandleBlock fromCsvCandles(List<CsvCandle> candles) {
+    var block = new CandleBlock(Math.max(1, candles.size()));
+    for (var c : candles) {
+      block.add(c.getTime().toEpochSecond(), c.getOpen(), c.getHigh(), c.getLow(), c.getClose(), c.getVolume(),
+          c.getIsComplete() == 1);
+    }
+    return block;
+  }
+
+  /**
+   * Adapter for the code that still works with {@link CsvCandle}.
+   */
+  public CsvCandle toCsvCandle(int i) {
+    return CsvCandle
+        .builder()
+        .time(ZonedDateTime.ofInstant(Instant.ofEpochSecond(time[i]), ZONE_ID_UTC))
+        .open(open[i])
+        .high(high[i])
+        .low(low[i])
+        .close(close[i])
+        .volume(volume[i])
+        .isComplete(complete[i] ? 1 : 0)
+        .build();
+  }
+
+  private void grow() {
+    var capacity = Math.max(DEFAULT_CAPACITY, time.length * 2);
+    time = Arrays.copyOf(time, capacity);
+    open = Arrays.copyOf(open, capacity);
+    high = Arrays.copyOf(high, capacity);
+    low = Arrays.copyOf(low, capacity);
+    close = Arrays.copyOf(close, capacity);
+    volume = Arrays.copyOf(volume, capacity);
+    complete = Arrays.copyOf(complete, capacity);
+  }
+
+}
@@ -0,0 +1,100 @@
+package maxipool.getcandleshistoricalbatch.common.candle;
+
+import lombok.experimental.UtilityClass;
+
+/**
+ * Parses plain decimals such as {@code -123.4567} from characters or bytes without creating a {@code String}.
+ * <br />
+ * With at most 15 significant digits the mantissa and {@code 10^scale} are exact doubles, so
+ * {@code mantissa / 10^scale} is correctly rounded: the same double as {@link Double#parseDouble(String)}.
+ * Anything else (exponent, more digits, not a number) returns NaN and the caller takes the slow path.
+ */
+@UtilityClass
+public class DecimalParseUtil {
+
+  private static final double[] POW10 = {
+      1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+      1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+  private static final int MAX_DIGITS = 15;
+
+  public static double parseDecimal(char[] chars, int offset, int length) {
+    var i = offset;
+    var end = offset + length;
+    var isNegative = i < end && chars[i] == '-';
+    if (isNegative) {
+      i++;
+    }
+    var mantissa = 0L;
+    var scale = -1;
+    var digits = 0;
+    for (; i < end; i++) {
+      var ch = chars[i];
+      if (ch == '.' && scale < 0) {
+        scale = 0;
+      } else if (ch >= '0' && ch <= '9' && ++digits <= MAX_DIGITS) {
+        mantissa = mantissa * 10 + (ch - '0');
+        scale = scale < 0 ? scale : scale + 1;
+      } else {
+        return Double.NaN;
+      }
+    }
+    return toDouble(isNegative, mantissa, scale, digits);
+  }
+
+  public static double parseDecimal(byte[] bytes, int offset, int length) {
+    var i = offset;
+    var end = offset + length;
+    var isNegative = i < end && bytes[i] == '-';
+    if (isNegative) {
+      i++;
+    }
+    var mantissa = 0L;
+    var scale = -1;
+    var digits = 0;
+    for (; i < end; i++) {
+      var b = bytes[i];
+      if (b == '.' && scale < 0) {
+        scale = 0;
+      } else if (b >= '0' && b <= '9' && ++digits <= MAX_DIGITS) {
+        mantissa = mantissa * 10 + (b - '0');
+        scale = scale < 0 ? scale : scale + 1;
+      } else {
+        return Double.NaN;
+      }
+    }
+    return toDouble(isNegative, mantissa, scale, digits);
+  }
+
+  /**
+   * @return the value of an optionally negative integer, or {@link Long#MIN_VALUE} if it is not one
+   */
+  public static long parseLong(byte[] bytes, int offset, int length) {
+    var i = offset;
+    var end = offset + length;
+    var isNegative = i < end && bytes[i] == '-';
+    if (isNegative) {
+      i++;
+    }
+    if (i == end || end - i > 18) {
+      return Long.MIN_VALUE;
+    }
+    var value = 0L;
+    for (; i < end; i++) {
+      var d = bytes[i] - '0';
+      if (d < 0 || d > 9) {
+        return Long.MIN_VALUE;
+      }
+      value = value * 10 + d;
+    }
+    return isNegative ? -value : value;
+  }
+
+  private static double toDouble(boolean isNegative, long mantissa, int scale, int digits) {
+    if (digits == 0) {
+      return Double.NaN;
+    }
+    var value = scale <= 0 ? (double) mantissa : mantissa / POW10[scale];
+    return isNegative ? -value : value;
+  }
+
+}
@@ -0,0 +1,147 @@
+package maxipool.getcandleshistoricalbatch.common.candle;
+
+import lombok.experimental.UtilityClass;
+
+import java.time.Month;
+import java.time.Year;
+import java.time.YearMonth;
+
+/**
+ * Conversions between UTC date-time fields and epoch seconds without going through {@code java.time} objects.
+ */
+@UtilityClass
+public class EpochSecondUtil {
+
+  public static final long NOT_PARSED = Long.MIN_VALUE;
+
+  /**
+   * Days since 1970-01-01 of a proleptic Gregorian date (H. Hinnant's days_from_civil).
+   */
+  public static long daysFromCivil(int year, int month, int day) {
+    var y = month <= 2 ? year - 1 : year;
+    var era = Math.floorDiv(y, 400);
+    var yoe = y - era * 400;
+    var doy = (153 * (month > 2 ? month - 3 : month + 9) + 2) / 5 + day - 1;
+    var doe = yoe * 365 + yoe / 4 - yoe / 100 + doy;
+    return era * 146_097L + doe - 719_468;
+  }
+
+  /**
+   * Inverse of {@link #daysFromCivil(int, int, int)} (H. Hinnant's civil_from_days), packed as
+   * {@code year * 10_000 + month * 100 + day}.
+   */
+  public static long civilFromDays(long epochDay) {
+    var z = epochDay + 719_468;
+    var era = Math.floorDiv(z, 146_097);
+    var doe = z - era * 146_097;
+    var yoe = (doe - doe / 1_460 + doe / 36_524 - doe / 146_096) / 365;
+    var doy = doe - (365 * yoe + yoe / 4 - yoe / 100);
+    var mp = (5 * doy + 2) / 153;
+    var day = doy - (153 * mp + 2) / 5 + 1;
+    var month = mp < 10 ? mp + 3 : mp - 9;
+    var year = yoe + era * 400 + (month <= 2 ? 1 : 0);
+    return year * 10_000 + month * 100 + day;
+  }
+
+  public static long toEpochSecond(int year, int month, int day, int hour, int minute, int second) {
+    return daysFromCivil(year, month, day) * 86_400 + hour * 3_600L + minute * 60L + second;
+  }
+
+  /**
+   * @return the UTC year/month of an epoch second; callers splitting candles by month compare times to
+   * {@link #startOfMonth(YearMonth)} and only ask for a new one when a candle falls outside the current month
+   */
+  public static YearMonth yearMonth(long epochSecond) {
+    var ymd = civilFromDays(Math.floorDiv(epochSecond, 86_400));
+    return YearMonth.of((int) (ymd / 10_000), (int) (ymd / 100 % 100));
+  }
+
+  /**
+   * @return the epoch second of the first instant of a UTC month
+   */
+  public static long startOfMonth(YearMonth ym) {
+    return daysFromCivil(ym.getYear(), ym.getMonthValue(), 1) * 86_400;
+  }
+
+  /**
+   * Parses the {@code yyyy-MM-ddTHH:mm:ss} prefix of an RFC3339 UTC time such as
+   * {@code 2024-01-02T22:00:00.000000000Z} or {@code 2024-01-02T22:00:00Z}; fractions of a second are dropped.
+   *
+   * @return the epoch second, or {@link #NOT_PARSED} if the text has another layout (e.g. a non-UTC offset)
+   */
+  public static long parseRfc3339(char[] chars, int offset, int length) {
+    if (length < 20
+        || chars[offset + 4] != '-' || chars[offset + 7] != '-' || chars[offset + 10] != 'T'
+        || chars[offset + 13] != ':' || chars[offset + 16] != ':' || chars[offset + length - 1] != 'Z') {
+      return NOT_PARSED;
+    }
+    var year = digits(chars, offset, 4);
+    var month = digits(chars, offset + 5, 2);
+    var day = digits(chars, offset + 8, 2);
+    var hour = digits(chars, offset + 11, 2);
+    var minute = digits(chars, offset + 14, 2);
+    var second = digits(chars, offset + 17, 2);
+    if (!isValid(year, month, day, hour, minute, second)) {
+      return NOT_PARSED;
+    }
+    return toEpochSecond(year, month, day, hour, minute, second);
+  }
+
+  /**
+   * Same as {@link #parseRfc3339(char[], int, int)}, for ASCII bytes.
+   */
+  public static long parseRfc3339(byte[] bytes, int offset, int length) {
+    if (length < 20
+        || bytes[offset + 4] != '-' || bytes[offset + 7] != '-' || bytes[offset + 10] != 'T'
+        || bytes[offset + 13] != ':' || bytes[offset + 16] != ':' || bytes[offset + length - 1] != 'Z') {
+      return NOT_PARSED;
+    }
+    var year = digits(bytes, offset, 4);
+    var month = digits(bytes, offset + 5, 2);
+    var day = digits(bytes, offset + 8, 2);
+    var hour = digits(bytes, offset + 11, 2);
+    var minute = digits(bytes, offset + 14, 2);
+    var second = digits(bytes, offset + 17, 2);
+    if (!isValid(year, month, day, hour, minute, second)) {
+      return NOT_PARSED;
+    }
+    return toEpochSecond(year, month, day, hour, minute, second);
+  }
+
+  private static boolean isValid(int year, int month, int day, int hour, int minute, int second) {
+    return (year | month | day | hour | minute | second) >= 0
+        && month >= 1 && month <= 12 && day >= 1 && day <= Month.of(month).length(Year.isLeap(year))
+        && hour < 24 && minute < 60 && second < 60;
+  }
+
+  /**
+   * @return the value of {@code count} decimal digits, or -1 if one of them is not a digit
+   */
+  private static int digits(byte[] bytes, int offset, int count) {
+    var value = 0;
+    for (var i = offset; i < offset + count; i++) {
+      var d = bytes[i] - '0';
+      if (d < 0 || d > 9) {
+        return -1;
+      }
+      value = value * 10 + d;
+    }
+    return value;
+  }
+
+  /**
+   * @return the value of {@code count} decimal digits, or -1 if one of them is not a digit
+   */
+  private static int digits(char[] chars, int offset, int count) {
+    var value = 0;
+    for (var i = offset; i < offset + count; i++) {
+      var d = chars[i] - '0';
+      if (d < 0 || d > 9) {
+        return -1;
+      }
+      value = value * 10 + d;
+    }
+    return value;
+  }
+
+}
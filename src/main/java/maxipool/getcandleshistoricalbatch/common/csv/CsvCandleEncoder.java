@@ -0,0 +1,236 @@
+package maxipool.getcandleshistoricalbatch.common.csv;
+
+import lombok.experimental.UtilityClass;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.civilFromDays;
+
+/**
+ * Writes candles as CSV straight into a direct {@link ByteBuffer} that is drained to a {@link FileChannel}: no
+ * {@code String} per candle nor per file. The bytes are the same as {@link CsvUtil}'s, i.e. Jackson's:
+ * <pre>
+ * time,open,high,low,close,volume,isComplete
+ * 2024-01-02T22:00:00Z,1.10452,1.1046,1.1045,1.10458,37,1
+ * </pre>
+ * Doubles are written like {@link Double#toString(double)}; the usual prices take a fast path, anything else goes
+ * through {@code Double.toString}.
+ */
+@UtilityClass
+public class CsvCandleEncoder {
+
+  public static final byte[] HEADER = "time,open,high,low,close,volume,isComplete\n".getBytes(US_ASCII);
+
+  private static final int BUFFER_SIZE = 64 * 1024;
+  /**
+   * Larger than any row: 20 (time) + 4 * 24 (doubles) + 20 (volume) + 11 (isComplete) + 7 (separators).
+   */
+  private static final int MAX_ROW_SIZE = 256;
+  private static final Queue<ByteBuffer> BUFFERS = new ConcurrentLinkedQueue<>();
+
+  private static final long[] POW10 = {1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L};
+  private static final int MAX_FRACTION_DIGITS = 8;
+  private static final long MAX_EXACT_MANTISSA = 1L << 53;
+
+  /**
+   * Writes {@code block[from, to)} at the channel's position.
+   *
+   * @return number of bytes written
+   */
+  public static long write(FileChannel channel, CandleBlock block, int from, int to, boolean withHeader) throws IOException {
+    var buffer = acquire();
+    try {
+      var written = 0L;
+      if (withHeader) {
+        buffer.put(HEADER);
+      }
+      for (var i = from; i < to; i++) {
+        if (buffer.remaining() < MAX_ROW_SIZE) {
+          written += drain(buffer, channel);
+        }
+        putRow(buffer, block, i);
+      }
+      return written + drain(buffer, channel);
+    } finally {
+      release(buffer);
+    }
+  }
+
+  /**
+   * Adapter for {@link CsvCandle}s; a {@code null} field is written as an empty value, as Jackson does.
+   *
+   * @return number of bytes written
+   */
+  public static long write(FileChannel channel, List<CsvCandle> candles, boolean withHeader) throws IOException {
+    var buffer = acquire();
+    try {
+      var written = 0L;
+      if (withHeader) {
+        buffer.put(HEADER);
+      }
+      for (var candle : candles) {
+        if (buffer.remaining() < MAX_ROW_SIZE) {
+          written += drain(buffer, channel);
+        }
+        putRow(buffer, candle);
+      }
+      return written + drain(buffer, channel);
+    } finally {
+      release(buffer);
+    }
+  }
+
+  private static void putRow(ByteBuffer buffer, CandleBlock block, int i) {
+    putTime(buffer, block.time(i));
+    buffer.put((byte) ',');
+    putDouble(buffer, block.open(i));
+    buffer.put((byte) ',');
+    putDouble(buffer, block.high(i));
+    buffer.put((byte) ',');
+    putDouble(buffer, block.low(i));
+    buffer.put((byte) ',');
+    putDouble(buffer, block.close(i));
+    buffer.put((byte) ',');
+    putLong(buffer, block.volume(i));
+    buffer.put((byte) ',');
+    buffer.put((byte) (block.complete(i) ? '1' : '0'));
+    buffer.put((byte) '\n');
+  }
+
+  private static void putRow(ByteBuffer buffer, CsvCandle candle) {
+    if (candle.getTime() != null) {
+      putTime(buffer, candle.getTime().toEpochSecond());
+    }
+    buffer.put((byte) ',');
+    putDouble(buffer, candle.getOpen());
+    buffer.put((byte) ',');
+    putDouble(buffer, candle.getHigh());
+    buffer.put((byte) ',');
+    putDouble(buffer, candle.getLow());
+    buffer.put((byte) ',');
+    putDouble(buffer, candle.getClose());
+    buffer.put((byte) ',');
+    if (candle.getVolume() != null) {
+      putLong(buffer, candle.getVolume());
+    }
+    buffer.put((byte) ',');
+    if (candle.getIsComplete() != null) {
+      putLong(buffer, candle.getIsComplete());
+    }
+    buffer.put((byte) '\n');
+  }
+
+  private static void putDouble(ByteBuffer buffer, Double value) {
+    if (value != null) {
+      putDouble(buffer, (double) value);
+    }
+  }
+
+  /**
+   * {@code yyyy-MM-ddTHH:mm:ssZ}, like Jackson's {@code ISO_OFFSET_DATE_TIME} for a UTC time without nanoseconds.
+   */
+  static void putTime(ByteBuffer buffer, long epochSecond) {
+    var epochDay = Math.floorDiv(epochSecond, 86_400);
+    var secondOfDay = Math.floorMod(epochSecond, 86_400);
+    var ymd = civilFromDays(epochDay);
+    putDigits(buffer, ymd / 10_000, 4);
+    buffer.put((byte) '-');
+    putDigits(buffer, ymd / 100 % 100, 2);
+    buffer.put((byte) '-');
+    putDigits(buffer, ymd % 100, 2);
+    buffer.put((byte) 'T');
+    putDigits(buffer, secondOfDay / 3_600, 2);
+    buffer.put((byte) ':');
+    putDigits(buffer, secondOfDay / 60 % 60, 2);
+    buffer.put((byte) ':');
+    putDigits(buffer, secondOfDay % 60, 2);
+    buffer.put((byte) 'Z');
+  }
+
+  /**
+   * Same characters as {@link Double#toString(double)}. The fast path covers the plain notation range
+   * [10^-3, 10^7) with up to {@link #MAX_FRACTION_DIGITS} decimals: the shortest decimal that reads back as the
+   * same double is then the one with the fewest decimals, and it is unique.
+   */
+  static void putDouble(ByteBuffer buffer, double value) {
+    var abs = Math.abs(value);
+    if (abs >= 1e-3 && abs < 1e7) {
+      for (var k = 1; k <= MAX_FRACTION_DIGITS; k++) {
+        var mantissa = Math.round(abs * POW10[k]);
+        if (mantissa < MAX_EXACT_MANTISSA && (double) mantissa / POW10[k] == abs) {
+          var fraction = mantissa % POW10[k];
+          if (k > 1 && fraction % 10 == 0) {
+            break; // not the shortest after all; let Double.toString decide
+          }
+          if (value < 0) {
+            buffer.put((byte) '-');
+          }
+          putLong(buffer, mantissa / POW10[k]);
+          buffer.put((byte) '.');
+          putDigits(buffer, fraction, k);
+          return;
+        }
+      }
+    }
+    var text = Double.toString(value);
+    for (var i = 0; i < text.length(); i++) {
+      buffer.put((byte) text.charAt(i));
+    }
+  }
+
+  static void putLong(ByteBuffer buffer, long value) {
+    if (value < 0) {
+      if (value == Long.MIN_VALUE) {
+        buffer.put(Long.toString(value).getBytes(US_ASCII));
+        return;
+      }
+      buffer.put((byte) '-');
+      value = -value;
+    }
+    var digits = 1;
+    for (var v = value / 10; v > 0; v /= 10) {
+      digits++;
+    }
+    putDigits(buffer, value, digits);
+  }
+
+  /**
+   * Writes the last {@code digits} decimal digits of a non-negative value, left-padded with zeros.
+   */
+  private static void putDigits(ByteBuffer buffer, long value, int digits) {
+    var end = buffer.position() + digits;
+    for (var i = end - 1; i >= end - digits; i--) {
+      buffer.put(i, (byte) ('0' + value % 10));
+      value /= 10;
+    }
+    buffer.position(end);
+  }
+
+  private static long drain(ByteBuffer buffer, FileChannel channel) throws IOException {
+    buffer.flip();
+    var written = 0L;
+    while (buffer.hasRemaining()) {
+      written += channel.write(buffer);
+    }
+    buffer.clear();
+    return written;
+  }
+
+  private static ByteBuffer acquire() {
+    var buffer = BUFFERS.poll();
+    return buffer != null ? buffer : ByteBuffer.allocateDirect(BUFFER_SIZE);
+  }
+
+  private static void release(ByteBuffer buffer) {
+    buffer.clear();
+    BUFFERS.offer(buffer);
+  }
+
+}
@@ -0,0 +1,323 @@
+package maxipool.getcandleshistoricalbatch.common.csv;
+
+import lombok.experimental.UtilityClass;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.file.MappedFileUtil;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Path;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static maxipool.getcandleshistoricalbatch.common.candle.DecimalParseUtil.parseDecimal;
+import static maxipool.getcandleshistoricalbatch.common.candle.DecimalParseUtil.parseLong;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.NOT_PARSED;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.parseRfc3339;
+
+/**
+ * Reads a monthly candle CSV (as written by {@link CsvCandleEncoder} or {@link CsvUtil}) byte by byte into a
+ * {@link CandleBlock}, without a {@code String}, {@code CsvCandle} or {@code ZonedDateTime} per row.
+ * <br />
+ * The file is memory-mapped and walked in chunks: a {@link DelimiterScanner} finds every {@code ','} and {@code '\n'}
+ * of the chunk, then each row is parsed from the field boundaries. A row is accepted when it has exactly seven
+ * non-empty fields that {@link CsvUtil#READER} would also have read as non-null; anything else is counted as rejected.
+ */
+@Slf4j
+@UtilityClass
+public class CsvCandleParser {
+
+  private static final int CHUNK_SIZE = 64 * 1024;
+  private static final int FIELD_COUNT = 7;
+  /**
+   * "yyyy-MM-ddTHH:mm:ssZ", as written by {@link CsvCandleEncoder}
+   */
+  private static final int TIME_LENGTH = 20;
+  private static final DelimiterScanner SCANNER = DelimiterScanner.best();
+
+  static {
+    log.debug("CSV delimiter scanner: {}", SCANNER.getClass().getSimpleName());
+  }
+
+  /**
+   * Parses a file that starts with the header line.
+   */
+  public static CsvParseResult parse(Path path) throws IOException {
+    return parse(path, SCANNER);
+  }
+
+  public static CsvParseResult parse(Path path, DelimiterScanner scanner) throws IOException {
+    var buffer = MappedFileUtil.map(path);
+    var size = buffer.limit();
+    var out = new CandleBlock(Math.max(16, size / 64));
+    return parse(buffer, afterFirstLine(buffer), size, out, scanner);
+  }
+
+  /**
+   * Reads only the time of the first row that has one, e.g. to find where a file starts without parsing it.
+   *
+   * @return the epoch second of the first candle of a file that starts with the header line, or
+   * {@link maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil#NOT_PARSED} if no row starts with a time
+   */
+  public static long firstCandleTime(Path path) throws IOException {
+    var buffer = MappedFileUtil.map(path);
+    var limit = buffer.limit();
+    var scratch = new byte[64];
+    var rowStart = afterFirstLine(buffer);
+    while (rowStart < limit) {
+      var length = 0;
+      while (rowStart + length < limit && length < scratch.length && buffer.get(rowStart + length) != ','
+          && buffer.get(rowStart + length) != '\n') {
+        scratch[length] = buffer.get(rowStart + length);
+        length++;
+      }
+      if (rowStart + length < limit && buffer.get(rowStart + length) == ',') {
+        var time = parseTime(scratch, 0, length);
+        if (time != NOT_PARSED) {
+          return time;
+        }
+      }
+      rowStart = rowStartAtOrAfter(buffer, rowStart + 1, limit);
+    }
+    return NOT_PARSED;
+  }
+
+  /**
+   * Reads lazily the candles of {@code [from, to)} (epoch seconds) of a file sorted by time, about
+   * {@code CHUNK_SIZE} bytes of rows per {@link CandleBlock}. The first and last rows of the range are found by a
+   * binary search over byte offsets, so only the rows of the range are parsed.
+   */
+  public static Stream<CandleBlock> stream(Path path, long from, long to) throws IOException {
+    var buffer = MappedFileUtil.map(path);
+    var dataStart = afterFirstLine(buffer);
+    var start = rowStartOfFirstAtOrAfter(buffer, dataStart, from);
+    var end = rowStartOfFirstAtOrAfter(buffer, start, to);
+    return Stream
+        .iterate(start, p -> p < end, p -> rowStartAtOrAfter(buffer, Math.min(end, p + CHUNK_SIZE), end))
+        .map(p -> {
+          var chunkEnd = rowStartAtOrAfter(buffer, Math.min(end, p + CHUNK_SIZE), end);
+          var parsed = parse(buffer, p, chunkEnd, new CandleBlock(), SCANNER).candles();
+          return withinRange(parsed, from, to);
+        })
+        .filter(b -> !b.isEmpty());
+  }
+
+  /**
+   * The search narrows the range down to a few rows, which are then walked, so a row that cannot be read only costs
+   * a longer walk.
+   *
+   * @return the start of the first row, at or after {@code lo}, whose time is at or after {@code epochSecond}
+   */
+  private static int rowStartOfFirstAtOrAfter(ByteBuffer buffer, int lo, long epochSecond) {
+    var hi = buffer.limit();
+    var scratch = new byte[TIME_LENGTH];
+    // invariant: every row starting before `lo` is before epochSecond, and the row starting at `hi` (if any) is not
+    while (hi - lo > 1_024) {
+      var mid = rowStartAtOrAfter(buffer, (lo + hi) >>> 1, hi);
+      if (mid >= hi) {
+        break;
+      }
+      var time = timeAt(buffer, mid, scratch);
+      if (time == NOT_PARSED) {
+        break;
+      }
+      if (time < epochSecond) {
+        lo = rowStartAtOrAfter(buffer, mid + 1, hi);
+      } else {
+        hi = mid;
+      }
+    }
+    while (lo < hi) {
+      var time = timeAt(buffer, lo, scratch);
+      if (time != NOT_PARSED && time >= epochSecond) {
+        return lo;
+      }
+      lo = rowStartAtOrAfter(buffer, lo + 1, hi);
+    }
+    return hi;
+  }
+
+  /**
+   * @return {@code position} if a row starts there, else the start of the next row; {@code limit} if none before it
+   */
+  private static int rowStartAtOrAfter(ByteBuffer buffer, int position, int limit) {
+    var i = position;
+    if (i > 0 && i < limit && buffer.get(i - 1) != '\n') {
+      while (i < limit && buffer.get(i) != '\n') {
+        i++;
+      }
+      i++;
+    }
+    return Math.min(i, limit);
+  }
+
+  private static long timeAt(ByteBuffer buffer, int rowStart, byte[] scratch) {
+    if (rowStart + TIME_LENGTH > buffer.limit()) {
+      return NOT_PARSED;
+    }
+    buffer.get(rowStart, scratch, 0, TIME_LENGTH);
+    return parseRfc3339(scratch, 0, TIME_LENGTH);
+  }
+
+  private static CandleBlock withinRange(CandleBlock candles, long from, long to) {
+    if (candles.isEmpty() || (candles.time(0) >= from && candles.time(candles.size() - 1) < to)) {
+      return candles;
+    }
+    var out = new CandleBlock(candles.size());
+    for (var i = 0; i < candles.size(); i++) {
+      if (candles.time(i) >= from && candles.time(i) < to) {
+        out.add(candles, i);
+      }
+    }
+    return out;
+  }
+
+  /**
+   * Parses the header-less rows of {@code buffer[from, to)} into {@code out}. The buffer's position is ignored.
+   */
+  public static CsvParseResult parse(ByteBuffer buffer, int from, int to, CandleBlock out, DelimiterScanner scanner) {
+    var chunk = new byte[Math.min(CHUNK_SIZE, Math.max(0, to - from))];
+    var positions = new int[chunk.length];
+    var fieldEnds = new int[FIELD_COUNT - 1];
+    var rows = new RowCounter();
+    // true while inside a row that did not fit in a chunk, until its '\n'
+    var isSkippingRow = false;
+
+    var pos = from;
+    while (pos < to) {
+      var length = Math.min(chunk.length, to - pos);
+      var isLastChunk = pos + length == to;
+      buffer.get(pos, chunk, 0, length);
+      var count = scanner.scan(chunk, 0, length, positions);
+
+      var rowStart = 0;
+      var commas = 0;
+      for (var j = 0; j < count; j++) {
+        var p = positions[j];
+        if (chunk[p] == ',') {
+          if (commas < fieldEnds.length) {
+            fieldEnds[commas] = p;
+          }
+          commas++;
+        } else {
+          if (!isSkippingRow) {
+            parseRow(chunk, rowStart, p, fieldEnds, commas, out, rows);
+          }
+          isSkippingRow = false;
+          rowStart = p + 1;
+          commas = 0;
+        }
+      }
+
+      if (isLastChunk) {
+        if (rowStart < length && !isSkippingRow) {
+          parseRow(chunk, rowStart, length, fieldEnds, commas, out, rows);
+        }
+        pos = to;
+      } else if (rowStart == 0) {
+        // no '\n' in a whole chunk: garbage such as the zeros left by a torn write
+        if (!isSkippingRow) {
+          rows.reject();
+        }
+        isSkippingRow = true;
+        pos += length;
+      } else {
+        // the partial row at the end of the chunk starts the next one
+        pos += rowStart;
+      }
+    }
+    return new CsvParseResult(out, rows.rejected, rows.firstRejected);
+  }
+
+  private static void parseRow(byte[] b, int start, int end, int[] fieldEnds, int commas, CandleBlock out,
+                               RowCounter rows) {
+    if (end > start && b[end - 1] == '\r') {
+      end--;
+    }
+    if (end == start) {
+      return; // blank line, e.g. the trailing one
+    }
+    if (commas != FIELD_COUNT - 1) {
+      rows.reject();
+      return;
+    }
+    var time = parseTime(b, start, fieldEnds[0] - start);
+    var open = parsePrice(b, fieldEnds[0] + 1, fieldEnds[1]);
+    var high = parsePrice(b, fieldEnds[1] + 1, fieldEnds[2]);
+    var low = parsePrice(b, fieldEnds[2] + 1, fieldEnds[3]);
+    var close = parsePrice(b, fieldEnds[3] + 1, fieldEnds[4]);
+    var volume = parseLong(b, fieldEnds[4] + 1, fieldEnds[5] - fieldEnds[4] - 1);
+    var isComplete = parseLong(b, fieldEnds[5] + 1, end - fieldEnds[5] - 1);
+    if (time == NOT_PARSED || Double.isNaN(open) || Double.isNaN(high) || Double.isNaN(low) || Double.isNaN(close)
+        || volume == Long.MIN_VALUE || (isComplete != 0 && isComplete != 1)) {
+      rows.reject();
+      return;
+    }
+    out.add(time, open, high, low, close, volume, isComplete == 1);
+    rows.accept();
+  }
+
+  private static long parseTime(byte[] b, int offset, int length) {
+    if (length == 20) {
+      var time = parseRfc3339(b, offset, length);
+      if (time != NOT_PARSED) {
+        return time;
+      }
+    }
+    if (length == 0) {
+      return NOT_PARSED;
+    }
+    try {
+      return ZonedDateTime.parse(new String(b, offset, length, US_ASCII)).toEpochSecond();
+    } catch (DateTimeParseException e) {
+      return NOT_PARSED;
+    }
+  }
+
+  /**
+   * @return the price of {@code b[from, to)}, or NaN if it is empty or not a number
+   */
+  private static double parsePrice(byte[] b, int from, int to) {
+    var value = parseDecimal(b, from, to - from);
+    if (!Double.isNaN(value) || from == to) {
+      return value;
+    }
+    try {
+      // e.g. 1.0E-4, as Double.toString writes it
+      return Double.parseDouble(new String(b, from, to - from, US_ASCII));
+    } catch (NumberFormatException e) {
+      return Double.NaN;
+    }
+  }
+
+  private static int afterFirstLine(ByteBuffer buffer) {
+    for (var i = 0; i < buffer.limit(); i++) {
+      if (buffer.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    return buffer.limit();
+  }
+
+  private static class RowCounter {
+    private int index;
+    private int rejected;
+    private int firstRejected = -1;
+
+    void accept() {
+      index++;
+    }
+
+    void reject() {
+      if (firstRejected < 0) {
+        firstRejected = index;
+      }
+      rejected++;
+      index++;
+    }
+  }
+
+}
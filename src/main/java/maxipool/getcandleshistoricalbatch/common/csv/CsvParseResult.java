@@ -0,0 +1,11 @@
+package maxipool.getcandleshistoricalbatch.common.csv;
+
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+/**
+ * @param candles          the rows that had all seven fields well-formed, in file order
+ * @param rejectedRows     the number of non-blank rows that did not
+ * @param firstRejectedRow index, among the data rows, of the first rejected row; -1 if none
+ */
+public record CsvParseResult(CandleBlock candles, int rejectedRows, int firstRejectedRow) {
+}
@@ -0,0 +1,26 @@
+package maxipool.getcandleshistoricalbatch.common.csv;
+
+/**
+ * Finds the {@code ','} and {@code '\n'} of a chunk of CSV bytes.
+ */
+public interface DelimiterScanner {
+
+  /**
+   * Writes, in order, the index of every {@code ','} and {@code '\n'} of {@code bytes[from, to)} into
+   * {@code positions}, which must have room for {@code to - from} entries.
+   *
+   * @return the number of indexes written
+   */
+  int scan(byte[] bytes, int from, int to, int[] positions);
+
+  /**
+   * @return the vector implementation when the JVM runs with {@code --add-modules jdk.incubator.vector}, the scalar
+   * one otherwise
+   */
+  static DelimiterScanner best() {
+    return ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()
+        ? new VectorDelimiterScanner()
+        : new ScalarDelimiterScanner();
+  }
+
+}
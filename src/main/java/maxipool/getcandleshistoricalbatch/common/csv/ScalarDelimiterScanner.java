@@ -0,0 +1,17 @@
+package maxipool.getcandleshistoricalbatch.common.csv;
+
+public class ScalarDelimiterScanner implements DelimiterScanner {
+
+  @Override
+  public int scan(byte[] bytes, int from, int to, int[] positions) {
+    var count = 0;
+    for (var i = from; i < to; i++) {
+      var b = bytes[i];
+      if (b == ',' || b == '\n') {
+        positions[count++] = i;
+      }
+    }
+    return count;
+  }
+
+}
@@ -0,0 +1,37 @@
+package maxipool.getcandleshistoricalbatch.common.csv;
+
+import jdk.incubator.vector.ByteVector;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Compares a whole vector of bytes against {@code ','} and {@code '\n'} at once and walks the set bits of the
+ * resulting mask. Only loaded through {@link DelimiterScanner#best()} once the incubator module is known to be there.
+ */
+public class VectorDelimiterScanner implements DelimiterScanner {
+
+  private static final VectorSpecies<Byte> SPECIES = ByteVector.SPECIES_PREFERRED;
+
+  @Override
+  public int scan(byte[] bytes, int from, int to, int[] positions) {
+    var count = 0;
+    var i = from;
+    var bound = from + SPECIES.loopBound(to - from);
+    for (; i < bound; i += SPECIES.length()) {
+      var vector = ByteVector.fromArray(SPECIES, bytes, i);
+      // at most 64 lanes (AVX-512), so the mask fits in a long
+      var bits = vector.eq((byte) ',').or(vector.eq((byte) '\n')).toLong();
+      while (bits != 0) {
+        positions[count++] = i + Long.numberOfTrailingZeros(bits);
+        bits &= bits - 1;
+      }
+    }
+    for (; i < to; i++) {
+      var b = bytes[i];
+      if (b == ',' || b == '\n') {
+        positions[count++] = i;
+      }
+    }
+    return count;
+  }
+
+}
@@ -0,0 +1,125 @@
+package maxipool.getcandleshistoricalbatch.common.file;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+/**
+ * CRC32C of files and of ranges of files. The JDK computes it with the CPU's CRC32 instructions, so hashing a whole
+ * file costs about as much as reading it.
+ */
+@UtilityClass
+public class ChecksumUtil {
+  private static final int BUFFER_SIZE = 64 * 1_024;
+  private static final long MAP_SIZE = 256L * 1_024 * 1_024;
+  /**
+   * Reversed Castagnoli polynomial.
+   */
+  private static final long POLYNOMIAL = 0x82F63B78L;
+
+  /**
+   * Hashes a whole file through memory-mapped reads, {@link #MAP_SIZE} at a time, read by the kernel ahead of the CRC;
+   * on Windows, where a mapped file cannot be replaced until the mapping is garbage collected, through reads instead.
+   */
+  public static long crc32c(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, READ)) {
+      var size = channel.size();
+      if (MappedFileUtil.IS_WINDOWS) {
+        return crc32c(channel, 0, size);
+      }
+      var crc = new CRC32C();
+      for (var position = 0L; position < size; ) {
+        var length = Math.min(MAP_SIZE, size - position);
+        crc.update(channel.map(FileChannel.MapMode.READ_ONLY, position, length));
+        position += length;
+      }
+      return crc.getValue();
+    }
+  }
+
+  /**
+   * Hashes the bytes {@code [from, to)} of a file through positional reads, e.g. the bytes just appended to it.
+   */
+  public static long crc32c(FileChannel channel, long from, long to) throws IOException {
+    var crc = new CRC32C();
+    var buffer = ByteBuffer.allocateDirect((int) Math.min(BUFFER_SIZE, Math.max(1, to - from)));
+    for (var position = from; position < to; ) {
+      buffer.clear().limit((int) Math.min(buffer.capacity(), to - position));
+      var read = channel.read(buffer, position);
+      if (read < 0) {
+        throw new IOException("Unexpected end of file while checksumming");
+      }
+      position += read;
+      crc.update(buffer.flip());
+    }
+    return crc.getValue();
+  }
+
+  /**
+   * The CRC32C of two byte sequences one after the other, from the CRC32C of each, without reading them again: the
+   * CRC32C of a file after an append, from the one before and the one of the appended bytes. zlib's
+   * {@code crc32_combine}, with the Castagnoli polynomial.
+   *
+   * @param length2 number of bytes of the second sequence
+   */
+  public static long combine(long crc1, long crc2, long length2) {
+    if (length2 <= 0) {
+      return crc1;
+    }
+    var even = new long[32];
+    var odd = new long[32];
+    // the operator of one zero bit
+    odd[0] = POLYNOMIAL;
+    var row = 1L;
+    for (var n = 1; n < 32; n++) {
+      odd[n] = row;
+      row <<= 1;
+    }
+    // two zero bits, then four
+    square(even, odd);
+    square(odd, even);
+
+    var crc = crc1;
+    var remaining = length2;
+    // one zero byte, then twice as many at each step, for each bit of the length
+    do {
+      square(even, odd);
+      if ((remaining & 1) != 0) {
+        crc = times(even, crc);
+      }
+      remaining >>>= 1;
+      if (remaining == 0) {
+        break;
+      }
+      square(odd, even);
+      if ((remaining & 1) != 0) {
+        crc = times(odd, crc);
+      }
+      remaining >>>= 1;
+    } while (remaining != 0);
+    return crc ^ crc2;
+  }
+
+  private static long times(long[] matrix, long vector) {
+    var sum = 0L;
+    for (var i = 0; vector != 0; i++, vector >>>= 1) {
+      if ((vector & 1) != 0) {
+        sum ^= matrix[i];
+      }
+    }
+    return sum;
+  }
+
+  private static void square(long[] square, long[] matrix) {
+    for (var n = 0; n < 32; n++) {
+      square[n] = times(matrix, matrix[n]);
+    }
+  }
+
+}
@@ -2,73 +2,123 @@ package maxipool.getcandleshistoricalbatch.common.file;
 
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
-import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
-import maxipool.getcandleshistoricalbatch.common.csv.CsvUtil;
-import org.apache.commons.lang3.ObjectUtils;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvParseResult;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
+import org.springframework.lang.Nullable;
 
 import java.io.IOException;
-import java.nio.file.Files;
 import java.nio.file.Path;
-import java.util.List;
-import java.util.Objects;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Optional;
 
-import static java.util.stream.Collectors.groupingBy;
-import static maxipool.getcandleshistoricalbatch.common.csv.CsvUtil.candlesToCsvWithHeader;
-import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeToFileThatDoesntExist;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.rewriteCandlesToFile;
 import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.CLEANUP_SECONDS;
 
 @Slf4j
 @UtilityClass
 public class CleanupUtil {
 
+  private static final int MAX_LOGGED_DUPLICATES = 5;
+
+  /**
+   * Checks only the candles about to be appended to a file whose last candle is at {@code lastTime}: the times keep
+   * increasing from {@code lastTime}, and every price is there. When it holds, the file stays sorted and free of
+   * duplicates without re-reading it, so {@link #cleanup(String, Path)} is only needed on a violation. A price Oanda
+   * left out, e.g. a candle without {@code mid}, is NaN in the {@link CandleBlock}; see
+   * {@link #withoutMissingPrices(CandleBlock)}.
+   *
+   * @param lastTime time of the file's last candle, or null for a new file
+   * @return a description of the first violation, or empty if the candles can be appended as is
+   */
+  public static Optional<String> findAppendViolation(CandleBlock candles, @Nullable Instant lastTime) {
+    var hasPrevious = lastTime != null;
+    var previous = hasPrevious ? lastTime.getEpochSecond() : 0L;
+    for (var i = 0; i < candles.size(); i++) {
+      var time = candles.time(i);
+      if (hasPrevious && time <= previous) {
+        return Optional.of("candle at %s does not come after %s"
+            .formatted(Instant.ofEpochSecond(time), Instant.ofEpochSecond(previous)));
+      }
+      if (isMissingPrice(candles, i)) {
+        return Optional.of("candle at %s misses a price".formatted(Instant.ofEpochSecond(time)));
+      }
+      hasPrevious = true;
+      previous = time;
+    }
+    return Optional.empty();
+  }
+
+  /**
+   * @return the candles that have every price, e.g. before writing candles that broke
+   * {@link #findAppendViolation(CandleBlock, Instant)}
+   */
+  public static CandleBlock withoutMissingPrices(CandleBlock candles) {
+    var kept = new CandleBlock(Math.max(1, candles.size()));
+    for (var i = 0; i < candles.size(); i++) {
+      if (!isMissingPrice(candles, i)) {
+        kept.add(candles, i);
+      }
+    }
+    return kept;
+  }
+
+  private static boolean isMissingPrice(CandleBlock candles, int i) {
+    return !Double.isFinite(candles.open(i)) || !Double.isFinite(candles.high(i)) || !Double.isFinite(candles.low(i))
+        || !Double.isFinite(candles.close(i));
+  }
+
   public static void cleanup(String fileName, Path path) throws IOException {
-    var lines = Files.readAllLines(path);
+    var start = System.nanoTime();
+    try {
+      dedupe(fileName, path);
+    } finally {
+      Metrics.recordNanos(CLEANUP_SECONDS, System.nanoTime() - start);
+    }
+  }
 
-    var candles = getCandles(fileName, lines);
-    var duplicateTimes = candles
-        .stream()
-        .collect(groupingBy(CsvCandle::getTime))
-        .values().stream()
-        .filter(i -> i.size() > 1).map(i -> i.getFirst().getTime())
-        .toList();
-    if (!duplicateTimes.isEmpty()) {
+  private static void dedupe(String fileName, Path path) throws IOException {
+    var parsed = CsvCandleParser.parse(path);
+
+    var candles = getCandles(fileName, parsed);
+    var duplicateTimes = new ArrayList<Instant>();
+    var duplicateCount = 0;
+    for (var i = 1; i < candles.size(); i++) {
+      // the first extra candle of a time counts it once
+      if (candles.time(i) == candles.time(i - 1) && (i == 1 || candles.time(i - 1) != candles.time(i - 2))) {
+        if (duplicateTimes.size() < MAX_LOGGED_DUPLICATES) {
+          duplicateTimes.add(Instant.ofEpochSecond(candles.time(i)));
+        }
+        duplicateCount++;
+      }
+    }
+    if (duplicateCount > 0) {
       var instrumentHasDuplicates = "instrument %s has %d duplicates: %s".formatted(
-          fileName, duplicateTimes.size(), duplicateTimes.stream().limit(5).toList());
+          fileName, duplicateCount, duplicateTimes);
       logToFile(instrumentHasDuplicates);
       log.warn(instrumentHasDuplicates);
-      var distinctCandles = candles.stream().distinct().toArray(CsvCandle[]::new);
-      var csvWithHeader = candlesToCsvWithHeader(distinctCandles);
-      Files.deleteIfExists(path);
-      writeToFileThatDoesntExist(path, csvWithHeader);
-    } else if (candles.size() < lines.size() - 1) {
+      rewriteCandlesToFile(path, candles.sortedDistinct());
+    } else if (parsed.rejectedRows() > 0) {
       var candlesNotDeserializable = "there are candles that were not deserializable for %s".formatted(fileName);
       log.warn(candlesNotDeserializable);
       logToFile(candlesNotDeserializable);
-      var csvWithHeader = candlesToCsvWithHeader(candles.stream().distinct().toArray(CsvCandle[]::new));
-      Files.deleteIfExists(path);
-      writeToFileThatDoesntExist(path, csvWithHeader);
+      rewriteCandlesToFile(path, candles);
     }
   }
 
-  private static List<CsvCandle> getCandles(String fileName, List<String> lines) {
-    if (fileName.contains("M1")) {
-      return lines
-          .stream()
-          .skip(1)
-          .map(CsvUtil::csvStringWithoutHeaderToCsvCandlePojo)
-          .filter(Objects::nonNull)
-          .filter(i -> ObjectUtils.allNotNull(i.getTime(), i.getOpen(), i.getHigh(), i.getLow(), i.getClose(), i.getVolume(), i.getIsComplete()))
-          .sorted()
-          .toList();
-    } else {
-      return lines
-          .stream()
-          .skip(1)
-          .map(CsvUtil::csvStringWithoutHeaderToCsvCandlePojo)
-          .takeWhile(Objects::nonNull)
-          .sorted()
-          .toList();
-    }
+  /**
+   * M1 (and, since "M15" contains "M1", M15) files keep every well-formed row; other files stop at the first row that
+   * cannot be read.
+   *
+   * @return the candles sorted by time, duplicates included
+   */
+  private static CandleBlock getCandles(String fileName, CsvParseResult parsed) {
+    var block = parsed.candles();
+    var count = fileName.contains("M1") || parsed.firstRejectedRow() < 0 ? block.size() : parsed.firstRejectedRow();
+    return count == block.size() ? block.sorted() : block.copyOfRange(0, count).sorted();
   }
 
 }
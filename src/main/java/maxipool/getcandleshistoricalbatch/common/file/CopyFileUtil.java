@@ -2,19 +2,81 @@ package maxipool.getcandleshistoricalbatch.common.file;
 
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
 
 import java.io.IOException;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static maxipool.getcandleshistoricalbatch.common.file.ChecksumUtil.crc32c;
 import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.BYTES_COPIED;
 
 @Slf4j
 @UtilityClass
 public class CopyFileUtil {
+  // bytes before the appended range that must match on both disks for the copy to be extended in place
+  private static final int TAIL_CHECK_LENGTH = 4_096;
 
   public static void copyToSecondDisk(Path srcPath, String copyDst, String instrument, String granularity, String filename) throws IOException {
+    var dstPath = secondDiskPath(copyDst, instrument, granularity, filename);
+    if (Files.exists(dstPath)) {
+      Files.delete(dstPath);
+    }
+    Files.copy(srcPath, dstPath);
+    Metrics.count(BYTES_COPIED, Files.size(dstPath), "full");
+    assertSameContent(srcPath, dstPath, filename);
+  }
+
+  /**
+   * Brings the copy of {@code srcPath} on the second disk up to date after a write. If the copy is the first
+   * {@code appendedFrom} bytes of the source, only the bytes after them are transferred ({@code copy_file_range} on
+   * Linux) and checked with CRC32C; otherwise, or if the check fails, the whole file is copied again.
+   *
+   * @param appendedFrom length of the source before candles were appended to it, or 0 if it was created or rewritten
+   */
+  public static void mirrorToSecondDisk(Path srcPath, long appendedFrom, String copyDst, String instrument, String granularity, String filename) throws IOException {
+    var dstPath = secondDiskPath(copyDst, instrument, granularity, filename);
+    if (appendedFrom > 0 && Files.exists(dstPath) && Files.size(dstPath) == appendedFrom) {
+      try (var src = FileChannel.open(srcPath, READ);
+           var dst = FileChannel.open(dstPath, READ, WRITE)) {
+        var tailFrom = Math.max(0, appendedFrom - TAIL_CHECK_LENGTH);
+        if (crc32c(src, tailFrom, appendedFrom) == crc32c(dst, tailFrom, appendedFrom)) {
+          var size = src.size();
+          dst.position(appendedFrom);
+          for (var position = appendedFrom; position < size; ) {
+            position += src.transferTo(position, size - position, dst);
+          }
+          if (crc32c(src, appendedFrom, size) == crc32c(dst, appendedFrom, size)) {
+            log.debug("Mirrored {} appended bytes of {}", size - appendedFrom, filename);
+            Metrics.count(BYTES_COPIED, size - appendedFrom, "append");
+            return;
+          }
+          log.warn("Appended bytes of {} differ on the second disk; copying the whole file", filename);
+        } else {
+          log.warn("{} differs from its copy on the second disk; copying the whole file", filename);
+        }
+      }
+    }
+    copyToSecondDisk(srcPath, copyDst, instrument, granularity, filename);
+  }
+
+  /**
+   * @return where the copy of a monthly file is on the second disk
+   */
+  public static Path secondDiskFile(String copyDst, String instrument, String granularity, String filename) {
+    return Paths.get(copyDst, instrument, granularity, filename);
+  }
+
+  public static void deleteFromSecondDisk(String copyDst, String instrument, String granularity, String filename) throws IOException {
+    Files.deleteIfExists(secondDiskFile(copyDst, instrument, granularity, filename));
+  }
+
+  private static Path secondDiskPath(String copyDst, String instrument, String granularity, String filename) throws IOException {
     var subDir = Paths.get(copyDst, instrument, granularity);
     try {
       Files.createDirectories(subDir);
@@ -22,19 +84,21 @@ public class CopyFileUtil {
       log.warn("Cannot create directory '{}'", subDir, e);
       throw e;
     }
-    var dstPath = subDir.resolve(filename);
-    if (Files.exists(dstPath)) {
-      Files.delete(dstPath);
-    }
-    Files.copy(srcPath, dstPath);
-    assertFileLengthsEqual(srcPath, dstPath, filename);
+    return subDir.resolve(filename);
   }
 
-  private static void assertFileLengthsEqual(Path srcFile, Path dstFile, String fileName) throws IOException {
-    if (Files.size(dstFile) != Files.size(srcFile)) {
-      var message = "File size not equal for %s%n".formatted(fileName);
-      log.warn(message);
-      logToFile(message);
+  private static void assertSameContent(Path srcFile, Path dstFile, String fileName) throws IOException {
+    try (var src = FileChannel.open(srcFile, READ);
+         var dst = FileChannel.open(dstFile, READ)) {
+      if (dst.size() != src.size()) {
+        var message = "File size not equal for %s%n".formatted(fileName);
+        log.warn(message);
+        logToFile(message);
+      } else if (crc32c(src, 0, src.size()) != crc32c(dst, 0, dst.size())) {
+        var message = "File checksum not equal for %s%n".formatted(fileName);
+        log.warn(message);
+        logToFile(message);
+      }
     }
   }
 
@@ -0,0 +1,42 @@
+package maxipool.getcandleshistoricalbatch.common.file;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+
+@UtilityClass
+public class MappedFileUtil {
+
+  /**
+   * A mapped file cannot be deleted or replaced on Windows until the mapping is garbage collected, and cleanups rewrite
+   * the file they just read; there, the file is read into the heap instead.
+   */
+  static final boolean IS_WINDOWS = System.getProperty("os.name", "").startsWith("Windows");
+
+  /**
+   * @return the whole file, read-only, position 0
+   */
+  public static ByteBuffer map(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, READ)) {
+      var size = channel.size();
+      if (size > Integer.MAX_VALUE) {
+        throw new IOException("%s is too large to be a monthly candle file (%d bytes)".formatted(path, size));
+      }
+      return IS_WINDOWS ? readFully(channel, (int) size) : channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+    }
+  }
+
+  private static ByteBuffer readFully(FileChannel channel, int size) throws IOException {
+    var buffer = ByteBuffer.allocate(size);
+    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+      // keep reading
+    }
+    return buffer.flip();
+  }
+
+}
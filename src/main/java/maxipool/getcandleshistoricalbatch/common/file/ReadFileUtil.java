@@ -1,12 +1,10 @@
 package maxipool.getcandleshistoricalbatch.common.file;
 
-import jakarta.validation.constraints.NotNull;
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.lang.Nullable;
 
 import java.io.IOException;
-import java.io.RandomAccessFile;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -20,53 +18,24 @@ public class ReadFileUtil {
     return getLastLineFromCsvCandleFile(Paths.get(fileName));
   }
 
+  /**
+   * @return the last non-empty line, without its line break, read backwards by {@link TailReader}
+   */
   @Nullable
   public static String getLastLineFromCsvCandleFile(Path fileName) {
     if (!Files.exists(fileName)) {
       log.info("File doesn't exist: {}", fileName);
       return null;
     }
-    try (var file = new RandomAccessFile(String.valueOf(fileName), "r")) {
-      var fileLength = file.length();
-      if (fileLength == 0) {
-        return null;
-      }
-
-      return readLineFromEnd(file, fileLength - 1 /* end of last line */);
+    try {
+      var lines = TailReader.lastLines(fileName, 1);
+      return lines.isEmpty() ? null : lines.getFirst();
     } catch (IOException e) {
       log.error("Error while reading file: {}", fileName, e);
       return null;
     }
   }
 
-  /**
-   * Reads a line from its end (backward) until a new line character is found or the start of the file is reached.
-   */
-  @NotNull
-  private static String readLineFromEnd(RandomAccessFile file, long fileLength) throws IOException {
-    var sb = new StringBuilder();
-    var filePointer = fileLength - 1;
-
-    while (filePointer > 0) {
-      if (isNewLineAndReadByte(file, sb, filePointer)) {
-        break;
-      }
-      filePointer--;
-    }
-
-    return sb.reverse().toString(); // \n\rolleh --> hello\r\n
-  }
-
-  private static boolean isNewLineAndReadByte(RandomAccessFile file, StringBuilder sb, long filePointer) throws IOException {
-    file.seek(filePointer);
-    var currentByte = file.readByte();
-    if (isNewLineChar(currentByte) && !sb.isEmpty()) {
-      return true;
-    }
-    sb.append((char) currentByte);
-    return false;
-  }
-
   /**
    * 10 = LF = \n
    * <br />
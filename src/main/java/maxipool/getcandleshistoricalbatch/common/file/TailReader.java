@@ -0,0 +1,171 @@
+package maxipool.getcandleshistoricalbatch.common.file;
+
+import lombok.experimental.UtilityClass;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.csv.DelimiterScanner;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.READ;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.NOT_PARSED;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.parseRfc3339;
+
+/**
+ * Reads the last lines of a file backwards, a block at a time through positional reads: 4 KB first, which holds the
+ * last rows of a candle CSV in a single read, then blocks twice as large, up to 64 KB, until enough lines are in.
+ * Empty lines are skipped, and {@code \n}, {@code \r\n} and {@code \r} all end a line.
+ */
+@UtilityClass
+public class TailReader {
+  static final int MIN_BLOCK_SIZE = 4 * 1_024;
+  static final int MAX_BLOCK_SIZE = 64 * 1_024;
+  private static final DelimiterScanner SCANNER = DelimiterScanner.best();
+
+  /**
+   * The end of a file.
+   *
+   * @param bytes the last bytes of the file
+   * @param from  index in {@code bytes} of the first of the lines asked for, or of the first line of the file if it
+   *              has fewer
+   * @param start offset of {@code bytes[0]} in the file
+   */
+  public record Tail(byte[] bytes, int from, long start) {
+
+    public boolean isFileStart() {
+      return start + from == 0;
+    }
+  }
+
+  /**
+   * @param size the size of the file, already known to the caller
+   */
+  public static Tail read(FileChannel channel, long size, int lineCount) throws IOException {
+    var bytes = new byte[0];
+    var start = size;
+    var blockSize = MIN_BLOCK_SIZE;
+    while (true) {
+      var length = (int) Math.min(blockSize, start);
+      var grown = new byte[bytes.length + length];
+      readFully(channel, ByteBuffer.wrap(grown, 0, length), start - length);
+      System.arraycopy(bytes, 0, grown, length, bytes.length);
+      bytes = grown;
+      start -= length;
+
+      var from = firstOfLastLines(bytes, lineCount, start == 0);
+      if (from >= 0) {
+        return new Tail(bytes, from, start);
+      }
+      blockSize = Math.min(blockSize * 2, MAX_BLOCK_SIZE);
+    }
+  }
+
+  /**
+   * @return the last {@code lineCount} non-empty lines, without their line breaks, in file order; fewer if the file
+   * has fewer
+   */
+  public static List<String> lastLines(Path path, int lineCount) throws IOException {
+    var tail = read(path, lineCount);
+    var lines = new ArrayList<String>(lineCount);
+    var bytes = tail.bytes();
+    var lineStart = tail.from();
+    for (var i = tail.from(); i <= bytes.length; i++) {
+      if (i == bytes.length || isLineBreak(bytes[i])) {
+        if (i > lineStart) {
+          lines.add(new String(bytes, lineStart, i - lineStart, UTF_8));
+        }
+        lineStart = i + 1;
+      }
+    }
+    return lines;
+  }
+
+  /**
+   * Decodes the last {@code count} rows of a candle CSV file, header excluded; rows that cannot be read are dropped,
+   * so fewer candles may come back.
+   */
+  public static CandleBlock lastCandles(Path path, int count) throws IOException {
+    var tail = read(path, count);
+    var bytes = tail.bytes();
+    var from = tail.from();
+    if (tail.isFileStart()) {
+      from = afterLine(bytes, from);
+    }
+    var out = new CandleBlock(Math.max(1, count));
+    CsvCandleParser.parse(ByteBuffer.wrap(bytes), from, bytes.length, out, SCANNER);
+    return out;
+  }
+
+  /**
+   * @return the epoch second of the last row of a candle CSV file, parsed from its bytes, or
+   * {@link maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil#NOT_PARSED} if the file is empty or its
+   * last row does not start with a UTC time
+   */
+  public static long lastCandleTime(Path path) throws IOException {
+    return lastCandleTime(read(path, 1));
+  }
+
+  /**
+   * @param tail whose first line is the last row of a candle CSV file
+   */
+  public static long lastCandleTime(Tail tail) {
+    var bytes = tail.bytes();
+    var end = tail.from();
+    while (end < bytes.length && bytes[end] != ',' && !isLineBreak(bytes[end])) {
+      end++;
+    }
+    return end < bytes.length && bytes[end] == ',' ? parseRfc3339(bytes, tail.from(), end - tail.from()) : NOT_PARSED;
+  }
+
+  private static Tail read(Path path, int lineCount) throws IOException {
+    try (var channel = FileChannel.open(path, READ)) {
+      return read(channel, channel.size(), lineCount);
+    }
+  }
+
+  /**
+   * @return the index of the first of the last {@code lineCount} non-empty lines of {@code bytes}, or -1 if the line
+   * before them is not in {@code bytes} yet
+   */
+  private static int firstOfLastLines(byte[] bytes, int lineCount, boolean isFileStart) {
+    var lineEnd = bytes.length;
+    var count = 0;
+    for (var i = bytes.length - 1; i >= 0; i--) {
+      if (isLineBreak(bytes[i])) {
+        if (i + 1 < lineEnd && ++count == lineCount) {
+          return i + 1;
+        }
+        lineEnd = i;
+      }
+    }
+    // the first line of bytes is only whole at the start of the file
+    return isFileStart ? 0 : -1;
+  }
+
+  private static int afterLine(byte[] bytes, int from) {
+    var i = from;
+    while (i < bytes.length && !isLineBreak(bytes[i])) {
+      i++;
+    }
+    return Math.min(i + 1, bytes.length);
+  }
+
+  private static boolean isLineBreak(byte b) {
+    return b == '\n' || b == '\r';
+  }
+
+  private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, position + buffer.position()) < 0) {
+        throw new IOException("Unexpected end of file while reading its tail");
+      }
+    }
+  }
+
+}
@@ -2,12 +2,22 @@ package maxipool.getcandleshistoricalbatch.common.file;
 
 import lombok.experimental.UtilityClass;
 import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleEncoder;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
 
 @Slf4j
 @UtilityClass
@@ -33,4 +43,94 @@ public class WriteFileUtil {
     log.debug("Done with file: {}", filePath);
   }
 
-}
+  public static void appendCandlesToFile(Path filePath, CandleBlock candles) throws IOException {
+    log.debug("Writing to file: {}", filePath);
+    try (var channel = FileChannel.open(filePath, WRITE, APPEND)) {
+      CsvCandleEncoder.write(channel, candles, 0, candles.size(), false);
+    }
+    log.debug("Done with file: {}", filePath);
+  }
+
+  /**
+   * Adapter for {@link CsvCandle}s.
+   */
+  public static void appendCandlesToFile(Path filePath, List<CsvCandle> candles) throws IOException {
+    log.debug("Writing to file: {}", filePath);
+    try (var channel = FileChannel.open(filePath, WRITE, APPEND)) {
+      CsvCandleEncoder.write(channel, candles, false);
+    }
+    log.debug("Done with file: {}", filePath);
+  }
+
+  /**
+   * Creates the file with the CSV header followed by the candles.
+   */
+  public static void writeCandlesToFileThatDoesntExist(Path filePath, CandleBlock candles) throws IOException {
+    log.debug("Writing to file: {}", filePath);
+    try (var channel = FileChannel.open(filePath, WRITE, CREATE_NEW)) {
+      CsvCandleEncoder.write(channel, candles, 0, candles.size(), true);
+    }
+    log.debug("Done with file: {}", filePath);
+  }
+
+  /**
+   * Adapter for {@link CsvCandle}s.
+   */
+  public static void writeCandlesToFileThatDoesntExist(Path filePath, List<CsvCandle> candles) throws IOException {
+    log.debug("Writing to file: {}", filePath);
+    try (var channel = FileChannel.open(filePath, WRITE, CREATE_NEW)) {
+      CsvCandleEncoder.write(channel, candles, true);
+    }
+    log.debug("Done with file: {}", filePath);
+  }
+
+  /**
+   * Replaces the file with the CSV header followed by the candles. The result is written next to the file, fsynced and
+   * moved over it, so a crash leaves either the old or the new file, never half of one.
+   */
+  public static void rewriteCandlesToFile(Path filePath, CandleBlock candles) throws IOException {
+    log.debug("Rewriting file: {}", filePath);
+    var tmpPath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+    try (var channel = FileChannel.open(tmpPath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+      CsvCandleEncoder.write(channel, candles, 0, candles.size(), true);
+      channel.force(true);
+    }
+    Files.move(tmpPath, filePath, ATOMIC_MOVE, REPLACE_EXISTING);
+    log.debug("Done with file: {}", filePath);
+  }
+
+  /**
+   * Inserts the candles between the CSV header and the first line of the file. The result is written next to the file,
+   * fsynced and moved over it, so the file is never seen half written.
+   */
+  public static void prependCandlesToFile(Path filePath, CandleBlock candles) throws IOException {
+    log.debug("Prepending to file: {}", filePath);
+    var tmpPath = filePath.resolveSibling(filePath.getFileName() + ".tmp");
+    try (var src = FileChannel.open(filePath, READ);
+         var dst = FileChannel.open(tmpPath, WRITE, CREATE, TRUNCATE_EXISTING)) {
+      CsvCandleEncoder.write(dst, candles, 0, candles.size(), true);
+      var size = src.size();
+      for (var position = firstLineLength(src); position < size; ) {
+        position += src.transferTo(position, size - position, dst);
+      }
+      dst.force(true);
+    }
+    Files.move(tmpPath, filePath, ATOMIC_MOVE, REPLACE_EXISTING);
+    log.debug("Done with file: {}", filePath);
+  }
+
+  /**
+   * @return length of the first line, including its line feed
+   */
+  private static long firstLineLength(FileChannel channel) throws IOException {
+    var buffer = ByteBuffer.allocate(256);
+    channel.read(buffer, 0);
+    for (var i = 0; i < buffer.position(); i++) {
+      if (buffer.get(i) == '\n') {
+        return i + 1;
+      }
+    }
+    throw new IOException("No header line found");
+  }
+
+}
\ No newline at end of file
@@ -10,11 +10,16 @@ import java.util.concurrent.atomic.AtomicBoolean;
 
 import static java.nio.file.StandardOpenOption.APPEND;
 
+/**
+ * Writes the summary of the current run to {@code batch-job-output.txt}, in the working directory unless the
+ * {@code app.output-file} system property points elsewhere; the file is replaced at the first write of each run.
+ */
 @Slf4j
 public class LogFileUtil {
 
+  private static final String OUTPUT_FILE_PROPERTY = "app.output-file";
   private static final String OUTPUT_FILE = "batch-job-output.txt";
-  private static final Path PATH = Paths.get(OUTPUT_FILE);
+  private static final Path PATH = Paths.get(System.getProperty(OUTPUT_FILE_PROPERTY, OUTPUT_FILE));
 
   private static final AtomicBoolean isWrittenTo = new AtomicBoolean(false);
 
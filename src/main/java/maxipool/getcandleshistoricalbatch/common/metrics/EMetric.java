@@ -0,0 +1,31 @@
+package maxipool.getcandleshistoricalbatch.common.metrics;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+import java.util.List;
+
+/**
+ * The metrics of the fetch/write pipeline, as exported in the Prometheus text format by {@link Metrics}.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum EMetric {
+  OANDA_REQUEST_SECONDS(true, "oanda_request_seconds", "Latency of the Oanda REST requests, rate limiter excluded",
+      List.of("endpoint", "instrument", "granularity", "status")),
+  OANDA_RATE_LIMITED(false, "oanda_rate_limited_total", "Oanda REST requests answered 429", List.of("endpoint")),
+  OANDA_RETRIES(false, "oanda_retries_total", "Oanda REST requests retried", List.of()),
+  CANDLES_FETCHED(false, "candles_fetched_total", "Candles received from Oanda",
+      List.of("instrument", "granularity")),
+  CANDLES_UPDATE_SECONDS(true, "candles_update_seconds", "Time to update one instrument/granularity",
+      List.of("granularity", "result")),
+  BYTES_WRITTEN(false, "candles_bytes_written_total", "Bytes written to the monthly files", List.of("format")),
+  BYTES_COPIED(false, "candles_bytes_copied_total", "Bytes copied to the second disk", List.of("mode")),
+  BYTES_VERIFIED(false, "candles_bytes_verified_total", "Bytes hashed to verify the monthly files", List.of("disk")),
+  CLEANUP_SECONDS(true, "candles_cleanup_seconds", "Time to clean up a CSV file", List.of());
+
+  private final boolean isHistogram;
+  private final String metricName;
+  private final String help;
+  private final List<String> labelNames;
+}
@@ -0,0 +1,151 @@
+package maxipool.getcandleshistoricalbatch.common.metrics;
+
+import lombok.experimental.UtilityClass;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.util.Comparator.comparing;
+
+/**
+ * In-process counters and latency histograms of the {@link EMetric}s, by label values, exported in the Prometheus text
+ * format, e.g. to a file read by node_exporter's textfile collector. Recording is lock-free: adders only.
+ */
+@UtilityClass
+public class Metrics {
+  /**
+   * Upper bounds of the histogram buckets, in seconds.
+   */
+  static final double[] BUCKETS = {0.005, 0.01, 0.025, 0.05, 0.1, 0.25, 0.5, 1, 2.5, 5, 10, 30, 60};
+
+  private static final Map<EMetric, Map<List<String>, Series>> SERIES = new EnumMap<>(EMetric.class);
+
+  static {
+    for (var metric : EMetric.values()) {
+      SERIES.put(metric, new ConcurrentHashMap<>());
+    }
+  }
+
+  /**
+   * @param labelValues in the order of {@link EMetric#getLabelNames()}
+   */
+  public static void count(EMetric metric, long amount, String... labelValues) {
+    series(metric, labelValues).count.add(amount);
+  }
+
+  /**
+   * @param labelValues in the order of {@link EMetric#getLabelNames()}
+   */
+  public static void recordNanos(EMetric metric, long nanos, String... labelValues) {
+    var seconds = nanos / 1e9;
+    var series = series(metric, labelValues);
+    var bucket = Arrays.binarySearch(BUCKETS, seconds);
+    series.buckets[bucket >= 0 ? bucket : -bucket - 1].increment();
+    series.sum.add(seconds);
+    series.count.increment();
+  }
+
+  private static Series series(EMetric metric, String[] labelValues) {
+    if (labelValues.length != metric.getLabelNames().size()) {
+      throw new IllegalArgumentException("%s takes labels %s".formatted(metric, metric.getLabelNames()));
+    }
+    return SERIES.get(metric).computeIfAbsent(List.of(labelValues), l -> new Series(metric.isHistogram()));
+  }
+
+  /**
+   * @return every metric recorded so far, in the Prometheus text format
+   */
+  public static String scrape() {
+    var out = new StringBuilder();
+    SERIES.forEach((metric, byLabels) -> {
+      if (byLabels.isEmpty()) {
+        return;
+      }
+      var name = metric.getMetricName();
+      out.append("# HELP ").append(name).append(' ').append(metric.getHelp()).append('\n');
+      out.append("# TYPE ").append(name).append(metric.isHistogram() ? " histogram\n" : " counter\n");
+      // sorted, so that two scrapes can be diffed
+      byLabels.entrySet().stream()
+          .sorted(comparing(e -> String.join("\u0000", e.getKey())))
+          .forEach(e -> {
+            var labelValues = e.getKey();
+            var series = e.getValue();
+            var labels = labels(metric.getLabelNames(), labelValues, null);
+            if (!metric.isHistogram()) {
+              out.append(name).append(labels).append(' ').append(series.count.sum()).append('\n');
+              return;
+            }
+            var cumulative = 0L;
+            for (var i = 0; i <= BUCKETS.length; i++) {
+              cumulative += series.buckets[i].sum();
+              var le = i < BUCKETS.length ? Double.toString(BUCKETS[i]) : "+Inf";
+              out.append(name).append("_bucket").append(labels(metric.getLabelNames(), labelValues, le))
+                  .append(' ').append(cumulative).append('\n');
+            }
+            out.append(name).append("_sum").append(labels).append(' ').append(series.sum.sum()).append('\n');
+            out.append(name).append("_count").append(labels).append(' ').append(series.count.sum()).append('\n');
+          });
+    });
+    return out.toString();
+  }
+
+  /**
+   * Replaces {@code path} with {@link #scrape()} at once (temp file, atomic rename): a collector never reads half a
+   * file.
+   */
+  public static void writeTo(Path path) throws IOException {
+    var tmp = path.resolveSibling(path.getFileName() + ".tmp");
+    Files.writeString(tmp, scrape(), UTF_8);
+    Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+  }
+
+  /**
+   * Forgets every series, e.g. between tests.
+   */
+  public static void clear() {
+    SERIES.values().forEach(Map::clear);
+  }
+
+  private static String labels(List<String> names, List<String> values, String le) {
+    if (names.isEmpty() && le == null) {
+      return "";
+    }
+    var out = new StringBuilder("{");
+    for (var i = 0; i < names.size(); i++) {
+      out.append(i == 0 ? "" : ",").append(names.get(i)).append("=\"").append(escape(values.get(i))).append('"');
+    }
+    if (le != null) {
+      out.append(names.isEmpty() ? "" : ",").append("le=\"").append(le).append('"');
+    }
+    return out.append('}').toString();
+  }
+
+  private static String escape(String value) {
+    return value.replace("\\", "\\\\").replace("\"", "\\\"").replace("\n", "\\n");
+  }
+
+  private static class Series {
+    private final LongAdder count = new LongAdder();
+    private final DoubleAdder sum = new DoubleAdder();
+    private final LongAdder[] buckets;
+
+    Series(boolean isHistogram) {
+      buckets = new LongAdder[isHistogram ? BUCKETS.length + 1 : 0];
+      for (var i = 0; i < buckets.length; i++) {
+        buckets[i] = new LongAdder();
+      }
+    }
+  }
+
+}
@@ -0,0 +1,63 @@
+package maxipool.getcandleshistoricalbatch.common.metrics;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+/**
+ * Writes {@link Metrics} to {@code app.metrics-file-path} every {@code app.metrics-export-interval}, for the modes
+ * that keep running, and once more when the application stops. Nothing is written when the path is not set.
+ */
+@Slf4j
+@Component
+public class MetricsFileExporter {
+
+  @Value("${app.metrics-file-path:}")
+  private String metricsFilePath;
+
+  @Value("${app.metrics-export-interval:1m}")
+  private Duration interval;
+
+  private ScheduledExecutorService scheduler;
+
+  @PostConstruct
+  void start() {
+    if (metricsFilePath.isBlank()) {
+      return;
+    }
+    scheduler = Executors.newSingleThreadScheduledExecutor(Thread.ofPlatform().name("metrics-export").daemon().factory());
+    scheduler.scheduleWithFixedDelay(this::export, interval.toMillis(), interval.toMillis(), MILLISECONDS);
+  }
+
+  @PreDestroy
+  void stop() {
+    if (scheduler != null) {
+      scheduler.shutdownNow();
+      export();
+    }
+  }
+
+  private void export() {
+    var path = Path.of(metricsFilePath);
+    try {
+      if (path.getParent() != null) {
+        Files.createDirectories(path.getParent());
+      }
+      Metrics.writeTo(path);
+    } catch (IOException e) {
+      log.warn("Cannot write the metrics to {}", path, e);
+    }
+  }
+
+}
@@ -0,0 +1,299 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.BackfillProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayDeque;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.time.ZoneOffset.UTC;
+import static java.time.temporal.ChronoUnit.SECONDS;
+import static java.util.Comparator.comparing;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.NOT_PARSED;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.startOfMonth;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.yearMonth;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.*;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.model.Rfc3339.YMDHMS_FORMATTER;
+
+/**
+ * Walks back in time, one {@link CandlestickService#MAX_CANDLE_COUNT_OANDA_API} window at a time, from the oldest
+ * monthly file of each instrument/granularity (or from now when there is none) until the first candle of the
+ * instrument or {@link BackfillProperties#earliest()}.
+ * <br />
+ * A month is only written once the walk has gone past its first day, so the oldest file on disk is always complete
+ * and its first candle is where the next run resumes. Months are written through the {@link MonthlyFileWriter}, in
+ * every format of {@code candlestick.formats}; the oldest file is looked up in the primary format.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class BackfillService {
+  private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
+  private static final int DEFAULT_PARALLELISM = 8;
+  private static final int DEFAULT_WINDOW_LOOKAHEAD = 2;
+  private static final int DEFAULT_MAX_EMPTY_WINDOWS = 10;
+  private static final LocalDate DEFAULT_EARLIEST = LocalDate.of(2005, 1, 1);
+  private static final AtomicInteger PROGRESS = new AtomicInteger(0);
+
+  private final InstrumentsService instrumentsService;
+  private final OandaRestResource oandaRestResource;
+  private final V20Properties v20Properties;
+  private final IgTaskRunner igTaskRunner;
+  private final StoreManifest storeManifest;
+  private final MonthlyFileWriter monthlyFileWriter;
+
+  public boolean backfill() {
+    var instruments = instrumentsService.findAll();
+    var igs = instruments
+        .stream()
+        .map(i -> i.getName().toString())
+        .flatMap(i -> fetchedGranularities(v20Properties.candlestick()).stream().map(g -> new IG(i, g)))
+        .toList();
+    log.info("Backfilling {} instrument/granularity pairs", igs.size());
+
+    var parallelism = ofNullable(backfillProperties().parallelism()).orElse(DEFAULT_PARALLELISM);
+    var lookahead = ofNullable(backfillProperties().windowLookahead()).orElse(DEFAULT_WINDOW_LOOKAHEAD);
+    // no timeout: backfilling a single instrument/granularity can take hours
+    try (var windowExecutor = igTaskRunner.newExecutor(parallelism * Math.max(1, lookahead))) {
+      var failedIgs = igTaskRunner
+          .runAll(igs, ig -> backfill(ig, windowExecutor), parallelism, null, (ig, ok) -> logProgress(igs.size()))
+          .entrySet().stream()
+          .filter(e -> !e.getValue())
+          .map(e -> e.getKey().toString())
+          .toList();
+      storeManifest.flush();
+
+      if (!failedIgs.isEmpty()) {
+        logToFile("As of %s%nBackfill incomplete for: %s".formatted(ZonedDateTime.now(ZONE_TORONTO), failedIgs));
+        return false;
+      }
+      logToFile("As of %s%nBackfill complete".formatted(ZonedDateTime.now(ZONE_TORONTO)));
+      return true;
+    }
+  }
+
+  private static void logProgress(int total) {
+    var count = PROGRESS.incrementAndGet();
+    if (count % 25 == 0) {
+      log.info("{}/{} instrument/granularity pairs backfilled", count, total);
+    }
+  }
+
+  private boolean backfill(IG ig, ExecutorService windowExecutor) {
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), ig.instrument(), ig.granularity().toString());
+    try {
+      return backfill(ig, subDir, windowExecutor);
+    } finally {
+      // prepending to the latest file changes it behind the manifest
+      storeManifest.removeIfStale(ig, subDir);
+    }
+  }
+
+  private boolean backfill(IG ig, Path subDir, ExecutorService windowExecutor) {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+    var format = monthlyFileWriter.primaryFormat();
+
+    try {
+      Files.createDirectories(subDir);
+    } catch (IOException e) {
+      log.warn("Cannot create directory '{}'", subDir, e);
+      return false;
+    }
+
+    var resumeFrom = getOldestFile(subDir, instrument, granularity, format)
+        .flatMap(file -> getFirstCandleTime(file, format))
+        .orElseGet(() -> Instant.now().minus(10, SECONDS));
+    var earliest = ofNullable(backfillProperties().earliest()).orElse(DEFAULT_EARLIEST).atStartOfDay(UTC).toInstant();
+    if (!resumeFrom.isAfter(earliest)) {
+      log.info("Nothing to backfill for {}; already starts at {}", ig, resumeFrom);
+      return true;
+    }
+
+    var windowSeconds = granularityToSeconds(ig.granularity()) * MAX_CANDLE_COUNT_OANDA_API;
+    var lookahead = Math.max(1, ofNullable(backfillProperties().windowLookahead()).orElse(DEFAULT_WINDOW_LOOKAHEAD));
+    var maxEmptyWindows = ofNullable(backfillProperties().maxEmptyWindows()).orElse(DEFAULT_MAX_EMPTY_WINDOWS);
+
+    // windows are requested newest first; `nextTo` is the `to` of the next window to request
+    var windows = new ArrayDeque<Window>();
+    var nextTo = resumeFrom;
+    var month = new MonthAccumulator(ig, subDir, monthlyFileWriter);
+    var emptyWindows = 0;
+
+    while (true) {
+      while (windows.size() < lookahead && nextTo.isAfter(earliest)) {
+        var to = nextTo;
+        var from = to.minusSeconds(windowSeconds).isBefore(earliest) ? earliest : to.minusSeconds(windowSeconds);
+        var candles = supplyAsync(() -> oandaRestResource.getCandleBlockFromTo(
+            instrument, ig.granularity(), YMDHMS_FORMATTER.format(from), YMDHMS_FORMATTER.format(to)), windowExecutor);
+        windows.add(new Window(from.getEpochSecond(), to.getEpochSecond(), candles));
+        nextTo = from;
+      }
+      if (windows.isEmpty()) {
+        log.info("Backfill of {} reached {}", ig, earliest);
+        break;
+      }
+
+      var window = windows.poll();
+      var response = (CandleBlock) null;
+      try {
+        response = window.candles().join();
+      } catch (Exception e) {
+        windows.forEach(Window::cancel);
+        var msg = "%nError while backfilling %s before %s".formatted(ig, month.oldest());
+        log.error(msg, e);
+        logToFile(msg);
+        return false;
+      }
+
+      // both ends are inclusive on Oanda's side: the candle at `from` is left to the next, older, window
+      var candles = new CandleBlock(Math.max(1, response.size()));
+      for (var i = 0; i < response.size(); i++) {
+        if (response.complete(i) && window.contains(response.time(i))) {
+          candles.add(response, i);
+        }
+      }
+      if (candles.isEmpty()) {
+        if (++emptyWindows >= maxEmptyWindows) {
+          log.info("Backfill of {} found no candle before {}", ig, month.oldest());
+          windows.forEach(Window::cancel);
+          break;
+        }
+        continue;
+      }
+      emptyWindows = 0;
+
+      try {
+        for (var i = candles.size() - 1; i >= 0; i--) {
+          month.prepend(candles, i);
+        }
+      } catch (IOException e) {
+        windows.forEach(Window::cancel);
+        log.error("Failed writing backfilled candles for {}", ig, e);
+        return false;
+      }
+    }
+
+    try {
+      month.flush();
+      return true;
+    } catch (IOException e) {
+      log.error("Failed writing backfilled candles for {}", ig, e);
+      return false;
+    }
+  }
+
+  /**
+   * One request of the walk back, covering {@code [from, to)} in epoch seconds.
+   */
+  private record Window(long from, long to, CompletableFuture<CandleBlock> candles) {
+    boolean contains(long epochSecond) {
+      return epochSecond >= from && epochSecond < to;
+    }
+
+    void cancel() {
+      candles.cancel(true);
+    }
+  }
+
+  private BackfillProperties backfillProperties() {
+    return ofNullable(v20Properties.candlestick().backfill()).orElseGet(() -> BackfillProperties.builder().build());
+  }
+
+  private static Optional<Path> getOldestFile(Path subDir, String instrument, String granularity,
+                                             EStoreFormat format) {
+    try (var files = Files.list(subDir)) {
+      return files
+          .filter(Files::isRegularFile)
+          .filter(path -> isMatchingFile(path, instrument, granularity, format))
+          .min(comparing(p -> parseYearMonthFromFilename(p.getFileName().toString())));
+    } catch (IOException e) {
+      log.warn("IOException", e);
+      return Optional.empty();
+    }
+  }
+
+  private static Optional<Instant> getFirstCandleTime(Path file, EStoreFormat format) {
+    try {
+      var time = switch (format) {
+        case CSV -> CsvCandleParser.firstCandleTime(file);
+        case BIN -> CandleBinFile.firstCandleTime(file);
+        case GORILLA -> throw new IllegalStateException("GORILLA files are only written by the COMPRESS mode");
+      };
+      return time == NOT_PARSED ? Optional.empty() : Optional.of(Instant.ofEpochSecond(time));
+    } catch (IOException e) {
+      log.warn("Cannot read first candle of {}", file, e);
+      return Optional.empty();
+    }
+  }
+
+  /**
+   * Collects the candles of one month, newest to oldest, and writes the month once a candle of an older month shows
+   * up. The oldest existing file only holds the end of its month; it is rewritten with the older candles in front.
+   */
+  @RequiredArgsConstructor
+  private static class MonthAccumulator {
+    private final IG ig;
+    private final Path subDir;
+    private final MonthlyFileWriter monthlyFileWriter;
+
+    private final CandleBlock newestFirst = new CandleBlock();
+    private YearMonth yearMonth;
+    private long monthStart = Long.MAX_VALUE;
+    private long monthEnd = Long.MIN_VALUE;
+
+    /**
+     * Adds candle {@code i} of {@code candles}.
+     */
+    void prepend(CandleBlock candles, int i) throws IOException {
+      var time = candles.time(i);
+      if (time < monthStart || time >= monthEnd) {
+        flush();
+        yearMonth = yearMonth(time);
+        monthStart = startOfMonth(yearMonth);
+        monthEnd = startOfMonth(yearMonth.plusMonths(1));
+      }
+      newestFirst.add(candles, i);
+    }
+
+    Instant oldest() {
+      return newestFirst.isEmpty() ? null : Instant.ofEpochSecond(newestFirst.lastTime());
+    }
+
+    void flush() throws IOException {
+      if (newestFirst.isEmpty()) {
+        return;
+      }
+      // the existing candles are all newer than the backfilled ones
+      var primaryFile = monthlyFileWriter.prepend(ig, subDir, yearMonth, newestFirst.reversed());
+      log.info("Backfilled {} candles into {}", newestFirst.size(), primaryFile.getFileName());
+      newestFirst.clear();
+    }
+  }
+
+}
@@ -0,0 +1,71 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor;
+
+/**
+ * One virtual thread per task, of which at most {@code parallelism} run at the same time: the others wait on a
+ * {@link Semaphore}, in their own virtual thread, so submitting never blocks.
+ */
+class BoundedVirtualExecutor extends AbstractExecutorService {
+
+  private final ExecutorService delegate = newVirtualThreadPerTaskExecutor();
+  private final Semaphore permits;
+
+  BoundedVirtualExecutor(int parallelism) {
+    permits = new Semaphore(Math.max(1, parallelism));
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    delegate.execute(() -> {
+      try {
+        permits.acquire();
+      } catch (InterruptedException e) {
+        // interrupted while waiting, e.g. by shutdownNow: the task never runs, and its future must not wait for it
+        if (command instanceof Future<?> future) {
+          future.cancel(false);
+        }
+        Thread.currentThread().interrupt();
+        return;
+      }
+      try {
+        command.run();
+      } finally {
+        permits.release();
+      }
+    });
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    return delegate.shutdownNow();
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+}
@@ -0,0 +1,318 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.oanda.v20.primitives.Instrument;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.aggregate.CandleAggregator;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.ManifestEntry;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.M1;
+import static com.oanda.v20.instrument.CandlestickGranularity.M15;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.startOfMonth;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.yearMonth;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.MAX_CANDLE_COUNT_OANDA_API;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.findLatestFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.granularityToSeconds;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.parseYearMonthFromFilename;
+
+/**
+ * Builds the {@code candlestick.derivedGranularities} from the M1 files, so that Oanda is only asked for M1 candles.
+ * <br />
+ * Each derived instrument/granularity resumes after its last candle and goes as far as its M1 files: only the candles
+ * that are over are written, the last one waits for the next run. The months are written like fetched ones, in every
+ * format, and the {@link StoreManifest} tracks them the same way.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class CandleAggregationService {
+  private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
+  private static final int MAX_LOGGED_DIFFERENCES = 5;
+
+  private final V20Properties v20Properties;
+  private final StoreManifest storeManifest;
+  private final MonthlyFileWriter monthlyFileWriter;
+  private final CandleStore candleStore;
+  private final IgTaskRunner igTaskRunner;
+  private final OandaRestResource oandaRestResource;
+  private final InstrumentsService instrumentsService;
+
+  /**
+   * @return the result of each derived instrument/granularity; empty if none is configured
+   */
+  public Map<IG, Boolean> derive(List<Instrument> instruments) {
+    var granularities = v20Properties.candlestick().derivedGranularities().stream().sorted().toList();
+    if (granularities.isEmpty()) {
+      return Map.of();
+    }
+    var igs = instruments
+        .stream()
+        .map(i -> i.getName().toString())
+        .flatMap(i -> granularities.stream().map(g -> new IG(i, g)))
+        .toList();
+    log.info("Deriving {} instrument/granularity pairs from M1", igs.size());
+    // disk and CPU bound; no point in more threads than cores
+    var results = igTaskRunner.runAll(igs, this::derive, Runtime.getRuntime().availableProcessors(), null, (ig, ok) -> {
+    });
+    storeManifest.flush();
+    return results;
+  }
+
+  /**
+   * Derives every {@code candlestick.derivedGranularities} of one instrument, e.g. after the {@link DaemonService}
+   * updated its M1 candles.
+   */
+  public boolean derive(String instrument) {
+    return derive(instrument, null);
+  }
+
+  /**
+   * @param until derive no further than that, e.g. where the M1 candles built from the pricing stream were last
+   *              reconciled with Oanda's; null for as far as the M1 files go
+   */
+  public boolean derive(String instrument, @Nullable Instant until) {
+    var isSuccess = true;
+    for (var granularity : v20Properties.candlestick().derivedGranularities()) {
+      isSuccess &= derive(new IG(instrument, granularity), until);
+    }
+    return isSuccess;
+  }
+
+  /**
+   * Derives one instrument/granularity as far as its M1 files go, e.g. when it is retried after a failure.
+   */
+  public boolean derive(IG ig) {
+    return derive(ig, null);
+  }
+
+  private boolean derive(IG ig, @Nullable Instant until) {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+    var m1 = storeManifest.get(new IG(instrument, M1));
+    if (m1.isEmpty()) {
+      log.info("No M1 candles known for {}; not deriving {}", instrument, granularity);
+      return true;
+    }
+    var completeBefore = m1.get().lastCandleTime().getEpochSecond() + 60;
+    if (until != null) {
+      completeBefore = Math.min(completeBefore, until.getEpochSecond());
+    }
+
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), instrument, granularity);
+    var known = Optional.<ManifestEntry>empty();
+    try {
+      Files.createDirectories(subDir);
+      known = findLast(ig, subDir);
+    } catch (IOException e) {
+      log.warn("Cannot read the {} files of {}", granularity, instrument, e);
+      return false;
+    }
+
+    var aggregator = new CandleAggregator(ig.granularity(), completeBefore);
+    var from = known.map(e -> aggregator.bucketEnd(e.lastCandleTime().getEpochSecond())).orElse(0L);
+    if (from >= completeBefore) {
+      return true;
+    }
+
+    var months = new MonthAccumulator(ig, subDir, known.orElse(null));
+    try (var m1Blocks = candleStore.read(
+        instrument, M1, Instant.ofEpochSecond(from), Instant.ofEpochSecond(completeBefore))) {
+      for (var it = m1Blocks.iterator(); it.hasNext(); ) {
+        aggregator.accept(it.next());
+        months.add(aggregator.drain());
+      }
+      months.add(aggregator.finish());
+      months.flush();
+    } catch (IOException | UncheckedIOException e) {
+      log.error("Failed deriving {}", ig, e);
+      storeManifest.remove(ig);
+      return false;
+    }
+    if (months.latest != null) {
+      storeManifest.put(ig, months.latest);
+    }
+    return true;
+  }
+
+  /**
+   * @return the manifest entry of the latest file of {@code ig}, from the manifest or by scanning the file
+   */
+  private Optional<ManifestEntry> findLast(IG ig, Path subDir) throws IOException {
+    var extension = "." + monthlyFileWriter.primaryFormat().getExtension();
+    var known = storeManifest
+        .get(ig)
+        .filter(e -> e.latestFile().endsWith(extension))
+        .flatMap(e -> storeManifest.getIfCurrent(ig, subDir.resolve(e.latestFile())));
+    if (known.isPresent()) {
+      return known;
+    }
+    var latestFile = findLatestFile(
+        subDir, ig.instrument(), ig.granularity().toString(), monthlyFileWriter.primaryFormat());
+    return latestFile.isEmpty() ? Optional.empty() : StoreManifest.scan(latestFile.get());
+  }
+
+  /**
+   * Compares, for every instrument, the last {@link CandlestickService#MAX_CANDLE_COUNT_OANDA_API} M15 candles served by
+   * Oanda with the ones built from the M1 files.
+   *
+   * @return true if they are all the same
+   */
+  public boolean validate() {
+    var igs = instrumentsService.findAll()
+        .stream()
+        .map(i -> new IG(i.getName().toString(), M15))
+        .toList();
+    log.info("Validating the M15 candles built from M1 for {} instruments", igs.size());
+    var failedIgs = igTaskRunner
+        .runAll(igs, this::validate, Runtime.getRuntime().availableProcessors(), null, (ig, ok) -> {
+        })
+        .entrySet().stream()
+        .filter(e -> !e.getValue())
+        .map(e -> e.getKey().toString())
+        .toList();
+
+    if (!failedIgs.isEmpty()) {
+      logToFile("As of %s%nDerived candles differ from Oanda's for: %s"
+          .formatted(ZonedDateTime.now(ZONE_TORONTO), failedIgs));
+      return false;
+    }
+    logToFile("As of %s%nDerived candles are the same as Oanda's".formatted(ZonedDateTime.now(ZONE_TORONTO)));
+    return true;
+  }
+
+  private boolean validate(IG ig) {
+    var served = new CandleBlock();
+    try {
+      var response = oandaRestResource.getCandleBlockWithCount(ig.instrument(), M15, MAX_CANDLE_COUNT_OANDA_API);
+      for (var i = 0; i < response.size(); i++) {
+        if (response.complete(i)) {
+          served.add(response, i);
+        }
+      }
+    } catch (Exception e) {
+      log.error("Error while trying to get M15 candles for {}", ig.instrument(), e);
+      return false;
+    }
+    if (served.isEmpty()) {
+      return true;
+    }
+
+    var to = served.time(served.size() - 1) + granularityToSeconds(M15);
+    var aggregator = new CandleAggregator(M15, to);
+    var built = new CandleBlock();
+    try (var m1Blocks = candleStore.read(
+        ig.instrument(), M1, Instant.ofEpochSecond(served.time(0)), Instant.ofEpochSecond(to))) {
+      m1Blocks.forEach(block -> {
+        aggregator.accept(block);
+        built.addAll(aggregator.drain());
+      });
+      built.addAll(aggregator.finish());
+    } catch (IOException | UncheckedIOException e) {
+      log.error("Cannot read the M1 candles of {}", ig.instrument(), e);
+      return false;
+    }
+
+    return compare(ig, served, built);
+  }
+
+  private static boolean compare(IG ig, CandleBlock served, CandleBlock built) {
+    var builtByTime = new HashMap<Long, Integer>();
+    for (var i = 0; i < built.size(); i++) {
+      builtByTime.put(built.time(i), i);
+    }
+    var differences = new ArrayList<String>();
+    var missing = 0;
+    for (var i = 0; i < served.size(); i++) {
+      var j = builtByTime.remove(served.time(i));
+      if (j == null) {
+        missing++;
+      } else if (served.open(i) != built.open(j) || served.high(i) != built.high(j) || served.low(i) != built.low(j)
+          || served.close(i) != built.close(j) || served.volume(i) != built.volume(j)) {
+        differences.add("%s served %s built %s".formatted(
+            Instant.ofEpochSecond(served.time(i)), served.toCsvCandle(i), built.toCsvCandle(j)));
+      }
+    }
+    var extra = builtByTime.size();
+    if (missing == 0 && extra == 0 && differences.isEmpty()) {
+      log.info("{}: the {} candles built from M1 are the same as Oanda's", ig, served.size());
+      return true;
+    }
+    var msg = "%s: %d of %d candles differ, %d missing, %d extra; e.g. %s".formatted(ig, differences.size(),
+        served.size(), missing, extra, differences.stream().limit(MAX_LOGGED_DIFFERENCES).toList());
+    log.warn(msg);
+    logToFile(msg);
+    return false;
+  }
+
+  /**
+   * Collects the derived candles of one month and writes them once a candle of the next month shows up.
+   */
+  private class MonthAccumulator {
+    private final IG ig;
+    private final Path subDir;
+    @Nullable
+    private ManifestEntry latest;
+
+    private final CandleBlock candles = new CandleBlock();
+    private YearMonth yearMonth;
+    private long monthStart = Long.MAX_VALUE;
+    private long monthEnd = Long.MIN_VALUE;
+
+    MonthAccumulator(IG ig, Path subDir, @Nullable ManifestEntry latest) {
+      this.ig = ig;
+      this.subDir = subDir;
+      this.latest = latest;
+    }
+
+    void add(CandleBlock block) throws IOException {
+      for (var i = 0; i < block.size(); i++) {
+        var time = block.time(i);
+        if (time < monthStart || time >= monthEnd) {
+          flush();
+          yearMonth = yearMonth(time);
+          monthStart = startOfMonth(yearMonth);
+          monthEnd = startOfMonth(yearMonth.plusMonths(1));
+        }
+        candles.add(block, i);
+      }
+    }
+
+    void flush() throws IOException {
+      if (candles.isEmpty()) {
+        return;
+      }
+      var isLatestFile = latest != null && parseYearMonthFromFilename(latest.latestFile()).equals(yearMonth);
+      var written = monthlyFileWriter.write(
+          ig, subDir, yearMonth, candles, isLatestFile ? latest.lastCandleTime() : null);
+      latest = written.isRewritten()
+          ? StoreManifest.scan(written.primaryFile()).orElse(null)
+          : StoreManifest.describe(written.primaryFile(), Instant.ofEpochSecond(candles.lastTime()),
+          isLatestFile ? latest.rowCountAfter(candles.size()) : candles.size());
+      candles.clear();
+    }
+  }
+
+}
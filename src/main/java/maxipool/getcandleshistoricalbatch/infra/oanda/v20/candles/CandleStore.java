@@ -0,0 +1,136 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleGorillaFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.stream.Stream;
+
+import static java.time.ZoneOffset.UTC;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.isMatchingFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.parseYearMonthFromFilename;
+
+/**
+ * Reads the candles of a time range back from the monthly files.
+ * <br />
+ * The months come from the file names; each month is read from its BIN file if there is one, else from its GORILLA
+ * file, else from its CSV file. Files are memory-mapped and only the part of the range is read: block headers and a
+ * binary search of the time column for BIN, frame headers for GORILLA, a binary search over byte offsets for CSV.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class CandleStore {
+  // BIN is not compressed and is rewritten by the batch, so it wins over a GORILLA file of the same month
+  private static final List<EStoreFormat> READ_PREFERENCE =
+      List.of(EStoreFormat.BIN, EStoreFormat.GORILLA, EStoreFormat.CSV);
+
+  private final V20Properties v20Properties;
+
+  /**
+   * Streams the candles of {@code [from, to)} in time order, a chunk at a time; nothing is read before the stream is
+   * consumed, and only one chunk is held at a time.
+   *
+   * @throws UncheckedIOException from the stream if a file cannot be read
+   */
+  public Stream<CandleBlock> read(String instrument, CandlestickGranularity granularity, Instant from, Instant to)
+      throws IOException {
+    return findMonthFiles(instrument, granularity, from, to)
+        .values().stream()
+        .flatMap(path -> readMonth(path, from, to));
+  }
+
+  /**
+   * Reads the months of {@code [from, to)} in parallel into one block, in time order.
+   */
+  public CandleBlock readAll(String instrument, CandlestickGranularity granularity, Instant from, Instant to)
+      throws IOException {
+    var months = findMonthFiles(instrument, granularity, from, to)
+        .values().parallelStream()
+        .map(path -> {
+          var month = new CandleBlock();
+          readMonth(path, from, to).forEach(month::addAll);
+          return month;
+        })
+        .toList();
+    var out = new CandleBlock(Math.max(1, months.stream().mapToInt(CandleBlock::size).sum()));
+    months.forEach(out::addAll);
+    return out;
+  }
+
+  /**
+   * @return the file to read for each month that overlaps {@code [from, to)}, by month
+   */
+  private Map<YearMonth, Path> findMonthFiles(
+      String instrument, CandlestickGranularity granularity, Instant from, Instant to) throws IOException {
+    var months = new TreeMap<YearMonth, Path>();
+    if (!from.isBefore(to)) {
+      return months;
+    }
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), instrument, granularity.toString());
+    if (!Files.isDirectory(subDir)) {
+      return months;
+    }
+    var first = YearMonth.from(from.atZone(UTC));
+    var last = YearMonth.from(to.minusSeconds(1).atZone(UTC));
+    try (var files = Files.list(subDir)) {
+      files
+          .filter(Files::isRegularFile)
+          .filter(path -> formatOf(path, instrument, granularity.toString()) != null)
+          .forEach(path -> {
+            var ym = parseYearMonthFromFilename(path.getFileName().toString());
+            if (!ym.isBefore(first) && !ym.isAfter(last)) {
+              months.merge(ym, path, (a, b) -> preference(a) <= preference(b) ? a : b);
+            }
+          });
+    }
+    return months;
+  }
+
+  private static EStoreFormat formatOf(Path path, String instrument, String granularity) {
+    for (var format : READ_PREFERENCE) {
+      if (isMatchingFile(path, instrument, granularity, format)) {
+        return format;
+      }
+    }
+    return null;
+  }
+
+  private static int preference(Path path) {
+    var fileName = path.getFileName().toString();
+    return READ_PREFERENCE.indexOf(READ_PREFERENCE.stream()
+        .filter(format -> fileName.endsWith("." + format.getExtension()))
+        .findFirst()
+        .orElseThrow());
+  }
+
+  private static Stream<CandleBlock> readMonth(Path path, Instant from, Instant to) {
+    try {
+      return switch (READ_PREFERENCE.get(preference(path))) {
+        case BIN -> CandleBinFile.stream(path, from.getEpochSecond(), to.getEpochSecond());
+        case GORILLA -> CandleGorillaFile.stream(path, from.getEpochSecond(), to.getEpochSecond());
+        case CSV -> CsvCandleParser.stream(path, from.getEpochSecond(), to.getEpochSecond());
+      };
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+}
@@ -3,6 +3,7 @@ package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
 import com.oanda.v20.instrument.Candlestick;
 import com.oanda.v20.pricing_common.PriceValue;
 import com.oanda.v20.primitives.DateTime;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
 import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
 import org.mapstruct.Mapper;
 import org.mapstruct.Mapping;
@@ -11,6 +12,7 @@ import org.mapstruct.Named;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.List;
 
 import static org.mapstruct.MappingConstants.ComponentModel.SPRING;
 
@@ -28,6 +30,30 @@ public interface CandlestickMapper {
   @Mapping(target = "time", source = "time", qualifiedByName = RFC3339_IN_SECONDS)
   CsvCandle oandaCandleToCsvCandle(Candlestick candlestick);
 
+  /**
+   * Same mapping as {@link #oandaCandleToCsvCandle(Candlestick)}, appended to {@code block} as primitives instead of
+   * a {@link CsvCandle} of boxed fields.
+   */
+  default void addTo(CandleBlock block, Candlestick candlestick) {
+    var mid = candlestick.getMid();
+    block.add(
+        Instant.parse(candlestick.getTime().toString()).getEpochSecond(),
+        mid.getO().doubleValue(),
+        mid.getH().doubleValue(),
+        mid.getL().doubleValue(),
+        mid.getC().doubleValue(),
+        candlestick.getVolume(),
+        candlestick.getComplete());
+  }
+
+  default CandleBlock oandaCandlesToCandleBlock(List<Candlestick> candlesticks) {
+    var block = new CandleBlock(Math.max(1, candlesticks.size()));
+    for (var candlestick : candlesticks) {
+      addTo(block, candlestick);
+    }
+    return block;
+  }
+
   default Double priceValueToDouble(PriceValue priceValue) {
     return priceValue.doubleValue();
   }
@@ -1,161 +1,363 @@
 package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
 
-import com.oanda.v20.instrument.Candlestick;
 import com.oanda.v20.instrument.CandlestickGranularity;
 import com.oanda.v20.primitives.Instrument;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
-import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
-import maxipool.getcandleshistoricalbatch.common.file.CleanupUtil;
-import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
 import maxipool.getcandleshistoricalbatch.email.EmailService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.ManifestEntry;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.OandaRateLimiter;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry.RetryEntry;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry.RetryQueue;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.model.GetCandlesResponse;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.CandlestickProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RetryProperties;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.lang.Nullable;
 import org.springframework.stereotype.Service;
 
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.time.Duration;
 import java.time.Instant;
 import java.time.YearMonth;
 import java.time.ZoneId;
 import java.time.ZonedDateTime;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Optional;
-import java.util.concurrent.CompletableFuture;
+import java.util.SortedMap;
+import java.util.TreeMap;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
 import java.util.regex.Pattern;
 import java.util.stream.Stream;
 
 import static com.oanda.v20.instrument.CandlestickGranularity.M1;
 import static com.oanda.v20.instrument.CandlestickGranularity.M15;
-import static java.lang.Runtime.getRuntime;
-import static java.time.temporal.ChronoUnit.HOURS;
+import static java.lang.Boolean.TRUE;
 import static java.time.temporal.ChronoUnit.SECONDS;
-import static java.util.Comparator.comparing;
-import static java.util.Map.entry;
 import static java.util.Optional.ofNullable;
-import static java.util.concurrent.CompletableFuture.supplyAsync;
-import static java.util.concurrent.Executors.newFixedThreadPool;
-import static java.util.stream.Collectors.*;
-import static maxipool.getcandleshistoricalbatch.common.csv.CsvUtil.*;
-import static maxipool.getcandleshistoricalbatch.common.file.ReadFileUtil.getLastLineFromCsvCandleFile;
-import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.appendStringToFile;
-import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeToFileThatDoesntExist;
+import static java.util.Comparator.comparing;
+import static java.util.stream.Collectors.toMap;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.startOfMonth;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.yearMonth;
 import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.CANDLES_FETCHED;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.CANDLES_UPDATE_SECONDS;
 import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.model.Rfc3339.YMDHMS_FORMATTER;
 
 @Slf4j
 @Service
 @RequiredArgsConstructor
 public class CandlestickService {
-  private static final int MAX_CANDLE_COUNT_OANDA_API = 5_000;
+  static final int MAX_CANDLE_COUNT_OANDA_API = 5_000;
   private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
-  private static final List<CandlestickGranularity> GRANULARITY_LIST = List.of(M15, M1);
-  private static final Pattern YYYY_MM_REGEXP = Pattern.compile("-(\\d{4})_(\\d{2})\\.csv$");
+  static final List<CandlestickGranularity> GRANULARITY_LIST = List.of(M15, M1);
+  private static final Pattern YYYY_MM_REGEXP = Pattern.compile("-(\\d{4})_(\\d{2})\\.(csv|bin|gor)$");
+  private static final Pattern YYYY_MM = Pattern.compile("\\d{4}_\\d{2}");
   private static final AtomicInteger PROGRESS = new AtomicInteger(0);
+  private static final Duration BATCH_MIN_AGE = Duration.ofHours(1);
+  private static final Duration DEFAULT_MAX_IN_RUN_WAIT = Duration.ofMinutes(2);
 
   private final InstrumentsService instrumentsService;
   private final OandaRestResource oandaRestResource;
-  private final CandlestickMapper candlestickMapper;
   private final V20Properties v20Properties;
   private final EmailService emailService;
+  private final OandaRateLimiter oandaRateLimiter;
+  private final IgTaskRunner igTaskRunner;
+  private final StoreManifest storeManifest;
+  private final MonthlyFileWriter monthlyFileWriter;
+  private final CandleAggregationService candleAggregationService;
+  private final RetryQueue retryQueue;
 
   /**
-   * @param instrument
-   * @param granularity
+   * @return {@link #GRANULARITY_LIST} but the granularities built from M1 candles
    */
-  private record IG(String instrument, CandlestickGranularity granularity) {
-    @Override
-    public String toString() {
-      return "%s-%s".formatted(instrument, granularity);
-    }
+  static List<CandlestickGranularity> fetchedGranularities(CandlestickProperties candlestick) {
+    return GRANULARITY_LIST.stream().filter(g -> !candlestick.derivedGranularities().contains(g)).toList();
   }
 
+  /**
+   * @return every granularity that has monthly files, fetched or derived
+   */
+  static List<CandlestickGranularity> storedGranularities(CandlestickProperties candlestick) {
+    return Stream
+        .concat(GRANULARITY_LIST.stream(), candlestick.derivedGranularities().stream().sorted())
+        .distinct()
+        .toList();
+  }
+
+  /**
+   * Updates every instrument/granularity. Each one is committed on its own: a pair that fails is put in the
+   * {@link RetryQueue} with the candles it misses, and retried in this run if it is due within
+   * {@link RetryProperties#maxInRunWait()}, then by {@link #retryPending()}.
+   *
+   * @return false if a failed pair could not be queued, so that the next run updates every pair again
+   */
   public boolean getOandaHistoricalMarketData() {
+    var runStart = Instant.now();
     var instruments = instrumentsService.findAll();
     log.info("Found {} instruments on Oanda", instruments.size());
 
     var latestFilesByInstrumentAndGranularity = getLatestFilesByInstrumentAndGranularity(instruments);
     var total = latestFilesByInstrumentAndGranularity.size();
 
-    try (var executorService = newFixedThreadPool(getRuntime().availableProcessors())) {
-      var result = latestFilesByInstrumentAndGranularity
-          .entrySet().stream()
-          .map(e -> supplyAsync(() -> e
-                  .getValue()
-                  .map(p -> entry(e.getKey(), handleExistingFile(e.getKey(), p)))
-                  .orElseGet(() -> entry(e.getKey(), handleNoExistingFile(e.getKey()))),
-              executorService))
-          .collect(collectingAndThen(
-              toList(),
-              fs -> fs.stream().map(CompletableFuture::join).map(i -> logProgress(i, total))))
-          .collect(toMap(Entry::getKey, Entry::getValue));
-
-      var failedIgs = result.entrySet().stream().filter(i -> !i.getValue()).map(Entry::getKey).map(IG::toString).toList();
-      if (!failedIgs.isEmpty()) {
-        var msg1 = "As of %s%nFailed to update data for: %s"
-            .formatted(ZonedDateTime.now(ZONE_TORONTO), failedIgs);
-        logToFile(msg1);
-        emailService.sendEmail(msg1);
-        return false;
+    // the rate limiter decides how many requests are in flight; more platform threads than that would only wait on it
+    var result = igTaskRunner.runAll(
+        List.copyOf(latestFilesByInstrumentAndGranularity.keySet()),
+        ig -> timed(ig, () -> latestFilesByInstrumentAndGranularity
+            .get(ig)
+            .map(p -> handleExistingFile(ig, p, BATCH_MIN_AGE))
+            .orElseGet(() -> handleNoExistingFile(ig))),
+        oandaRateLimiter.getMaxConcurrency(),
+        igTaskRunner.getIgTimeout(),
+        (ig, ok) -> logProgress(total));
+    storeManifest.flush();
+
+    // derived from the M1 files just written; an instrument whose M1 update failed is derived up to its last M1 candle
+    var derived = candleAggregationService.derive(instruments);
+
+    var results = new LinkedHashMap<IG, Boolean>(result);
+    results.putAll(derived);
+    var isQueued = queueFailures(results, runStart);
+    results.putAll(retryWithin(ofNullable(retryProperties().maxInRunWait()).orElse(DEFAULT_MAX_IN_RUN_WAIT)));
+
+    var failedIgs = results
+        .entrySet().stream()
+        .filter(i -> !i.getValue())
+        .map(Entry::getKey)
+        .map(IG::toString)
+        .toList();
+    if (!failedIgs.isEmpty()) {
+      var msg1 = "As of %s%nFailed to update data for: %s%nThey will be retried on their own"
+          .formatted(ZonedDateTime.now(ZONE_TORONTO), failedIgs);
+      logToFile(msg1);
+      emailService.sendEmail(msg1);
+      return isQueued;
+    }
+    logToFile("As of %s%nSuccessfully Downloaded Most Recent Candle Data".formatted(ZonedDateTime.now(ZONE_TORONTO)));
+    return true;
+  }
+
+  /**
+   * Retries the pairs of the {@link RetryQueue} that are due, and only them, e.g. when the batch is started again
+   * within the hour of a run that had failures.
+   *
+   * @return true if every retried pair was updated
+   */
+  public boolean retryPending() {
+    var results = retryDue();
+    if (results.isEmpty()) {
+      log.info("No failed instrument/granularity to retry yet; next retry at {}",
+          retryQueue.nextAttemptAt().map(Instant::toString).orElse("none"));
+    }
+    return !results.containsValue(false);
+  }
+
+  /**
+   * Retries the pairs that are due, then waits for the next ones for as long as they are due within {@code maxWait}.
+   *
+   * @return the result of the last retry of each retried pair
+   */
+  private Map<IG, Boolean> retryWithin(Duration maxWait) {
+    var deadline = Instant.now().plus(maxWait);
+    var results = new LinkedHashMap<IG, Boolean>();
+    for (var next = retryQueue.nextAttemptAt(); next.isPresent() && !next.get().isAfter(deadline);
+         next = retryQueue.nextAttemptAt()) {
+      var wait = Duration.between(Instant.now(), next.get());
+      if (wait.isPositive()) {
+        log.info("Waiting {} to retry the failed instrument/granularity pairs", wait);
+        try {
+          Thread.sleep(wait);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      results.putAll(retryDue());
+    }
+    return results;
+  }
+
+  private Map<IG, Boolean> retryDue() {
+    var due = retryQueue.due(Instant.now()).stream().map(RetryEntry::ig).toList();
+    if (due.isEmpty()) {
+      return Map.of();
+    }
+    log.info("Retrying {}", due);
+    var start = Instant.now();
+    var results = igTaskRunner.runAll(
+        due, this::retry, oandaRateLimiter.getMaxConcurrency(), igTaskRunner.getIgTimeout(), (ig, ok) -> {
+        });
+    storeManifest.flush();
+    queueFailures(results, start);
+    return results;
+  }
+
+  /**
+   * A fetched pair is refetched over the window of its {@link RetryEntry}, or updated like in the batch when the start
+   * of that window is not known; once M1 is, the derived granularities of the instrument catch up. A derived pair is
+   * built from its own last candle, whatever its window.
+   */
+  private boolean retry(IG ig) {
+    if (v20Properties.candlestick().derivedGranularities().contains(ig.granularity())) {
+      return candleAggregationService.derive(ig);
+    }
+    var isFetched = retryQueue
+        .get(ig)
+        .filter(e -> e.from() != null)
+        .map(this::refetch)
+        .orElseGet(() -> update(ig));
+    return isFetched && (ig.granularity() != M1 || candleAggregationService.derive(ig.instrument()));
+  }
+
+  /**
+   * Fetches the candles from {@code from} to {@code to}, at most {@link #MAX_CANDLE_COUNT_OANDA_API} at a time, and
+   * appends the ones that come after the last candle of the files; the candles after {@code to} are left to the next
+   * update.
+   */
+  private boolean refetch(RetryEntry entry) {
+    var ig = entry.ig();
+    var step = granularityToSeconds(ig.granularity()) * MAX_CANDLE_COUNT_OANDA_API;
+    log.info("Refetching {} from {} to {}", ig, entry.from(), entry.to());
+    return timed(ig, () -> {
+      for (var from = entry.from(); from.isBefore(entry.to()); from = from.plusSeconds(step)) {
+        var to = from.plusSeconds(step).isBefore(entry.to()) ? from.plusSeconds(step) : entry.to();
+        var response = (CandleBlock) null;
+        try {
+          response = oandaRestResource.getCandleBlockFromTo(
+              ig.instrument(), ig.granularity(), YMDHMS_FORMATTER.format(from), YMDHMS_FORMATTER.format(to));
+        } catch (Exception e) {
+          var msg = "%nError while trying to refetch candles from %s to %s for %s".formatted(from, to, ig);
+          log.error(msg, e);
+          logToFile(msg);
+          return false;
+        }
+        Metrics.count(CANDLES_FETCHED, response.size(), ig.instrument(), ig.granularity().toString());
+        if (!append(ig, response)) {
+          return false;
+        }
       }
-      logToFile("As of %s%nSuccessfully Downloaded Most Recent Candle Data".formatted(ZonedDateTime.now(ZONE_TORONTO)));
       return true;
+    });
+  }
+
+  /**
+   * The pairs that succeeded leave the {@link RetryQueue}; the failed ones are queued with the candles they miss.
+   *
+   * @param start the failed pairs miss the candles up to then
+   * @return false if a failed pair could not be queued
+   */
+  private boolean queueFailures(Map<IG, Boolean> results, Instant start) {
+    var isQueued = true;
+    for (var e : results.entrySet()) {
+      var ig = e.getKey();
+      if (TRUE.equals(e.getValue())) {
+        retryQueue.remove(ig);
+      } else {
+        isQueued &= retryQueue.recordFailure(ig, firstMissingCandleTime(ig), start);
+      }
     }
+    return isQueued;
   }
 
-  private static Entry<IG, Boolean> logProgress(Entry<IG, Boolean> i, int total) {
+  @Nullable
+  private Instant firstMissingCandleTime(IG ig) {
+    return storeManifest
+        .get(ig)
+        .map(e -> e.lastCandleTime().plusSeconds(granularityToSeconds(ig.granularity())))
+        .orElse(null);
+  }
+
+  private RetryProperties retryProperties() {
+    return ofNullable(v20Properties.candlestick().retry()).orElseGet(() -> RetryProperties.builder().build());
+  }
+
+  private static void logProgress(int total) {
     var count = PROGRESS.incrementAndGet();
     if (count % 25 == 0) {
       log.info("{}/{} files processed", count, total);
     }
-    return i;
   }
 
+  /**
+   * The latest files come from the {@link StoreManifest}; only the instrument/granularity pairs it does not know are
+   * looked up in their folder.
+   */
   private Map<IG, Optional<Path>> getLatestFilesByInstrumentAndGranularity(List<Instrument> instruments) {
     return instruments
         .stream()
         .map(i -> i.getName().toString())
-        .flatMap(i -> GRANULARITY_LIST.stream().map(g -> new IG(i, g)))
-        // Convert each instrument into a stream of the matching files in its folder
-        .flatMap(ig -> {
-          var instrument = ig.instrument();
-          var granularity = ig.granularity().toString();
-
-          var subDir = Paths.get(v20Properties.candlestick().outputPath(), instrument, granularity);
-          if (!Files.isDirectory(subDir)) {
-            return Stream.of(entry(ig, Optional.<Path>empty()));
-          }
-
-          try (var files = Files.list(subDir)) {
-            return files
-                .filter(Files::isRegularFile)
-                .filter(path -> isMatchingFile(path, instrument, granularity))
-                .map(path -> entry(ig, Optional.of(path)))
-                .toList()
-                .stream();
-          } catch (IOException e) {
-            log.warn("IOException", e);
-            return Stream.of(entry(ig, Optional.<Path>empty()));
-          }
-        })
-        // pick the latest file by YearMonth from the filename.
-        .collect(groupingBy(
-            Entry::getKey,
-            collectingAndThen(
-                maxBy(comparing(e ->
-                    e.getValue()
-                        .map(p -> parseYearMonthFromFilename(p.getFileName().toString()))
-                        .orElse(YearMonth.of(1900, 1))  // fallback if missing
-                )),
-                optionalEntry -> optionalEntry.flatMap(Entry::getValue)
-            )
-        ));
+        .flatMap(i -> fetchedGranularities(v20Properties.candlestick()).stream().map(g -> new IG(i, g)))
+        .collect(toMap(ig -> ig, this::findLatestKnownFile));
+  }
+
+  private Optional<Path> findLatestKnownFile(IG ig) {
+    return storeManifest
+        .get(ig)
+        .filter(e -> e.latestFile().endsWith("." + monthlyFileWriter.primaryFormat().getExtension()))
+        .map(e -> subDir(ig).resolve(e.latestFile()))
+        .or(() -> findLatestFile(ig));
+  }
+
+  /**
+   * Updates a single instrument/granularity as soon as its next candle is complete, e.g. from the
+   * {@link DaemonService}; derived granularities are not updated.
+   */
+  public boolean update(IG ig) {
+    return timed(ig, () -> findLatestKnownFile(ig)
+        .map(p -> handleExistingFile(ig, p, Duration.ZERO))
+        .orElseGet(() -> handleNoExistingFile(ig)));
+  }
+
+  private static boolean timed(IG ig, BooleanSupplier update) {
+    var start = System.nanoTime();
+    var isSuccess = false;
+    try {
+      isSuccess = update.getAsBoolean();
+      return isSuccess;
+    } finally {
+      Metrics.recordNanos(CANDLES_UPDATE_SECONDS, System.nanoTime() - start,
+          ig.granularity().toString(), isSuccess ? "success" : "failure");
+    }
+  }
+
+  private Path subDir(IG ig) {
+    return Paths.get(v20Properties.candlestick().outputPath(), ig.instrument(), ig.granularity().toString());
+  }
+
+  /**
+   * Lists the folder of {@code ig} and picks the latest file by the YearMonth of its name.
+   */
+  private Optional<Path> findLatestFile(IG ig) {
+    return findLatestFile(subDir(ig), ig.instrument(), ig.granularity().toString(), monthlyFileWriter.primaryFormat());
+  }
+
+  static Optional<Path> findLatestFile(Path subDir, String instrument, String granularity, EStoreFormat format) {
+    if (!Files.isDirectory(subDir)) {
+      return Optional.empty();
+    }
+
+    try (var files = Files.list(subDir)) {
+      return files
+          .filter(Files::isRegularFile)
+          .filter(path -> isMatchingFile(path, instrument, granularity, format))
+          .max(comparing(p -> parseYearMonthFromFilename(p.getFileName().toString())));
+    } catch (IOException e) {
+      log.warn("IOException", e);
+      return Optional.empty();
+    }
   }
 
   /**
@@ -174,75 +376,108 @@ public class CandlestickService {
       return false;
     }
 
-    var response = (GetCandlesResponse) null;
+    var response = (CandleBlock) null;
     try {
-      response = oandaRestResource.getCandlesWithCount(instrument, ig.granularity(), MAX_CANDLE_COUNT_OANDA_API);
+      response = oandaRestResource.getCandleBlockWithCount(instrument, ig.granularity(), MAX_CANDLE_COUNT_OANDA_API);
     } catch (Exception e) {
       var msg = "%nError while trying to get candles from COUNT for %s".formatted(instrument);
       log.error(msg);
       logToFile(msg);
       return false;
     }
+    Metrics.count(CANDLES_FETCHED, response.size(), instrument, granularity);
     var candlesByYM = getCandlesByYM(response, Instant.EPOCH);
 
-    // Write each group to <instrument>_<granularity>_YYYY_MM.csv
-    return candlesByYM
-        .entrySet().stream()
-        .map(e -> {
-          var filename = String.format("%s_%s_%04d_%02d.csv",
-              instrument, granularity, e.getKey().getYear(), e.getKey().getMonthValue());
-          var outPath = subDir.resolve(filename);
-          try {
-            writeToFileThatDoesntExist(outPath, candlesToCsvWithHeader(e.getValue()));
-
-            CleanupUtil.cleanup(filename, outPath);
-            CopyFileUtil.copyToSecondDisk(
-                outPath,
-                v20Properties.candlestick().copyOutputPath(),
-                instrument,
-                granularity,
-                filename);
-            return true;
-          } catch (IOException ioException) {
-            log.warn("Error while appending candles to file: {}", filename, ioException);
-            return false;
-          }
-        })
-        .reduce(true, (acc, next) -> acc && next);
-  }
-
-  private Map<YearMonth, List<CsvCandle>> getCandlesByYM(GetCandlesResponse response, Instant lastTime) {
-    return response
-        .getCandles().stream()
-        .filter(c -> Instant.parse(c.getTime()).isAfter(lastTime.minusSeconds(3600)))
-        .filter(Candlestick::getComplete)
-        .map(candlestickMapper::oandaCandleToCsvCandle)
-        .collect(groupingBy(c -> YearMonth.from(c.getTime())));
-  }
-
-  private boolean handleExistingFile(IG ig, Path latestFile) {
+    // Write each group to <instrument>-<granularity>-YYYY_MM.<format>
+    var isSuccess = true;
+    var latest = (ManifestEntry) null;
+    for (var e : candlesByYM.entrySet()) {
+      var candles = e.getValue();
+      try {
+        var written = monthlyFileWriter.write(ig, subDir, e.getKey(), candles, null);
+        latest = written.isRewritten()
+            ? StoreManifest.scan(written.primaryFile()).orElse(null)
+            : StoreManifest.describe(written.primaryFile(), Instant.ofEpochSecond(candles.lastTime()), candles.size());
+      } catch (IOException ioException) {
+        log.warn("Error while writing candles of {} for {}", e.getKey(), ig, ioException);
+        isSuccess = false;
+      }
+    }
+    updateManifest(ig, isSuccess, latest);
+    return isSuccess;
+  }
+
+  private void updateManifest(IG ig, boolean isSuccess, @Nullable ManifestEntry latest) {
+    if (isSuccess && latest != null) {
+      storeManifest.put(ig, latest);
+    } else {
+      storeManifest.remove(ig);
+    }
+  }
+
+  /**
+   * Complete candles strictly after {@code lastTime}, so that nothing already in the files is written again. The
+   * month of a candle is only looked up when it falls outside the month of the one before.
+   */
+  static SortedMap<YearMonth, CandleBlock> getCandlesByYM(CandleBlock response, Instant lastTime) {
+    var after = lastTime.getEpochSecond();
+    var candlesByYM = new TreeMap<YearMonth, CandleBlock>();
+    var month = (CandleBlock) null;
+    var monthStart = Long.MAX_VALUE;
+    var monthEnd = Long.MIN_VALUE;
+    for (var i = 0; i < response.size(); i++) {
+      var time = response.time(i);
+      if (time <= after || !response.complete(i)) {
+        continue;
+      }
+      if (time < monthStart || time >= monthEnd) {
+        var ym = yearMonth(time);
+        month = candlesByYM.computeIfAbsent(ym, k -> new CandleBlock());
+        monthStart = startOfMonth(ym);
+        monthEnd = startOfMonth(ym.plusMonths(1));
+      }
+      month.add(response, i);
+    }
+    return candlesByYM;
+  }
+
+  /**
+   * @param minAge skip the update while the next candle has been complete for less than that
+   */
+  private boolean handleExistingFile(IG ig, Path latestFile, Duration minAge) {
     var instrument = ig.instrument();
-    var granularity = ig.granularity().toString();
 
-    // 1) Get the last timestamp from the last line of `latestFile`
-    var lastLine = getLastLineFromCsvCandleFile(latestFile);
-    var candle = csvStringWithoutHeaderToCsvCandlePojo(lastLine);
-    var lastTime = ofNullable(candle)
-        .flatMap(i -> ofNullable(i.getTime()))
-        .map(i -> Instant.parse(i.format(YMDHMS_FORMATTER)))
-        .map(i -> i.plus(granularityToSeconds(ig.granularity()), SECONDS))
-        .orElse(null);
-    if (lastTime == null) {
-      log.warn("Not Found: last time for {}", ig);
-      return false;
+    // 1) Get the last candle of `latestFile` from the manifest, or by scanning the file if the manifest is stale
+    var known = storeManifest.getIfCurrent(ig, latestFile);
+    if (known.isEmpty()) {
+      log.info("Manifest is stale for {}; scanning its files", ig);
+      var found = findLatestFile(ig);
+      if (found.isEmpty()) {
+        return handleNoExistingFile(ig);
+      }
+      latestFile = found.get();
+      try {
+        known = StoreManifest.scan(latestFile);
+      } catch (IOException e) {
+        log.warn("Cannot read {}", latestFile, e);
+        return false;
+      }
+      if (known.isEmpty()) {
+        log.warn("Not Found: last time for {}", ig);
+        return false;
+      }
+      storeManifest.put(ig, known.get());
     }
-    if (Instant.now().minus(1, HOURS).isBefore(lastTime)) {
-      log.info("Skipping {} since last candle was within the last hour", ig);
+    var entry = known.get();
+    var lastCandleTime = entry.lastCandleTime();
+    var lastTime = lastCandleTime.plus(granularityToSeconds(ig.granularity()), SECONDS);
+    if (Instant.now().minus(minAge).isBefore(lastTime)) {
+      log.info("Skipping {} since last candle was within the last {}", ig, minAge);
       return true;
     }
 
     // 2) Call Oanda from lastTs to now
-    var response = (GetCandlesResponse) null;
+    var response = (CandleBlock) null;
     try {
       response = getCandlesFromTime(instrument, ig.granularity(), lastTime);
     } catch (Exception ignored) {
@@ -250,7 +485,7 @@ public class CandlestickService {
       log.error(msg);
       logToFile(msg);
       try {
-        response = oandaRestResource.getCandlesWithCount(instrument, ig.granularity(), MAX_CANDLE_COUNT_OANDA_API);
+        response = oandaRestResource.getCandleBlockWithCount(instrument, ig.granularity(), MAX_CANDLE_COUNT_OANDA_API);
       } catch (Exception ignored2) {
         var msg2 = "%nError while trying to get candles from COUNT for %s".formatted(ig);
         log.error(msg2);
@@ -258,9 +493,49 @@ public class CandlestickService {
         return false;
       }
     }
+    Metrics.count(CANDLES_FETCHED, response.size(), instrument, ig.granularity().toString());
+
+    return appendAfter(ig, latestFile, entry, response);
+  }
+
+  /**
+   * Appends candles built elsewhere, e.g. from the pricing stream, after the last candle of {@code ig}'s files; the
+   * ones that do not come after it are dropped.
+   */
+  public boolean append(IG ig, CandleBlock candles) {
+    var latestFile = findLatestKnownFile(ig);
+    var known = latestFile.flatMap(f -> storeManifest.getIfCurrent(ig, f));
+    if (known.isEmpty()) {
+      latestFile = findLatestFile(ig);
+      if (latestFile.isEmpty()) {
+        log.warn("No file for {}; its candles are fetched by the batch first", ig);
+        return false;
+      }
+      try {
+        known = StoreManifest.scan(latestFile.get());
+      } catch (IOException e) {
+        log.warn("Cannot read {}", latestFile.get(), e);
+        return false;
+      }
+      if (known.isEmpty()) {
+        log.warn("Not Found: last time for {}", ig);
+        return false;
+      }
+    }
+    return appendAfter(ig, latestFile.get(), known.get(), candles);
+  }
+
+  /**
+   * @param entry what is known of {@code latestFile}, whose last candle the complete {@code response} candles must
+   *              come after
+   */
+  private boolean appendAfter(IG ig, Path latestFile, ManifestEntry entry, CandleBlock response) {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+    var lastCandleTime = entry.lastCandleTime();
 
     // 3) Group by year/month
-    var candlesByYM = getCandlesByYM(response, lastTime);
+    var candlesByYM = getCandlesByYM(response, lastCandleTime);
 
     // 4) For the year/month that matches `latestFile` => we append
     //    If there's a new year/month => create a new file
@@ -269,51 +544,67 @@ public class CandlestickService {
     // Directory: e.g. F:\candles\instrument\granularity
     var subDir = latestFile.getParent();
 
-    return candlesByYM
-        .entrySet().stream()
-        .map(e -> {
-          var filename = String.format("%s-%s-%04d_%02d.csv",
-              instrument, granularity, e.getKey().getYear(), e.getKey().getMonthValue());
-          var outPath = subDir.resolve(filename);
-
-          try {
-            if (e.getKey().equals(latestFileYM)) {
-              // Same month as the latestFile => append
-              appendStringToFile(outPath, candlesToCsvWithoutHeader(e.getValue()));
-            } else {
-              log.warn("Creating new file: {}", outPath);
-              writeToFileThatDoesntExist(outPath, candlesToCsvWithHeader(e.getValue()));
-            }
-
-            CleanupUtil.cleanup(filename, outPath);
-            CopyFileUtil.copyToSecondDisk(
-                outPath,
-                v20Properties.candlestick().copyOutputPath(),
-                instrument,
-                granularity,
-                filename);
-          } catch (IOException ioException) {
-            log.error("Failed writing to {}", outPath, ioException);
-            return false;
-          }
-          return true;
-        })
-        .reduce(true, (acc, next) -> acc && next);
+    var isSuccess = true;
+    var latest = entry;
+    for (var e : candlesByYM.entrySet()) {
+      var candles = e.getValue();
+      var isLatestFile = e.getKey().equals(latestFileYM);
+      if (!isLatestFile) {
+        log.warn("Creating new file: {}", monthlyFileName(instrument, granularity, e.getKey()));
+      }
+
+      try {
+        var written = monthlyFileWriter.write(ig, subDir, e.getKey(), candles, isLatestFile ? lastCandleTime : null);
+        latest = written.isRewritten()
+            ? StoreManifest.scan(written.primaryFile()).orElse(null)
+            : StoreManifest.describe(written.primaryFile(), Instant.ofEpochSecond(candles.lastTime()),
+            isLatestFile ? entry.rowCountAfter(candles.size()) : candles.size());
+      } catch (IOException ioException) {
+        log.error("Failed writing candles of {} for {}", e.getKey(), ig, ioException);
+        isSuccess = false;
+      }
+    }
+    updateManifest(ig, isSuccess, latest);
+    return isSuccess;
   }
 
   /**
    * Check if filename looks like: instrument-granularity-yyyy_MM.csv
    * Example: "AUD_CAD-M1-2022_12.csv"
    */
-  private static boolean isMatchingFile(Path path, String instrument, String granularity) {
+  static boolean isMatchingFile(Path path, String instrument, String granularity) {
+    return isMatchingFile(path, instrument, granularity, EStoreFormat.CSV);
+  }
+
+  /**
+   * Check if filename looks like: instrument-granularity-yyyy_MM.extension
+   * Example: "AUD_CAD-M1-2022_12.bin"
+   */
+  static boolean isMatchingFile(Path path, String instrument, String granularity, EStoreFormat format) {
     var fileName = path.getFileName().toString();
-    var regex = String.format("^%s-%s-(\\d{4})_(\\d{2})\\.csv$", instrument, granularity);
-    return fileName.matches(regex);
+    var prefix = "%s-%s-".formatted(instrument, granularity);
+    var suffix = "." + format.getExtension();
+    return fileName.startsWith(prefix)
+        && fileName.endsWith(suffix)
+        && YYYY_MM.matcher(fileName.substring(prefix.length(), fileName.length() - suffix.length())).matches();
+  }
+
+  /**
+   * Inverse of {@link #parseYearMonthFromFilename(String)}:
+   * ("AUD_CAD", "M1", YearMonth.of(2022, 12)) -> "AUD_CAD-M1-2022_12.csv"
+   */
+  public static String monthlyFileName(String instrument, String granularity, YearMonth ym) {
+    return monthlyFileName(instrument, granularity, ym, EStoreFormat.CSV);
+  }
+
+  public static String monthlyFileName(String instrument, String granularity, YearMonth ym, EStoreFormat format) {
+    return String.format(
+        "%s-%s-%04d_%02d.%s", instrument, granularity, ym.getYear(), ym.getMonthValue(), format.getExtension());
   }
 
   /**
    * Parse the yyyy_MM portion from a filename like:
-   * "AUD_CAD-M1-2022_12.csv" -> YearMonth.of(2022, 12)
+   * "AUD_CAD-M1-2022_12.csv" or "AUD_CAD-M1-2022_12.bin" -> YearMonth.of(2022, 12)
    */
   public static YearMonth parseYearMonthFromFilename(String fileName) {
     var m = YYYY_MM_REGEXP.matcher(fileName);
@@ -326,9 +617,9 @@ public class CandlestickService {
     }
   }
 
-  public GetCandlesResponse getCandlesFromTime(String instrument, CandlestickGranularity granularity, Instant fromTime) {
+  public CandleBlock getCandlesFromTime(String instrument, CandlestickGranularity granularity, Instant fromTime) {
     return oandaRestResource
-        .getCandlesFromTo(
+        .getCandleBlockFromTo(
             instrument,
             granularity,
             YMDHMS_FORMATTER.format(fromTime),
@@ -343,7 +634,7 @@ public class CandlestickService {
     return oandaRestResource.getCandlesWithCount(instrument, granularity, count);
   }
 
-  private static long granularityToSeconds(CandlestickGranularity granularity) {
+  public static long granularityToSeconds(CandlestickGranularity granularity) {
     return switch (granularity) {
       case S5 -> 5;
       case S10 -> 10;
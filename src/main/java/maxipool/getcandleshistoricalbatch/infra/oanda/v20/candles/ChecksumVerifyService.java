@@ -0,0 +1,218 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.file.ChecksumUtil;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumEntry;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.VerifyProperties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static java.util.concurrent.CompletableFuture.supplyAsync;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.BYTES_VERIFIED;
+
+/**
+ * Hashes every monthly file of both disks, without parsing any of them, and compares each with its
+ * {@link ChecksumManifest} entry and with its copy on the other disk. The two disks are read at the same time, each by
+ * {@link VerifyProperties#parallelism()} threads, through memory-mapped reads; see {@link ChecksumUtil#crc32c(Path)}.
+ * <br />
+ * A file that is not in the manifest yet has its checksum recorded. A file of the primary disk whose size changed
+ * behind the manifest, i.e. neither through the
+ * {@link maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal} recovery nor as the
+ * latest file the {@link StoreManifest} knows, is reported once and recorded. A file of the recorded size that does
+ * not match its checksum, a recorded file that is gone, and a copy that differs from its source are reported.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class ChecksumVerifyService {
+  private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
+  private static final int DEFAULT_PARALLELISM = 4;
+  private static final Set<String> EXTENSIONS = Arrays.stream(EStoreFormat.values())
+      .map(f -> "." + f.getExtension())
+      .collect(Collectors.toUnmodifiableSet());
+
+  private final V20Properties v20Properties;
+  private final ChecksumManifest checksumManifest;
+  private final StoreManifest storeManifest;
+
+  public boolean verify() {
+    var startNanos = System.nanoTime();
+    var primaryDir = Paths.get(v20Properties.candlestick().outputPath());
+    var copyDir = ofNullable(v20Properties.candlestick().copyOutputPath())
+        .filter(p -> !p.isBlank())
+        .map(Paths::get)
+        .orElse(null);
+    var parallelism = ofNullable(verifyProperties().parallelism()).orElse(DEFAULT_PARALLELISM);
+    var problems = new ConcurrentLinkedQueue<String>();
+
+    Map<String, ChecksumEntry> primary;
+    Map<String, ChecksumEntry> copy;
+    try (var diskExecutor = Executors.newVirtualThreadPerTaskExecutor()) {
+      var copyHashes = copyDir == null
+          ? completedFuture(Map.<String, ChecksumEntry>of())
+          : supplyAsync(() -> hashDisk(copyDir, "copy", parallelism, problems), diskExecutor);
+      primary = hashDisk(primaryDir, "primary", parallelism, problems);
+      copy = copyHashes.join();
+    }
+
+    var rehashed = compare(primaryDir, primary, true, problems);
+    if (copyDir != null) {
+      // a copy is checked against its source below
+      rehashed += compare(copyDir, copy, false, problems);
+      primary.forEach((key, entry) -> {
+        var copied = copy.get(key);
+        if (copied == null) {
+          problems.add("%s has no copy under %s".formatted(primaryDir.resolve(key), copyDir));
+        } else if (!copied.equals(entry)) {
+          problems.add("%s differs from its copy %s".formatted(primaryDir.resolve(key), copyDir.resolve(key)));
+        }
+      });
+    }
+    checksumManifest.flush();
+
+    var files = primary.size() + copy.size();
+    var bytes = primary.values().stream().mapToLong(ChecksumEntry::length).sum()
+        + copy.values().stream().mapToLong(ChecksumEntry::length).sum();
+    var seconds = Math.max(1e-9, (System.nanoTime() - startNanos) / 1e9);
+    log.info("Verified {} files, {} MB in {}s ({} MB/s); {} recorded for the first time or since a change",
+        files, bytes / 1_000_000, Math.round(seconds), Math.round(bytes / 1e6 / seconds), rehashed);
+
+    if (!problems.isEmpty()) {
+      problems.forEach(log::error);
+      logToFile("As of %s%nVerification found %d problems:%n%s".formatted(
+          ZonedDateTime.now(ZONE_TORONTO), problems.size(), String.join(System.lineSeparator(), problems)));
+      return false;
+    }
+    logToFile("As of %s%nVerified %d files".formatted(ZonedDateTime.now(ZONE_TORONTO), files));
+    return true;
+  }
+
+  /**
+   * @return the size and CRC32C of every monthly file under {@code dir}, by {@link ChecksumManifest#key}
+   */
+  private static Map<String, ChecksumEntry> hashDisk(Path dir, String disk, int parallelism, Queue<String> problems) {
+    var hashes = new ConcurrentHashMap<String, ChecksumEntry>();
+    var bytes = new AtomicLong();
+    // a fixed number of reads in flight: the disk, not the CPU, is the limit
+    try (var executor = Executors.newFixedThreadPool(Math.max(1, parallelism))) {
+      for (var file : monthlyFiles(dir, problems)) {
+        executor.execute(() -> {
+          try {
+            var size = Files.size(file);
+            hashes.put(ChecksumManifest.key(dir, file), new ChecksumEntry(size, ChecksumUtil.crc32c(file)));
+            Metrics.count(BYTES_VERIFIED, size, disk);
+            bytes.addAndGet(size);
+          } catch (IOException e) {
+            problems.add("%s cannot be read: %s".formatted(file, e));
+          }
+        });
+      }
+    }
+    log.info("Hashed {} files, {} MB, under {}", hashes.size(), bytes.get() / 1_000_000, dir);
+    return hashes;
+  }
+
+  /**
+   * Compares the files of one disk with their entries, and records the entries of the new and changed files.
+   *
+   * @param isPrimary true to report the files whose size changed behind the manifests
+   * @return the number of entries recorded
+   */
+  private int compare(Path dir, Map<String, ChecksumEntry> hashes, boolean isPrimary, Queue<String> problems) {
+    var recorded = checksumManifest.entries(dir);
+    var count = 0;
+    for (var hash : hashes.entrySet()) {
+      var file = dir.resolve(hash.getKey());
+      var entry = recorded.get(hash.getKey());
+      if (entry == null || entry.length() != hash.getValue().length()) {
+        if (entry != null && isPrimary && !isCurrentLatestFile(hash.getKey(), file)) {
+          // reported once
+          problems.add("%s went from %d to %d bytes without being recorded".formatted(
+              file, entry.length(), hash.getValue().length()));
+        }
+        checksumManifest.put(file, hash.getValue());
+        count++;
+      } else if (entry.crc32c() != hash.getValue().crc32c()) {
+        problems.add("%s does not match its checksum".formatted(file));
+      }
+    }
+    for (var key : recorded.keySet()) {
+      var file = dir.resolve(key);
+      if (!hashes.containsKey(key) && !Files.exists(file)) {
+        // reported once
+        problems.add("%s is gone".formatted(file));
+        checksumManifest.remove(file);
+      }
+    }
+    return count;
+  }
+
+  /**
+   * @param key {@code instrument/granularity/file name}, see {@link ChecksumManifest#key}
+   * @return true if the {@link StoreManifest} describes {@code file}, as it is now, as the latest file of its pair
+   */
+  private boolean isCurrentLatestFile(String key, Path file) {
+    var names = key.split("/");
+    if (names.length != 3) {
+      return false;
+    }
+    try {
+      var ig = new IG(names[0], CandlestickGranularity.valueOf(names[1]));
+      return storeManifest.getIfCurrent(ig, file).isPresent();
+    } catch (IllegalArgumentException e) {
+      return false;
+    }
+  }
+
+  /**
+   * @return the files of {@code instrument/granularity/} folders under {@code dir} with a store format's extension
+   */
+  private static List<Path> monthlyFiles(@Nullable Path dir, Queue<String> problems) {
+    if (dir == null || !Files.isDirectory(dir)) {
+      return List.of();
+    }
+    try (var paths = Files.walk(dir, 3)) {
+      return paths
+          .filter(p -> dir.relativize(p).getNameCount() == 3)
+          .filter(p -> EXTENSIONS.stream().anyMatch(p.getFileName().toString()::endsWith))
+          .filter(Files::isRegularFile)
+          .toList();
+    } catch (IOException e) {
+      problems.add("%s cannot be listed: %s".formatted(dir, e));
+      return List.of();
+    }
+  }
+
+  private VerifyProperties verifyProperties() {
+    return ofNullable(v20Properties.candlestick().verify()).orElseGet(() -> VerifyProperties.builder().build());
+  }
+
+}
@@ -0,0 +1,122 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.OandaRateLimiter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.DaemonProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Service;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.M1;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.fetchedGranularities;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.granularityToSeconds;
+
+/**
+ * Keeps running and updates each instrument/granularity just after each of its candles closes, instead of once a day
+ * from cron. Connections, the manifest and the instruments stay in memory between updates.
+ * <br />
+ * Every instrument/granularity is updated once at start, then again {@link DaemonProperties#delay()} plus up to
+ * {@link DaemonProperties#jitter()} after the next close of its granularity, and so on; a failed update is retried at
+ * the next close. The derived granularities of an instrument are built after each update of its M1 candles.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class DaemonService {
+  private static final Duration DEFAULT_DELAY = Duration.ofSeconds(2);
+  private static final Duration DEFAULT_JITTER = Duration.ofSeconds(10);
+
+  private final InstrumentsService instrumentsService;
+  private final CandlestickService candlestickService;
+  private final CandleAggregationService candleAggregationService;
+  private final V20Properties v20Properties;
+  private final IgTaskRunner igTaskRunner;
+  private final OandaRateLimiter oandaRateLimiter;
+  private final AppendJournal appendJournal;
+  private final StoreManifest storeManifest;
+
+  private final CountDownLatch stopped = new CountDownLatch(1);
+
+  /**
+   * Blocks until the process is stopped.
+   */
+  public boolean run() {
+    var igs = instrumentsService.findAll()
+        .stream()
+        .map(i -> i.getName().toString())
+        .flatMap(i -> fetchedGranularities(v20Properties.candlestick()).stream().map(g -> new IG(i, g)))
+        .toList();
+    log.info("Daemon updating {} instrument/granularity pairs at each candle close", igs.size());
+
+    var scheduler = Executors.newSingleThreadScheduledExecutor();
+    var workers = igTaskRunner.newExecutor(oandaRateLimiter.getMaxConcurrency());
+    try {
+      igs.forEach(ig -> workers.execute(() -> update(ig, scheduler, workers)));
+      scheduler.scheduleWithFixedDelay(appendJournal::compactIfIdle, 1, 1, HOURS);
+      stopped.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      scheduler.shutdownNow();
+      workers.shutdownNow();
+    }
+    return true;
+  }
+
+  /**
+   * Lets {@link #run()} return once Spring shuts down, e.g. on SIGTERM; updates in progress are interrupted, and the
+   * journal undoes their partial writes.
+   */
+  @PreDestroy
+  public void stop() {
+    stopped.countDown();
+  }
+
+  private void update(IG ig, ScheduledExecutorService scheduler, ExecutorService workers) {
+    try {
+      if (!candlestickService.update(ig)) {
+        log.warn("Daemon failed updating {}; retrying at the next close", ig);
+      }
+      if (ig.granularity() == M1 && !candleAggregationService.derive(ig.instrument())) {
+        log.warn("Daemon failed deriving from the M1 candles of {}", ig.instrument());
+      }
+      storeManifest.flush();
+    } catch (RuntimeException e) {
+      log.error("Daemon failed updating {}; retrying at the next close", ig, e);
+    } finally {
+      if (!scheduler.isShutdown()) {
+        scheduler.schedule(() -> workers.execute(() -> update(ig, scheduler, workers)),
+            millisUntilNextClose(ig.granularity()), MILLISECONDS);
+      }
+    }
+  }
+
+  private long millisUntilNextClose(CandlestickGranularity granularity) {
+    var daemon = ofNullable(v20Properties.candlestick().daemon()).orElseGet(() -> DaemonProperties.builder().build());
+    var delay = ofNullable(daemon.delay()).orElse(DEFAULT_DELAY).toMillis();
+    var jitter = ofNullable(daemon.jitter()).orElse(DEFAULT_JITTER).toMillis();
+
+    // the fetched granularities are at most an hour long, so they close on multiples of their length
+    var length = granularityToSeconds(granularity) * 1_000;
+    var now = Instant.now().toEpochMilli();
+    var nextClose = now - Math.floorMod(now, length) + length;
+    return nextClose - now + delay + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0);
+  }
+
+}
@@ -0,0 +1,245 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap.Gap;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap.GapList;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap.GapScanner;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.ETradingCalendar;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.GapProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import static java.util.Optional.ofNullable;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.startOfMonth;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.yearMonth;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.*;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.model.Rfc3339.YMDHMS_FORMATTER;
+
+/**
+ * Scans the store of every fetched instrument/granularity, in parallel, for the candles missing while the market was
+ * open (see {@link GapScanner}), lists them in the {@link GapList}, and fetches exactly those: the gaps of a pair are
+ * merged into as few {@link CandlestickService#MAX_CANDLE_COUNT_OANDA_API} windows as they fit in, one request each,
+ * and each month that got candles back is rewritten once.
+ * <br />
+ * The derived granularities are not rebuilt: they are derived after the last candle of their own files.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class GapRepairService {
+  private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
+  private static final int DEFAULT_MIN_MISSING_CANDLES = 10;
+  private static final int DEFAULT_PARALLELISM = 8;
+
+  private final InstrumentsService instrumentsService;
+  private final OandaRestResource oandaRestResource;
+  private final V20Properties v20Properties;
+  private final IgTaskRunner igTaskRunner;
+  private final CandleStore candleStore;
+  private final MonthlyFileWriter monthlyFileWriter;
+  private final StoreManifest storeManifest;
+  private final GapList gapList;
+
+  public boolean repair() {
+    var gapProperties = gapProperties();
+    var calendars = new HashMap<String, ETradingCalendar>();
+    instrumentsService.findAll().forEach(i -> {
+      var name = i.getName().toString();
+      calendars.put(name, gapProperties.calendars().getOrDefault(name, ETradingCalendar.of(i.getType())));
+    });
+    var igs = calendars.keySet().stream()
+        .sorted()
+        // monthly candles have no fixed length to step by
+        .flatMap(i -> fetchedGranularities(v20Properties.candlestick()).stream()
+            .filter(g -> g != CandlestickGranularity.M)
+            .map(g -> new IG(i, g)))
+        .toList();
+
+    var parallelism = ofNullable(gapProperties.parallelism()).orElse(DEFAULT_PARALLELISM);
+    var minMissing = ofNullable(gapProperties.minMissingCandles()).orElse(DEFAULT_MIN_MISSING_CANDLES);
+    var knownEmpty = gapList.empty();
+    var scannedAt = Instant.now();
+    var gapsByIg = new ConcurrentHashMap<IG, List<Gap>>();
+    var isScanned = igTaskRunner
+        .runAll(igs, ig -> scan(ig, calendars.get(ig.instrument()), minMissing, knownEmpty, gapsByIg),
+            parallelism, null, (ig, ok) -> {
+            })
+        .values().stream()
+        .allMatch(Boolean::booleanValue);
+
+    var gaps = igs.stream().flatMap(ig -> gapsByIg.getOrDefault(ig, List.of()).stream()).toList();
+    log.info("{} gaps, {} missing candles, in {} of {} instrument/granularity pairs",
+        gaps.size(), gaps.stream().mapToLong(Gap::missing).sum(), gapsByIg.size(), igs.size());
+    var isSaved = gapList.save(scannedAt, gaps, knownEmpty);
+    if (Boolean.FALSE.equals(gapProperties.refetch()) || gaps.isEmpty()) {
+      return isScanned && isSaved;
+    }
+
+    var empty = new ConcurrentLinkedQueue<Gap>();
+    var failedIgs = igTaskRunner
+        .runAll(List.copyOf(gapsByIg.keySet()), ig -> refetch(ig, gapsByIg.get(ig), empty), parallelism, null,
+            (ig, ok) -> {
+            })
+        .entrySet().stream()
+        .filter(e -> !e.getValue())
+        .map(Map.Entry::getKey)
+        .toList();
+    storeManifest.flush();
+
+    var stillMissing = gaps.stream().filter(gap -> failedIgs.contains(gap.ig())).toList();
+    var allEmpty = new ArrayList<>(knownEmpty);
+    allEmpty.addAll(empty);
+    isSaved = gapList.save(scannedAt, stillMissing, allEmpty);
+    log.info("Oanda has fewer candles than missing for {} gaps; they are not fetched again", empty.size());
+
+    if (!failedIgs.isEmpty()) {
+      logToFile("As of %s%nGaps not repaired for: %s".formatted(ZonedDateTime.now(ZONE_TORONTO), failedIgs));
+      return false;
+    }
+    logToFile("As of %s%nRepaired %d gaps, %d of them in part or not at all as Oanda has no more candles"
+        .formatted(ZonedDateTime.now(ZONE_TORONTO), gaps.size(), empty.size()));
+    return isScanned && isSaved;
+  }
+
+  private boolean scan(IG ig,
+                       ETradingCalendar calendar,
+                       int minMissing,
+                       List<Gap> knownEmpty,
+                       Map<IG, List<Gap>> gapsByIg) {
+    try (var blocks = candleStore.read(ig.instrument(), ig.granularity(), Instant.EPOCH, Instant.now())) {
+      var gaps = GapScanner.scan(ig, blocks, calendar, minMissing).stream()
+          .filter(gap -> knownEmpty.stream().noneMatch(e -> e.covers(gap)))
+          .toList();
+      if (!gaps.isEmpty()) {
+        log.info("{}: {} gaps, the first from {} to {}", ig, gaps.size(), gaps.getFirst().from(), gaps.getFirst().to());
+        gapsByIg.put(ig, gaps);
+      }
+      return true;
+    } catch (IOException | UncheckedIOException e) {
+      log.warn("Cannot scan {} for gaps", ig, e);
+      return false;
+    }
+  }
+
+  /**
+   * Fetches the candles of {@code gaps}, in time order, and writes them into their months.
+   *
+   * @param empty receives the gaps Oanda has fewer candles for than are missing: none on a holiday, a few on an
+   *              illiquid market, whose remaining holes would be found and fetched again by every scan otherwise
+   */
+  private boolean refetch(IG ig, List<Gap> gaps, Queue<Gap> empty) {
+    var fills = new CandleBlock();
+    try {
+      for (var window : windows(gaps, granularityToSeconds(ig.granularity()))) {
+        var from = window.getFirst().from();
+        var to = window.getLast().to();
+        var response = oandaRestResource.getCandleBlockFromTo(
+            ig.instrument(), ig.granularity(), YMDHMS_FORMATTER.format(from), YMDHMS_FORMATTER.format(to));
+        var i = 0;
+        for (var gap : window) {
+          var gapFrom = gap.from().getEpochSecond();
+          var gapTo = gap.to().getEpochSecond();
+          var before = fills.size();
+          for (; i < response.size() && response.time(i) < gapTo; i++) {
+            if (response.complete(i) && response.time(i) >= gapFrom) {
+              fills.add(response, i);
+            }
+          }
+          if (fills.size() - before < gap.missing()) {
+            empty.add(gap);
+          }
+        }
+      }
+    } catch (RuntimeException e) {
+      var msg = "%nError while fetching the gaps of %s".formatted(ig);
+      log.error(msg, e);
+      logToFile(msg);
+      return false;
+    }
+
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), ig.instrument(), ig.granularity().toString());
+    try {
+      var monthFrom = 0;
+      while (monthFrom < fills.size()) {
+        var ym = yearMonth(fills.time(monthFrom));
+        var monthStart = startOfMonth(ym);
+        var monthEnd = startOfMonth(ym.plusMonths(1));
+        var monthTo = monthFrom;
+        while (monthTo < fills.size() && fills.time(monthTo) < monthEnd) {
+          monthTo++;
+        }
+        var local = candleStore.readAll(
+            ig.instrument(), ig.granularity(), Instant.ofEpochSecond(monthStart), Instant.ofEpochSecond(monthEnd));
+        var month = new CandleBlock(local.size() + monthTo - monthFrom);
+        month.addAll(local);
+        month.addAll(fills.copyOfRange(monthFrom, monthTo));
+        monthlyFileWriter.rewrite(ig, subDir, ym, month.sortedDistinct());
+        log.info("{}: filled {} candles into {}", ig, monthTo - monthFrom, ym);
+        monthFrom = monthTo;
+      }
+      return true;
+    } catch (IOException | UncheckedIOException e) {
+      log.error("Failed writing the gaps of {}", ig, e);
+      return false;
+    } finally {
+      storeManifest.removeIfStale(ig, subDir);
+    }
+  }
+
+  /**
+   * Splits the gaps longer than one request, then groups them, in time order, into windows of at most
+   * {@link CandlestickService#MAX_CANDLE_COUNT_OANDA_API} candles from the start of their first gap to the end of
+   * their last one.
+   */
+  static List<List<Gap>> windows(List<Gap> gaps, long seconds) {
+    var maxSeconds = seconds * MAX_CANDLE_COUNT_OANDA_API;
+    var windows = new ArrayList<List<Gap>>();
+    var window = new ArrayList<Gap>();
+    for (var gap : gaps) {
+      var from = gap.from();
+      while (from.isBefore(gap.to())) {
+        var to = from.plusSeconds(maxSeconds).isBefore(gap.to()) ? from.plusSeconds(maxSeconds) : gap.to();
+        var part = from.equals(gap.from()) && to.equals(gap.to())
+            ? gap
+            : new Gap(gap.instrument(), gap.granularity(), from, to,
+                (to.getEpochSecond() - from.getEpochSecond()) / seconds);
+        if (!window.isEmpty() && part.to().getEpochSecond() - window.getFirst().from().getEpochSecond() > maxSeconds) {
+          windows.add(window);
+          window = new ArrayList<>();
+        }
+        window.add(part);
+        from = to;
+      }
+    }
+    if (!window.isEmpty()) {
+      windows.add(window);
+    }
+    return windows;
+  }
+
+  private GapProperties gapProperties() {
+    return ofNullable(v20Properties.candlestick().gaps()).orElseGet(() -> GapProperties.builder().build());
+  }
+
+}
@@ -0,0 +1,134 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EFetchExecutor;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.FetchProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BiConsumer;
+import java.util.function.Predicate;
+
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.Executors.newFixedThreadPool;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+
+/**
+ * Runs one task per instrument/granularity and waits for all of them before returning.
+ * <br />
+ * Each task is a subtask of the call: it has its own timeout, after which it is cancelled (interrupted) and counted
+ * as failed without affecting the others, and the call only returns once every subtask has stopped.
+ * {@code StructuredTaskScope} is still a preview API in Java 21, so the scope is an executor closed by
+ * try-with-resources.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class IgTaskRunner {
+
+  private final V20Properties v20Properties;
+
+  /**
+   * @param parallelism tasks running at the same time, on platform or virtual threads
+   * @param timeout     per task, from when it starts running; {@code null} for none
+   * @param onDone      called once per task with its result, as soon as it is known
+   */
+  public Map<IG, Boolean> runAll(List<IG> igs,
+                                 Predicate<IG> task,
+                                 int parallelism,
+                                 @Nullable Duration timeout,
+                                 BiConsumer<IG, Boolean> onDone) {
+    try (var scope = newExecutor(parallelism)) {
+      var subtasks = new LinkedHashMap<IG, Subtask>();
+      igs.forEach(ig -> {
+        var startNanos = new AtomicLong();
+        var future = scope.submit(() -> {
+          startNanos.set(System.nanoTime());
+          return task.test(ig);
+        });
+        subtasks.put(ig, new Subtask(future, startNanos));
+      });
+
+      var results = new LinkedHashMap<IG, Boolean>();
+      subtasks.forEach((ig, subtask) -> {
+        var result = join(ig, subtask, timeout);
+        onDone.accept(ig, result);
+        results.put(ig, result);
+      });
+      return results;
+    }
+  }
+
+  /**
+   * @param startNanos when the task started running, 0 while it waits for a thread or a permit; the timeout starts from
+   *                   there
+   */
+  private record Subtask(Future<Boolean> future, AtomicLong startNanos) {
+  }
+
+  /**
+   * Executor of the configured kind, for work that is not one task per instrument/granularity.
+   *
+   * @param parallelism tasks running at the same time, whichever the kind
+   */
+  public ExecutorService newExecutor(int parallelism) {
+    return getExecutorKind() == EFetchExecutor.VIRTUAL
+        ? new BoundedVirtualExecutor(parallelism)
+        : newFixedThreadPool(Math.max(1, parallelism));
+  }
+
+  public EFetchExecutor getExecutorKind() {
+    return ofNullable(v20Properties.fetch()).map(FetchProperties::executor).orElse(EFetchExecutor.PLATFORM);
+  }
+
+  @Nullable
+  public Duration getIgTimeout() {
+    return ofNullable(v20Properties.fetch()).map(FetchProperties::igTimeout).orElse(null);
+  }
+
+  private static boolean join(IG ig, Subtask subtask, @Nullable Duration timeout) {
+    var future = subtask.future();
+    try {
+      if (timeout == null) {
+        return future.get();
+      }
+      while (true) {
+        var startNanos = subtask.startNanos().get();
+        var waitNanos = startNanos == 0 ? timeout.toNanos() : startNanos + timeout.toNanos() - System.nanoTime();
+        try {
+          return future.get(Math.max(0, waitNanos), NANOSECONDS);
+        } catch (TimeoutException e) {
+          if (startNanos != 0) {
+            future.cancel(true);
+            var msg = "%nTimed out after %s, cancelled %s".formatted(timeout, ig);
+            log.error(msg);
+            logToFile(msg);
+            return false;
+          }
+        }
+      }
+    } catch (ExecutionException e) {
+      log.error("Failed {}", ig, e.getCause());
+      logToFile("%nFailed %s: %s".formatted(ig, e.getCause()));
+      return false;
+    } catch (InterruptedException e) {
+      future.cancel(true);
+      Thread.currentThread().interrupt();
+      return false;
+    }
+  }
+
+}
@@ -9,6 +9,10 @@ import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properti
 import org.springframework.stereotype.Service;
 
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static java.util.Optional.ofNullable;
 
 @Slf4j
 @Service
@@ -19,9 +23,14 @@ public class InstrumentsService {
   private final V20Properties properties;
   private final EmailService emailService;
 
+  private final Map<String, Integer> displayPrecisions = new ConcurrentHashMap<>();
+
   public List<Instrument> findAll() {
     try {
-      return resource.getInstruments(properties.accountId().toString()).instruments();
+      var instruments = resource.getInstruments(properties.accountId().toString()).instruments();
+      instruments.forEach(i -> ofNullable(i.getDisplayPrecision())
+          .ifPresent(p -> displayPrecisions.put(i.getName().toString(), p.intValue())));
+      return instruments;
     } catch (Exception e) {
       log.error("Error while trying to getInstruments", e);
       emailService.sendEmail("Error while trying to getInstruments: %s".formatted(e.getMessage()));
@@ -29,4 +38,11 @@ public class InstrumentsService {
     }
   }
 
+  /**
+   * @return the number of decimals Oanda shows for the instrument, as of the last {@link #findAll()}; 0 if unknown
+   */
+  public int getDisplayPrecision(String instrument) {
+    return displayPrecisions.getOrDefault(instrument, 0);
+  }
+
 }
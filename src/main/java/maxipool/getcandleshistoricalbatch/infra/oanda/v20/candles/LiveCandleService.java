@@ -0,0 +1,290 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.OandaRateLimiter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.StreamProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.stream.M1CandleBuilder;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.stream.PricingStreamClient;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.net.http.HttpClient;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.M1;
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.HOURS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.model.Rfc3339.YMDHMS_FORMATTER;
+
+/**
+ * Keeps running and builds the M1 candles of every instrument from Oanda's pricing stream, see
+ * {@link M1CandleBuilder}, instead of asking for them after each close: the files are a few seconds behind Oanda.
+ * <br />
+ * The M1 files are first brought up to date through the REST API. The candles built from the stream are then appended
+ * each minute, and every {@link StreamProperties#reconcileInterval()} the ones older than
+ * {@link StreamProperties#reconcileDelay()} are compared with Oanda's M1 candles: Oanda's win, so that a missed price
+ * or a broken stream leaves no wrong nor missing candle behind. The derived granularities are only built from
+ * reconciled M1 candles.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class LiveCandleService {
+  private static final Duration DEFAULT_RECONCILE_DELAY = Duration.ofMinutes(2);
+  private static final Duration DEFAULT_RECONCILE_INTERVAL = Duration.ofMinutes(5);
+  /**
+   * A minute is over once a price or heartbeat of the next one came; heartbeats come every 5 seconds.
+   */
+  private static final long FLUSH_DELAY_MILLIS = 6_000;
+  /**
+   * 5000 M1 candles, the most Oanda returns at once.
+   */
+  private static final Duration MAX_RECONCILE_WINDOW = Duration.ofMinutes(5000);
+  private static final Duration MAX_RECONNECT_BACKOFF = Duration.ofMinutes(1);
+
+  private final InstrumentsService instrumentsService;
+  private final CandlestickService candlestickService;
+  private final CandleAggregationService candleAggregationService;
+  private final CandleStore candleStore;
+  private final MonthlyFileWriter monthlyFileWriter;
+  private final StoreManifest storeManifest;
+  private final OandaRestResource oandaRestResource;
+  private final V20Properties v20Properties;
+  private final IgTaskRunner igTaskRunner;
+  private final OandaRateLimiter oandaRateLimiter;
+  private final AppendJournal appendJournal;
+
+  private final CountDownLatch stopped = new CountDownLatch(1);
+  /**
+   * By instrument, the time before which its M1 candles match Oanda's.
+   */
+  private final Map<String, Instant> reconciledUntil = new ConcurrentHashMap<>();
+
+  /**
+   * Blocks until the process is stopped.
+   */
+  public boolean run() {
+    var instruments = instrumentsService.findAll().stream().map(i -> i.getName().toString()).toList();
+    var properties = streamProperties();
+
+    var caughtUpFrom = minuteOf(Instant.now());
+    var caughtUp = igTaskRunner.runAll(
+        instruments.stream().map(i -> new IG(i, M1)).toList(),
+        candlestickService::update,
+        oandaRateLimiter.getMaxConcurrency(),
+        igTaskRunner.getIgTimeout(),
+        (ig, isSuccess) -> {
+        });
+    storeManifest.flush();
+    caughtUp.forEach((ig, isSuccess) -> {
+      if (Boolean.TRUE.equals(isSuccess)) {
+        reconciledUntil.put(ig.instrument(), caughtUpFrom);
+      } else {
+        log.warn("Cannot bring {} up to date; its candles from the stream are not written", ig);
+      }
+    });
+    var live = List.copyOf(reconciledUntil.keySet());
+    if (live.isEmpty()) {
+      log.error("No instrument to stream");
+      return false;
+    }
+    log.info("Streaming the prices of {} instruments", live.size());
+
+    var builder = new M1CandleBuilder(instrumentsService::getDisplayPrecision);
+    var reader = Thread.ofPlatform().name("pricing-stream").daemon().start(() -> read(properties, live, builder));
+    // one thread: an append never runs into a rewrite of the same month
+    var scheduler = Executors.newSingleThreadScheduledExecutor();
+    try {
+      var now = Instant.now().toEpochMilli();
+      scheduler.scheduleAtFixedRate(() -> flush(builder),
+          60_000 - Math.floorMod(now, 60_000) + FLUSH_DELAY_MILLIS, 60_000, MILLISECONDS);
+      var interval = ofNullable(properties.reconcileInterval()).orElse(DEFAULT_RECONCILE_INTERVAL).toMillis();
+      scheduler.scheduleWithFixedDelay(() -> {
+        live.forEach(this::reconcile);
+        storeManifest.flush();
+      }, interval, interval, MILLISECONDS);
+      scheduler.scheduleWithFixedDelay(appendJournal::compactIfIdle, 1, 1, HOURS);
+      stopped.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    } finally {
+      scheduler.shutdownNow();
+      reader.interrupt();
+    }
+    return true;
+  }
+
+  /**
+   * Lets {@link #run()} return once Spring shuts down, e.g. on SIGTERM.
+   */
+  @PreDestroy
+  public void stop() {
+    stopped.countDown();
+  }
+
+  private StreamProperties streamProperties() {
+    return ofNullable(v20Properties.candlestick().stream()).orElseGet(() -> StreamProperties.builder().build());
+  }
+
+  /**
+   * Reads the stream until the process stops, opening it again after a break.
+   */
+  private void read(StreamProperties properties, List<String> instruments, M1CandleBuilder builder) {
+    var client = new PricingStreamClient(
+        HttpClient.newBuilder().connectTimeout(Duration.ofSeconds(10)).build(),
+        ofNullable(properties.url()).orElse(v20Properties.prodStreamUrl()),
+        v20Properties.token());
+    var backoff = Duration.ofSeconds(1);
+    while (stopped.getCount() > 0) {
+      var openedAt = System.nanoTime();
+      try {
+        client.stream(v20Properties.accountId().toString(), instruments, builder);
+        log.warn("Pricing stream ended; opening it again");
+      } catch (IOException e) {
+        log.warn("Pricing stream broke; opening it again", e);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+      // the candles of the minutes in progress miss prices; the reconciliation fills them in
+      builder.reset();
+      backoff = Duration.ofNanos(System.nanoTime() - openedAt).compareTo(MAX_RECONNECT_BACKOFF) > 0
+          ? Duration.ofSeconds(1)
+          : min(backoff.multipliedBy(2), MAX_RECONNECT_BACKOFF);
+      try {
+        Thread.sleep(backoff);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return;
+      }
+    }
+  }
+
+  private void flush(M1CandleBuilder builder) {
+    builder.drain().forEach((instrument, candles) -> {
+      try {
+        if (!candlestickService.append(new IG(instrument, M1), candles)) {
+          log.warn("Cannot append the streamed candles of {}; the reconciliation fills them in", instrument);
+        }
+      } catch (RuntimeException e) {
+        log.error("Cannot append the streamed candles of {}", instrument, e);
+      }
+    });
+    storeManifest.flush();
+  }
+
+  /**
+   * Replaces the M1 candles of {@code instrument} since it was last reconciled with Oanda's, if they differ, then
+   * derives the coarser granularities up to there.
+   */
+  private void reconcile(String instrument) {
+    var from = reconciledUntil.get(instrument);
+    var delay = ofNullable(streamProperties().reconcileDelay()).orElse(DEFAULT_RECONCILE_DELAY);
+    var to = minuteOf(Instant.now().minus(delay));
+    // after a long failure, catch up one response at a time
+    if (to.isAfter(from.plus(MAX_RECONCILE_WINDOW))) {
+      to = from.plus(MAX_RECONCILE_WINDOW);
+    }
+    if (!from.isBefore(to)) {
+      return;
+    }
+    var ig = new IG(instrument, M1);
+    try {
+      var response = oandaRestResource.getCandleBlockFromTo(
+          instrument, M1, YMDHMS_FORMATTER.format(from), YMDHMS_FORMATTER.format(to));
+      var oanda = new CandleBlock(Math.max(1, response.size()));
+      for (var i = 0; i < response.size(); i++) {
+        if (response.complete(i) && response.time(i) >= from.getEpochSecond() && response.time(i) < to.getEpochSecond()) {
+          oanda.add(response, i);
+        }
+      }
+      var local = candleStore.readAll(instrument, M1, from, to);
+      if (!isSame(local, oanda)) {
+        log.info("{}: the streamed candles of [{}, {}) differ from Oanda's; replacing them", ig, from, to);
+        replace(ig, from, to, oanda);
+      }
+      reconciledUntil.put(instrument, to);
+    } catch (IOException | RuntimeException e) {
+      log.warn("Cannot reconcile {}; trying again at the next reconciliation", ig, e);
+      return;
+    }
+    if (!candleAggregationService.derive(instrument, to)) {
+      log.warn("Failed deriving from the M1 candles of {}", instrument);
+    }
+  }
+
+  /**
+   * Rewrites each month of {@code [from, to)} with its candles outside the window and {@code oanda} inside it.
+   */
+  private void replace(IG ig, Instant from, Instant to, CandleBlock oanda) throws IOException {
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), ig.instrument(), ig.granularity().toString());
+    var last = YearMonth.from(to.minusSeconds(1).atOffset(ZoneOffset.UTC));
+    for (var ym = YearMonth.from(from.atOffset(ZoneOffset.UTC)); !ym.isAfter(last); ym = ym.plusMonths(1)) {
+      var monthStart = ym.atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+      var monthEnd = ym.plusMonths(1).atDay(1).atStartOfDay(ZoneOffset.UTC).toInstant();
+      var local = candleStore.readAll(ig.instrument(), ig.granularity(), monthStart, monthEnd);
+      var month = new CandleBlock(Math.max(1, local.size() + oanda.size()));
+      for (var i = 0; i < local.size() && local.time(i) < from.getEpochSecond(); i++) {
+        month.add(local, i);
+      }
+      for (var i = 0; i < oanda.size(); i++) {
+        if (oanda.time(i) >= monthStart.getEpochSecond() && oanda.time(i) < monthEnd.getEpochSecond()) {
+          month.add(oanda, i);
+        }
+      }
+      for (var i = 0; i < local.size(); i++) {
+        if (local.time(i) >= to.getEpochSecond()) {
+          month.add(local, i);
+        }
+      }
+      if (!month.isEmpty()) {
+        monthlyFileWriter.rewrite(ig, subDir, ym, month);
+      }
+    }
+    storeManifest.removeIfStale(ig, subDir);
+  }
+
+  private static boolean isSame(CandleBlock a, CandleBlock b) {
+    if (a.size() != b.size()) {
+      return false;
+    }
+    for (var i = 0; i < a.size(); i++) {
+      if (a.time(i) != b.time(i)
+          || a.open(i) != b.open(i)
+          || a.high(i) != b.high(i)
+          || a.low(i) != b.low(i)
+          || a.close(i) != b.close(i)
+          || a.volume(i) != b.volume(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static Instant minuteOf(Instant time) {
+    return Instant.ofEpochSecond(time.getEpochSecond() - Math.floorMod(time.getEpochSecond(), 60));
+  }
+
+  private static Duration min(Duration a, Duration b) {
+    return a.compareTo(b) <= 0 ? a : b;
+  }
+
+}
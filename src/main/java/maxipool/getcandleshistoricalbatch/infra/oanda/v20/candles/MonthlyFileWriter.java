@@ -0,0 +1,265 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.file.CleanupUtil;
+import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+
+import static java.util.concurrent.CompletableFuture.runAsync;
+import static java.util.concurrent.Executors.newVirtualThreadPerTaskExecutor;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.appendCandlesToFile;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.prependCandlesToFile;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.rewriteCandlesToFile;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.BYTES_WRITTEN;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.monthlyFileName;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat.CSV;
+
+/**
+ * Writes the candles of one month in every format of {@code candlestick.formats}, and mirrors each file to the second
+ * disk while the next format is written. After an append, only the appended bytes are mirrored, and hashed into the
+ * {@link ChecksumManifest}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class MonthlyFileWriter {
+
+  private final V20Properties v20Properties;
+  private final InstrumentsService instrumentsService;
+  private final AppendJournal appendJournal;
+  private final ChecksumManifest checksumManifest;
+  private final ExecutorService mirrorExecutor = newVirtualThreadPerTaskExecutor();
+
+  /**
+   * @param primaryFile the file of {@link maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.CandlestickProperties#primaryFormat()}
+   * @param isRewritten true if the candles broke the order or missed a price and the files had to be cleaned up
+   */
+  public record MonthWrite(Path primaryFile, boolean isRewritten) {
+  }
+
+  /**
+   * @param appendAfter time of the last candle already in the month's files, or null to create them
+   */
+  public MonthWrite write(IG ig, Path subDir, YearMonth ym, CandleBlock candles, @Nullable Instant appendAfter)
+      throws IOException {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+
+    // Only the candles that were just written are checked against the previous last candle; the whole file is read
+    // and rewritten only when they break the order or miss a price. The candles that miss a price are not written.
+    var violation = CleanupUtil.findAppendViolation(candles, appendAfter);
+    violation.ifPresent(v -> {
+      var msg = "%s %s: %s; rewriting the file".formatted(ig, ym, v);
+      log.warn(msg);
+      logToFile(msg);
+    });
+    var written = violation.isPresent() ? CleanupUtil.withoutMissingPrices(candles) : candles;
+
+    var primaryFile = (Path) null;
+    var mirrors = new ArrayList<CompletableFuture<Void>>();
+    try {
+      for (var format : v20Properties.candlestick().formats()) {
+        var filename = monthlyFileName(instrument, granularity, ym, format);
+        var path = subDir.resolve(filename);
+        var sizeBefore = Files.exists(path) ? Files.size(path) : 0L;
+        var displayPrecision = instrumentsService.getDisplayPrecision(instrument);
+        // the append is committed, durably, before any cleanup: a crash after it must not undo the rewritten file
+        try (var entry = appendJournal.begin(path)) {
+          switch (format) {
+            case CSV -> writeCsv(path, written, appendAfter != null);
+            case BIN -> writeBin(path, subDir.resolve(monthlyFileName(instrument, granularity, ym, CSV)), written,
+                appendAfter != null, displayPrecision);
+            case GORILLA -> throw new IllegalStateException("GORILLA files are only written by the COMPRESS mode");
+          }
+          entry.commit(violation.isPresent());
+        }
+        if (violation.isPresent()) {
+          cleanup(format, path, displayPrecision);
+        }
+        Metrics.count(BYTES_WRITTEN, Files.size(path) - (violation.isPresent() ? 0 : sizeBefore), format.name());
+        // a cleanup rewrote the file: nothing of the copy can be kept
+        var appendedFrom = appendAfter != null && violation.isEmpty() ? sizeBefore : 0L;
+        checksumManifest.recordAppend(path, appendedFrom);
+        mirrors.add(runAsync(() -> mirror(path, appendedFrom, instrument, granularity, filename), mirrorExecutor));
+        primaryFile = primaryFile == null ? path : primaryFile;
+      }
+    } finally {
+      // the manifest must not move ahead of the second disk
+      awaitMirrors(mirrors);
+    }
+    return new MonthWrite(primaryFile, violation.isPresent());
+  }
+
+  /**
+   * Replaces the month's files, in every format, with {@code candles}, e.g. once candles built from the pricing stream
+   * were corrected with Oanda's.
+   *
+   * @return the file of {@link maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.CandlestickProperties#primaryFormat()}
+   */
+  public Path rewrite(IG ig, Path subDir, YearMonth ym, CandleBlock candles) throws IOException {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+    var primaryFile = (Path) null;
+    var mirrors = new ArrayList<CompletableFuture<Void>>();
+    try {
+      for (var format : v20Properties.candlestick().formats()) {
+        var filename = monthlyFileName(instrument, granularity, ym, format);
+        var path = subDir.resolve(filename);
+        switch (format) {
+          case CSV -> rewriteCandlesToFile(path, candles);
+          case BIN -> CandleBinFile.rewrite(path, candles, instrumentsService.getDisplayPrecision(instrument));
+          case GORILLA -> throw new IllegalStateException("GORILLA files are only written by the COMPRESS mode");
+        }
+        Metrics.count(BYTES_WRITTEN, Files.size(path), format.name());
+        checksumManifest.record(path);
+        mirrors.add(runAsync(() -> mirror(path, 0, instrument, granularity, filename), mirrorExecutor));
+        primaryFile = primaryFile == null ? path : primaryFile;
+      }
+    } finally {
+      awaitMirrors(mirrors);
+    }
+    return primaryFile;
+  }
+
+  /**
+   * Puts {@code olderCandles} in front of the month's files, in every format, or creates the files that do not exist,
+   * e.g. when the backfill reaches an older month. Every existing candle must be newer than the older candles.
+   *
+   * @return the file of {@link maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.CandlestickProperties#primaryFormat()}
+   */
+  public Path prepend(IG ig, Path subDir, YearMonth ym, CandleBlock olderCandles) throws IOException {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+    var primaryFile = (Path) null;
+    var mirrors = new ArrayList<CompletableFuture<Void>>();
+    try {
+      for (var format : v20Properties.candlestick().formats()) {
+        var filename = monthlyFileName(instrument, granularity, ym, format);
+        var path = subDir.resolve(filename);
+        var displayPrecision = instrumentsService.getDisplayPrecision(instrument);
+        if (Files.exists(path)) {
+          // a rewrite: the file is never seen half written
+          switch (format) {
+            case CSV -> prependCandlesToFile(path, olderCandles);
+            case BIN -> CandleBinFile.rewrite(path, concat(olderCandles, CandleBinFile.read(path)), displayPrecision);
+            case GORILLA -> throw new IllegalStateException("GORILLA files are only written by the COMPRESS mode");
+          }
+        } else {
+          // a month cut by a crash would pass for complete, and the next backfill would resume before it
+          try (var entry = appendJournal.begin(path)) {
+            switch (format) {
+              case CSV -> writeCandlesToFileThatDoesntExist(path, olderCandles);
+              case BIN -> CandleBinFile.write(path, olderCandles, displayPrecision);
+              case GORILLA -> throw new IllegalStateException("GORILLA files are only written by the COMPRESS mode");
+            }
+            entry.commit();
+          }
+        }
+        Metrics.count(BYTES_WRITTEN, Files.size(path), format.name());
+        checksumManifest.record(path);
+        mirrors.add(runAsync(() -> mirror(path, 0, instrument, granularity, filename), mirrorExecutor));
+        primaryFile = primaryFile == null ? path : primaryFile;
+      }
+    } finally {
+      awaitMirrors(mirrors);
+    }
+    return primaryFile;
+  }
+
+  private static CandleBlock concat(CandleBlock first, CandleBlock second) {
+    var out = new CandleBlock(Math.max(1, first.size() + second.size()));
+    out.addAll(first);
+    out.addAll(second);
+    return out;
+  }
+
+  private void mirror(Path path, long appendedFrom, String instrument, String granularity, String filename) {
+    var copyOutputPath = v20Properties.candlestick().copyOutputPath();
+    try {
+      CopyFileUtil.mirrorToSecondDisk(path, appendedFrom, copyOutputPath, instrument, granularity, filename);
+      checksumManifest.recordCopy(path, CopyFileUtil.secondDiskFile(copyOutputPath, instrument, granularity, filename));
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  private static void awaitMirrors(List<CompletableFuture<Void>> mirrors) throws IOException {
+    var failure = (IOException) null;
+    for (var mirror : mirrors) {
+      try {
+        mirror.join();
+      } catch (CompletionException e) {
+        var cause = e.getCause() instanceof UncheckedIOException u ? u.getCause() : new IOException(e.getCause());
+        if (failure == null) {
+          failure = cause;
+        } else {
+          failure.addSuppressed(cause);
+        }
+      }
+    }
+    if (failure != null) {
+      throw failure;
+    }
+  }
+
+  private static void writeCsv(Path path, CandleBlock candles, boolean isAppend) throws IOException {
+    if (isAppend) {
+      appendCandlesToFile(path, candles);
+    } else {
+      writeCandlesToFileThatDoesntExist(path, candles);
+    }
+  }
+
+  /**
+   * When BIN was added to the formats in the middle of a month, the month's BIN file is first built from its CSV.
+   */
+  private static void writeBin(Path path, Path csvPath, CandleBlock candles, boolean isAppend, int displayPrecision)
+      throws IOException {
+    if (isAppend && Files.exists(path)) {
+      CandleBinFile.append(path, candles, displayPrecision);
+    } else if (isAppend && Files.exists(csvPath)) {
+      log.info("Creating {} from {}", path.getFileName(), csvPath.getFileName());
+      CandleBinFile.rewrite(path, CsvCandleParser.parse(csvPath).candles().sortedDistinct(), displayPrecision);
+    } else {
+      CandleBinFile.write(path, candles, displayPrecision);
+    }
+  }
+
+  private static void cleanup(EStoreFormat format, Path path, int displayPrecision) throws IOException {
+    switch (format) {
+      case CSV -> CleanupUtil.cleanup(path.getFileName().toString(), path);
+      case BIN -> CandleBinFile.cleanup(path, displayPrecision);
+      case GORILLA -> throw new IllegalStateException("GORILLA files are only written by the COMPRESS mode");
+    }
+  }
+
+  public EStoreFormat primaryFormat() {
+    return v20Properties.candlestick().primaryFormat();
+  }
+
+}
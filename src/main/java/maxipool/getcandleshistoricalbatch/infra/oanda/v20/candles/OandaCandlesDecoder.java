@@ -0,0 +1,101 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import lombok.experimental.UtilityClass;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.time.Instant;
+
+import static maxipool.getcandleshistoricalbatch.common.candle.DecimalParseUtil.parseDecimal;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.NOT_PARSED;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.parseRfc3339;
+
+/**
+ * Reads the payload of {@code /v3/instruments/{instrument}/candles} token by token straight into a
+ * {@link CandleBlock}: no {@code Candlestick}, {@code PriceValue}, {@code DateTime} or {@code BigDecimal} per candle,
+ * and prices are parsed from the token's characters without creating a {@code String}.
+ * <br />
+ * Only the {@code mid} prices are kept; {@code bid} and {@code ask} are skipped if present.
+ */
+@UtilityClass
+public class OandaCandlesDecoder {
+
+  private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+  public static CandleBlock decode(InputStream inputStream) throws IOException {
+    var block = new CandleBlock(5_000);
+    try (var parser = JSON_FACTORY.createParser(inputStream)) {
+      if (parser.nextToken() != JsonToken.START_OBJECT) {
+        return block;
+      }
+      while (parser.nextToken() == JsonToken.FIELD_NAME) {
+        var field = parser.currentName();
+        var token = parser.nextToken();
+        if ("candles".equals(field) && token == JsonToken.START_ARRAY) {
+          while (parser.nextToken() == JsonToken.START_OBJECT) {
+            readCandle(parser, block);
+          }
+        } else {
+          parser.skipChildren();
+        }
+      }
+    }
+    return block;
+  }
+
+  private static void readCandle(JsonParser parser, CandleBlock block) throws IOException {
+    var time = NOT_PARSED;
+    var volume = 0L;
+    var isComplete = false;
+    double o = Double.NaN, h = Double.NaN, l = Double.NaN, c = Double.NaN;
+
+    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+      var field = parser.currentName();
+      var token = parser.nextToken();
+      switch (field) {
+        case "time" -> time = readTime(parser);
+        case "volume" -> volume = parser.getValueAsLong();
+        case "complete" -> isComplete = token == JsonToken.VALUE_TRUE;
+        case "mid" -> {
+          while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            var price = parser.currentName();
+            parser.nextToken();
+            var value = readPrice(parser);
+            switch (price) {
+              case "o" -> o = value;
+              case "h" -> h = value;
+              case "l" -> l = value;
+              case "c" -> c = value;
+              default -> { /* unknown price field */ }
+            }
+          }
+        }
+        default -> parser.skipChildren();
+      }
+    }
+    if (time != NOT_PARSED) {
+      block.add(time, o, h, l, c, volume, isComplete);
+    }
+  }
+
+  private static long readTime(JsonParser parser) throws IOException {
+    var time = parseRfc3339(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    return time != NOT_PARSED ? time : Instant.parse(parser.getText()).getEpochSecond();
+  }
+
+  /**
+   * Prices are JSON strings such as {@code "1.10452"}.
+   */
+  private static double readPrice(JsonParser parser) throws IOException {
+    if (parser.currentToken() != JsonToken.VALUE_STRING) {
+      return parser.getValueAsDouble();
+    }
+    var value = parseDecimal(parser.getTextCharacters(), parser.getTextOffset(), parser.getTextLength());
+    return Double.isNaN(value) ? Double.parseDouble(parser.getText()) : value;
+  }
+
+}
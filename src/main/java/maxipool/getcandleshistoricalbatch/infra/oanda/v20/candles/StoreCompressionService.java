@@ -0,0 +1,224 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleGorillaFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.file.CleanupUtil;
+import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.YearMonth;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.lang.Boolean.TRUE;
+import static java.time.ZoneOffset.UTC;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.storedGranularities;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.isMatchingFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.monthlyFileName;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.parseYearMonthFromFilename;
+
+/**
+ * Writes the GORILLA file of every closed month that has none, or whose GORILLA file is older than its sources.
+ * <br />
+ * The latest month of each instrument/granularity is left alone: the first run of a month still appends the last
+ * candles of the previous one. Each file is read back and compared before it is copied to the second disk, and before
+ * any source is deleted.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StoreCompressionService {
+  private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
+  private static final AtomicInteger PROGRESS = new AtomicInteger(0);
+  private static final List<EStoreFormat> SOURCE_FORMATS = List.of(EStoreFormat.BIN, EStoreFormat.CSV);
+
+  private final InstrumentsService instrumentsService;
+  private final V20Properties v20Properties;
+  private final IgTaskRunner igTaskRunner;
+  private final ChecksumManifest checksumManifest;
+
+  public boolean compress() {
+    var igs = instrumentsService.findAll()
+        .stream()
+        .map(i -> i.getName().toString())
+        .flatMap(i -> storedGranularities(v20Properties.candlestick()).stream().map(g -> new IG(i, g)))
+        .toList();
+    log.info("Compressing the closed months of {} instrument/granularity pairs", igs.size());
+
+    // disk and CPU bound; no point in more threads than cores
+    var failedIgs = igTaskRunner
+        .runAll(igs, this::compress, Runtime.getRuntime().availableProcessors(), null,
+            (ig, ok) -> logProgress(igs.size()))
+        .entrySet().stream()
+        .filter(e -> !e.getValue())
+        .map(e -> e.getKey().toString())
+        .toList();
+
+    if (!failedIgs.isEmpty()) {
+      logToFile("As of %s%nCompression incomplete for: %s".formatted(ZonedDateTime.now(ZONE_TORONTO), failedIgs));
+      return false;
+    }
+    logToFile("As of %s%nCompression complete".formatted(ZonedDateTime.now(ZONE_TORONTO)));
+    return true;
+  }
+
+  private static void logProgress(int total) {
+    var count = PROGRESS.incrementAndGet();
+    if (count % 25 == 0) {
+      log.info("{}/{} instrument/granularity pairs compressed", count, total);
+    }
+  }
+
+  private boolean compress(IG ig) {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), instrument, granularity);
+    if (!Files.isDirectory(subDir)) {
+      return true;
+    }
+
+    // sources of each month, BIN first
+    var months = new TreeMap<YearMonth, List<Path>>();
+    try (var files = Files.list(subDir)) {
+      files
+          .filter(Files::isRegularFile)
+          .forEach(path -> SOURCE_FORMATS.stream()
+              .filter(format -> isMatchingFile(path, instrument, granularity, format))
+              .findFirst()
+              .ifPresent(format -> months
+                  .computeIfAbsent(parseYearMonthFromFilename(path.getFileName().toString()), ym -> new ArrayList<>())
+                  .add(path)));
+    } catch (IOException e) {
+      log.warn("IOException", e);
+      return false;
+    }
+    if (months.size() < 2) {
+      return true;
+    }
+    months.values().forEach(paths -> paths.sort((a, b) -> Boolean.compare(isCsv(a), isCsv(b))));
+
+    var currentMonth = YearMonth.now(UTC);
+    var oldest = months.firstKey();
+    var latest = months.lastKey();
+    var isSuccess = true;
+    for (var month : months.entrySet()) {
+      var ym = month.getKey();
+      if (ym.equals(latest) || !ym.isBefore(currentMonth)) {
+        continue;
+      }
+      var gorName = monthlyFileName(instrument, granularity, ym, EStoreFormat.GORILLA);
+      var gorPath = subDir.resolve(gorName);
+      try {
+        if (isNewerThanAll(gorPath, month.getValue())) {
+          continue;
+        }
+        var candles = readSource(month.getValue().getFirst());
+        CandleGorillaFile.write(gorPath, candles, instrumentsService.getDisplayPrecision(instrument));
+        if (!isSameCandles(candles, CandleGorillaFile.read(gorPath))) {
+          Files.delete(gorPath);
+          var msg = "%nCompressed file %s does not read back as its source".formatted(gorName);
+          log.error(msg);
+          logToFile(msg);
+          isSuccess = false;
+          continue;
+        }
+        checksumManifest.record(gorPath);
+        var copyOutputPath = v20Properties.candlestick().copyOutputPath();
+        CopyFileUtil.copyToSecondDisk(gorPath, copyOutputPath, instrument, granularity, gorName);
+        checksumManifest.recordCopy(
+            gorPath, CopyFileUtil.secondDiskFile(copyOutputPath, instrument, granularity, gorName));
+        log.info("Compressed {} candles into {} ({} bytes)", candles.size(), gorName, Files.size(gorPath));
+
+        if (TRUE.equals(replaceSources()) && !ym.equals(oldest)) {
+          deleteSources(month.getValue(), instrument, granularity);
+        }
+      } catch (IOException e) {
+        log.error("Failed compressing {} {}", ig, ym, e);
+        isSuccess = false;
+      }
+    }
+    return isSuccess;
+  }
+
+  private Boolean replaceSources() {
+    var compress = v20Properties.candlestick().compress();
+    return compress == null ? null : compress.replaceSources();
+  }
+
+  private static boolean isCsv(Path path) {
+    return path.getFileName().toString().endsWith("." + EStoreFormat.CSV.getExtension());
+  }
+
+  private static boolean isNewerThanAll(Path gorPath, List<Path> sources) throws IOException {
+    if (!Files.exists(gorPath)) {
+      return false;
+    }
+    var gorTime = Files.getLastModifiedTime(gorPath);
+    for (var source : sources) {
+      if (Files.getLastModifiedTime(source).compareTo(gorTime) > 0) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private static CandleBlock readSource(Path path) throws IOException {
+    if (!isCsv(path)) {
+      return CandleBinFile.read(path).sortedDistinct();
+    }
+    var parsed = CsvCandleParser.parse(path);
+    if (parsed.rejectedRows() > 0) {
+      CleanupUtil.cleanup(path.getFileName().toString(), path);
+      parsed = CsvCandleParser.parse(path);
+    }
+    return parsed.candles().sortedDistinct();
+  }
+
+  private static boolean isSameCandles(CandleBlock expected, CandleBlock actual) {
+    if (expected.size() != actual.size()) {
+      return false;
+    }
+    for (var i = 0; i < expected.size(); i++) {
+      if (expected.time(i) != actual.time(i)
+          || expected.open(i) != actual.open(i)
+          || expected.high(i) != actual.high(i)
+          || expected.low(i) != actual.low(i)
+          || expected.close(i) != actual.close(i)
+          || expected.volume(i) != actual.volume(i)
+          || expected.complete(i) != actual.complete(i)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private void deleteSources(List<Path> sources, String instrument, String granularity) throws IOException {
+    for (var source : sources) {
+      var filename = source.getFileName().toString();
+      var copyOutputPath = v20Properties.candlestick().copyOutputPath();
+      CopyFileUtil.deleteFromSecondDisk(copyOutputPath, instrument, granularity, filename);
+      checksumManifest.remove(CopyFileUtil.secondDiskFile(copyOutputPath, instrument, granularity, filename));
+      Files.delete(source);
+      checksumManifest.remove(source);
+      log.info("Deleted {}, replaced by its compressed file", filename);
+    }
+  }
+
+}
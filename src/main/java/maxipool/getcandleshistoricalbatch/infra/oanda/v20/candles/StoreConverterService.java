@@ -0,0 +1,127 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.file.CleanupUtil;
+import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.storedGranularities;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.isMatchingFile;
+
+/**
+ * Writes the BIN file of every monthly CSV file that has none, or whose BIN file is older than the CSV (e.g. after a
+ * backfill, which only writes CSV).
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StoreConverterService {
+  private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
+  private static final AtomicInteger PROGRESS = new AtomicInteger(0);
+
+  private final InstrumentsService instrumentsService;
+  private final V20Properties v20Properties;
+  private final IgTaskRunner igTaskRunner;
+  private final ChecksumManifest checksumManifest;
+
+  public boolean convert() {
+    var igs = instrumentsService.findAll()
+        .stream()
+        .map(i -> i.getName().toString())
+        .flatMap(i -> storedGranularities(v20Properties.candlestick()).stream().map(g -> new IG(i, g)))
+        .toList();
+    log.info("Converting the CSV files of {} instrument/granularity pairs", igs.size());
+
+    // disk and CPU bound; no point in more threads than cores
+    var failedIgs = igTaskRunner
+        .runAll(igs, this::convert, Runtime.getRuntime().availableProcessors(), null,
+            (ig, ok) -> logProgress(igs.size()))
+        .entrySet().stream()
+        .filter(e -> !e.getValue())
+        .map(e -> e.getKey().toString())
+        .toList();
+
+    if (!failedIgs.isEmpty()) {
+      logToFile("As of %s%nConversion incomplete for: %s".formatted(ZonedDateTime.now(ZONE_TORONTO), failedIgs));
+      return false;
+    }
+    logToFile("As of %s%nConversion complete".formatted(ZonedDateTime.now(ZONE_TORONTO)));
+    return true;
+  }
+
+  private static void logProgress(int total) {
+    var count = PROGRESS.incrementAndGet();
+    if (count % 25 == 0) {
+      log.info("{}/{} instrument/granularity pairs converted", count, total);
+    }
+  }
+
+  private boolean convert(IG ig) {
+    var instrument = ig.instrument();
+    var granularity = ig.granularity().toString();
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), instrument, granularity);
+    if (!Files.isDirectory(subDir)) {
+      return true;
+    }
+
+    var csvFiles = (List<Path>) null;
+    try (var files = Files.list(subDir)) {
+      csvFiles = files
+          .filter(Files::isRegularFile)
+          .filter(path -> isMatchingFile(path, instrument, granularity, EStoreFormat.CSV))
+          .toList();
+    } catch (IOException e) {
+      log.warn("IOException", e);
+      return false;
+    }
+
+    var isSuccess = true;
+    for (var csvPath : csvFiles) {
+      var csvName = csvPath.getFileName().toString();
+      var binName = csvName.substring(0, csvName.length() - EStoreFormat.CSV.getExtension().length())
+          + EStoreFormat.BIN.getExtension();
+      var binPath = subDir.resolve(binName);
+      try {
+        if (Files.exists(binPath)
+            && Files.getLastModifiedTime(binPath).compareTo(Files.getLastModifiedTime(csvPath)) >= 0) {
+          continue;
+        }
+        var parsed = CsvCandleParser.parse(csvPath);
+        if (parsed.rejectedRows() > 0) {
+          CleanupUtil.cleanup(csvName, csvPath);
+          checksumManifest.record(csvPath);
+          parsed = CsvCandleParser.parse(csvPath);
+        }
+        CandleBinFile.rewrite(
+            binPath, parsed.candles().sortedDistinct(), instrumentsService.getDisplayPrecision(instrument));
+        checksumManifest.record(binPath);
+        var copyOutputPath = v20Properties.candlestick().copyOutputPath();
+        CopyFileUtil.copyToSecondDisk(binPath, copyOutputPath, instrument, granularity, binName);
+        checksumManifest.recordCopy(
+            binPath, CopyFileUtil.secondDiskFile(copyOutputPath, instrument, granularity, binName));
+      } catch (IOException e) {
+        log.error("Failed converting {}", csvPath, e);
+        isSuccess = false;
+      }
+    }
+    return isSuccess;
+  }
+
+}
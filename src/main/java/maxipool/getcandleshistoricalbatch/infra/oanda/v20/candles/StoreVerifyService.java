@@ -0,0 +1,237 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleGorillaFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.verify.MonthCheck;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.verify.MonthChecker;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.VerifyProperties;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ForkJoinPool;
+
+import static java.util.Optional.ofNullable;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.rewriteCandlesToFile;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.isMatchingFile;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.parseYearMonthFromFilename;
+
+/**
+ * Checks every monthly file of {@code outputPath}, in every format, for rows that cannot be read, candles out of order,
+ * duplicated or of another month, and prices that make no sense (see {@link MonthChecker}); when repairing, rewrites
+ * the bad files only, and mirrors them to the second disk.
+ * <br />
+ * The instrument/granularity folders found on disk are spread over a {@link ForkJoinPool} of
+ * {@link VerifyProperties#storeParallelism()} workers; each one walks the months of its pair in order and holds a
+ * single month of candles at a time, so memory does not grow with the length of the history. Oanda is not called.
+ */
+@Slf4j
+@Service
+@RequiredArgsConstructor
+public class StoreVerifyService {
+  private static final ZoneId ZONE_TORONTO = ZoneId.of("America/Toronto");
+
+  private final V20Properties v20Properties;
+  private final InstrumentsService instrumentsService;
+  private final StoreManifest storeManifest;
+  private final ChecksumManifest checksumManifest;
+
+  /**
+   * The files of one instrument/granularity.
+   *
+   * @param files    checked
+   * @param bad      found bad
+   * @param repaired rewritten
+   * @param failed   that could not be read or rewritten
+   */
+  record IgResult(IG ig, int files, int bad, int repaired, int failed) {
+  }
+
+  /**
+   * The candles of a monthly file.
+   *
+   * @param rejectedRows rows of a CSV file that could not be read into {@code candles}
+   */
+  private record MonthRead(CandleBlock candles, int rejectedRows) {
+  }
+
+  public boolean verify() {
+    return run(false);
+  }
+
+  public boolean repair() {
+    return run(true);
+  }
+
+  private boolean run(boolean isRepair) {
+    var igs = storedIgs();
+    var parallelism = ofNullable(verifyProperties().storeParallelism())
+        .orElse(Runtime.getRuntime().availableProcessors());
+    log.info("{} {} instrument/granularity pairs on {} workers",
+        isRepair ? "Repairing" : "Verifying", igs.size(), parallelism);
+
+    List<IgResult> results;
+    try (var pool = new ForkJoinPool(Math.max(1, parallelism))) {
+      results = pool.submit(() -> igs.parallelStream().map(ig -> verify(ig, isRepair)).toList()).join();
+    }
+    storeManifest.flush();
+
+    var files = results.stream().mapToInt(IgResult::files).sum();
+    var bad = results.stream().mapToInt(IgResult::bad).sum();
+    var repaired = results.stream().mapToInt(IgResult::repaired).sum();
+    var failed = results.stream().filter(r -> r.failed() > 0).map(r -> r.ig().toString()).toList();
+    log.info("Checked {} files: {} bad, {} rewritten, {} unreadable or not rewritten",
+        files, bad, repaired, results.stream().mapToInt(IgResult::failed).sum());
+
+    var isClean = failed.isEmpty() && bad == repaired;
+    logToFile("As of %s%nChecked %d files: %d bad, %d rewritten%s".formatted(
+        ZonedDateTime.now(ZONE_TORONTO), files, bad, repaired, failed.isEmpty() ? "" : "; failed for: " + failed));
+    return isClean;
+  }
+
+  private IgResult verify(IG ig, boolean isRepair) {
+    var subDir = Paths.get(v20Properties.candlestick().outputPath(), ig.instrument(), ig.granularity().toString());
+    var files = monthlyFiles(ig, subDir);
+    var bad = 0;
+    var repaired = 0;
+    var failed = 0;
+    for (var file : files) {
+      var filename = file.getFileName().toString();
+      var format = formatOf(ig, file).orElseThrow();
+      var ym = parseYearMonthFromFilename(filename);
+      try {
+        var read = read(file, format);
+        var check = MonthChecker.check(read.candles(), ym, read.rejectedRows());
+        if (!check.isBad()) {
+          continue;
+        }
+        bad++;
+        log.warn("{}: {}", filename, check);
+        if (isRepair && rewrite(ig, file, format, MonthChecker.repair(read.candles(), ym), check)) {
+          repaired++;
+        }
+      } catch (IOException | RuntimeException e) {
+        log.error("Cannot check or rewrite {}", file, e);
+        failed++;
+      }
+    }
+    if (repaired > 0) {
+      storeManifest.removeIfStale(ig, subDir);
+    }
+    return new IgResult(ig, files.size(), bad, repaired, failed);
+  }
+
+  /**
+   * @return false if the file was left as is: nothing of it can be kept
+   */
+  private boolean rewrite(IG ig, Path file, EStoreFormat format, CandleBlock candles, MonthCheck check)
+      throws IOException {
+    if (candles.isEmpty()) {
+      log.warn("{}: no candle left to rewrite it with; left as is", file.getFileName());
+      return false;
+    }
+    switch (format) {
+      case CSV -> rewriteCandlesToFile(file, candles);
+      case BIN -> CandleBinFile.rewrite(file, candles, instrumentsService.getDisplayPrecision(ig.instrument()));
+      case GORILLA -> CandleGorillaFile.write(file, candles, instrumentsService.getDisplayPrecision(ig.instrument()));
+    }
+    checksumManifest.record(file);
+    var filename = file.getFileName().toString();
+    var copyOutputPath = v20Properties.candlestick().copyOutputPath();
+    var granularity = ig.granularity().toString();
+    CopyFileUtil.copyToSecondDisk(file, copyOutputPath, ig.instrument(), granularity, filename);
+    checksumManifest.recordCopy(
+        file, CopyFileUtil.secondDiskFile(copyOutputPath, ig.instrument(), granularity, filename));
+    var msg = "%nRewrote %s with %d of its %d candles".formatted(filename, candles.size(), check.candles());
+    log.info(msg);
+    logToFile(msg);
+    return true;
+  }
+
+  private static MonthRead read(Path file, EStoreFormat format) throws IOException {
+    return switch (format) {
+      case CSV -> {
+        var parsed = CsvCandleParser.parse(file);
+        yield new MonthRead(parsed.candles(), parsed.rejectedRows());
+      }
+      case BIN -> new MonthRead(CandleBinFile.read(file), 0);
+      case GORILLA -> new MonthRead(CandleGorillaFile.read(file), 0);
+    };
+  }
+
+  /**
+   * @return the instrument/granularity folders under {@code outputPath}
+   */
+  private List<IG> storedIgs() {
+    var igs = new ArrayList<IG>();
+    var root = Paths.get(v20Properties.candlestick().outputPath());
+    if (!Files.isDirectory(root)) {
+      return igs;
+    }
+    try (var instruments = Files.list(root)) {
+      for (var instrumentDir : instruments.filter(Files::isDirectory).toList()) {
+        try (var granularities = Files.list(instrumentDir)) {
+          granularities
+              .filter(Files::isDirectory)
+              .map(dir -> dir.getFileName().toString())
+              .filter(name -> Arrays.stream(CandlestickGranularity.values()).anyMatch(g -> g.name().equals(name)))
+              .forEach(name -> igs.add(
+                  new IG(instrumentDir.getFileName().toString(), CandlestickGranularity.valueOf(name))));
+        }
+      }
+    } catch (IOException e) {
+      log.error("Cannot list {}", root, e);
+    }
+    igs.sort(Comparator.comparing(IG::toString));
+    return igs;
+  }
+
+  /**
+   * @return the monthly files of {@code ig}, oldest month first
+   */
+  private static List<Path> monthlyFiles(IG ig, Path subDir) {
+    try (var files = Files.list(subDir)) {
+      return files
+          .filter(Files::isRegularFile)
+          .filter(path -> formatOf(ig, path).isPresent())
+          .sorted(Comparator.comparing((Path p) -> parseYearMonthFromFilename(p.getFileName().toString()))
+              .thenComparing(Path::getFileName))
+          .toList();
+    } catch (IOException e) {
+      log.error("Cannot list {}", subDir, e);
+      return List.of();
+    }
+  }
+
+  private static Optional<EStoreFormat> formatOf(IG ig, Path path) {
+    return Arrays.stream(EStoreFormat.values())
+        .filter(format -> isMatchingFile(path, ig.instrument(), ig.granularity().toString(), format))
+        .findFirst();
+  }
+
+  private VerifyProperties verifyProperties() {
+    return ofNullable(v20Properties.candlestick().verify()).orElseGet(() -> VerifyProperties.builder().build());
+  }
+
+}
@@ -0,0 +1,137 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.aggregate;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+import java.time.Instant;
+import java.time.LocalTime;
+import java.time.ZoneId;
+import java.util.Set;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.*;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.granularityToSeconds;
+
+/**
+ * Builds the candles of a coarser granularity from M1 candles fed in time order, aligned like Oanda's with its default
+ * {@code dailyAlignment=17} and {@code alignmentTimezone=America/New_York}:
+ * <ul>
+ *   <li>minutes and H1 start on multiples of their length since the top of the hour</li>
+ *   <li>H2 to H12 start on multiples of their length since the trading day's 17:00 New York</li>
+ *   <li>D starts at 17:00 New York, so it is 23 or 25 hours long on daylight saving changes</li>
+ * </ul>
+ * A candle is only emitted once it is over, i.e. its end is at or before {@code completeBefore}; it is the open of
+ * its first M1 candle, the close of its last, the extremes and the sum of the volumes in between.
+ */
+public class CandleAggregator {
+  public static final Set<CandlestickGranularity> DERIVABLE = Set.of(
+      M2, M4, M5, M10, M15, M30, H1, H2, H3, H4, H6, H8, H12, D);
+  private static final ZoneId ZONE_NEW_YORK = ZoneId.of("America/New_York");
+  private static final LocalTime DAILY_ALIGNMENT = LocalTime.of(17, 0);
+
+  private final CandlestickGranularity granularity;
+  private final long seconds;
+  private final long completeBefore;
+  private final CandleBlock out = new CandleBlock();
+
+  private long start = Long.MIN_VALUE;
+  private long end = Long.MIN_VALUE;
+  private double open;
+  private double high;
+  private double low;
+  private double close;
+  private long volume;
+
+  /**
+   * @param completeBefore epoch second up to which the M1 candles are all known
+   */
+  public CandleAggregator(CandlestickGranularity granularity, long completeBefore) {
+    if (!DERIVABLE.contains(granularity)) {
+      throw new IllegalArgumentException("%s candles cannot be built from M1 candles".formatted(granularity));
+    }
+    this.granularity = granularity;
+    this.seconds = granularityToSeconds(granularity);
+    this.completeBefore = completeBefore;
+  }
+
+  /**
+   * Adds M1 candles that come after the ones already added; the incomplete ones are ignored.
+   */
+  public void accept(CandleBlock m1) {
+    for (var i = 0; i < m1.size(); i++) {
+      if (!m1.complete(i)) {
+        continue;
+      }
+      var time = m1.time(i);
+      if (time >= end) {
+        emit();
+        start = bucketStart(time);
+        end = bucketEnd(start);
+        open = m1.open(i);
+        high = m1.high(i);
+        low = m1.low(i);
+        volume = 0;
+      }
+      high = Math.max(high, m1.high(i));
+      low = Math.min(low, m1.low(i));
+      close = m1.close(i);
+      volume += m1.volume(i);
+    }
+  }
+
+  /**
+   * @return the candles closed by a later M1 candle so far, which are then forgotten
+   */
+  public CandleBlock drain() {
+    var drained = new CandleBlock(Math.max(1, out.size()));
+    drained.addAll(out);
+    out.clear();
+    return drained;
+  }
+
+  /**
+   * Called once every M1 candle before {@code completeBefore} was added.
+   *
+   * @return the remaining candles that are over, including the last one if it ends by {@code completeBefore}
+   */
+  public CandleBlock finish() {
+    emit();
+    start = end = Long.MIN_VALUE;
+    return drain();
+  }
+
+  private void emit() {
+    if (start != Long.MIN_VALUE && end <= completeBefore) {
+      out.add(start, open, high, low, close, volume, true);
+    }
+  }
+
+  /**
+   * @return the start of the candle that holds {@code epochSecond}
+   */
+  public long bucketStart(long epochSecond) {
+    if (seconds <= 3_600) {
+      return epochSecond - Math.floorMod(epochSecond, seconds);
+    }
+    var dayStart = tradingDayStart(epochSecond);
+    return granularity == D ? dayStart : dayStart + (epochSecond - dayStart) / seconds * seconds;
+  }
+
+  /**
+   * @return the end of the candle that starts at {@code bucketStart}
+   */
+  public long bucketEnd(long bucketStart) {
+    if (seconds <= 3_600) {
+      return bucketStart + seconds;
+    }
+    var nextDayStart = Instant.ofEpochSecond(tradingDayStart(bucketStart)).atZone(ZONE_NEW_YORK)
+        .plusDays(1).with(DAILY_ALIGNMENT).toEpochSecond();
+    return granularity == D ? nextDayStart : Math.min(bucketStart + seconds, nextDayStart);
+  }
+
+  private static long tradingDayStart(long epochSecond) {
+    var time = Instant.ofEpochSecond(epochSecond).atZone(ZONE_NEW_YORK);
+    var dayStart = time.with(DAILY_ALIGNMENT);
+    return (dayStart.isAfter(time) ? dayStart.minusDays(1).with(DAILY_ALIGNMENT) : dayStart).toEpochSecond();
+  }
+
+}
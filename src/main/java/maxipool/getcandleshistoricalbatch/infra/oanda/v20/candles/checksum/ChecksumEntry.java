@@ -0,0 +1,10 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum;
+
+/**
+ * What a monthly file should hold after the last write to it.
+ *
+ * @param length size of the file
+ * @param crc32c CRC32C of the whole file
+ */
+public record ChecksumEntry(long length, long crc32c) {
+}
@@ -0,0 +1,237 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.file.ChecksumUtil;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The size and CRC32C of every monthly file, in one JSON file at the root of each disk, {@code outputPath} and
+ * {@code copyOutputPath}, keyed by the file's path under that root.
+ * <br />
+ * The checksum of a file is what the writers meant it to hold, not what was read back from it: an append only hashes
+ * the appended bytes and {@link ChecksumUtil#combine combines} them with the recorded checksum, and a copy on the
+ * second disk gets the checksum of its source. A file that later rots, or is partly overwritten, no longer matches it;
+ * see {@link maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ChecksumVerifyService}.
+ * <br />
+ * Recording never fails a write: a file that cannot be hashed is forgotten, and hashed again by the next
+ * verification. The JSON files are rewritten (temp file, fsync, atomic rename) at most every {@link #SAVE_INTERVAL},
+ * and when the application stops; a file written since the last save is found changed by the next verification and
+ * hashed again.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class ChecksumManifest {
+  public static final String FILE_NAME = "candles-checksums.json";
+  private static final int VERSION = 1;
+  private static final Duration SAVE_INTERVAL = Duration.ofMinutes(1);
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+      .enable(SerializationFeature.INDENT_OUTPUT);
+
+  private final V20Properties v20Properties;
+
+  private final Map<Path, Root> roots = new ConcurrentHashMap<>();
+
+  record ChecksumFile(int version, Map<String, ChecksumEntry> entries) {
+  }
+
+  /**
+   * The entries of one disk.
+   */
+  private static class Root {
+    private final Path dir;
+    private final Map<String, ChecksumEntry> entries = new ConcurrentHashMap<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile boolean isDirty;
+    private volatile long savedAtNanos = System.nanoTime();
+
+    Root(Path dir) {
+      this.dir = dir;
+    }
+  }
+
+  public Optional<ChecksumEntry> get(Path file) {
+    return root(file).map(r -> r.entries.get(key(r, file)));
+  }
+
+  /**
+   * @return the entries of the disk whose root is {@code dir}, by path under it
+   */
+  public Map<String, ChecksumEntry> entries(Path dir) {
+    return Map.copyOf(load(dir).entries);
+  }
+
+  public void put(Path file, ChecksumEntry entry) {
+    root(file).ifPresent(r -> {
+      r.entries.put(key(r, file), entry);
+      changed(r);
+    });
+  }
+
+  /**
+   * Hashes the whole file, e.g. once it was created or rewritten.
+   */
+  public void record(Path file) {
+    recordAppend(file, 0);
+  }
+
+  /**
+   * Records the file after bytes were appended to it; only those are hashed if the entry of the file was recorded at
+   * {@code appendedFrom} bytes.
+   *
+   * @param appendedFrom length of the file before the append, or 0 if it was created or rewritten
+   */
+  public void recordAppend(Path file, long appendedFrom) {
+    try (var channel = FileChannel.open(file, READ)) {
+      var size = channel.size();
+      var before = get(file).filter(e -> appendedFrom > 0 && e.length() == appendedFrom);
+      var crc = before.isPresent()
+          ? ChecksumUtil.combine(before.get().crc32c(), ChecksumUtil.crc32c(channel, appendedFrom, size),
+          size - appendedFrom)
+          : ChecksumUtil.crc32c(channel, 0, size);
+      put(file, new ChecksumEntry(size, crc));
+    } catch (IOException e) {
+      log.warn("Cannot checksum {}; it is hashed again by the next verification", file, e);
+      remove(file);
+    }
+  }
+
+  /**
+   * Gives {@code copy}, just copied or mirrored from {@code source}, the entry of its source.
+   */
+  public void recordCopy(Path source, Path copy) {
+    get(source).ifPresentOrElse(e -> put(copy, e), () -> record(copy));
+  }
+
+  public void remove(Path file) {
+    root(file).ifPresent(r -> {
+      if (r.entries.remove(key(r, file)) != null) {
+        changed(r);
+      }
+    });
+  }
+
+  /**
+   * Saves the entries changed since the last save.
+   */
+  @PreDestroy
+  public void flush() {
+    roots.values().forEach(r -> {
+      if (r.isDirty) {
+        save(r);
+      }
+    });
+  }
+
+  private void changed(Root root) {
+    root.isDirty = true;
+    if (System.nanoTime() - root.savedAtNanos > SAVE_INTERVAL.toNanos()) {
+      save(root);
+    }
+  }
+
+  /**
+   * @return the disk of {@code file}, empty if it is under neither root
+   */
+  private Optional<Root> root(Path file) {
+    var absolute = file.toAbsolutePath().normalize();
+    return Stream.of(v20Properties.candlestick().outputPath(), v20Properties.candlestick().copyOutputPath())
+        .map(ChecksumManifest::dir)
+        .filter(dir -> dir != null && absolute.startsWith(dir))
+        // the innermost root, should one disk be mounted under the other
+        .max(Comparator.comparingInt(Path::getNameCount))
+        .map(this::load);
+  }
+
+  /**
+   * @return the key of {@code file} in the entries of the disk whose root is {@code dir}
+   */
+  public static String key(Path dir, Path file) {
+    // the same key on Windows and Linux
+    var relative = dir.toAbsolutePath().normalize().relativize(file.toAbsolutePath().normalize());
+    return relative.toString().replace('\\', '/');
+  }
+
+  private static String key(Root root, Path file) {
+    return key(root.dir, file);
+  }
+
+  private static Path dir(@Nullable String path) {
+    return path == null || path.isBlank() ? null : Paths.get(path).toAbsolutePath().normalize();
+  }
+
+  private Root load(Path dir) {
+    return roots.computeIfAbsent(dir.toAbsolutePath().normalize(), d -> {
+      var root = new Root(d);
+      var path = d.resolve(FILE_NAME);
+      if (Files.exists(path)) {
+        try {
+          var file = MAPPER.readValue(path.toFile(), ChecksumFile.class);
+          if (file.version() == VERSION && file.entries() != null) {
+            root.entries.putAll(file.entries());
+          } else {
+            log.warn("Ignoring checksums {} of version {}", path, file.version());
+          }
+        } catch (IOException e) {
+          // the next verification hashes every file again
+          log.warn("Cannot read checksums {}", path, e);
+        }
+      }
+      return root;
+    });
+  }
+
+  private void save(Root root) {
+    root.lock.lock();
+    try {
+      root.isDirty = false;
+      root.savedAtNanos = System.nanoTime();
+      var path = root.dir.resolve(FILE_NAME);
+      var tmp = path.resolveSibling(FILE_NAME + ".tmp");
+      var bytes = MAPPER.writeValueAsBytes(new ChecksumFile(VERSION, new TreeMap<>(root.entries)));
+      Files.createDirectories(root.dir);
+      try (var channel = FileChannel.open(tmp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (IOException e) {
+      // the files are the source of truth; a stale entry is hashed again by the next verification
+      root.isDirty = true;
+      log.warn("Cannot save checksums under {}", root.dir, e);
+    } finally {
+      root.lock.unlock();
+    }
+  }
+
+}
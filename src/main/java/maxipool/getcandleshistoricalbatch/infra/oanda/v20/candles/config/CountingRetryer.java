@@ -0,0 +1,29 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.config;
+
+import feign.RetryableException;
+import feign.Retryer;
+import lombok.RequiredArgsConstructor;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
+
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.OANDA_RETRIES;
+
+/**
+ * {@link Retryer} that counts the retries of {@code delegate} in {@link Metrics}.
+ */
+@RequiredArgsConstructor
+public class CountingRetryer implements Retryer {
+
+  private final Retryer delegate;
+
+  @Override
+  public void continueOrPropagate(RetryableException e) {
+    delegate.continueOrPropagate(e);
+    Metrics.count(OANDA_RETRIES, 1);
+  }
+
+  @Override
+  public Retryer clone() {
+    return new CountingRetryer(delegate.clone());
+  }
+
+}
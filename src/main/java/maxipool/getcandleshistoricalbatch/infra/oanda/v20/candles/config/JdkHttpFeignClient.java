@@ -0,0 +1,105 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.config;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import lombok.RequiredArgsConstructor;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpRequest.BodyPublishers;
+import java.net.http.HttpResponse;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.zip.GZIPInputStream;
+
+import static java.lang.String.CASE_INSENSITIVE_ORDER;
+import static java.net.http.HttpClient.Version.HTTP_1_1;
+
+/**
+ * Feign {@link Client} on one shared JDK {@link HttpClient}: connections are kept alive and pooled, and multiplexed over
+ * HTTP/2 when the server offers it, so parallel requests do not each open a connection. Responses are asked for gzip
+ * and decompressed while they are read.
+ */
+@RequiredArgsConstructor
+public class JdkHttpFeignClient implements Client {
+
+  private static final String ACCEPT_ENCODING = "Accept-Encoding";
+  private static final String CONTENT_ENCODING = "Content-Encoding";
+  private static final String CONTENT_LENGTH = "Content-Length";
+  /**
+   * Set by {@link HttpClient} itself; it refuses requests that carry them.
+   */
+  private static final Set<String> RESTRICTED_HEADERS = new TreeSet<>(CASE_INSENSITIVE_ORDER);
+
+  static {
+    RESTRICTED_HEADERS.addAll(Set.of("Connection", CONTENT_LENGTH, "Expect", "Host", "Upgrade"));
+  }
+
+  private final HttpClient httpClient;
+
+  public static HttpClient newHttpClient(Duration connectTimeout) {
+    return HttpClient.newBuilder()
+        .version(HttpClient.Version.HTTP_2)
+        .connectTimeout(connectTimeout)
+        .followRedirects(HttpClient.Redirect.NORMAL)
+        .build();
+  }
+
+  @Override
+  public Response execute(Request request, Request.Options options) throws IOException {
+    var builder = HttpRequest.newBuilder(URI.create(request.url()))
+        .timeout(Duration.ofMillis(options.readTimeoutMillis()))
+        .method(request.httpMethod().name(),
+            request.body() == null ? BodyPublishers.noBody() : BodyPublishers.ofByteArray(request.body()));
+    request.headers().forEach((name, values) -> {
+      if (!RESTRICTED_HEADERS.contains(name) && !ACCEPT_ENCODING.equalsIgnoreCase(name)) {
+        values.forEach(value -> builder.header(name, value));
+      }
+    });
+    builder.header(ACCEPT_ENCODING, "gzip");
+
+    final HttpResponse<InputStream> response;
+    try {
+      response = httpClient.send(builder.build(), BodyHandlers.ofInputStream());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted calling %s".formatted(request.url()));
+    }
+
+    var headers = new TreeMap<String, Collection<String>>(CASE_INSENSITIVE_ORDER);
+    response.headers().map().forEach((name, values) -> {
+      // HTTP/2 pseudo headers, e.g. ":status"
+      if (!name.startsWith(":")) {
+        headers.put(name, values);
+      }
+    });
+    var body = response.body();
+    var length = response.headers().firstValueAsLong(CONTENT_LENGTH).stream().boxed().findFirst().orElse(null);
+    var isGzip = response.headers().firstValue(CONTENT_ENCODING).filter("gzip"::equalsIgnoreCase).isPresent();
+    if (isGzip) {
+      // what the decoders read is no longer what came on the wire
+      headers.remove(CONTENT_ENCODING);
+      headers.remove(CONTENT_LENGTH);
+      body = new GZIPInputStream(body, 64 * 1024);
+      length = null;
+    }
+    return Response.builder()
+        .status(response.statusCode())
+        .reason("")
+        .headers(headers)
+        .body(body, length == null ? null : length.intValue())
+        .request(request)
+        .protocolVersion(response.version() == HTTP_1_1 ? Request.ProtocolVersion.HTTP_1_1 : Request.ProtocolVersion.HTTP_2)
+        .build();
+  }
+
+}
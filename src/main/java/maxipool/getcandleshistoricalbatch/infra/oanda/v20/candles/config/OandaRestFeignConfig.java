@@ -1,10 +1,35 @@
 package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.config;
 
-import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import feign.Client;
 import feign.Logger;
 import feign.RequestInterceptor;
+import feign.RetryableException;
+import feign.Retryer;
+import feign.codec.Decoder;
+import feign.codec.ErrorDecoder;
+import feign.optionals.OptionalDecoder;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.OandaCandlesDecoder;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EHttpTransport;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.OandaRateLimiter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.RateLimitedClient;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.FetchProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RateLimitProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.beans.factory.ObjectFactory;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.boot.autoconfigure.http.HttpMessageConverters;
+import org.springframework.cloud.openfeign.support.HttpMessageConverterCustomizer;
+import org.springframework.cloud.openfeign.support.ResponseEntityDecoder;
+import org.springframework.cloud.openfeign.support.SpringDecoder;
 import org.springframework.context.annotation.Bean;
 
+import java.time.Duration;
+import java.util.Optional;
+
+import static java.util.Optional.ofNullable;
+import static java.util.concurrent.TimeUnit.SECONDS;
 import static org.springframework.http.HttpHeaders.AUTHORIZATION;
 import static org.springframework.http.HttpHeaders.CONTENT_TYPE;
 import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
@@ -12,10 +37,20 @@ import static org.springframework.http.MediaType.APPLICATION_JSON_VALUE;
 public class OandaRestFeignConfig {
 
   public static final String OANDA_FEIGN = "OANDA FEIGN";
+  private static final int DEFAULT_MAX_ATTEMPTS = 5;
+  private static final Logger.Level DEFAULT_LOG_LEVEL = Logger.Level.BASIC;
+  private static final double DEFAULT_LOG_SAMPLE_RATE = 1;
+  private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(10);
+
+  @Bean(name = OANDA_FEIGN + " LOGGER LEVEL")
+  Logger.Level feignLoggerLevel(final V20Properties properties) {
+    return fetch(properties).map(FetchProperties::logLevel).orElse(DEFAULT_LOG_LEVEL);
+  }
 
   @Bean(name = OANDA_FEIGN + " LOGGER")
-  Logger.Level feignLoggerLevel() {
-    return Logger.Level.FULL;
+  Logger feignLogger(final V20Properties properties) {
+    var sampleRate = fetch(properties).map(FetchProperties::logSampleRate).orElse(DEFAULT_LOG_SAMPLE_RATE);
+    return new SampledFeignLogger(OandaRestResource.class, sampleRate);
   }
 
   @Bean(name = OANDA_FEIGN + " INTERCEPTOR")
@@ -28,4 +63,65 @@ public class OandaRestFeignConfig {
     };
   }
 
+  /**
+   * {@link CandleBlock} responses are streamed by {@link OandaCandlesDecoder};
+   * everything else goes through the default Spring decoder.
+   */
+  @Bean(name = OANDA_FEIGN + " DECODER")
+  public Decoder decoder(final ObjectFactory<HttpMessageConverters> messageConverters,
+                         final ObjectProvider<HttpMessageConverterCustomizer> customizers) {
+    var springDecoder = new OptionalDecoder(new ResponseEntityDecoder(new SpringDecoder(messageConverters, customizers)));
+    return (response, type) -> {
+      if (type != CandleBlock.class) {
+        return springDecoder.decode(response, type);
+      }
+      if (response.body() == null) {
+        return new CandleBlock();
+      }
+      try (var body = response.body().asInputStream()) {
+        return OandaCandlesDecoder.decode(body);
+      }
+    };
+  }
+
+  /**
+   * Every call of the client goes through the shared {@link OandaRateLimiter}.
+   */
+  @Bean(name = OANDA_FEIGN + " CLIENT")
+  public Client client(final OandaRateLimiter rateLimiter, final V20Properties properties) {
+    var transport = fetch(properties).map(FetchProperties::transport).orElse(EHttpTransport.DEFAULT);
+    var delegate = switch (transport) {
+      case DEFAULT -> new Client.Default(null, null);
+      case JDK -> new JdkHttpFeignClient(JdkHttpFeignClient.newHttpClient(CONNECT_TIMEOUT));
+    };
+    return new RateLimitedClient(delegate, rateLimiter);
+  }
+
+  /**
+   * 429 and 5xx are worth another try; the {@link Retryer} waits (or honors Retry-After) in between.
+   */
+  @Bean(name = OANDA_FEIGN + " ERROR DECODER")
+  public ErrorDecoder errorDecoder() {
+    var defaultDecoder = new ErrorDecoder.Default();
+    return (methodKey, response) -> {
+      var exception = defaultDecoder.decode(methodKey, response);
+      var status = response.status();
+      if (exception instanceof RetryableException || (status != 429 && status < 500)) {
+        return exception;
+      }
+      return new RetryableException(
+          status, exception.getMessage(), response.request().httpMethod(), exception, (Long) null, response.request());
+    };
+  }
+
+  @Bean(name = OANDA_FEIGN + " RETRYER")
+  public Retryer retryer(final V20Properties properties) {
+    var maxAttempts = ofNullable(properties.rateLimit()).map(RateLimitProperties::maxAttempts).orElse(DEFAULT_MAX_ATTEMPTS);
+    return new CountingRetryer(new Retryer.Default(500, SECONDS.toMillis(10), maxAttempts));
+  }
+
+  private static Optional<FetchProperties> fetch(V20Properties properties) {
+    return ofNullable(properties.fetch());
+  }
+
 }
@@ -0,0 +1,45 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.config;
+
+import feign.Request;
+import feign.Response;
+import feign.slf4j.Slf4jLogger;
+
+import java.io.IOException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * {@link Slf4jLogger} that logs a share of the calls only: a 5000-candle body is not read twice, nor written to the
+ * log, for every request. Retries and I/O errors are always logged.
+ * <br />
+ * Feign logs a call's request and response from the thread that makes it, so the decision taken for the request holds
+ * for its response.
+ */
+public class SampledFeignLogger extends Slf4jLogger {
+
+  private final double sampleRate;
+  private final ThreadLocal<Boolean> isSampled = ThreadLocal.withInitial(() -> false);
+
+  public SampledFeignLogger(Class<?> clazz, double sampleRate) {
+    super(clazz);
+    this.sampleRate = sampleRate;
+  }
+
+  @Override
+  protected void logRequest(String configKey, Level logLevel, Request request) {
+    var sampled = sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate;
+    isSampled.set(sampled);
+    if (sampled) {
+      super.logRequest(configKey, logLevel, request);
+    }
+  }
+
+  @Override
+  protected Response logAndRebufferResponse(String configKey, Level logLevel, Response response, long elapsedTime)
+      throws IOException {
+    if (!isSampled.get()) {
+      return response;
+    }
+    return super.logAndRebufferResponse(configKey, logLevel, response, elapsedTime);
+  }
+
+}
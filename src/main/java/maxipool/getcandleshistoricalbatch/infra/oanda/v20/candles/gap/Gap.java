@@ -0,0 +1,32 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+
+import java.time.Instant;
+
+/**
+ * Candles missing in a row from the store while the market was open.
+ *
+ * @param from    time of the first missing candle
+ * @param to      end of the last missing candle
+ * @param missing number of missing candles
+ */
+public record Gap(
+    String instrument,
+    CandlestickGranularity granularity,
+    Instant from,
+    Instant to,
+    long missing) {
+
+  public IG ig() {
+    return new IG(instrument, granularity);
+  }
+
+  /**
+   * @return true if {@code other}, of the same instrument/granularity, is within this gap
+   */
+  public boolean covers(Gap other) {
+    return ig().equals(other.ig()) && !other.from().isBefore(from) && !other.to().isAfter(to);
+  }
+}
@@ -0,0 +1,103 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry.RetryQueue;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.util.List;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+
+/**
+ * The gaps found by the last scan of the store, in one small JSON file under {@code outputPath}, along with the gaps
+ * for which Oanda has no more candles than the store, e.g. holidays or illiquid minutes, so that they are not fetched
+ * again by every repair.
+ * <br />
+ * The file is rewritten (temp file, fsync, atomic rename), like the {@link RetryQueue}.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class GapList {
+  public static final String FILE_NAME = "candles-gaps.json";
+  private static final int VERSION = 1;
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .registerModule(new JavaTimeModule())
+      .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+      .enable(SerializationFeature.INDENT_OUTPUT);
+
+  private final V20Properties v20Properties;
+
+  /**
+   * @param gaps  still missing from the store
+   * @param empty already fetched: Oanda has no more candles for them than the store
+   */
+  record GapFile(int version, Instant scannedAt, List<Gap> gaps, List<Gap> empty) {
+  }
+
+  /**
+   * @return the gaps for which Oanda had no more candles; none if the file cannot be read
+   */
+  public List<Gap> empty() {
+    var path = path();
+    if (!Files.exists(path)) {
+      return List.of();
+    }
+    try {
+      var file = MAPPER.readValue(path.toFile(), GapFile.class);
+      if (file.version() == VERSION && file.empty() != null) {
+        return file.empty();
+      }
+      log.warn("Ignoring gap list {} of version {}", path, file.version());
+    } catch (IOException e) {
+      // the empty gaps are fetched once more, and found empty again
+      log.warn("Cannot read gap list {}", path, e);
+    }
+    return List.of();
+  }
+
+  /**
+   * @return false if the list could not be saved
+   */
+  public boolean save(Instant scannedAt, List<Gap> gaps, List<Gap> empty) {
+    var path = path();
+    var tmp = path.resolveSibling(FILE_NAME + ".tmp");
+    try {
+      Files.createDirectories(path.getParent());
+      var bytes = MAPPER.writeValueAsBytes(new GapFile(VERSION, scannedAt, List.copyOf(gaps), List.copyOf(empty)));
+      try (var channel = FileChannel.open(tmp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+      return true;
+    } catch (IOException e) {
+      log.warn("Cannot save gap list {}", path, e);
+      return false;
+    }
+  }
+
+  private Path path() {
+    return Paths.get(v20Properties.candlestick().outputPath(), FILE_NAME);
+  }
+
+}
@@ -0,0 +1,109 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import lombok.experimental.UtilityClass;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandleStore;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.aggregate.CandleAggregator;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.ETradingCalendar;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.LongUnaryOperator;
+import java.util.stream.Stream;
+
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService.granularityToSeconds;
+
+/**
+ * Finds the gaps between the candles of one instrument/granularity: each hole between two consecutive candles is cut
+ * into the runs of candles that should exist according to the {@link ETradingCalendar}, and the runs of at least
+ * {@code minMissing} candles are gaps. The candles of two hours and more are stepped through like Oanda aligns them,
+ * see {@link CandleAggregator}: cut short at 17:00 New York, and 23 or 25 hours long for D on daylight saving changes.
+ * <br />
+ * Holes before the first candle and after the last one are not gaps: they are the job of the backfill and the batch.
+ */
+@UtilityClass
+public class GapScanner {
+
+  /**
+   * @param blocks the candles, in time order, e.g. from {@link CandleStore#read}
+   */
+  public static List<Gap> scan(IG ig, Stream<CandleBlock> blocks, ETradingCalendar calendar, int minMissing) {
+    var nextSlot = nextSlot(ig.granularity());
+    var runs = new Runs(ig, calendar, nextSlot, Math.max(1, minMissing));
+    var previous = new long[]{Long.MIN_VALUE};
+    blocks.forEach(block -> {
+      for (var i = 0; i < block.size(); i++) {
+        var time = block.time(i);
+        if (previous[0] != Long.MIN_VALUE && time > nextSlot.applyAsLong(previous[0])) {
+          runs.addHole(nextSlot.applyAsLong(previous[0]), time);
+        }
+        previous[0] = Math.max(previous[0], time);
+      }
+    });
+    return runs.gaps;
+  }
+
+  /**
+   * @return the start of the candle after the one that starts at the given time
+   */
+  private static LongUnaryOperator nextSlot(CandlestickGranularity granularity) {
+    if (CandleAggregator.DERIVABLE.contains(granularity)) {
+      return new CandleAggregator(granularity, Long.MAX_VALUE)::bucketEnd;
+    }
+    var seconds = granularityToSeconds(granularity);
+    return slot -> slot + seconds;
+  }
+
+  private static class Runs {
+    private final IG ig;
+    private final ETradingCalendar calendar;
+    private final LongUnaryOperator nextSlot;
+    private final int minMissing;
+    private final List<Gap> gaps = new ArrayList<>();
+
+    private long runStart;
+    private long runEnd;
+    private long missing;
+
+    Runs(IG ig, ETradingCalendar calendar, LongUnaryOperator nextSlot, int minMissing) {
+      this.ig = ig;
+      this.calendar = calendar;
+      this.nextSlot = nextSlot;
+      this.minMissing = minMissing;
+    }
+
+    /**
+     * @param from time of the first missing candle
+     * @param to   time of the next candle
+     */
+    void addHole(long from, long to) {
+      missing = 0;
+      for (var slot = from; slot < to; ) {
+        var next = nextSlot.applyAsLong(slot);
+        if (!calendar.isExpected(slot, next - slot)) {
+          endRun();
+        } else {
+          if (missing == 0) {
+            runStart = slot;
+          }
+          runEnd = Math.min(next, to);
+          missing++;
+        }
+        slot = next;
+      }
+      endRun();
+    }
+
+    private void endRun() {
+      if (missing >= minMissing) {
+        gaps.add(new Gap(ig.instrument(), ig.granularity(),
+            Instant.ofEpochSecond(runStart), Instant.ofEpochSecond(runEnd), missing));
+      }
+      missing = 0;
+    }
+  }
+
+}
@@ -0,0 +1,288 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static maxipool.getcandleshistoricalbatch.common.log.LogFileUtil.logToFile;
+
+/**
+ * Write-ahead journal of the appends to the monthly files, one text line per record under {@code outputPath}:
+ * <pre>
+ * B id length key path   before writing to path, whose length was `length` (-1 if it did not exist) and whose file
+ *                        key (inode) was `key` (- if unknown)
+ * C id                   the write is on disk (the file was fsynced)
+ * R id                   the write failed and was undone
+ * </pre>
+ * A write that has a B record but no C nor R record was cut by a crash: {@link #recover()} truncates its file back to
+ * the recorded length, or deletes it if it was new, so only the tail that may be torn is touched, and records it in
+ * the {@link ChecksumManifest}. The batch then fetches the lost candles again, since the manifest and the files end
+ * before them. A file whose key changed since its B record was replaced by a rewrite, and is left as is.
+ * <br />
+ * B records are fsynced before the write starts; threads that begin at the same time share one fsync. C and R records
+ * are not fsynced by default: losing one only undoes a write that made it to disk. A write followed by a rewrite of
+ * its file commits {@link Entry#commit(boolean) durably}, since undoing it would cut the rewritten file.
+ * <br />
+ * Rewrites do not go through the journal: they write a temporary file, fsync it and rename it over the file.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class AppendJournal {
+  public static final String FILE_NAME = "candles-journal.log";
+  private static final String NO_FILE_KEY = "-";
+
+  private final V20Properties v20Properties;
+  private final ChecksumManifest checksumManifest;
+
+  private final AtomicLong nextId = new AtomicLong(System.currentTimeMillis() * 1_000);
+  private final AtomicInteger openCount = new AtomicInteger();
+  private final ReentrantLock writeLock = new ReentrantLock();
+  private final ReentrantLock syncLock = new ReentrantLock();
+  private FileChannel channel;
+  private volatile long writtenCount;
+  private long syncedCount;
+
+  /**
+   * A write to one file; {@link #close()} undoes it unless it was {@link #commit() committed}.
+   */
+  public final class Entry implements AutoCloseable {
+    private final long id;
+    private final Path path;
+    private final long length;
+    private final String fileKey;
+    private boolean isDone;
+
+    private Entry(long id, Path path, long length, String fileKey) {
+      this.id = id;
+      this.path = path;
+      this.length = length;
+      this.fileKey = fileKey;
+    }
+
+    /**
+     * Fsyncs the file, then records that the write is complete.
+     */
+    public void commit() throws IOException {
+      commit(false);
+    }
+
+    /**
+     * @param isDurable true to fsync the C record too, e.g. before the file is rewritten: a lost C record would undo
+     *                  the write, and cut the rewritten file at the length it had before
+     */
+    public void commit(boolean isDurable) throws IOException {
+      try (var file = FileChannel.open(path, WRITE)) {
+        file.force(true);
+      }
+      append("C %d%n".formatted(id), isDurable);
+      isDone = true;
+      openCount.decrementAndGet();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (!isDone) {
+        isDone = true;
+        try {
+          undo(path, length, fileKey);
+          append("R %d%n".formatted(id), false);
+        } finally {
+          openCount.decrementAndGet();
+        }
+      }
+    }
+  }
+
+  /**
+   * Records, durably, that {@code path} is about to be appended to or created.
+   */
+  public Entry begin(Path path) throws IOException {
+    var absolute = path.toAbsolutePath();
+    var length = Files.exists(absolute) ? Files.size(absolute) : -1L;
+    var fileKey = length < 0 ? NO_FILE_KEY : fileKey(absolute);
+    var id = nextId.getAndIncrement();
+    openCount.incrementAndGet();
+    try {
+      append("B %d %d %s %s%n".formatted(id, length, fileKey, absolute), true);
+    } catch (IOException e) {
+      openCount.decrementAndGet();
+      throw e;
+    }
+    return new Entry(id, absolute, length, fileKey);
+  }
+
+  /**
+   * Empties the journal if no write is in progress, so that it does not keep growing in a long-running process.
+   */
+  public void compactIfIdle() {
+    writeLock.lock();
+    try {
+      if (channel != null && openCount.get() == 0) {
+        channel.truncate(0);
+      }
+    } catch (IOException e) {
+      log.warn("Cannot empty {}", journalPath(), e);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  /**
+   * Undoes the writes that a crash cut, then empties the journal. Must run before any write, while no other instance
+   * of the batch runs.
+   */
+  public void recover() {
+    var journal = journalPath();
+    if (!Files.exists(journal)) {
+      return;
+    }
+    var open = new LinkedHashMap<Long, Entry>();
+    try (var lines = Files.lines(journal, UTF_8)) {
+      // a torn last line is ignored: its write had not started
+      lines.map(line -> line.split(" ", 5)).forEach(record -> {
+        try {
+          switch (record[0]) {
+            case "B" -> open.put(Long.parseLong(record[1]),
+                new Entry(Long.parseLong(record[1]), Paths.get(record[4]), Long.parseLong(record[2]), record[3]));
+            case "C", "R" -> open.remove(Long.parseLong(record[1]));
+            default -> log.warn("Ignoring journal record {}", String.join(" ", record));
+          }
+        } catch (RuntimeException e) {
+          log.warn("Ignoring journal record {}", String.join(" ", record));
+        }
+      });
+    } catch (IOException e) {
+      log.error("Cannot read {}; monthly files are not recovered", journal, e);
+      return;
+    }
+
+    for (var entry : open.values()) {
+      try {
+        var msg = "Recovering %s to %d bytes after an interrupted write".formatted(entry.path, entry.length);
+        log.warn(msg);
+        logToFile(msg);
+        undo(entry.path, entry.length, entry.fileKey);
+      } catch (IOException e) {
+        log.error("Cannot recover {}", entry.path, e);
+      }
+      if (Files.exists(entry.path)) {
+        checksumManifest.record(entry.path);
+      } else {
+        checksumManifest.remove(entry.path);
+      }
+    }
+    checksumManifest.flush();
+
+    writeLock.lock();
+    try {
+      closeChannel();
+      Files.delete(journal);
+    } catch (IOException e) {
+      log.error("Cannot empty {}", journal, e);
+    } finally {
+      writeLock.unlock();
+    }
+  }
+
+  private static void undo(Path path, long length, String fileKey) throws IOException {
+    if (length < 0) {
+      Files.deleteIfExists(path);
+      return;
+    }
+    if (!Files.exists(path)) {
+      log.warn("{} is gone; nothing to undo", path);
+      return;
+    }
+    if (!NO_FILE_KEY.equals(fileKey) && !fileKey.equals(fileKey(path))) {
+      log.warn("{} was rewritten since the write; left as is", path);
+      return;
+    }
+    try (var file = FileChannel.open(path, WRITE)) {
+      if (file.size() > length) {
+        file.truncate(length);
+        file.force(true);
+      } else if (file.size() < length) {
+        log.warn("{} is shorter than before the write; left as is", path);
+      }
+    }
+  }
+
+  /**
+   * @return the file key, e.g. {@code (dev=803,ino=1234)}, which a rename over the file changes; {@link #NO_FILE_KEY}
+   * if the file system has none
+   */
+  private static String fileKey(Path path) throws IOException {
+    var key = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+    // a key must stay one field of the B record
+    return key == null ? NO_FILE_KEY : key.toString().replace(' ', '_');
+  }
+
+  private void append(String record, boolean isDurable) throws IOException {
+    var count = 0L;
+    writeLock.lock();
+    try {
+      if (channel == null) {
+        Files.createDirectories(journalPath().getParent());
+        channel = FileChannel.open(journalPath(), WRITE, CREATE, APPEND);
+      }
+      var buffer = ByteBuffer.wrap(record.getBytes(UTF_8));
+      while (buffer.hasRemaining()) {
+        channel.write(buffer);
+      }
+      count = ++writtenCount;
+    } finally {
+      writeLock.unlock();
+    }
+    if (isDurable) {
+      sync(count);
+    }
+  }
+
+  /**
+   * Group commit: whoever gets the lock first fsyncs the records of every thread that wrote before it.
+   */
+  private void sync(long count) throws IOException {
+    syncLock.lock();
+    try {
+      if (syncedCount >= count) {
+        return;
+      }
+      var upTo = writtenCount;
+      channel.force(false);
+      syncedCount = upTo;
+    } finally {
+      syncLock.unlock();
+    }
+  }
+
+  private void closeChannel() throws IOException {
+    if (channel != null) {
+      channel.close();
+      channel = null;
+    }
+  }
+
+  private Path journalPath() {
+    return Paths.get(v20Properties.candlestick().outputPath(), FILE_NAME);
+  }
+
+}
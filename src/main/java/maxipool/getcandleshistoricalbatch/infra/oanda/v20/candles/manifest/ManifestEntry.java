@@ -0,0 +1,34 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest;
+
+import java.time.Instant;
+
+/**
+ * What is known about the latest monthly file of one instrument/granularity after the last write to it.
+ *
+ * @param latestFile     file name of the latest month, e.g. "AUD_CAD-M1-2022_12.csv"
+ * @param lastCandleTime time of its last candle
+ * @param rowCount       number of candles in it, or {@link #UNKNOWN_ROW_COUNT} if the file was located from its last row
+ * @param byteLength     size of the file
+ * @param lastModified   last modification time of the file, or null in an entry saved before it was recorded
+ * @param tailLength     number of bytes, at the end of the file, covered by {@code tailCrc32c}: the last row of a
+ *                       CSV file, the last bytes of a BIN file
+ * @param tailCrc32c     CRC32C of those bytes, to tell that the file was not changed behind the manifest's back
+ */
+public record ManifestEntry(
+    String latestFile,
+    Instant lastCandleTime,
+    long rowCount,
+    long byteLength,
+    Instant lastModified,
+    int tailLength,
+    long tailCrc32c) {
+
+  public static final long UNKNOWN_ROW_COUNT = -1;
+
+  /**
+   * @return the row count once {@code appended} candles are added to the file
+   */
+  public long rowCountAfter(long appended) {
+    return rowCount == UNKNOWN_ROW_COUNT ? UNKNOWN_ROW_COUNT : rowCount + appended;
+  }
+}
@@ -0,0 +1,315 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import jakarta.annotation.PreDestroy;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.file.CleanupUtil;
+import maxipool.getcandleshistoricalbatch.common.file.TailReader;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.NOT_PARSED;
+
+/**
+ * One small JSON file under {@code outputPath} that says, for every instrument/granularity, which monthly file is the
+ * latest and how it ends, so that planning a run does not list every folder nor read the end of every file.
+ * <br />
+ * The entries are kept in memory and the manifest is rewritten (temp file, fsync, atomic rename) by {@link #flush()},
+ * once per batch of instrument/granularity updates and when the application stops, not after every write to a monthly
+ * file. It is only a cache of what is on disk: an entry is checked against its file with a stat, its size and last
+ * modification time, without reading it. Only when the time differs, e.g. the file was touched or copied back, is its
+ * last row read and compared with the recorded CRC. An entry whose file no longer has the recorded size and last row
+ * is ignored and rebuilt by scanning, and a missing, stale or unreadable manifest means some or every
+ * instrument/granularity is scanned once.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class StoreManifest {
+  public static final String FILE_NAME = "candles-manifest.json";
+  private static final int VERSION = 1;
+  /**
+   * Longer than any candle row.
+   */
+  private static final int MAX_TAIL_LENGTH = 512;
+  /**
+   * The end of the last block: its last volumes and completes.
+   */
+  private static final int BIN_TAIL_LENGTH = 64;
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .registerModule(new JavaTimeModule())
+      .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+      .enable(SerializationFeature.INDENT_OUTPUT);
+
+  private final V20Properties v20Properties;
+
+  private final Map<String, ManifestEntry> entries = new ConcurrentHashMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private volatile boolean isLoaded;
+  private volatile boolean isDirty;
+
+  record ManifestFile(int version, Map<String, ManifestEntry> entries) {
+  }
+
+  public Optional<ManifestEntry> get(IG ig) {
+    load();
+    return Optional.ofNullable(entries.get(ig.toString()));
+  }
+
+  /**
+   * @return the entry of {@code ig} if it describes {@code file} as it is now on disk
+   */
+  public Optional<ManifestEntry> getIfCurrent(IG ig, Path file) {
+    return get(ig).filter(e -> isCurrent(e, file));
+  }
+
+  public void put(IG ig, ManifestEntry entry) {
+    load();
+    entries.put(ig.toString(), entry);
+    isDirty = true;
+  }
+
+  /**
+   * Forgets {@code ig} so that the next run scans its folder again, e.g. after a failed write.
+   */
+  public void remove(IG ig) {
+    load();
+    if (entries.remove(ig.toString()) != null) {
+      isDirty = true;
+    }
+  }
+
+  /**
+   * Forgets {@code ig} if its latest file in {@code subDir} was changed without going through {@link #put}, e.g. by
+   * the backfill prepending older candles to it.
+   */
+  public void removeIfStale(IG ig, Path subDir) {
+    get(ig)
+        .filter(e -> !isCurrent(e, subDir.resolve(e.latestFile())))
+        .ifPresent(e -> remove(ig));
+  }
+
+  /**
+   * Builds the entry of a file. A CSV file is located from its last row alone, found by {@link TailReader} in a single
+   * read of its end, and its row count is left unknown; if that row cannot be read, the whole file is read, and cleaned
+   * up first if it has rows that cannot be read. A BIN file is read whole.
+   *
+   * @return empty if the file holds no candle
+   */
+  public static Optional<ManifestEntry> scan(Path file) throws IOException {
+    if (!isBin(file)) {
+      var located = locateCsv(file);
+      if (located.isPresent()) {
+        return located;
+      }
+    }
+    var candles = isBin(file) ? CandleBinFile.read(file) : readCsv(file);
+    if (candles.isEmpty()) {
+      return Optional.empty();
+    }
+    var lastTime = Long.MIN_VALUE;
+    for (var i = 0; i < candles.size(); i++) {
+      lastTime = Math.max(lastTime, candles.time(i));
+    }
+    return Optional.of(describe(file, Instant.ofEpochSecond(lastTime), candles.size()));
+  }
+
+  private static Optional<ManifestEntry> locateCsv(Path file) throws IOException {
+    try (var channel = FileChannel.open(file, READ)) {
+      var size = channel.size();
+      var tail = TailReader.read(channel, size, 1);
+      var lastTime = TailReader.lastCandleTime(tail);
+      var tailLength = tail.bytes().length - tail.from();
+      if (lastTime == NOT_PARSED || tailLength > MAX_TAIL_LENGTH) {
+        return Optional.empty();
+      }
+      // the same bytes as readTail: the last row and its line break
+      var crc = new CRC32C();
+      crc.update(tail.bytes(), tail.from(), tailLength);
+      return Optional.of(new ManifestEntry(file.getFileName().toString(), Instant.ofEpochSecond(lastTime),
+          ManifestEntry.UNKNOWN_ROW_COUNT, size, lastModified(file), tailLength, crc.getValue()));
+    }
+  }
+
+  private static CandleBlock readCsv(Path file) throws IOException {
+    var parsed = CsvCandleParser.parse(file);
+    if (parsed.rejectedRows() > 0) {
+      CleanupUtil.cleanup(file.getFileName().toString(), file);
+      parsed = CsvCandleParser.parse(file);
+    }
+    return parsed.candles();
+  }
+
+  private static boolean isBin(Path file) {
+    return file.getFileName().toString().endsWith("." + CandleBinFile.EXTENSION);
+  }
+
+  /**
+   * Builds the entry of a file whose last candle and row count are already known; only its end is read.
+   */
+  public static ManifestEntry describe(Path file, Instant lastCandleTime, long rowCount) throws IOException {
+    try (var channel = FileChannel.open(file, READ)) {
+      var size = channel.size();
+      var tail = readTail(channel, size, isBin(file));
+      return new ManifestEntry(file.getFileName().toString(), lastCandleTime, rowCount, size, lastModified(file),
+          tail.remaining(), crc32c(tail));
+    }
+  }
+
+  /**
+   * A stat is enough when the size and the modification time are the recorded ones; the last row is only read when
+   * the time differs.
+   */
+  private static boolean isCurrent(ManifestEntry entry, Path file) {
+    if (!file.getFileName().toString().equals(entry.latestFile())) {
+      return false;
+    }
+    try {
+      var attributes = Files.readAttributes(file, BasicFileAttributes.class);
+      if (attributes.size() != entry.byteLength()) {
+        return false;
+      }
+      if (attributes.lastModifiedTime().toInstant().equals(entry.lastModified())) {
+        return true;
+      }
+      try (var channel = FileChannel.open(file, READ)) {
+        var tail = readTail(channel, entry.byteLength(), isBin(file));
+        return tail.remaining() == entry.tailLength() && crc32c(tail) == entry.tailCrc32c();
+      }
+    } catch (IOException e) {
+      log.debug("Cannot check {} against the manifest", file, e);
+      return false;
+    }
+  }
+
+  private static Instant lastModified(Path file) throws IOException {
+    return Files.getLastModifiedTime(file).toInstant();
+  }
+
+  /**
+   * @return the last row of a CSV file, with its line break, or the last bytes of a BIN file
+   */
+  private static ByteBuffer readTail(FileChannel channel, long size, boolean isBin) throws IOException {
+    var length = (int) Math.min(size, isBin ? BIN_TAIL_LENGTH : MAX_TAIL_LENGTH);
+    var buffer = ByteBuffer.allocate(length);
+    while (buffer.hasRemaining() && channel.read(buffer, size - length + buffer.position()) >= 0) {
+      // keep reading
+    }
+    buffer.flip();
+    if (isBin) {
+      return buffer;
+    }
+    var end = buffer.limit();
+    // skip the line break of the last row, then stop after the previous one
+    var i = end - 1;
+    while (i >= 0 && (buffer.get(i) == '\n' || buffer.get(i) == '\r')) {
+      i--;
+    }
+    while (i >= 0 && buffer.get(i) != '\n') {
+      i--;
+    }
+    return buffer.position(i + 1);
+  }
+
+  private static long crc32c(ByteBuffer buffer) {
+    var crc = new CRC32C();
+    crc.update(buffer.duplicate());
+    return crc.getValue();
+  }
+
+  private Path path() {
+    return Paths.get(v20Properties.candlestick().outputPath(), FILE_NAME);
+  }
+
+  private void load() {
+    if (isLoaded) {
+      return;
+    }
+    lock.lock();
+    try {
+      if (isLoaded) {
+        return;
+      }
+      var path = path();
+      if (Files.exists(path)) {
+        try {
+          var file = MAPPER.readValue(path.toFile(), ManifestFile.class);
+          if (file.version() == VERSION && file.entries() != null) {
+            entries.putAll(file.entries());
+          } else {
+            log.warn("Ignoring manifest {} of version {}", path, file.version());
+          }
+        } catch (IOException e) {
+          log.warn("Cannot read manifest {}; every instrument/granularity will be scanned", path, e);
+        }
+      } else {
+        log.info("No manifest at {}; every instrument/granularity will be scanned", path);
+      }
+      isLoaded = true;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Saves the entries changed since the last flush, if any.
+   */
+  @PreDestroy
+  public void flush() {
+    if (!isDirty) {
+      return;
+    }
+    lock.lock();
+    try {
+      if (!isDirty) {
+        return;
+      }
+      // a change made while saving marks the manifest dirty again, for the next flush
+      isDirty = false;
+      var path = path();
+      var tmp = path.resolveSibling(FILE_NAME + ".tmp");
+      var bytes = MAPPER.writeValueAsBytes(new ManifestFile(VERSION, new TreeMap<>(entries)));
+      try (var channel = FileChannel.open(tmp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+    } catch (IOException e) {
+      // the files are the source of truth; a stale manifest only costs a scan on the next run
+      log.warn("Cannot save manifest {}", path(), e);
+    } finally {
+      lock.unlock();
+    }
+  }
+
+}
@@ -0,0 +1,13 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model;
+
+public enum EFetchExecutor {
+  /**
+   * Fixed pool of platform threads, sized from the rate limiter's maximum concurrency.
+   */
+  PLATFORM,
+  /**
+   * One virtual thread per task, of which as many run at the same time as the pool would have platform threads; the
+   * others wait without holding a thread.
+   */
+  VIRTUAL
+}
@@ -0,0 +1,13 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model;
+
+public enum EHttpTransport {
+  /**
+   * Feign's {@code HttpURLConnection} client: HTTP/1.1, uncompressed responses.
+   */
+  DEFAULT,
+  /**
+   * One shared JDK {@code HttpClient}: pooled keep-alive connections, HTTP/2 multiplexing when the server offers it,
+   * and gzip responses.
+   */
+  JDK
+}
@@ -0,0 +1,27 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model;
+
+import lombok.Getter;
+import lombok.RequiredArgsConstructor;
+
+/**
+ * Formats of the monthly candle files; declared in order of preference when several are written.
+ */
+@Getter
+@RequiredArgsConstructor
+public enum EStoreFormat {
+  /**
+   * Text, one candle per line; see {@link maxipool.getcandleshistoricalbatch.common.csv.CsvCandle}.
+   */
+  CSV("csv"),
+  /**
+   * Fixed-width columns; see {@link maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile}.
+   */
+  BIN("bin"),
+  /**
+   * Compressed, for closed months only; written by the COMPRESS mode, never by the batch. See
+   * {@link maxipool.getcandleshistoricalbatch.common.bin.CandleGorillaFile}.
+   */
+  GORILLA("gor");
+
+  private final String extension;
+}
@@ -0,0 +1,77 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model;
+
+import com.oanda.v20.primitives.InstrumentType;
+import lombok.RequiredArgsConstructor;
+import org.springframework.lang.Nullable;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+import static java.time.DayOfWeek.*;
+
+/**
+ * When Oanda's market of an instrument is open, in New York time, which follows daylight saving time as the market
+ * does. A candle missing while the market is closed is expected; one missing while it is open is a gap.
+ * <br />
+ * Holidays are not known: a market closed for a holiday shows up as a gap, for which Oanda has no candle.
+ */
+@RequiredArgsConstructor
+public enum ETradingCalendar {
+  /**
+   * Open around the clock from Sunday 17:00 to Friday 17:00.
+   */
+  FX(17 * 60, -1),
+  /**
+   * The week of {@link #FX}, reopening Sunday at 18:00, and closed every day from 17:00 to 18:00.
+   */
+  CFD(18 * 60, 17 * 60),
+  /**
+   * Never closed: every missing candle is a gap.
+   */
+  ALWAYS_OPEN(-1, -1);
+
+  private static final ZoneId NEW_YORK = ZoneId.of("America/New_York");
+  private static final int WEEK_CLOSE = 17 * 60;
+
+  /**
+   * Minute of the day, Sunday, at which the week opens; -1 when never closed.
+   */
+  private final int weekOpen;
+  /**
+   * Minute of the day at which the daily break starts, until {@link #weekOpen}; -1 when there is none.
+   */
+  private final int dailyBreak;
+
+  /**
+   * @return the calendar of the instruments of that type: {@link #FX} for currencies, {@link #CFD} for the rest
+   */
+  public static ETradingCalendar of(@Nullable InstrumentType type) {
+    return type == null || type == InstrumentType.CURRENCY ? FX : CFD;
+  }
+
+  public boolean isOpen(long epochSecond) {
+    if (weekOpen < 0) {
+      return true;
+    }
+    var instant = Instant.ofEpochSecond(epochSecond);
+    var local = LocalDateTime.ofInstant(instant, NEW_YORK);
+    var day = local.getDayOfWeek();
+    var minute = local.getHour() * 60 + local.getMinute();
+    return !isWeekend(day, minute) && !(dailyBreak >= 0 && minute >= dailyBreak && minute < weekOpen);
+  }
+
+  /**
+   * @return true if a candle of {@code seconds} starting at {@code epochSecond} should exist, i.e. the market is open
+   * at its start or during its last minute, e.g. a daily candle that starts in the daily break
+   */
+  public boolean isExpected(long epochSecond, long seconds) {
+    return isOpen(epochSecond) || seconds > 60 && isOpen(epochSecond + seconds - 60);
+  }
+
+  private boolean isWeekend(DayOfWeek day, int minute) {
+    return day == SATURDAY || day == FRIDAY && minute >= WEEK_CLOSE || day == SUNDAY && minute < weekOpen;
+  }
+
+}
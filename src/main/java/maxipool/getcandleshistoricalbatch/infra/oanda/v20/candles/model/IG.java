@@ -0,0 +1,16 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+
+/**
+ * Instrument and Granularity pair; one folder of monthly files per IG.
+ *
+ * @param instrument
+ * @param granularity
+ */
+public record IG(String instrument, CandlestickGranularity granularity) {
+  @Override
+  public String toString() {
+    return "%s-%s".formatted(instrument, granularity);
+  }
+}
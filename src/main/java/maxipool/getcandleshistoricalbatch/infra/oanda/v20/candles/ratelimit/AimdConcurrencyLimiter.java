@@ -0,0 +1,83 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Limits the number of requests in flight with Additive Increase / Multiplicative Decrease:
+ * <ul>
+ *   <li>every healthy response (fast enough and not overloaded) adds {@code 1/limit}, i.e. about +1 per round trip</li>
+ *   <li>an overloaded response (429/5xx/IO error) halves the limit, at most once per {@link #DECREASE_COOLDOWN}
+ *   so that one burst of errors only counts once</li>
+ * </ul>
+ */
+public class AimdConcurrencyLimiter {
+
+  private static final double DECREASE_RATIO = 0.5;
+  private static final long DECREASE_COOLDOWN = TimeUnit.SECONDS.toNanos(1);
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final Condition available = lock.newCondition();
+  private final int minLimit;
+  private final int maxLimit;
+  private final long healthyLatencyNanos;
+
+  private double limit;
+  private int inFlight;
+  private long lastDecreaseNanos;
+
+  public AimdConcurrencyLimiter(int initialLimit, int minLimit, int maxLimit, Duration healthyLatency) {
+    this.minLimit = minLimit;
+    this.maxLimit = maxLimit;
+    this.healthyLatencyNanos = healthyLatency.toNanos();
+    this.limit = Math.clamp(initialLimit, minLimit, maxLimit);
+    this.lastDecreaseNanos = System.nanoTime() - DECREASE_COOLDOWN;
+  }
+
+  public void acquire() throws InterruptedException {
+    lock.lock();
+    try {
+      while (inFlight >= (int) limit) {
+        available.await();
+      }
+      inFlight++;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public void release(long latencyNanos, boolean isOverloaded) {
+    lock.lock();
+    try {
+      inFlight--;
+      var now = System.nanoTime();
+      if (isOverloaded) {
+        if (now - lastDecreaseNanos >= DECREASE_COOLDOWN) {
+          limit = Math.max(minLimit, limit * DECREASE_RATIO);
+          lastDecreaseNanos = now;
+        }
+      } else if (latencyNanos <= healthyLatencyNanos) {
+        limit = Math.min(maxLimit, limit + 1 / limit);
+      }
+      available.signalAll();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getLimit() {
+    lock.lock();
+    try {
+      return (int) limit;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  public int getMaxLimit() {
+    return maxLimit;
+  }
+
+}
@@ -0,0 +1,87 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit;
+
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RateLimitProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.stereotype.Component;
+
+import java.io.InterruptedIOException;
+import java.time.Duration;
+
+import static java.util.Optional.ofNullable;
+
+/**
+ * Single gate for every Oanda REST call: a {@link TokenBucket} for the request rate and an
+ * {@link AimdConcurrencyLimiter} for the requests in flight.
+ */
+@Slf4j
+@Component
+public class OandaRateLimiter {
+
+  private static final double DEFAULT_REQUESTS_PER_SECOND = 100;
+  private static final int DEFAULT_BURST = 20;
+  private static final int DEFAULT_INITIAL_CONCURRENCY = 8;
+  private static final int DEFAULT_MIN_CONCURRENCY = 1;
+  private static final int DEFAULT_MAX_CONCURRENCY = 64;
+  private static final Duration DEFAULT_HEALTHY_LATENCY = Duration.ofSeconds(1);
+
+  private final TokenBucket tokenBucket;
+  private final AimdConcurrencyLimiter concurrencyLimiter;
+
+  public OandaRateLimiter(V20Properties v20Properties) {
+    var properties = ofNullable(v20Properties.rateLimit()).orElseGet(() -> RateLimitProperties.builder().build());
+    this.tokenBucket = new TokenBucket(
+        ofNullable(properties.requestsPerSecond()).orElse(DEFAULT_REQUESTS_PER_SECOND),
+        ofNullable(properties.burst()).orElse(DEFAULT_BURST));
+    this.concurrencyLimiter = new AimdConcurrencyLimiter(
+        ofNullable(properties.initialConcurrency()).orElse(DEFAULT_INITIAL_CONCURRENCY),
+        ofNullable(properties.minConcurrency()).orElse(DEFAULT_MIN_CONCURRENCY),
+        ofNullable(properties.maxConcurrency()).orElse(DEFAULT_MAX_CONCURRENCY),
+        ofNullable(properties.healthyLatency()).orElse(DEFAULT_HEALTHY_LATENCY));
+  }
+
+  /**
+   * Blocks until a request may go out; must be followed by exactly one {@link #release(long, int)}.
+   */
+  public void acquire() throws InterruptedIOException {
+    try {
+      concurrencyLimiter.acquire();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a request slot");
+    }
+    try {
+      tokenBucket.acquire();
+    } catch (InterruptedException e) {
+      concurrencyLimiter.release(0, false);
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while waiting for a request token");
+    }
+  }
+
+  /**
+   * @param status HTTP status of the response, or -1 when the request failed with an IO error
+   */
+  public void release(long latencyNanos, int status) {
+    var isOverloaded = status == 429 || status >= 500 || status < 0;
+    concurrencyLimiter.release(latencyNanos, isOverloaded);
+    if (isOverloaded) {
+      log.warn("Oanda answered {}; concurrency limit is now {}", status, concurrencyLimiter.getLimit());
+    }
+  }
+
+  /**
+   * Called on a 429 so that no request goes out before the server said it would accept one.
+   */
+  public void pause(Duration retryAfter) {
+    tokenBucket.pause(retryAfter);
+  }
+
+  /**
+   * Upper bound of the requests in flight; there is no point in running more fetches than that at once.
+   */
+  public int getMaxConcurrency() {
+    return concurrencyLimiter.getMaxLimit();
+  }
+
+}
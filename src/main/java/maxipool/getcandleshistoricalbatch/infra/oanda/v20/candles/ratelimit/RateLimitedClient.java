@@ -0,0 +1,158 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit;
+
+import feign.Client;
+import feign.Request;
+import feign.Response;
+import lombok.RequiredArgsConstructor;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
+
+import java.io.FilterInputStream;
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.regex.Pattern;
+
+import static java.util.Optional.ofNullable;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.OANDA_RATE_LIMITED;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.OANDA_REQUEST_SECONDS;
+
+/**
+ * Feign {@link Client} that goes through the {@link OandaRateLimiter} before every request and reports back how the
+ * request went, to it and to {@link Metrics}.
+ * <br />
+ * A response body is still streaming when the client returns, e.g. the 5000 candles of a page: the request keeps its
+ * slot, and its latency is measured, until the body (or the stream or reader read from it) is closed.
+ */
+@RequiredArgsConstructor
+public class RateLimitedClient implements Client {
+
+  private static final String RETRY_AFTER = "Retry-After";
+  private static final Pattern CANDLES_URL =
+      Pattern.compile("/v3/instruments/([^/?]+)/candles(?:\\?(?:.*&)?granularity=([A-Z0-9]+))?");
+
+  private final Client delegate;
+  private final OandaRateLimiter rateLimiter;
+
+  @Override
+  public Response execute(Request request, Request.Options options) throws IOException {
+    rateLimiter.acquire();
+    var start = System.nanoTime();
+    var status = -1;
+    var isReleasedOnClose = false;
+    try {
+      var response = delegate.execute(request, options);
+      status = response.status();
+      if (status == 429) {
+        rateLimiter.pause(retryAfter(response));
+      }
+      if (response.body() == null) {
+        return response;
+      }
+      var isReleased = new AtomicBoolean();
+      var finalStatus = status;
+      Runnable onClose = () -> {
+        if (isReleased.compareAndSet(false, true)) {
+          release(request, start, finalStatus);
+        }
+      };
+      isReleasedOnClose = true;
+      return response.toBuilder().body(new ReleasingBody(response.body(), onClose)).build();
+    } finally {
+      if (!isReleasedOnClose) {
+        release(request, start, status);
+      }
+    }
+  }
+
+  private void release(Request request, long start, int status) {
+    var elapsedNanos = System.nanoTime() - start;
+    rateLimiter.release(elapsedNanos, status);
+    record(request, status, elapsedNanos);
+  }
+
+  private static void record(Request request, int status, long elapsedNanos) {
+    var matcher = CANDLES_URL.matcher(request.url());
+    var endpoint = matcher.find() ? "candles" : "other";
+    var instrument = endpoint.equals("candles") ? matcher.group(1) : "";
+    var granularity = endpoint.equals("candles") ? ofNullable(matcher.group(2)).orElse("") : "";
+    Metrics.recordNanos(OANDA_REQUEST_SECONDS, elapsedNanos,
+        endpoint, instrument, granularity, status < 0 ? "IO_ERROR" : Integer.toString(status));
+    if (status == 429) {
+      Metrics.count(OANDA_RATE_LIMITED, 1, endpoint);
+    }
+  }
+
+  /**
+   * Runs {@code onClose} once the body, or what was read from it, is closed.
+   */
+  @RequiredArgsConstructor
+  private static class ReleasingBody implements Response.Body {
+    private final Response.Body delegate;
+    private final Runnable onClose;
+
+    @Override
+    public Integer length() {
+      return delegate.length();
+    }
+
+    @Override
+    public boolean isRepeatable() {
+      return delegate.isRepeatable();
+    }
+
+    @Override
+    public InputStream asInputStream() throws IOException {
+      return new FilterInputStream(delegate.asInputStream()) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            onClose.run();
+          }
+        }
+      };
+    }
+
+    @Override
+    public Reader asReader(Charset charset) throws IOException {
+      return new FilterReader(delegate.asReader(charset)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            onClose.run();
+          }
+        }
+      };
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        delegate.close();
+      } finally {
+        onClose.run();
+      }
+    }
+  }
+
+  private static Duration retryAfter(Response response) {
+    return response
+        .headers()
+        .getOrDefault(RETRY_AFTER, List.of())
+        .stream()
+        .findFirst()
+        .map(String::trim)
+        .filter(s -> s.matches("\\d+"))
+        .map(s -> Duration.ofSeconds(Long.parseLong(s)))
+        .orElse(Duration.ofSeconds(1));
+  }
+
+}
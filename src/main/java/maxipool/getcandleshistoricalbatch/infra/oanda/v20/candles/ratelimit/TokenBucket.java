@@ -0,0 +1,61 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Token bucket that hands out reservations: a caller takes its token right away, possibly going into debt, and then
+ * sleeps until the bucket would have refilled up to that token. Callers are therefore served in arrival order.
+ */
+public class TokenBucket {
+
+  private final ReentrantLock lock = new ReentrantLock();
+  private final double tokensPerNano;
+  private final double capacity;
+
+  private double tokens;
+  private long lastRefillNanos;
+
+  public TokenBucket(double tokensPerSecond, int capacity) {
+    this.tokensPerNano = tokensPerSecond / TimeUnit.SECONDS.toNanos(1);
+    this.capacity = capacity;
+    this.tokens = capacity;
+    this.lastRefillNanos = System.nanoTime();
+  }
+
+  public void acquire() throws InterruptedException {
+    long waitNanos;
+    lock.lock();
+    try {
+      refill();
+      tokens -= 1;
+      waitNanos = tokens >= 0 ? 0 : (long) (-tokens / tokensPerNano);
+    } finally {
+      lock.unlock();
+    }
+    if (waitNanos > 0) {
+      TimeUnit.NANOSECONDS.sleep(waitNanos);
+    }
+  }
+
+  /**
+   * Nobody gets a token for the given duration, e.g. the {@code Retry-After} of a 429.
+   */
+  public void pause(Duration duration) {
+    lock.lock();
+    try {
+      refill();
+      tokens = Math.min(tokens, 0) - duration.toNanos() * tokensPerNano;
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  private void refill() {
+    var now = System.nanoTime();
+    tokens = Math.min(capacity, tokens + (now - lastRefillNanos) * tokensPerNano);
+    lastRefillNanos = now;
+  }
+
+}
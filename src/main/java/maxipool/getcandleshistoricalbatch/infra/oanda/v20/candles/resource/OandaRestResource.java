@@ -1,6 +1,7 @@
 package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource;
 
 import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.config.OandaRestFeignConfig;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.GetInstrumentListResponse;
 import maxipool.getcandleshistoricalbatch.infra.oanda.v20.model.GetCandlesResponse;
@@ -32,6 +33,24 @@ public interface OandaRestResource {
                                          @RequestParam(GRANULARITY) CandlestickGranularity granularity,
                                          @RequestParam(COUNT) int count);
 
+  /**
+   * Same as {@link #getCandlesFromTo} but decoded straight into primitive columns, see
+   * {@link maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.OandaCandlesDecoder}.
+   */
+  @GetMapping("/v3/instruments/{instrument}/candles")
+  CandleBlock getCandleBlockFromTo(@PathVariable("instrument") String instrument,
+                                   @RequestParam(GRANULARITY) CandlestickGranularity granularity,
+                                   @RequestParam(FROM) String from,
+                                   @RequestParam(TO) String to);
+
+  /**
+   * Same as {@link #getCandlesWithCount} but decoded straight into primitive columns.
+   */
+  @GetMapping("/v3/instruments/{instrument}/candles")
+  CandleBlock getCandleBlockWithCount(@PathVariable("instrument") String instrument,
+                                      @RequestParam(GRANULARITY) CandlestickGranularity granularity,
+                                      @RequestParam(COUNT) int count);
+
   /**
    * Get the list of tradeable instruments for the given account.
    */
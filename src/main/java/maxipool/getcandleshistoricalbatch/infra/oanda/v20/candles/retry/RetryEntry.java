@@ -0,0 +1,29 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import org.springframework.lang.Nullable;
+
+import java.time.Instant;
+
+/**
+ * An instrument/granularity whose update failed, and the candles it misses.
+ *
+ * @param from          time of the first missing candle, where the retry fetches from; null if it is not known, e.g.
+ *                      the pair had no file yet, and the retry updates the pair like the batch does
+ * @param to            when the last failed update started; the retry fetches the candles up to then
+ * @param attempts      number of failed updates in a row
+ * @param nextAttemptAt not retried before then
+ */
+public record RetryEntry(
+    String instrument,
+    CandlestickGranularity granularity,
+    @Nullable Instant from,
+    Instant to,
+    int attempts,
+    Instant nextAttemptAt) {
+
+  public IG ig() {
+    return new IG(instrument, granularity);
+  }
+}
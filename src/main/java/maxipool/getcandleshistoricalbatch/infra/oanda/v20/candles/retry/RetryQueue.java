@@ -0,0 +1,214 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry;
+
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RetryProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.springframework.lang.Nullable;
+import org.springframework.stereotype.Component;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.*;
+import static java.util.Optional.ofNullable;
+
+/**
+ * The instrument/granularity pairs whose last update failed, in one small JSON file under {@code outputPath}, so that
+ * a later run retries those pairs only instead of the whole batch.
+ * <br />
+ * Each failure in a row doubles the wait before the next retry, from {@link RetryProperties#initialDelay()} up to
+ * {@link RetryProperties#maxDelay()}; a success removes the pair. The file is rewritten (temp file, fsync, atomic
+ * rename) after every change. The {@link StoreManifest} is only saved once per batch, since a stale manifest costs a
+ * scan, but a lost failure would never be retried.
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class RetryQueue {
+  public static final String FILE_NAME = "candles-retry-queue.json";
+  private static final int VERSION = 1;
+  private static final Duration DEFAULT_INITIAL_DELAY = Duration.ofMinutes(1);
+  private static final Duration DEFAULT_MAX_DELAY = Duration.ofHours(1);
+  private static final ObjectMapper MAPPER = new ObjectMapper()
+      .registerModule(new JavaTimeModule())
+      .disable(SerializationFeature.WRITE_DATES_AS_TIMESTAMPS)
+      .disable(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES)
+      .enable(SerializationFeature.INDENT_OUTPUT);
+
+  private final V20Properties v20Properties;
+
+  private final Map<String, RetryEntry> entries = new TreeMap<>();
+  private final ReentrantLock lock = new ReentrantLock();
+  private boolean isLoaded;
+
+  record QueueFile(int version, List<RetryEntry> entries) {
+  }
+
+  public Optional<RetryEntry> get(IG ig) {
+    lock.lock();
+    try {
+      load();
+      return Optional.ofNullable(entries.get(ig.toString()));
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Records a failed update of {@code ig}; the window it misses grows to cover the one of the previous failures.
+   *
+   * @param from time of the first missing candle, or null if it is not known, e.g. the pair has no file yet
+   * @param to   when the failed update started
+   * @return false if the queue could not be saved, i.e. the failure will not be retried before the next full run
+   */
+  public boolean recordFailure(IG ig, @Nullable Instant from, Instant to) {
+    lock.lock();
+    try {
+      load();
+      var entry = ofNullable(entries.get(ig.toString()))
+          .map(p -> new RetryEntry(ig.instrument(), ig.granularity(),
+              p.from() == null || from == null || from.isAfter(p.from()) ? p.from() : from,
+              to.isBefore(p.to()) ? p.to() : to,
+              p.attempts() + 1,
+              Instant.now().plus(backoff(p.attempts() + 1))))
+          .orElseGet(() -> new RetryEntry(ig.instrument(), ig.granularity(), from, to, 1,
+              Instant.now().plus(backoff(1))));
+      entries.put(ig.toString(), entry);
+      log.info("{} misses the candles from {} to {}; retry #{} at {}",
+          ig, entry.from(), entry.to(), entry.attempts(), entry.nextAttemptAt());
+      return save();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * Forgets {@code ig} once it was updated.
+   */
+  public void remove(IG ig) {
+    lock.lock();
+    try {
+      load();
+      if (entries.remove(ig.toString()) != null) {
+        save();
+      }
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return the pairs whose retry is due at {@code now}, the longest waiting first
+   */
+  public List<RetryEntry> due(Instant now) {
+    lock.lock();
+    try {
+      load();
+      return entries.values().stream()
+          .filter(e -> !e.nextAttemptAt().isAfter(now))
+          .sorted(Comparator.comparing(RetryEntry::nextAttemptAt))
+          .toList();
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * @return when the next retry is due, or empty if no pair is waiting
+   */
+  public Optional<Instant> nextAttemptAt() {
+    lock.lock();
+    try {
+      load();
+      return entries.values().stream().map(RetryEntry::nextAttemptAt).min(Comparator.naturalOrder());
+    } finally {
+      lock.unlock();
+    }
+  }
+
+  /**
+   * {@code initialDelay * 2^(attempts - 1)}, capped at {@code maxDelay}.
+   */
+  Duration backoff(int attempts) {
+    var retry = retryProperties();
+    var initialDelay = ofNullable(retry.initialDelay()).orElse(DEFAULT_INITIAL_DELAY);
+    var maxDelay = ofNullable(retry.maxDelay()).orElse(DEFAULT_MAX_DELAY);
+    var delay = initialDelay;
+    for (var i = 1; i < attempts && delay.compareTo(maxDelay) < 0; i++) {
+      delay = delay.multipliedBy(2);
+    }
+    return delay.compareTo(maxDelay) < 0 ? delay : maxDelay;
+  }
+
+  private RetryProperties retryProperties() {
+    return ofNullable(v20Properties.candlestick().retry()).orElseGet(() -> RetryProperties.builder().build());
+  }
+
+  private Path path() {
+    return Paths.get(v20Properties.candlestick().outputPath(), FILE_NAME);
+  }
+
+  private void load() {
+    if (isLoaded) {
+      return;
+    }
+    var path = path();
+    if (Files.exists(path)) {
+      try {
+        var file = MAPPER.readValue(path.toFile(), QueueFile.class);
+        if (file.version() == VERSION && file.entries() != null) {
+          file.entries().forEach(e -> entries.put(e.ig().toString(), e));
+        } else {
+          log.warn("Ignoring retry queue {} of version {}", path, file.version());
+        }
+      } catch (IOException e) {
+        // the next full run tries every pair anyway
+        log.warn("Cannot read retry queue {}; its pairs wait for the next full run", path, e);
+      }
+    }
+    isLoaded = true;
+  }
+
+  private boolean save() {
+    var path = path();
+    var tmp = path.resolveSibling(FILE_NAME + ".tmp");
+    try {
+      Files.createDirectories(path.getParent());
+      var bytes = MAPPER.writeValueAsBytes(new QueueFile(VERSION, List.copyOf(entries.values())));
+      try (var channel = FileChannel.open(tmp, WRITE, CREATE, TRUNCATE_EXISTING)) {
+        var buffer = ByteBuffer.wrap(bytes);
+        while (buffer.hasRemaining()) {
+          channel.write(buffer);
+        }
+        channel.force(true);
+      }
+      Files.move(tmp, path, ATOMIC_MOVE, REPLACE_EXISTING);
+      return true;
+    } catch (IOException e) {
+      log.warn("Cannot save retry queue {}", path, e);
+      return false;
+    }
+  }
+
+}
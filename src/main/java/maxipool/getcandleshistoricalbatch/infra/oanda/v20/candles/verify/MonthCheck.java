@@ -0,0 +1,25 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.verify;
+
+/**
+ * What was found wrong in one monthly file.
+ *
+ * @param candles      number of candles read
+ * @param rejectedRows rows of a CSV file that miss a field or cannot be read
+ * @param outOfOrder   candles before the one they follow
+ * @param duplicates   candles at the time of the one they follow
+ * @param outsideMonth candles of another month than the file's
+ * @param insane       candles whose prices are not positive numbers, whose high and low do not bound their open and
+ *                     close, or whose volume is negative
+ */
+public record MonthCheck(
+    int candles,
+    int rejectedRows,
+    int outOfOrder,
+    int duplicates,
+    int outsideMonth,
+    int insane) {
+
+  public boolean isBad() {
+    return rejectedRows + outOfOrder + duplicates + outsideMonth + insane > 0;
+  }
+}
@@ -0,0 +1,73 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.verify;
+
+import lombok.experimental.UtilityClass;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+import java.time.YearMonth;
+
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.startOfMonth;
+
+/**
+ * Checks the candles of one monthly file in a single pass, and builds the candles to rewrite it with when it is bad.
+ */
+@UtilityClass
+public class MonthChecker {
+
+  /**
+   * @param candles      as read from the file, in file order
+   * @param rejectedRows rows of the file that could not be read into {@code candles}
+   */
+  public static MonthCheck check(CandleBlock candles, YearMonth ym, int rejectedRows) {
+    var monthStart = startOfMonth(ym);
+    var monthEnd = startOfMonth(ym.plusMonths(1));
+    var outOfOrder = 0;
+    var duplicates = 0;
+    var outsideMonth = 0;
+    var insane = 0;
+    for (var i = 0; i < candles.size(); i++) {
+      var time = candles.time(i);
+      if (i > 0 && time == candles.time(i - 1)) {
+        duplicates++;
+      } else if (i > 0 && time < candles.time(i - 1)) {
+        outOfOrder++;
+      }
+      if (time < monthStart || time >= monthEnd) {
+        outsideMonth++;
+      }
+      if (!isSane(candles, i)) {
+        insane++;
+      }
+    }
+    return new MonthCheck(candles.size(), rejectedRows, outOfOrder, duplicates, outsideMonth, insane);
+  }
+
+  /**
+   * @return the sane candles of the month, sorted by time, the first one read of each time; the candles dropped are
+   * gaps that {@code REPAIR_GAPS} fetches again
+   */
+  public static CandleBlock repair(CandleBlock candles, YearMonth ym) {
+    var monthStart = startOfMonth(ym);
+    var monthEnd = startOfMonth(ym.plusMonths(1));
+    var kept = new CandleBlock(Math.max(1, candles.size()));
+    for (var i = 0; i < candles.size(); i++) {
+      if (candles.time(i) >= monthStart && candles.time(i) < monthEnd && isSane(candles, i)) {
+        kept.add(candles, i);
+      }
+    }
+    return kept.sortedDistinct();
+  }
+
+  public static boolean isSane(CandleBlock candles, int i) {
+    var open = candles.open(i);
+    var high = candles.high(i);
+    var low = candles.low(i);
+    var close = candles.close(i);
+    // false for NaN as well
+    return low > 0
+        && Double.isFinite(high)
+        && low <= open && low <= close
+        && high >= open && high >= close
+        && candles.volume(i) >= 0;
+  }
+
+}
@@ -0,0 +1,18 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+
+import java.time.LocalDate;
+
+/**
+ * @param parallelism     number of instrument/granularity pairs backfilled at the same time
+ * @param windowLookahead number of older windows requested ahead of time for a single instrument/granularity
+ * @param earliest        stop walking back once this date (UTC) is reached
+ * @param maxEmptyWindows consecutive empty windows after which the instrument is considered to start there
+ */
+@Builder
+public record BackfillProperties(Integer parallelism,
+                                 Integer windowLookahead,
+                                 LocalDate earliest,
+                                 Integer maxEmptyWindows) {
+}
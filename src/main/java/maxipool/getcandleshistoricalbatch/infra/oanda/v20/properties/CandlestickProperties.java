@@ -1,9 +1,53 @@
 package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
 
+import com.oanda.v20.instrument.CandlestickGranularity;
 import lombok.Builder;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.aggregate.CandleAggregator;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
 
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * @param formats              formats of the monthly files written by the batch; CSV when not set
+ * @param compress             see {@link CompressProperties}
+ * @param derivedGranularities granularities built from the M1 files instead of being fetched; none when not set
+ * @param daemon               see {@link DaemonProperties}
+ * @param stream               see {@link StreamProperties}
+ * @param retry                see {@link RetryProperties}
+ * @param gaps                 see {@link GapProperties}
+ * @param verify               see {@link VerifyProperties}
+ */
 @Builder
 public record CandlestickProperties(Boolean enabled,
                                     String outputPath,
-                                    String copyOutputPath) {
+                                    String copyOutputPath,
+                                    BackfillProperties backfill,
+                                    Set<EStoreFormat> formats,
+                                    CompressProperties compress,
+                                    Set<CandlestickGranularity> derivedGranularities,
+                                    DaemonProperties daemon,
+                                    StreamProperties stream,
+                                    RetryProperties retry,
+                                    GapProperties gaps,
+                                    VerifyProperties verify) {
+  public CandlestickProperties {
+    formats = formats == null || formats.isEmpty() ? EnumSet.of(EStoreFormat.CSV) : EnumSet.copyOf(formats);
+    if (formats.contains(EStoreFormat.GORILLA)) {
+      throw new IllegalArgumentException("GORILLA files are written by the COMPRESS mode only, not by the batch");
+    }
+    derivedGranularities = derivedGranularities == null ? Set.of() : Set.copyOf(derivedGranularities);
+    for (var granularity : derivedGranularities) {
+      if (!CandleAggregator.DERIVABLE.contains(granularity)) {
+        throw new IllegalArgumentException("%s candles cannot be built from M1 candles".formatted(granularity));
+      }
+    }
+  }
+
+  /**
+   * @return the format whose files the batch reads back to know where each instrument/granularity ends
+   */
+  public EStoreFormat primaryFormat() {
+    return formats.iterator().next();
+  }
 }
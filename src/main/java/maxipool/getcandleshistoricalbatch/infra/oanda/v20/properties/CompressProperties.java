@@ -0,0 +1,12 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+
+/**
+ * @param replaceSources delete the CSV and BIN files of a month, on both disks, once its GORILLA file is written and
+ *                       read back; the oldest and the latest month of each instrument/granularity are kept since the
+ *                       backfill and the batch resume from them
+ */
+@Builder
+public record CompressProperties(Boolean replaceSources) {
+}
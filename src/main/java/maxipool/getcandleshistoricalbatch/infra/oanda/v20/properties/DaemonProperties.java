@@ -0,0 +1,14 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+
+import java.time.Duration;
+
+/**
+ * @param delay  wait after a candle closes before asking for it, so that Oanda has it
+ * @param jitter random extra wait, up to this, so that the instruments are not all asked for at the same instant
+ */
+@Builder
+public record DaemonProperties(Duration delay,
+                               Duration jitter) {
+}
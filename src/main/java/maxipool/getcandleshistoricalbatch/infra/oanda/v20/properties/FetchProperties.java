@@ -0,0 +1,23 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import feign.Logger;
+import lombok.Builder;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EFetchExecutor;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EHttpTransport;
+
+import java.time.Duration;
+
+/**
+ * @param executor      threads the instrument/granularity tasks run on
+ * @param igTimeout     an instrument/granularity task still running after this is cancelled and counted as failed
+ * @param transport     HTTP client of the REST calls
+ * @param logLevel      what is logged of each REST call, at DEBUG level
+ * @param logSampleRate share of the REST calls that are logged, between 0 and 1
+ */
+@Builder
+public record FetchProperties(EFetchExecutor executor,
+                              Duration igTimeout,
+                              EHttpTransport transport,
+                              Logger.Level logLevel,
+                              Double logSampleRate) {
+}
@@ -0,0 +1,24 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.ETradingCalendar;
+
+import java.util.Map;
+
+/**
+ * @param minMissingCandles fewest candles missing in a row, while the market is open, that make a gap; shorter holes
+ *                          are quiet markets rather than lost candles
+ * @param parallelism       instrument/granularity pairs scanned, then repaired, at the same time
+ * @param refetch           when false, the gaps are listed but not fetched
+ * @param calendars         calendar by instrument name, for the instruments whose type does not tell theirs; see
+ *                          {@link ETradingCalendar#of(com.oanda.v20.primitives.InstrumentType)}
+ */
+@Builder
+public record GapProperties(Integer minMissingCandles,
+                            Integer parallelism,
+                            Boolean refetch,
+                            Map<String, ETradingCalendar> calendars) {
+  public GapProperties {
+    calendars = calendars == null ? Map.of() : Map.copyOf(calendars);
+  }
+}
@@ -0,0 +1,24 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+
+import java.time.Duration;
+
+/**
+ * @param requestsPerSecond  sustained request rate shared by every Oanda REST call
+ * @param burst              requests that can go out at once after an idle period
+ * @param initialConcurrency in-flight requests allowed at startup
+ * @param minConcurrency     in-flight requests never go below this, even after repeated 429/5xx
+ * @param maxConcurrency     in-flight requests never go above this, however healthy the API is
+ * @param healthyLatency     responses slower than this stop the concurrency from growing
+ * @param maxAttempts        attempts per request when the API answers 429/5xx
+ */
+@Builder
+public record RateLimitProperties(Double requestsPerSecond,
+                                  Integer burst,
+                                  Integer initialConcurrency,
+                                  Integer minConcurrency,
+                                  Integer maxConcurrency,
+                                  Duration healthyLatency,
+                                  Integer maxAttempts) {
+}
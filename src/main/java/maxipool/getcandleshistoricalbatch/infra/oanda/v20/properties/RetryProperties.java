@@ -0,0 +1,18 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+
+import java.time.Duration;
+
+/**
+ * @param initialDelay wait before the first retry of an instrument/granularity that failed; doubled after each failed
+ *                     retry
+ * @param maxDelay     longest wait between two retries
+ * @param maxInRunWait how long the batch may wait, once every pair was tried, for its failed pairs to be retried in
+ *                     the same run; the ones not due by then are left to the next runs
+ */
+@Builder
+public record RetryProperties(Duration initialDelay,
+                              Duration maxDelay,
+                              Duration maxInRunWait) {
+}
@@ -0,0 +1,16 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+
+import java.time.Duration;
+
+/**
+ * @param url               base URL of the pricing stream; {@code prodStreamUrl} when not set, like the REST client
+ * @param reconcileDelay    age at which the candles built from the stream are compared with Oanda's M1 candles
+ * @param reconcileInterval time between two comparisons
+ */
+@Builder
+public record StreamProperties(String url,
+                               Duration reconcileDelay,
+                               Duration reconcileInterval) {
+}
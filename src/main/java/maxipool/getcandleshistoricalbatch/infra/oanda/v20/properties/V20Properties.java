@@ -17,5 +17,7 @@ public record V20Properties(String devStreamUrl,
                             String token,
                             AccountID accountId,
                             Boolean isProduction,
-                            CandlestickProperties candlestick) {
+                            CandlestickProperties candlestick,
+                            RateLimitProperties rateLimit,
+                            FetchProperties fetch) {
 }
@@ -0,0 +1,15 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties;
+
+import lombok.Builder;
+
+/**
+ * @param parallelism      files read at the same time on each disk by {@code VERIFY_CHECKSUMS}; more than the disk can
+ *                         serve only makes it seek
+ * @param storeParallelism instrument/granularity pairs checked at the same time by {@code VERIFY_STORE} and
+ *                         {@code REPAIR_STORE}, each holding one month of candles; the number of processors when not
+ *                         set
+ */
+@Builder
+public record VerifyProperties(Integer parallelism,
+                               Integer storeParallelism) {
+}
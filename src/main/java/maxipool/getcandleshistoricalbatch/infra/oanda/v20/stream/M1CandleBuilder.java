@@ -0,0 +1,122 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.stream;
+
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.ToIntFunction;
+
+/**
+ * Builds M1 mid candles from the prices of the stream, like Oanda's: the mid of the best bid and ask, rounded to one
+ * more decimal than the display precision, and the number of prices as the volume.
+ * <br />
+ * The prices and heartbeats all come from the thread that reads the stream, which alone touches the minute being
+ * built; a minute is over once a price or heartbeat of a later minute comes, and its candle is then handed to
+ * {@link #drain()} through a lock-free queue, so neither thread ever waits for the other.
+ * <br />
+ * The first minute of each instrument, after a start or a {@link #reset()}, is dropped: its prices from before the
+ * stream was opened were missed.
+ */
+public class M1CandleBuilder implements PriceListener {
+
+  private final ToIntFunction<String> displayPrecision;
+  private final Map<String, Accumulator> accumulators = new HashMap<>();
+  private final ConcurrentLinkedQueue<Candle> closed = new ConcurrentLinkedQueue<>();
+
+  private record Candle(String instrument, long time, double open, double high, double low, double close,
+                        long volume) {
+  }
+
+  public M1CandleBuilder(ToIntFunction<String> displayPrecision) {
+    this.displayPrecision = displayPrecision;
+  }
+
+  @Override
+  public void onPrice(String instrument, Instant time, double bid, double ask) {
+    accumulators
+        .computeIfAbsent(instrument, i -> new Accumulator(i, Math.pow(10, displayPrecision.applyAsInt(i) + 1)))
+        .add(minuteOf(time), (bid + ask) / 2);
+  }
+
+  @Override
+  public void onHeartbeat(Instant time) {
+    var minute = minuteOf(time);
+    accumulators.values().forEach(a -> a.closeBefore(minute));
+  }
+
+  /**
+   * Drops the minutes being built, and the next one of each instrument, e.g. when the stream broke: prices of theirs
+   * were missed. Must be called from the thread that reads the stream.
+   */
+  public void reset() {
+    accumulators.clear();
+  }
+
+  /**
+   * @return the candles that are over since the last call, by instrument, in time order
+   */
+  public Map<String, CandleBlock> drain() {
+    var byInstrument = new TreeMap<String, CandleBlock>();
+    for (var candle = closed.poll(); candle != null; candle = closed.poll()) {
+      byInstrument
+          .computeIfAbsent(candle.instrument(), i -> new CandleBlock())
+          .add(candle.time(), candle.open(), candle.high(), candle.low(), candle.close(), candle.volume(), true);
+    }
+    return byInstrument;
+  }
+
+  private static long minuteOf(Instant time) {
+    var epochSecond = time.getEpochSecond();
+    return epochSecond - Math.floorMod(epochSecond, 60);
+  }
+
+  private class Accumulator {
+    private final String instrument;
+    private final double pow10;
+
+    private long minute = Long.MIN_VALUE;
+    private double open;
+    private double high;
+    private double low;
+    private double close;
+    private long volume;
+    private boolean isPartial = true;
+
+    Accumulator(String instrument, double pow10) {
+      this.instrument = instrument;
+      this.pow10 = pow10;
+    }
+
+    void add(long priceMinute, double mid) {
+      var price = Math.round(mid * pow10) / pow10;
+      if (priceMinute != minute) {
+        closeBefore(priceMinute);
+        if (priceMinute < minute) {
+          // older than the minute being built: already over
+          return;
+        }
+        minute = priceMinute;
+        open = high = low = price;
+        volume = 0;
+      }
+      high = Math.max(high, price);
+      low = Math.min(low, price);
+      close = price;
+      volume++;
+    }
+
+    void closeBefore(long nextMinute) {
+      if (minute != Long.MIN_VALUE && minute < nextMinute) {
+        if (!isPartial) {
+          closed.add(new Candle(instrument, minute, open, high, low, close, volume));
+        }
+        isPartial = false;
+        minute = Long.MIN_VALUE;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,21 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.stream;
+
+import java.time.Instant;
+
+/**
+ * Messages of the pricing stream, in the order they arrive, from the thread that reads it.
+ */
+public interface PriceListener {
+
+  /**
+   * @param bid best bid
+   * @param ask best ask
+   */
+  void onPrice(String instrument, Instant time, double bid, double ask);
+
+  /**
+   * Sent every 5 seconds, prices or not: nothing older than {@code time} will come.
+   */
+  void onHeartbeat(Instant time);
+
+}
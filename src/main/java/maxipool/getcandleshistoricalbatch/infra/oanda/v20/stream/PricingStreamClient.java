@@ -0,0 +1,87 @@
+package maxipool.getcandleshistoricalbatch.infra.oanda.v20.stream;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URLEncoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse.BodyHandlers;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.Collection;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.springframework.http.HttpHeaders.AUTHORIZATION;
+
+/**
+ * Reads Oanda's pricing stream ({@code /v3/accounts/{accountId}/pricing/stream}): one JSON object per line, either a
+ * {@code PRICE} or a {@code HEARTBEAT}. Malformed lines are logged and skipped.
+ */
+@Slf4j
+@RequiredArgsConstructor
+public class PricingStreamClient {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+
+  private final HttpClient httpClient;
+  private final String streamUrl;
+  private final String token;
+
+  /**
+   * Blocks, calling {@code listener} for each message, until the stream ends.
+   *
+   * @throws IOException if the stream cannot be opened or breaks
+   */
+  public void stream(String accountId, Collection<String> instruments, PriceListener listener)
+      throws IOException, InterruptedException {
+    var uri = URI.create("%s/v3/accounts/%s/pricing/stream?instruments=%s"
+        .formatted(streamUrl, accountId, URLEncoder.encode(String.join(",", instruments), UTF_8)));
+    var request = HttpRequest.newBuilder(uri)
+        .header(AUTHORIZATION, "Bearer %s".formatted(token))
+        .header("Accept-Datetime-Format", "RFC3339")
+        .GET()
+        .build();
+    var response = httpClient.send(request, BodyHandlers.ofLines());
+    try (var lines = response.body()) {
+      if (response.statusCode() != 200) {
+        throw new IOException("Pricing stream answered %d".formatted(response.statusCode()));
+      }
+      lines.forEach(line -> handle(line, listener));
+    } catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+  }
+
+  static void handle(String line, PriceListener listener) {
+    if (line.isBlank()) {
+      return;
+    }
+    try {
+      var message = MAPPER.readTree(line);
+      switch (message.path("type").asText()) {
+        case "PRICE" -> {
+          var bids = message.path("bids");
+          var asks = message.path("asks");
+          // an instrument that is not tradeable can come without prices
+          if (!bids.isEmpty() && !asks.isEmpty()) {
+            listener.onPrice(
+                message.path("instrument").asText(),
+                Instant.parse(message.path("time").asText()),
+                Double.parseDouble(bids.get(0).path("price").asText()),
+                Double.parseDouble(asks.get(0).path("price").asText()));
+          }
+        }
+        case "HEARTBEAT" -> listener.onHeartbeat(Instant.parse(message.path("time").asText()));
+        default -> log.debug("Ignoring pricing stream message {}", line);
+      }
+    } catch (JsonProcessingException | DateTimeParseException | NumberFormatException e) {
+      log.warn("Ignoring malformed pricing stream message {}", line, e);
+    }
+  }
+
+}
@@ -0,0 +1,107 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class AppendJournalTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_undoOnlyTheWritesCutByACrash() throws IOException {
+    var committed = Files.writeString(tempDir.resolve("EUR_USD-M1-2024_01.csv"), "header\nrow1\n");
+    var torn = Files.writeString(tempDir.resolve("EUR_USD-M5-2024_01.csv"), "header\nrow1\n");
+    var created = tempDir.resolve("EUR_USD-M15-2024_01.csv");
+
+    var crashed = newJournal();
+    try (var entry = crashed.begin(committed)) {
+      Files.writeString(committed, "row2\n", StandardOpenOption.APPEND);
+      entry.commit();
+    }
+    crashed.begin(torn);
+    Files.writeString(torn, "row2\nro", StandardOpenOption.APPEND);
+    crashed.begin(created);
+    Files.writeString(created, "header\nro");
+
+    newJournal().recover();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(committed).hasContent("header\nrow1\nrow2\n");
+      soft.assertThat(torn).hasContent("header\nrow1\n");
+      soft.assertThat(created).doesNotExist();
+      soft.assertThat(tempDir.resolve(AppendJournal.FILE_NAME)).doesNotExist();
+    });
+  }
+
+  @Test
+  void should_leaveARewrittenFile_whenItsCommitIsLost() throws IOException {
+    var file = Files.writeString(tempDir.resolve("EUR_USD-M1-2024_01.csv"), "header\nrow1\n");
+    var journal = newJournal();
+
+    try (var entry = journal.begin(file)) {
+      Files.writeString(file, "row0\n", StandardOpenOption.APPEND);
+      entry.commit(true);
+    }
+    // the cleanup: a longer file renamed over it
+    var rewritten = Files.writeString(tempDir.resolve("EUR_USD-M1-2024_01.csv.tmp"), "header\nrow0\nrow1\n");
+    Files.move(rewritten, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    // as if the C record never made it to disk
+    var journalPath = tempDir.resolve(AppendJournal.FILE_NAME);
+    Files.write(journalPath, Files.readAllLines(journalPath).stream().filter(l -> !l.startsWith("C ")).toList());
+
+    newJournal().recover();
+
+    assertThat(file).hasContent("header\nrow0\nrow1\n");
+  }
+
+  @Test
+  void should_undoAFailedWrite_whenNotCommitted() throws IOException {
+    var file = Files.writeString(tempDir.resolve("EUR_USD-M1-2024_01.csv"), "header\nrow1\n");
+
+    var entry = newJournal().begin(file);
+    try {
+      Files.writeString(file, "row2\nro", StandardOpenOption.APPEND);
+    } finally {
+      // closed without a commit, as when the write throws
+      entry.close();
+    }
+
+    assertThat(file).hasContent("header\nrow1\n");
+  }
+
+  @Test
+  void should_compactOnlyWhenNoWriteIsInProgress() throws IOException {
+    var file = Files.writeString(tempDir.resolve("EUR_USD-M1-2024_01.csv"), "header\n");
+    var journal = newJournal();
+    var journalPath = tempDir.resolve(AppendJournal.FILE_NAME);
+
+    var entry = journal.begin(file);
+    journal.compactIfIdle();
+    var sizeWhileOpen = Files.size(journalPath);
+    entry.commit();
+    journal.compactIfIdle();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(sizeWhileOpen).isPositive();
+      soft.assertThat(journalPath).isEmptyFile();
+    });
+  }
+
+  private AppendJournal newJournal() {
+    var props = TestProperties.withOutputPath(tempDir);
+    return new AppendJournal(props, new ChecksumManifest(props));
+  }
+
+}
@@ -0,0 +1,141 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import com.oanda.v20.primitives.Instrument;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.BackfillService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.IgTaskRunner;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.InstrumentsService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.MonthlyFileWriter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EStoreFormat;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.BackfillProperties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
+import static maxipool.getcandleshistoricalbatch.TestCandles.everyMinute;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.rewriteCandlesToFile;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+class BackfillServiceTest {
+
+  private static final long DECEMBER_31 = Instant.parse("2023-12-31T00:00:00Z").getEpochSecond();
+  private static final long JANUARY_1 = Instant.parse("2024-01-01T00:00:00Z").getEpochSecond();
+  private static final long FEBRUARY_1 = Instant.parse("2024-02-01T00:00:00Z").getEpochSecond();
+
+  @TempDir
+  Path tempDir;
+  private ChecksumManifest checksumManifest;
+
+  @Test
+  void should_prependToTheOldestFile_andWriteTheOlderMonths_eachMinuteOnce() throws IOException {
+    var subDir = tempDir.resolve("primary/EUR_USD/M1");
+    Files.createDirectories(subDir);
+    var february = subDir.resolve("EUR_USD-M1-2024_02.csv");
+    rewriteCandlesToFile(february, everyMinute(FEBRUARY_1 + 30 * 60, FEBRUARY_1 + 33 * 60));
+
+    var service = newService(Set.of(EStoreFormat.CSV));
+    var isBackfilled = service.backfill();
+    var december = CsvCandleParser.parse(subDir.resolve("EUR_USD-M1-2023_12.csv")).candles();
+    var january = CsvCandleParser.parse(subDir.resolve("EUR_USD-M1-2024_01.csv")).candles();
+    var prepended = CsvCandleParser.parse(february).candles();
+    var januaryBytes = Files.readAllBytes(subDir.resolve("EUR_USD-M1-2024_01.csv"));
+    // resumes from the first candle of December, which is the earliest already
+    var isRerunDone = service.backfill();
+    var isJanuaryUntouched = Arrays.equals(januaryBytes, Files.readAllBytes(subDir.resolve("EUR_USD-M1-2024_01.csv")));
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isBackfilled).isTrue();
+      soft.assertThat(isEveryMinuteOnce(december, DECEMBER_31, JANUARY_1)).isTrue();
+      soft.assertThat(isEveryMinuteOnce(january, JANUARY_1, FEBRUARY_1)).isTrue();
+      soft.assertThat(isEveryMinuteOnce(prepended, FEBRUARY_1, FEBRUARY_1 + 33 * 60)).isTrue();
+      soft.assertThat(isRerunDone).isTrue();
+      soft.assertThat(isJanuaryUntouched).isTrue();
+    });
+  }
+
+  @Test
+  void should_backfillOnlyTheConfiguredFormat_andResumeFromIt() throws IOException {
+    var subDir = tempDir.resolve("primary/EUR_USD/M1");
+    Files.createDirectories(subDir);
+    var february = subDir.resolve("EUR_USD-M1-2024_02.bin");
+    CandleBinFile.write(february, everyMinute(FEBRUARY_1 + 30 * 60, FEBRUARY_1 + 33 * 60), 5);
+
+    var service = newService(Set.of(EStoreFormat.BIN));
+    var isBackfilled = service.backfill();
+    var december = CandleBinFile.read(subDir.resolve("EUR_USD-M1-2023_12.bin"));
+    var prepended = CandleBinFile.read(february);
+    var januaryBytes = Files.readAllBytes(subDir.resolve("EUR_USD-M1-2024_01.bin"));
+    var isRerunDone = service.backfill();
+    var isJanuaryUntouched = Arrays.equals(januaryBytes, Files.readAllBytes(subDir.resolve("EUR_USD-M1-2024_01.bin")));
+    List<Path> csvFiles;
+    try (var files = Files.list(subDir)) {
+      csvFiles = files.filter(p -> p.toString().endsWith(".csv")).toList();
+    }
+    var checksums = checksumManifest.entries(tempDir.resolve("primary"));
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isBackfilled).isTrue();
+      soft.assertThat(isEveryMinuteOnce(december, DECEMBER_31, JANUARY_1)).isTrue();
+      soft.assertThat(isEveryMinuteOnce(prepended, FEBRUARY_1, FEBRUARY_1 + 33 * 60)).isTrue();
+      soft.assertThat(isRerunDone).isTrue();
+      soft.assertThat(isJanuaryUntouched).isTrue();
+      soft.assertThat(csvFiles).isEmpty();
+      soft.assertThat(tempDir.resolve("copy/EUR_USD/M1/EUR_USD-M1-2023_12.bin")).exists();
+      soft.assertThat(checksums).containsKeys("EUR_USD/M1/EUR_USD-M1-2023_12.bin", "EUR_USD/M1/EUR_USD-M1-2024_02.bin");
+    });
+  }
+
+  private BackfillService newService(Set<EStoreFormat> formats) {
+    var props = TestProperties.of(TestProperties.twoDisks(tempDir)
+        .formats(formats)
+        .derivedGranularities(Set.of(CandlestickGranularity.M15))
+        .backfill(BackfillProperties.builder().earliest(LocalDate.of(2023, 12, 31)).parallelism(1).build())
+        .build());
+
+    var instrumentsService = mock(InstrumentsService.class);
+    when(instrumentsService.findAll()).thenReturn(List.of(new Instrument().setName("EUR_USD")));
+    when(instrumentsService.getDisplayPrecision("EUR_USD")).thenReturn(5);
+    var resource = mock(OandaRestResource.class);
+    when(resource.getCandleBlockFromTo(any(), any(), any(), any()))
+        // like Oanda, includes the candles at both from and to
+        .thenAnswer(inv -> everyMinute(Instant.parse(inv.<String>getArgument(2)).getEpochSecond(),
+            Instant.parse(inv.<String>getArgument(3)).getEpochSecond() + 60));
+
+    checksumManifest = new ChecksumManifest(props);
+    var monthlyFileWriter = new MonthlyFileWriter(
+        props, instrumentsService, new AppendJournal(props, checksumManifest), checksumManifest);
+    return new BackfillService(instrumentsService, resource, props, new IgTaskRunner(props), new StoreManifest(props),
+        monthlyFileWriter);
+  }
+
+  private static boolean isEveryMinuteOnce(CandleBlock candles, long from, long to) {
+    if (candles.size() != (to - from) / 60) {
+      return false;
+    }
+    for (var i = 0; i < candles.size(); i++) {
+      if (candles.time(i) != from + i * 60L) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+}
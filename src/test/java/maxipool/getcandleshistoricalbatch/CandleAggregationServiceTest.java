@@ -0,0 +1,96 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.primitives.Instrument;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandleAggregationService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandleStore;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.IgTaskRunner;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.InstrumentsService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.MonthlyFileWriter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Set;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.M1;
+import static com.oanda.v20.instrument.CandlestickGranularity.M15;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.appendCandlesToFile;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+import static org.mockito.Mockito.mock;
+
+class CandleAggregationServiceTest {
+
+  private static final long JANUARY_2 = Instant.parse("2024-01-02T00:00:00Z").getEpochSecond();
+  private static final long NOON = JANUARY_2 + 12 * 3_600;
+  private static final List<Instrument> INSTRUMENTS = List.of(new Instrument().setName("EUR_USD"));
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_resumeAfterTheLastDerivedCandle_whenTheM1FileGrew() throws IOException {
+    var props = v20Properties();
+    var m1File = Files.createDirectories(tempDir.resolve("primary/EUR_USD/M1")).resolve("EUR_USD-M1-2024_01.csv");
+    writeCandlesToFileThatDoesntExist(m1File, pricedMinutes(JANUARY_2, NOON));
+    var morning = newService(props, m1File).derive(INSTRUMENTS);
+
+    appendCandlesToFile(m1File, pricedMinutes(NOON, JANUARY_2 + 86_400));
+    // a new run: the derived file is all it knows of M15
+    var afternoon = newService(props, m1File).derive(INSTRUMENTS);
+    var m15 = CsvCandleParser.parse(tempDir.resolve("primary/EUR_USD/M15/EUR_USD-M15-2024_01.csv"));
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(morning).containsEntry(new IG("EUR_USD", M15), true);
+      soft.assertThat(afternoon).containsEntry(new IG("EUR_USD", M15), true);
+      soft.assertThat(m15.rejectedRows()).isZero();
+      soft.assertThat(m15.candles().size()).isEqualTo(96);
+      for (var i = 0; i < m15.candles().size(); i++) {
+        var start = JANUARY_2 + i * 900L;
+        soft.assertThat(m15.candles().time(i)).as("time %d", i).isEqualTo(start);
+        soft.assertThat(m15.candles().open(i)).as("open %d", i).isEqualTo(price(start));
+        soft.assertThat(m15.candles().close(i)).as("close %d", i).isEqualTo(price(start + 840));
+        soft.assertThat(m15.candles().volume(i)).as("volume %d", i).isEqualTo(15);
+      }
+    });
+  }
+
+  private CandleAggregationService newService(V20Properties props, Path m1File) throws IOException {
+    var storeManifest = new StoreManifest(props);
+    storeManifest.put(new IG("EUR_USD", M1), StoreManifest.scan(m1File).orElseThrow());
+    var instrumentsService = mock(InstrumentsService.class);
+    var checksumManifest = new ChecksumManifest(props);
+    var monthlyFileWriter = new MonthlyFileWriter(
+        props, instrumentsService, new AppendJournal(props, checksumManifest), checksumManifest);
+    return new CandleAggregationService(props, storeManifest, monthlyFileWriter, new CandleStore(props),
+        new IgTaskRunner(props), null, instrumentsService);
+  }
+
+  private V20Properties v20Properties() {
+    return TestProperties.of(TestProperties.twoDisks(tempDir).derivedGranularities(Set.of(M15)).build());
+  }
+
+  private static CandleBlock pricedMinutes(long from, long to) {
+    var candles = new CandleBlock();
+    for (var t = from; t < to; t += 60) {
+      candles.add(t, price(t), price(t) + 0.5, price(t) - 0.5, price(t), 1, true);
+    }
+    return candles;
+  }
+
+  private static double price(long epochSecond) {
+    return (epochSecond - JANUARY_2) / 60;
+  }
+
+}
@@ -0,0 +1,105 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.aggregate.CandleAggregator;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.D;
+import static com.oanda.v20.instrument.CandlestickGranularity.H4;
+import static com.oanda.v20.instrument.CandlestickGranularity.M15;
+
+class CandleAggregatorTest {
+
+  @Test
+  void should_alignLikeOanda_onNewYorkDailyAlignment() {
+    // 2024-03-10 is a daylight saving change in New York: 17:00 is 22:00Z before it and 21:00Z after it
+    var h4 = new CandleAggregator(H4, Long.MAX_VALUE);
+    var d = new CandleAggregator(D, Long.MAX_VALUE);
+    var m15 = new CandleAggregator(M15, Long.MAX_VALUE);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(at(h4.bucketStart(seconds("2024-03-05T03:59:00Z")))).isEqualTo("2024-03-05T02:00:00Z");
+      soft.assertThat(at(h4.bucketStart(seconds("2024-03-12T03:59:00Z")))).isEqualTo("2024-03-12T01:00:00Z");
+      soft.assertThat(at(d.bucketStart(seconds("2024-03-05T21:59:00Z")))).isEqualTo("2024-03-04T22:00:00Z");
+      soft.assertThat(at(d.bucketStart(seconds("2024-03-05T22:00:00Z")))).isEqualTo("2024-03-05T22:00:00Z");
+      // the trading day that starts on the Sunday of the change is 23 hours long
+      soft.assertThat(at(d.bucketEnd(seconds("2024-03-09T22:00:00Z")))).isEqualTo("2024-03-10T21:00:00Z");
+      soft.assertThat(at(m15.bucketStart(seconds("2024-03-05T03:59:00Z")))).isEqualTo("2024-03-05T03:45:00Z");
+    });
+  }
+
+  @Test
+  void should_aggregateOnlyTheCandlesThatAreOver() {
+    var start = seconds("2024-03-05T10:00:00Z");
+    var m1 = new CandleBlock();
+    for (var i = 0; i < 20; i++) {
+      m1.add(start + i * 60L, 1.0 + i, 2.0 + i, 0.5 + i, 1.5 + i, 10, true);
+    }
+    m1.add(start + 20 * 60L, 9.0, 9.0, 9.0, 9.0, 10, false);
+    // M1 candles are known up to 10:20; the 10:15 candle is not over
+    var aggregator = new CandleAggregator(M15, start + 20 * 60L);
+
+    aggregator.accept(m1);
+    var drained = aggregator.drain();
+    var finished = aggregator.finish();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(drained.size()).isEqualTo(1);
+      soft.assertThat(finished.size()).isZero();
+      soft.assertThat(drained.time(0)).isEqualTo(start);
+      soft.assertThat(drained.open(0)).isEqualTo(1.0);
+      soft.assertThat(drained.high(0)).isEqualTo(16.0);
+      soft.assertThat(drained.low(0)).isEqualTo(0.5);
+      soft.assertThat(drained.close(0)).isEqualTo(15.5);
+      soft.assertThat(drained.volume(0)).isEqualTo(150);
+      soft.assertThat(drained.complete(0)).isTrue();
+    });
+  }
+
+  @Test
+  void should_emitTheShortTradingDay_whenItsLastM1CandleEndsOnCompleteBefore() {
+    // the trading day of the 2024-03-10 daylight saving change is 23 hours long
+    var dayStart = seconds("2024-03-09T22:00:00Z");
+    var dayEnd = seconds("2024-03-10T21:00:00Z");
+    var m1 = new CandleBlock();
+    for (var t = dayStart; t < dayEnd; t += 60) {
+      m1.add(t, 1.1, 1.2, 1.0, 1.15, 1, true);
+    }
+    var allButLast = m1.copyOfRange(0, m1.size() - 1);
+
+    var d = new CandleAggregator(D, dayEnd);
+    d.accept(m1);
+    var drained = d.drain();
+    var finished = d.finish();
+    var h4 = new CandleAggregator(H4, dayEnd);
+    h4.accept(m1);
+    var h4Candles = h4.finish();
+    var early = new CandleAggregator(D, dayEnd - 60);
+    early.accept(allButLast);
+    var earlyFinished = early.finish();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(drained.size()).isZero();
+      soft.assertThat(finished.size()).isEqualTo(1);
+      soft.assertThat(finished.time(0)).isEqualTo(dayStart);
+      soft.assertThat(finished.volume(0)).isEqualTo(23 * 60);
+      // 22:00Z to 18:00Z every 4 hours, the last one cut to 3 hours by the end of the day
+      soft.assertThat(h4Candles.size()).isEqualTo(6);
+      soft.assertThat(at(h4Candles.lastTime())).isEqualTo("2024-03-10T18:00:00Z");
+      soft.assertThat(h4Candles.volume(5)).isEqualTo(3 * 60);
+      soft.assertThat(earlyFinished.size()).isZero();
+    });
+  }
+
+  private static long seconds(String time) {
+    return Instant.parse(time).getEpochSecond();
+  }
+
+  private static String at(long epochSecond) {
+    return Instant.ofEpochSecond(epochSecond).toString();
+  }
+
+}
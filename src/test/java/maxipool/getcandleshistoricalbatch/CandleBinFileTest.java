@@ -0,0 +1,66 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static maxipool.getcandleshistoricalbatch.TestCandles.START;
+import static maxipool.getcandleshistoricalbatch.TestCandles.randomWalk;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CandleBinFileTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_readBackExactlyWhatWasWritten_acrossBlocksAndAppends() throws IOException {
+    var path = tempDir.resolve("EUR_USD-M1-2024_01.bin");
+    var first = randomWalk(0, 10_000, 5);
+    var appended = randomWalk(10_000, 123, 5);
+    // one more decimal than the display precision: the block scale has to grow
+    appended.add(START + 10_123 * 60, 1.123456, 1.2, 1.0, 1.1, 7, false);
+
+    CandleBinFile.write(path, first, 5);
+    CandleBinFile.append(path, appended, 5);
+    var read = CandleBinFile.read(path);
+
+    var soft = new SoftAssertions();
+    soft.assertThat(read.size()).isEqualTo(first.size() + appended.size());
+    for (var i = 0; i < read.size(); i++) {
+      var source = i < first.size() ? first : appended;
+      var j = i < first.size() ? i : i - first.size();
+      soft.assertThat(read.time(i)).isEqualTo(source.time(j));
+      soft.assertThat(read.open(i)).isEqualTo(source.open(j));
+      soft.assertThat(read.high(i)).isEqualTo(source.high(j));
+      soft.assertThat(read.low(i)).isEqualTo(source.low(j));
+      soft.assertThat(read.close(i)).isEqualTo(source.close(j));
+      soft.assertThat(read.volume(i)).isEqualTo(source.volume(j));
+      soft.assertThat(read.complete(i)).isEqualTo(source.complete(j));
+    }
+    soft.assertAll();
+  }
+
+  @Test
+  void should_sortAndDropDuplicates_onCleanup() throws IOException {
+    var path = tempDir.resolve("EUR_USD-M1-2024_01.bin");
+    CandleBinFile.write(path, randomWalk(0, 100, 5), 5);
+    CandleBinFile.append(path, randomWalk(50, 10, 5), 5);
+
+    var isRewritten = CandleBinFile.cleanup(path, 5);
+    var read = CandleBinFile.read(path);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isRewritten).isTrue();
+      soft.assertThat(read.size()).isEqualTo(100);
+      soft.assertThat(read.time(99)).isEqualTo(START + 99 * 60);
+    });
+    assertThat(Files.exists(path.resolveSibling(path.getFileName() + ".tmp"))).isFalse();
+  }
+
+}
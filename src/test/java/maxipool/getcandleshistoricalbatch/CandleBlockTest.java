@@ -0,0 +1,103 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.file.CleanupUtil;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.OandaCandlesDecoder;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Optional;
+import java.util.stream.IntStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+
+class CandleBlockTest {
+
+  private static final long START = 1_704_067_200L; // 2024-01-01T00:00:00Z
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_sortByTime_keepingTheFirstOfDuplicates() {
+    var block = new CandleBlock(1);
+    // minutes 9 down to 0, then minutes 5 and 2 again with another volume
+    for (var i = 9; i >= 0; i--) {
+      block.add(START + i * 60L, 1.1, 1.2, 1.0, 1.15, i, true);
+    }
+    block.add(START + 5 * 60L, 1.1, 1.2, 1.0, 1.15, 500, false);
+    block.add(START + 2 * 60L, 1.1, 1.2, 1.0, 1.15, 200, false);
+
+    var sorted = block.sorted();
+    var distinct = block.sortedDistinct();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(IntStream.range(0, sorted.size()).mapToLong(sorted::time))
+          .isSorted()
+          .hasSize(12);
+      // stable: the candle that came first stays first
+      soft.assertThat(sorted.volume(2)).isEqualTo(2);
+      soft.assertThat(sorted.volume(3)).isEqualTo(200);
+      soft.assertThat(distinct.size()).isEqualTo(10);
+      soft.assertThat(IntStream.range(0, distinct.size()).mapToLong(distinct::volume)).containsExactly(
+          0L, 1L, 2L, 3L, 4L, 5L, 6L, 7L, 8L, 9L);
+      soft.assertThat(distinct.lastTime()).isEqualTo(START + 9 * 60L);
+      soft.assertThat(block.reversed().time(0)).isEqualTo(START + 2 * 60L);
+      soft.assertThat(block.copyOfRange(8, 10).time(1)).isEqualTo(START);
+    });
+  }
+
+  @Test
+  void should_findAppendViolations_andCleanupUnsortedFiles() throws IOException {
+    var block = new CandleBlock();
+    for (var i : new int[]{3, 1, 2, 1, 0}) {
+      block.add(START + i * 60L, 1.1, 1.2, 1.0, 1.15, i, true);
+    }
+    var file = tempDir.resolve("EUR_USD-M1-2024_01.csv");
+    writeCandlesToFileThatDoesntExist(file, block);
+
+    CleanupUtil.cleanup(file.getFileName().toString(), file);
+    var cleaned = CsvCandleParser.parse(file).candles();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(CleanupUtil.findAppendViolation(cleaned, null)).isEmpty();
+      soft.assertThat(CleanupUtil.findAppendViolation(cleaned, Instant.ofEpochSecond(START - 60))).isEmpty();
+      soft.assertThat(CleanupUtil.findAppendViolation(cleaned, Instant.ofEpochSecond(START)))
+          .isEqualTo(Optional.of("candle at 2024-01-01T00:00:00Z does not come after 2024-01-01T00:00:00Z"));
+      soft.assertThat(CleanupUtil.findAppendViolation(block, null)).isPresent();
+      soft.assertThat(IntStream.range(0, cleaned.size()).mapToLong(cleaned::time)).containsExactly(
+          START, START + 60L, START + 120L, START + 180L);
+    });
+  }
+
+  @Test
+  void should_findTheCandleWithoutMid_andLeaveItOut() throws IOException {
+    var payload = """
+        {"candles": [
+          {"time": "2024-01-01T00:00:00Z", "volume": 3, "complete": true,
+           "mid": {"o": "1.1", "h": "1.2", "l": "1.0", "c": "1.15"}},
+          {"time": "2024-01-01T00:01:00Z", "volume": 2, "complete": true},
+          {"time": "2024-01-01T00:02:00Z", "volume": 1, "complete": true,
+           "mid": {"o": "1.1", "h": "1.2", "l": "1.0", "c": "1.15"}}
+        ]}
+        """;
+    var block = OandaCandlesDecoder.decode(new ByteArrayInputStream(payload.getBytes(UTF_8)));
+
+    var kept = CleanupUtil.withoutMissingPrices(block);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(CleanupUtil.findAppendViolation(block, Instant.ofEpochSecond(START - 60)))
+          .isEqualTo(Optional.of("candle at 2024-01-01T00:01:00Z misses a price"));
+      soft.assertThat(IntStream.range(0, kept.size()).mapToLong(kept::time)).containsExactly(START, START + 120L);
+      soft.assertThat(CleanupUtil.findAppendViolation(kept, Instant.ofEpochSecond(START - 60))).isEmpty();
+    });
+  }
+
+}
@@ -0,0 +1,95 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.bin.CandleGorillaFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvUtil;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.stream.IntStream;
+
+import static maxipool.getcandleshistoricalbatch.TestCandles.START;
+import static maxipool.getcandleshistoricalbatch.TestCandles.randomWalk;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CandleGorillaFileTest {
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_readBackExactlyWhatWasWritten_acrossFramesGapsAndJumps() throws IOException {
+    var path = tempDir.resolve("EUR_USD-M1-2024_01.gor");
+    var candles = randomWalk(0, 10_000, 5);
+    // weekend gap, a price jump and a volume spike
+    candles.add(candles.time(candles.size() - 1) + 2 * 86_400, 9.87654, 9.9, 0.00001, 1.0, 1_000_000, true);
+    // one more decimal than the display precision: the frame scale has to grow
+    candles.add(candles.time(candles.size() - 1) + 60, 1.123456, 1.2, 1.0, 1.1, 0, false);
+
+    CandleGorillaFile.write(path, candles, 5);
+
+    assertSame(candles, CandleGorillaFile.read(path));
+  }
+
+  @Test
+  void should_readBackASingleCandle() throws IOException {
+    var path = tempDir.resolve("EUR_USD-M1-2024_01.gor");
+    var candles = new CandleBlock();
+    candles.add(START, 1.1, 1.2, 1.0, 1.15, 42, true);
+
+    CandleGorillaFile.write(path, candles, 5);
+
+    assertSame(candles, CandleGorillaFile.read(path));
+  }
+
+  @Test
+  void should_readOnlyTheRange() throws IOException {
+    var path = tempDir.resolve("EUR_USD-M1-2024_01.gor");
+    var candles = randomWalk(0, 10_000, 5);
+    CandleGorillaFile.write(path, candles, 5);
+
+    var read = new CandleBlock();
+    try (var frames = CandleGorillaFile.stream(path, START + 5_000 * 60, START + 5_010 * 60)) {
+      frames.forEach(read::addAll);
+    }
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(read.size()).isEqualTo(10);
+      soft.assertThat(read.time(0)).isEqualTo(START + 5_000 * 60);
+      soft.assertThat(read.close(9)).isEqualTo(candles.close(5_009));
+    });
+  }
+
+  @Test
+  void should_beSeveralTimesSmallerThanCsv() throws IOException {
+    var gorPath = tempDir.resolve("EUR_USD-M1-2024_01.gor");
+    var csvPath = tempDir.resolve("EUR_USD-M1-2024_01.csv");
+    var candles = randomWalk(0, 10_000, 5);
+
+    CandleGorillaFile.write(gorPath, candles, 5);
+    Files.writeString(csvPath, CsvUtil.candlesToCsvWithHeader(
+        IntStream.range(0, candles.size()).mapToObj(candles::toCsvCandle).toList()));
+
+    assertThat(Files.size(gorPath) * 5).isLessThan(Files.size(csvPath));
+  }
+
+  private static void assertSame(CandleBlock expected, CandleBlock actual) {
+    var soft = new SoftAssertions();
+    soft.assertThat(actual.size()).isEqualTo(expected.size());
+    for (var i = 0; i < Math.min(expected.size(), actual.size()); i++) {
+      soft.assertThat(actual.time(i)).isEqualTo(expected.time(i));
+      soft.assertThat(actual.open(i)).isEqualTo(expected.open(i));
+      soft.assertThat(actual.high(i)).isEqualTo(expected.high(i));
+      soft.assertThat(actual.low(i)).isEqualTo(expected.low(i));
+      soft.assertThat(actual.close(i)).isEqualTo(expected.close(i));
+      soft.assertThat(actual.volume(i)).isEqualTo(expected.volume(i));
+      soft.assertThat(actual.complete(i)).isEqualTo(expected.complete(i));
+    }
+    soft.assertAll();
+  }
+
+}
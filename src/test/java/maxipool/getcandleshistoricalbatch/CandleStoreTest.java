@@ -0,0 +1,89 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.common.bin.CandleBinFile;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandleStore;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+
+class CandleStoreTest {
+
+  private static final CandlestickGranularity M1 = CandlestickGranularity.M1;
+
+  @TempDir
+  Path tempDir;
+
+  private CandleStore candleStore;
+  private final List<Long> allTimes = new ArrayList<>();
+
+  /**
+   * January and March 2024 in CSV, February in BIN, with a gap on the 10th of each month.
+   */
+  @BeforeEach
+  void setUp() throws IOException {
+    var subDir = Files.createDirectories(tempDir.resolve("EUR_USD").resolve("M1"));
+    for (var month = 1; month <= 3; month++) {
+      var ym = YearMonth.of(2024, month);
+      var start = ym.atDay(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+      var end = ym.plusMonths(1).atDay(1).atStartOfDay().toEpochSecond(ZoneOffset.UTC);
+      var block = new CandleBlock();
+      for (var t = start; t < end; t += 60) {
+        if ((t - start) / 86_400 != 9) {
+          block.add(t, 1.1, 1.2, 1.0, (t % 100_000) / 100_000d, t % 1_000, true);
+          allTimes.add(t);
+        }
+      }
+      var name = "EUR_USD-M1-2024_%02d.".formatted(month);
+      if (month == 2) {
+        CandleBinFile.write(subDir.resolve(name + "bin"), block, 5);
+      } else {
+        writeCandlesToFileThatDoesntExist(subDir.resolve(name + "csv"),
+            IntStream.range(0, block.size()).mapToObj(block::toCsvCandle).toList());
+      }
+    }
+    candleStore = new CandleStore(TestProperties.withOutputPath(tempDir));
+  }
+
+  @Test
+  void should_readExactlyTheRange_acrossMonthsAndFormats() throws IOException {
+    var soft = new SoftAssertions();
+    for (var range : List.of(
+        new Instant[]{Instant.parse("2024-01-15T10:00:30Z"), Instant.parse("2024-03-02T00:00:00Z")},
+        new Instant[]{Instant.parse("2024-02-09T23:59:00Z"), Instant.parse("2024-02-11T00:01:00Z")},
+        new Instant[]{Instant.parse("2023-12-01T00:00:00Z"), Instant.parse("2024-01-01T00:02:00Z")},
+        new Instant[]{Instant.parse("2024-03-31T23:59:00Z"), Instant.parse("2025-01-01T00:00:00Z")},
+        new Instant[]{Instant.parse("2024-01-10T05:00:00Z"), Instant.parse("2024-01-10T06:00:00Z")})) {
+      var from = range[0].getEpochSecond();
+      var to = range[1].getEpochSecond();
+      var expected = allTimes.stream().filter(t -> t >= from && t < to).toList();
+
+      var streamed = new ArrayList<Long>();
+      candleStore.read("EUR_USD", M1, range[0], range[1])
+          .forEach(b -> IntStream.range(0, b.size()).forEach(i -> streamed.add(b.time(i))));
+      var all = candleStore.readAll("EUR_USD", M1, range[0], range[1]);
+
+      soft.assertThat(streamed).as("read %s", List.of(range)).isEqualTo(expected);
+      soft.assertThat(IntStream.range(0, all.size()).mapToObj(all::time).toList())
+          .as("readAll %s", List.of(range)).isEqualTo(expected);
+      soft.assertThat(IntStream.range(0, all.size()).allMatch(i -> all.close(i) == (all.time(i) % 100_000) / 100_000d))
+          .isTrue();
+    }
+    soft.assertAll();
+  }
+
+}
@@ -0,0 +1,97 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandleAggregationService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandlestickService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.IgTaskRunner;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.InstrumentsService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.MonthlyFileWriter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.OandaRateLimiter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry.RetryQueue;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RetryProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.M1;
+import static maxipool.getcandleshistoricalbatch.TestCandles.everyMinute;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class CandlestickServiceTest {
+
+  private static final IG EUR_USD_M1 = new IG("EUR_USD", M1);
+  private static final long JANUARY_2 = Instant.parse("2024-01-02T00:00:00Z").getEpochSecond();
+  private static final long JANUARY_10 = Instant.parse("2024-01-10T00:00:00Z").getEpochSecond();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_refetchTheWindowOfTheQueuedFailure_aFewThousandCandlesAtATime() throws IOException {
+    var props = v20Properties();
+    var m1File = Files.createDirectories(tempDir.resolve("primary/EUR_USD/M1")).resolve("EUR_USD-M1-2024_01.csv");
+    writeCandlesToFileThatDoesntExist(m1File, everyMinute(JANUARY_2 - 3_600, JANUARY_2));
+    var retryQueue = new RetryQueue(props);
+    retryQueue.recordFailure(EUR_USD_M1, Instant.ofEpochSecond(JANUARY_2), Instant.ofEpochSecond(JANUARY_10));
+
+    var requested = new ArrayList<String>();
+    var resource = mock(OandaRestResource.class);
+    when(resource.getCandleBlockFromTo(any(), any(), any(), any())).thenAnswer(inv -> {
+      requested.add(inv.getArgument(2) + "/" + inv.getArgument(3));
+      return everyMinute(Instant.parse(inv.getArgument(2)).getEpochSecond(),
+          Instant.parse(inv.getArgument(3)).getEpochSecond() + 60);
+    });
+    var candleAggregationService = mock(CandleAggregationService.class);
+    when(candleAggregationService.derive("EUR_USD")).thenReturn(true);
+    var instrumentsService = mock(InstrumentsService.class);
+    var checksumManifest = new ChecksumManifest(props);
+    var monthlyFileWriter = new MonthlyFileWriter(
+        props, instrumentsService, new AppendJournal(props, checksumManifest), checksumManifest);
+    var service = new CandlestickService(instrumentsService, resource, props, null, new OandaRateLimiter(props),
+        new IgTaskRunner(props), new StoreManifest(props), monthlyFileWriter, candleAggregationService, retryQueue);
+
+    var isRetried = service.retryPending();
+    var candles = CsvCandleParser.parse(m1File).candles();
+
+    verify(resource, never()).getCandleBlockWithCount(any(), any(), anyInt());
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isRetried).isTrue();
+      // 8 days of minutes in windows of 5000
+      soft.assertThat(requested).containsExactly(
+          "2024-01-02T00:00:00Z/2024-01-05T11:20:00Z",
+          "2024-01-05T11:20:00Z/2024-01-08T22:40:00Z",
+          "2024-01-08T22:40:00Z/2024-01-10T00:00:00Z");
+      soft.assertThat(candles.size()).isEqualTo(60 + 8 * 1_440 + 1);
+      for (var i = 1; i < candles.size(); i++) {
+        soft.assertThat(candles.time(i) - candles.time(i - 1)).as("step %d", i).isEqualTo(60);
+      }
+      soft.assertThat(retryQueue.get(EUR_USD_M1)).isEmpty();
+    });
+  }
+
+  private V20Properties v20Properties() {
+    return TestProperties.of(TestProperties.twoDisks(tempDir)
+        .retry(RetryProperties.builder().initialDelay(Duration.ZERO).build())
+        .build());
+  }
+
+}
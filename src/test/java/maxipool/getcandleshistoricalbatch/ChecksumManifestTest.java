@@ -0,0 +1,151 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.file.ChecksumUtil;
+import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ChecksumVerifyService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumEntry;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32C;
+
+class ChecksumManifestTest {
+
+  private static final String FILENAME = "EUR_USD-M1-2024_01.csv";
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_combineTheChecksumsOfTwoSequences() {
+    var a = "time,open,high,low,close,volume,complete\n".getBytes();
+    var b = "2024-01-01T00:00:00Z,1.1,1.2,1.0,1.15,10,true\n".repeat(1_000).getBytes();
+    var ab = ByteBuffer.allocate(a.length + b.length).put(a).put(b).array();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(ChecksumUtil.combine(crc32c(a), crc32c(b), b.length)).isEqualTo(crc32c(ab));
+      soft.assertThat(ChecksumUtil.combine(crc32c(a), crc32c(new byte[0]), 0)).isEqualTo(crc32c(a));
+    });
+  }
+
+  @Test
+  void should_recordAppendsAndCopies_andReportTheCopyThatRotted() throws IOException {
+    var props = v20Properties();
+    var manifest = new ChecksumManifest(props);
+    var src = tempDir.resolve("primary/EUR_USD/M1").resolve(FILENAME);
+    Files.createDirectories(src.getParent());
+    Files.writeString(src, "x".repeat(5_000));
+    manifest.record(src);
+    Files.writeString(src, "appended", StandardOpenOption.APPEND);
+    manifest.recordAppend(src, 5_000);
+    var copyDst = props.candlestick().copyOutputPath();
+    CopyFileUtil.copyToSecondDisk(src, copyDst, "EUR_USD", "M1", FILENAME);
+    var dst = CopyFileUtil.secondDiskFile(copyDst, "EUR_USD", "M1", FILENAME);
+    manifest.recordCopy(src, dst);
+    // neither recorded nor copied: recorded by the verification, and reported without a copy
+    var unrecorded = Files.writeString(src.resolveSibling("EUR_USD-M1-2024_02.csv"), "y".repeat(100));
+
+    var expected = new ChecksumEntry(5_008, ChecksumUtil.crc32c(src));
+    var recorded = manifest.get(src);
+    var verifier = new ChecksumVerifyService(props, manifest, new StoreManifest(props));
+    var isVerified = verifier.verify();
+    Files.delete(unrecorded);
+    var isVerifiedAfterCleanup = verifier.verify();
+    flipFirstByte(dst);
+    var isVerifiedAfterRot = verifier.verify();
+    var reloaded = new ChecksumManifest(props);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(recorded).contains(expected);
+      soft.assertThat(manifest.get(dst)).contains(expected);
+      soft.assertThat(isVerified).isFalse();
+      // the deleted file is reported once, then forgotten
+      soft.assertThat(isVerifiedAfterCleanup).isFalse();
+      soft.assertThat(isVerifiedAfterRot).isFalse();
+      soft.assertThat(verifier.verify()).isFalse();
+      soft.assertThat(reloaded.get(dst)).contains(expected);
+      soft.assertThat(reloaded.get(unrecorded)).isEmpty();
+      soft.assertThat(reloaded.entries(tempDir.resolve("primary"))).containsOnlyKeys("EUR_USD/M1/" + FILENAME);
+    });
+  }
+
+  @Test
+  void should_verifyDisksInSync() throws IOException {
+    var props = v20Properties();
+    var manifest = new ChecksumManifest(props);
+    var src = tempDir.resolve("primary/EUR_USD/M1").resolve(FILENAME);
+    Files.createDirectories(src.getParent());
+    Files.writeString(src, "x".repeat(10_000));
+    manifest.record(src);
+    var copyDst = props.candlestick().copyOutputPath();
+    CopyFileUtil.copyToSecondDisk(src, copyDst, "EUR_USD", "M1", FILENAME);
+    manifest.recordCopy(src, CopyFileUtil.secondDiskFile(copyDst, "EUR_USD", "M1", FILENAME));
+
+    SoftAssertions.assertSoftly(soft ->
+        soft.assertThat(new ChecksumVerifyService(props, manifest, new StoreManifest(props)).verify()).isTrue());
+  }
+
+  @Test
+  void should_reportASizeChangeNothingRecorded_butNotTheTruncationOfARecovery() throws IOException {
+    // no second disk, whose missing copies would be reported on every run
+    var props = TestProperties.withOutputPath(tempDir.resolve("primary"));
+    var manifest = new ChecksumManifest(props);
+    var changed = tempDir.resolve("primary/EUR_USD/M1").resolve(FILENAME);
+    var torn = changed.resolveSibling("EUR_USD-M1-2024_02.csv");
+    Files.createDirectories(changed.getParent());
+    Files.writeString(changed, "header\nrow1\n");
+    manifest.record(changed);
+    Files.writeString(torn, "header\nrow1\n");
+    manifest.record(torn);
+    // appended behind the manifests
+    Files.writeString(changed, "row2\n", StandardOpenOption.APPEND);
+    // a journaled append cut by a crash, after its checksum was recorded
+    new AppendJournal(props, manifest).begin(torn);
+    Files.writeString(torn, "row2\n", StandardOpenOption.APPEND);
+    manifest.recordAppend(torn, 12);
+
+    new AppendJournal(props, manifest).recover();
+    var verifier = new ChecksumVerifyService(props, manifest, new StoreManifest(props));
+    var isVerified = verifier.verify();
+    var isVerifiedAgain = verifier.verify();
+    var recovered = new ChecksumEntry(12, ChecksumUtil.crc32c(torn));
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isVerified).isFalse();
+      // reported once, then recorded
+      soft.assertThat(isVerifiedAgain).isTrue();
+      soft.assertThat(manifest.get(torn)).contains(recovered);
+    });
+  }
+
+  private V20Properties v20Properties() {
+    return TestProperties.of(TestProperties.twoDisks(tempDir).build());
+  }
+
+  private static long crc32c(byte[] bytes) {
+    var crc = new CRC32C();
+    crc.update(bytes);
+    return crc.getValue();
+  }
+
+  private static void flipFirstByte(Path path) throws IOException {
+    try (var channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+      var buffer = ByteBuffer.allocate(1);
+      channel.read(buffer, 0);
+      buffer.put(0, (byte) (buffer.get(0) ^ 1));
+      channel.write(buffer.flip(), 0);
+    }
+  }
+
+}
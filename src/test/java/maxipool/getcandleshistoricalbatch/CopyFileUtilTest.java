@@ -0,0 +1,57 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CopyFileUtilTest {
+
+  private static final String FILENAME = "EUR_USD-M1-2024_01.csv";
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_transferOnlyTheAppendedBytes_whenTheCopyIsInSync() throws IOException {
+    var src = Files.writeString(tempDir.resolve(FILENAME), "x".repeat(10_000));
+    var copyDst = tempDir.resolve("copy").toString();
+    CopyFileUtil.copyToSecondDisk(src, copyDst, "EUR_USD", "M1", FILENAME);
+    var dst = Path.of(copyDst, "EUR_USD", "M1", FILENAME);
+    // a byte before the tail that is checked: kept as is by an incremental mirror
+    overwriteFirstByte(dst);
+
+    var appendedFrom = Files.size(src);
+    Files.writeString(src, "appended", StandardOpenOption.APPEND);
+    CopyFileUtil.mirrorToSecondDisk(src, appendedFrom, copyDst, "EUR_USD", "M1", FILENAME);
+
+    assertThat(Files.readString(dst)).isEqualTo("y" + "x".repeat(9_999) + "appended");
+  }
+
+  @Test
+  void should_copyTheWholeFile_whenTheCopyIsNotAPrefixOfTheSource() throws IOException {
+    var src = Files.writeString(tempDir.resolve(FILENAME), "x".repeat(100));
+    var copyDst = tempDir.resolve("copy").toString();
+    CopyFileUtil.copyToSecondDisk(src, copyDst, "EUR_USD", "M1", FILENAME);
+    var dst = Path.of(copyDst, "EUR_USD", "M1", FILENAME);
+    overwriteFirstByte(dst);
+
+    var appendedFrom = Files.size(src);
+    Files.writeString(src, "appended", StandardOpenOption.APPEND);
+    CopyFileUtil.mirrorToSecondDisk(src, appendedFrom, copyDst, "EUR_USD", "M1", FILENAME);
+
+    assertThat(Files.readString(dst)).isEqualTo(Files.readString(src));
+  }
+
+  private static void overwriteFirstByte(Path path) throws IOException {
+    var content = Files.readString(path);
+    Files.writeString(path, "y" + content.substring(1));
+  }
+
+}
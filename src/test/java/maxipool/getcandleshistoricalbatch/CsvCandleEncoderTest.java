@@ -0,0 +1,100 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleEncoder;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvUtil;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+class CsvCandleEncoderTest {
+
+  private static final ZoneId UTC = ZoneId.of("UTC");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_writeSameBytesAsJackson() throws IOException {
+    var soft = new SoftAssertions();
+    var candles = randomCandles(20_000);
+
+    var withHeader = encode(candles, true);
+    var withoutHeader = encode(candles, false);
+
+    soft.assertThat(withHeader).isEqualTo(CsvUtil.candlesToCsvWithHeader(candles));
+    soft.assertThat(withoutHeader).isEqualTo(CsvUtil.candlesToCsvWithoutHeader(candles));
+    soft.assertAll();
+  }
+
+  @Test
+  void should_writeSameBytesAsJackson_whenFieldsAreMissing() throws IOException {
+    var candles = List.of(
+        CsvCandle.builder().time(ZonedDateTime.ofInstant(Instant.parse("1999-12-31T23:59:00Z"), UTC)).build(),
+        CsvCandle.builder().open(1.5).volume(0L).isComplete(0).build());
+
+    var withHeader = encode(candles, true);
+
+    SoftAssertions.assertSoftly(soft -> soft.assertThat(withHeader).isEqualTo(CsvUtil.candlesToCsvWithHeader(candles)));
+  }
+
+  private String encode(List<CsvCandle> candles, boolean withHeader) throws IOException {
+    var path = Files.createTempFile(tempDir, "candles", ".csv");
+    Files.delete(path);
+    try (var channel = FileChannel.open(path, WRITE, CREATE_NEW)) {
+      CsvCandleEncoder.write(channel, candles, withHeader);
+    }
+    return Files.readString(path);
+  }
+
+  private static List<CsvCandle> randomCandles(int count) {
+    var random = new Random(42);
+    var candles = new ArrayList<CsvCandle>(count);
+    var time = Instant.parse("1970-01-01T00:00:00Z").getEpochSecond();
+    for (var i = 0; i < count; i++) {
+      time += random.nextInt(1, 4_000_000);
+      candles.add(CsvCandle
+          .builder()
+          .time(ZonedDateTime.ofInstant(Instant.ofEpochSecond(time), UTC))
+          .open(randomPrice(random))
+          .high(randomPrice(random))
+          .low(randomPrice(random))
+          .close(randomPrice(random))
+          .volume(random.nextLong(0, 1_000_000))
+          .isComplete(random.nextInt(2))
+          .build());
+    }
+    return candles;
+  }
+
+  /**
+   * Mostly prices as Oanda sends them (a few decimals), plus arbitrary doubles for the slow path.
+   */
+  private static double randomPrice(Random random) {
+    return switch (random.nextInt(6)) {
+      case 0 -> random.nextDouble() * Math.pow(10, random.nextInt(-6, 10));
+      case 1 -> random.nextInt(1, 100);
+      default -> {
+        var decimals = random.nextInt(1, 7);
+        var format = "%d.%0" + decimals + "d";
+        yield Double.parseDouble(format.formatted(
+            random.nextInt(0, 200_000), random.nextLong(0, (long) Math.pow(10, decimals))));
+      }
+    };
+  }
+
+}
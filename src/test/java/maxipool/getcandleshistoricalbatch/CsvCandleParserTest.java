@@ -0,0 +1,155 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvUtil;
+import maxipool.getcandleshistoricalbatch.common.csv.DelimiterScanner;
+import maxipool.getcandleshistoricalbatch.common.csv.ScalarDelimiterScanner;
+import maxipool.getcandleshistoricalbatch.common.csv.VectorDelimiterScanner;
+import org.apache.commons.lang3.ObjectUtils;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Objects;
+import java.util.Random;
+import java.util.stream.IntStream;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+class CsvCandleParserTest {
+
+  private static final ZoneId UTC = ZoneId.of("UTC");
+  private static final List<String> MALFORMED_ROWS = List.of(
+      "2024-01-02T03:04:00Z,1.1,1.2,1.0,1.15,42",
+      "2024-01-02T03:04:00Z,1.1,1.2,1.0,1.15,42,1,7",
+      "2024-01-02T03:04:00Z,1.1,,1.0,1.15,42,1",
+      "2024-01-02T03:04:00Z,1.1,abc,1.0,1.15,42,1",
+      "2024-13-02T03:04:00Z,1.1,1.2,1.0,1.15,42,1",
+      ",1.1,1.2,1.0,1.15,42,1",
+      "2024-01-02T03:04:00Z,1.1,1.2,1.0,1.15,4.2,1",
+      "\0\0\0\0\0\0\0\0");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_readSameCandlesAsJackson() throws IOException {
+    var lines = randomLines(20_000);
+    var path = write(lines, "\n");
+
+    for (var scanner : List.of(new ScalarDelimiterScanner(), new VectorDelimiterScanner())) {
+      assertMatchesJackson(path, lines, scanner);
+    }
+  }
+
+  @Test
+  void should_readSameCandlesAsJackson_whenCrLf() throws IOException {
+    var lines = randomLines(2_000);
+    var path = write(lines, "\r\n");
+
+    assertMatchesJackson(path, lines, DelimiterScanner.best());
+  }
+
+  @Test
+  void should_skipGarbageLongerThanAChunk() throws IOException {
+    var lines = new ArrayList<>(jacksonLines(10, new Random(7)));
+    lines.add(5, "\0".repeat(200_000));
+    var path = write(lines, "\n");
+
+    var parsed = CsvCandleParser.parse(path);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(parsed.rejectedRows()).isEqualTo(1);
+      soft.assertThat(parsed.firstRejectedRow()).isEqualTo(5);
+      soft.assertThat(parsed.candles().size()).isEqualTo(lines.size() - 1);
+    });
+  }
+
+  @Test
+  void should_readTheTimeOfTheFirstRowThatHasOne() throws IOException {
+    var path = write(List.of("\0\0\0", ",1.1,1.2,1.0,1.15,42,1", "2024-01-02T03:04:00.000Z,1.1,1.2,1.0,1.15,42,1",
+        "2024-01-02T03:05:00Z,1.1,1.2,1.0,1.15,42,1"), "\r\n");
+    var empty = write(List.of(), "\n");
+
+    var first = CsvCandleParser.firstCandleTime(path);
+    var none = CsvCandleParser.firstCandleTime(empty);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(first).isEqualTo(Instant.parse("2024-01-02T03:04:00Z").getEpochSecond());
+      soft.assertThat(none).isEqualTo(EpochSecondUtil.NOT_PARSED);
+    });
+  }
+
+  private static void assertMatchesJackson(Path path, List<String> lines, DelimiterScanner scanner) throws IOException {
+    var expected = lines
+        .stream()
+        .map(CsvUtil::csvStringWithoutHeaderToCsvCandlePojo)
+        .filter(Objects::nonNull)
+        .filter(i -> ObjectUtils.allNotNull(i.getTime(), i.getOpen(), i.getHigh(), i.getLow(), i.getClose(), i.getVolume(), i.getIsComplete()))
+        .map(CsvCandleParserTest::fields)
+        .toList();
+
+    var parsed = CsvCandleParser.parse(path, scanner);
+    var block = parsed.candles();
+    var actual = IntStream.range(0, block.size()).mapToObj(block::toCsvCandle).map(CsvCandleParserTest::fields).toList();
+
+    var soft = new SoftAssertions();
+    soft.assertThat(parsed.rejectedRows()).as(scanner.getClass().getSimpleName()).isEqualTo(lines.size() - expected.size());
+    soft.assertThat(actual).containsExactlyElementsOf(expected);
+    soft.assertAll();
+  }
+
+  private static List<Object> fields(CsvCandle c) {
+    return List.of(c.getTime().toInstant(), c.getOpen(), c.getHigh(), c.getLow(), c.getClose(), c.getVolume(), c.getIsComplete());
+  }
+
+  private Path write(List<String> lines, String newline) throws IOException {
+    var path = Files.createTempFile(tempDir, "candles", ".csv");
+    var content = "time,open,high,low,close,volume,isComplete" + newline + String.join(newline, lines) + newline;
+    Files.writeString(path, content);
+    assertThat(Files.size(path)).isPositive();
+    return path;
+  }
+
+  /**
+   * Rows written by Jackson, with some malformed ones mixed in.
+   */
+  private static List<String> randomLines(int count) {
+    var random = new Random(7);
+    var lines = new ArrayList<>(jacksonLines(count, random));
+    for (var malformed : MALFORMED_ROWS) {
+      lines.add(random.nextInt(lines.size()), malformed);
+    }
+    return lines;
+  }
+
+  private static List<String> jacksonLines(int count, Random random) {
+    var candles = new ArrayList<CsvCandle>();
+    var time = Instant.parse("2024-01-01T00:00:00Z");
+    for (var i = 0; i < count; i++) {
+      time = time.plusSeconds(60);
+      var open = random.nextInt(2_000_000) / 100_000d;
+      candles.add(CsvCandle.builder()
+          .time(ZonedDateTime.ofInstant(time, UTC))
+          .open(open)
+          .high(open + random.nextInt(1_000) / 100_000d)
+          .low(i % 1000 == 0 ? 0.0001 : open - random.nextInt(1_000) / 100_000d)
+          .close(open + (random.nextInt(1_000) - 500) / 100_000d)
+          .volume((long) random.nextInt(5_000))
+          .isComplete(random.nextInt(10) == 0 ? 0 : 1)
+          .build());
+    }
+    return CsvUtil.candlesToCsvWithoutHeader(candles).lines().toList();
+  }
+
+}
@@ -0,0 +1,93 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.primitives.Instrument;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.CandleStore;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.GapRepairService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.IgTaskRunner;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.InstrumentsService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.MonthlyFileWriter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap.GapList;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.journal.AppendJournal;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.ETradingCalendar;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.resource.OandaRestResource;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.GapProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.oanda.v20.instrument.CandlestickGranularity.M15;
+import static maxipool.getcandleshistoricalbatch.TestCandles.everyMinute;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+class GapRepairServiceTest {
+
+  private static final long HOLE_FROM = Instant.parse("2024-01-09T10:00:00Z").getEpochSecond();
+  private static final long HOLE_TO = HOLE_FROM + 30 * 60;
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_fetchAnIlliquidHoleOnce_andKeepWhatOandaHad() throws IOException {
+    var props = v20Properties();
+    var m1File = Files.createDirectories(tempDir.resolve("primary/EUR_USD/M1")).resolve("EUR_USD-M1-2024_01.csv");
+    var local = new CandleBlock();
+    local.addAll(everyMinute(HOLE_FROM - 3_600, HOLE_FROM));
+    local.addAll(everyMinute(HOLE_TO, HOLE_TO + 3_600));
+    writeCandlesToFileThatDoesntExist(m1File, local);
+
+    var resource = mock(OandaRestResource.class);
+    when(resource.getCandleBlockFromTo(any(), any(), any(), any())).thenAnswer(inv -> {
+      // two trades in the half hour, which leave two holes of more than 10 minutes
+      var candles = new CandleBlock();
+      candles.add(HOLE_FROM + 12 * 60, 1.1, 1.2, 1.0, 1.15, 10, true);
+      candles.add(HOLE_FROM + 13 * 60, 1.1, 1.2, 1.0, 1.15, 10, true);
+      return candles;
+    });
+    var instrumentsService = mock(InstrumentsService.class);
+    when(instrumentsService.findAll()).thenReturn(List.of(new Instrument().setName("EUR_USD")));
+    var checksumManifest = new ChecksumManifest(props);
+    var monthlyFileWriter = new MonthlyFileWriter(
+        props, instrumentsService, new AppendJournal(props, checksumManifest), checksumManifest);
+    var service = new GapRepairService(instrumentsService, resource, props, new IgTaskRunner(props),
+        new CandleStore(props), monthlyFileWriter, new StoreManifest(props), new GapList(props));
+
+    var isRepaired = service.repair();
+    var isRepairedAgain = service.repair();
+    var candles = CsvCandleParser.parse(m1File).candles();
+
+    verify(resource, times(1)).getCandleBlockFromTo(any(), any(), any(), any());
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isRepaired).isTrue();
+      soft.assertThat(isRepairedAgain).isTrue();
+      soft.assertThat(candles.size()).isEqualTo(122);
+      soft.assertThat(new GapList(props).empty()).hasSize(1);
+    });
+  }
+
+  private V20Properties v20Properties() {
+    return TestProperties.of(TestProperties.twoDisks(tempDir)
+        .derivedGranularities(Set.of(M15))
+        .gaps(GapProperties.builder().calendars(Map.of("EUR_USD", ETradingCalendar.ALWAYS_OPEN)).build())
+        .build());
+  }
+
+}
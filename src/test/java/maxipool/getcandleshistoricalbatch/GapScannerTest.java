@@ -0,0 +1,112 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import com.oanda.v20.primitives.InstrumentType;
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap.Gap;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.gap.GapScanner;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.ETradingCalendar;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.stream.Stream;
+
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.ETradingCalendar.CFD;
+import static maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.ETradingCalendar.FX;
+
+class GapScannerTest {
+
+  private static final IG IG_M1 = new IG("EUR_USD", CandlestickGranularity.M1);
+
+  @Test
+  void should_tellTheMarketClosuresApart_inNewYorkTime() {
+    SoftAssertions.assertSoftly(soft -> {
+      // Friday 16:59 and 17:00 in New York, winter then summer time
+      soft.assertThat(FX.isOpen(epoch("2024-01-05T21:59:00Z"))).isTrue();
+      soft.assertThat(FX.isOpen(epoch("2024-01-05T22:00:00Z"))).isFalse();
+      soft.assertThat(FX.isOpen(epoch("2024-07-05T20:59:00Z"))).isTrue();
+      soft.assertThat(FX.isOpen(epoch("2024-07-05T21:00:00Z"))).isFalse();
+      // Sunday 17:30 in New York
+      soft.assertThat(FX.isOpen(epoch("2024-01-07T22:30:00Z"))).isTrue();
+      soft.assertThat(CFD.isOpen(epoch("2024-01-07T22:30:00Z"))).isFalse();
+      // Tuesday 17:30 in New York, in the daily break of CFDs
+      soft.assertThat(FX.isOpen(epoch("2024-01-09T22:30:00Z"))).isTrue();
+      soft.assertThat(CFD.isOpen(epoch("2024-01-09T22:30:00Z"))).isFalse();
+      // a daily candle starting at 17:00 on Tuesday is traded from 18:00
+      soft.assertThat(CFD.isExpected(epoch("2024-01-09T22:00:00Z"), 86_400)).isTrue();
+      soft.assertThat(ETradingCalendar.ALWAYS_OPEN.isOpen(epoch("2024-01-06T12:00:00Z"))).isTrue();
+      soft.assertThat(ETradingCalendar.of(InstrumentType.CURRENCY)).isEqualTo(FX);
+      soft.assertThat(ETradingCalendar.of(InstrumentType.METAL)).isEqualTo(CFD);
+    });
+  }
+
+  @Test
+  void should_reportTheHolesWhileOpen_ofAtLeastMinMissingCandles() {
+    var friday = new CandleBlock();
+    // Friday 15:00 to 16:49 in New York; the 10 minutes before the weekly close are missing
+    addMinutes(friday, epoch("2024-01-05T20:00:00Z"), epoch("2024-01-05T21:50:00Z"));
+    var sunday = new CandleBlock();
+    // from Sunday 17:00 in New York, missing 15 minutes then 5 minutes
+    addMinutes(sunday, epoch("2024-01-07T22:00:00Z"), epoch("2024-01-07T22:30:00Z"));
+    addMinutes(sunday, epoch("2024-01-07T22:45:00Z"), epoch("2024-01-07T23:10:00Z"));
+    addMinutes(sunday, epoch("2024-01-07T23:15:00Z"), epoch("2024-01-08T00:00:00Z"));
+
+    var fx = GapScanner.scan(IG_M1, Stream.of(friday, sunday), FX, 10);
+    var cfd = GapScanner.scan(IG_M1, Stream.of(friday, sunday), CFD, 10);
+    var everyHole = GapScanner.scan(IG_M1, Stream.of(friday, sunday), FX, 1);
+
+    var fridayGap = new Gap("EUR_USD", CandlestickGranularity.M1,
+        Instant.parse("2024-01-05T21:50:00Z"), Instant.parse("2024-01-05T22:00:00Z"), 10);
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(fx).containsExactly(
+          fridayGap,
+          new Gap("EUR_USD", CandlestickGranularity.M1,
+              Instant.parse("2024-01-07T22:30:00Z"), Instant.parse("2024-01-07T22:45:00Z"), 15));
+      // closed until 18:00 on Sunday
+      soft.assertThat(cfd).containsExactly(fridayGap);
+      soft.assertThat(everyHole).extracting(Gap::missing).containsExactly(10L, 15L, 5L);
+      soft.assertThat(fridayGap.covers(fx.getFirst())).isTrue();
+      soft.assertThat(fridayGap.covers(fx.getLast())).isFalse();
+    });
+  }
+
+  @Test
+  void should_stepThroughDailyCandles_likeOandaAlignsThem_acrossDaylightSavingChanges() {
+    var igD = new IG("EUR_USD", CandlestickGranularity.D);
+    // Thursday, then Sunday 17:00 in New York once in summer time, then Monday
+    var spring = days("2024-03-07T22:00:00Z", "2024-03-10T21:00:00Z", "2024-03-11T21:00:00Z");
+    // Friday in summer time, then Sunday 17:00 in New York once in winter time, then Monday
+    var fall = days("2024-11-01T21:00:00Z", "2024-11-03T22:00:00Z", "2024-11-04T22:00:00Z");
+    // Thursday, then Wednesday: Sunday, Monday and Tuesday are missing
+    var hole = days("2024-03-07T22:00:00Z", "2024-03-13T21:00:00Z");
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(GapScanner.scan(igD, Stream.of(spring), FX, 1)).isEmpty();
+      soft.assertThat(GapScanner.scan(igD, Stream.of(fall), FX, 1)).isEmpty();
+      soft.assertThat(GapScanner.scan(igD, Stream.of(hole), FX, 1)).containsExactly(
+          new Gap("EUR_USD", CandlestickGranularity.D,
+              Instant.parse("2024-03-10T21:00:00Z"), Instant.parse("2024-03-13T21:00:00Z"), 3));
+    });
+  }
+
+  private static CandleBlock days(String... times) {
+    var block = new CandleBlock();
+    for (var time : times) {
+      block.add(epoch(time), 1.1, 1.2, 1.0, 1.15, 10, true);
+    }
+    return block;
+  }
+
+  private static void addMinutes(CandleBlock block, long from, long to) {
+    for (var time = from; time < to; time += 60) {
+      block.add(time, 1.1, 1.2, 1.0, 1.15, 10, true);
+    }
+  }
+
+  private static long epoch(String instant) {
+    return Instant.parse(instant).getEpochSecond();
+  }
+
+}
@@ -0,0 +1,80 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.IgTaskRunner;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.EFetchExecutor;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.FetchProperties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.IntStream;
+
+class IgTaskRunnerTest {
+
+  private static final List<IG> IGS = IntStream.range(0, 20)
+      .mapToObj(i -> new IG("I%02d".formatted(i), CandlestickGranularity.M1))
+      .toList();
+
+  @Test
+  void should_runAtMostParallelismTasksAtOnce_onEitherKindOfThreads() {
+    for (var kind : EFetchExecutor.values()) {
+      var running = new AtomicInteger();
+      var maxRunning = new AtomicInteger();
+      var results = runner(kind).runAll(IGS, ig -> {
+        maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+        try {
+          Thread.sleep(20);
+          return true;
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          return false;
+        } finally {
+          running.decrementAndGet();
+        }
+      }, 3, null, (ig, ok) -> {
+      });
+
+      SoftAssertions.assertSoftly(soft -> {
+        soft.assertThat(results).as(kind.name()).hasSize(IGS.size()).doesNotContainValue(false);
+        soft.assertThat(maxRunning.get()).as(kind.name()).isEqualTo(3);
+      });
+    }
+  }
+
+  @Test
+  void should_cancelTheTaskThatTimesOut_withoutTimingOutTheOnesWaitingBehindIt() {
+    var slow = IGS.getFirst();
+    var isInterrupted = new AtomicBoolean();
+    var done = new AtomicInteger();
+    var results = runner(EFetchExecutor.VIRTUAL).runAll(IGS.subList(0, 4), ig -> {
+      if (!ig.equals(slow)) {
+        return true;
+      }
+      try {
+        Thread.sleep(Duration.ofMinutes(1));
+        return true;
+      } catch (InterruptedException e) {
+        isInterrupted.set(true);
+        return true;
+      }
+    }, 1, Duration.ofMillis(200), (ig, ok) -> done.incrementAndGet());
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(results.get(slow)).isFalse();
+      soft.assertThat(isInterrupted).isTrue();
+      soft.assertThat(results.values().stream().filter(Boolean::booleanValue).count()).isEqualTo(3);
+      soft.assertThat(done).hasValue(4);
+    });
+  }
+
+  private static IgTaskRunner runner(EFetchExecutor kind) {
+    var fetch = FetchProperties.builder().executor(kind).build();
+    return new IgTaskRunner(TestProperties.of(fetch));
+  }
+
+}
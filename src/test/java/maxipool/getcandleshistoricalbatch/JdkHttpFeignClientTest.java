@@ -0,0 +1,69 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.sun.net.httpserver.HttpServer;
+import feign.Request;
+import feign.Request.HttpMethod;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.config.JdkHttpFeignClient;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+class JdkHttpFeignClientTest {
+
+  @Test
+  void should_askForGzip_andDecompressTheResponse() throws Exception {
+    var json = "{\"instrument\":\"EUR_USD\",\"granularity\":\"M1\",\"candles\":[]}";
+    var acceptEncoding = new AtomicReference<String>();
+    var authorization = new AtomicReference<String>();
+    var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/v3/instruments/EUR_USD/candles", exchange -> {
+      acceptEncoding.set(exchange.getRequestHeaders().getFirst("Accept-Encoding"));
+      authorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+      var gzipped = new ByteArrayOutputStream();
+      try (var gzip = new GZIPOutputStream(gzipped)) {
+        gzip.write(json.getBytes(UTF_8));
+      }
+      exchange.getResponseHeaders().add("Content-Encoding", "gzip");
+      exchange.sendResponseHeaders(200, gzipped.size());
+      try (var out = exchange.getResponseBody()) {
+        gzipped.writeTo(out);
+      }
+    });
+    server.start();
+    try {
+      var client = new JdkHttpFeignClient(JdkHttpFeignClient.newHttpClient(Duration.ofSeconds(5)));
+      var request = Request.create(
+          HttpMethod.GET,
+          "http://127.0.0.1:%d/v3/instruments/EUR_USD/candles?granularity=M1".formatted(server.getAddress().getPort()),
+          Map.of("Authorization", List.of("Bearer token"), "Content-Length", List.of("0")),
+          null,
+          UTF_8,
+          null);
+
+      try (var response = client.execute(request, new Request.Options(5, TimeUnit.SECONDS, 5, TimeUnit.SECONDS, true))) {
+        var body = new String(response.body().asInputStream().readAllBytes(), UTF_8);
+
+        SoftAssertions.assertSoftly(soft -> {
+          soft.assertThat(response.status()).isEqualTo(200);
+          soft.assertThat(body).isEqualTo(json);
+          soft.assertThat(response.headers()).doesNotContainKey("Content-Encoding");
+          soft.assertThat(acceptEncoding.get()).isEqualTo("gzip");
+          soft.assertThat(authorization.get()).isEqualTo("Bearer token");
+        });
+      }
+    } finally {
+      server.stop(0);
+    }
+  }
+
+}
@@ -0,0 +1,54 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.BYTES_COPIED;
+import static maxipool.getcandleshistoricalbatch.common.metrics.EMetric.OANDA_REQUEST_SECONDS;
+
+class MetricsTest {
+
+  @TempDir
+  Path tempDir;
+
+  // the other tests of the same JVM record metrics too
+  @BeforeEach
+  void clear() {
+    Metrics.clear();
+  }
+
+  @Test
+  void should_exportCountersAndCumulativeHistograms_inThePrometheusTextFormat() throws Exception {
+    Metrics.count(BYTES_COPIED, 100, "append");
+    Metrics.count(BYTES_COPIED, 50, "append");
+    Metrics.count(BYTES_COPIED, 7, "full");
+    Metrics.recordNanos(OANDA_REQUEST_SECONDS, 20_000_000, "candles", "EUR_USD", "M1", "200");
+    Metrics.recordNanos(OANDA_REQUEST_SECONDS, 300_000_000, "candles", "EUR_USD", "M1", "200");
+    Metrics.recordNanos(OANDA_REQUEST_SECONDS, 90_000_000_000L, "candles", "EUR_USD", "M1", "200");
+
+    var file = tempDir.resolve("candles.prom");
+    Metrics.writeTo(file);
+    var text = Files.readString(file);
+
+    var labels = "endpoint=\"candles\",instrument=\"EUR_USD\",granularity=\"M1\",status=\"200\"";
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(text).contains("# TYPE candles_bytes_copied_total counter\n");
+      soft.assertThat(text).contains("candles_bytes_copied_total{mode=\"append\"} 150\n");
+      soft.assertThat(text).contains("candles_bytes_copied_total{mode=\"full\"} 7\n");
+      soft.assertThat(text).contains("# TYPE oanda_request_seconds histogram\n");
+      soft.assertThat(text).contains("oanda_request_seconds_bucket{%s,le=\"0.01\"} 0\n".formatted(labels));
+      soft.assertThat(text).contains("oanda_request_seconds_bucket{%s,le=\"0.025\"} 1\n".formatted(labels));
+      soft.assertThat(text).contains("oanda_request_seconds_bucket{%s,le=\"60.0\"} 2\n".formatted(labels));
+      soft.assertThat(text).contains("oanda_request_seconds_bucket{%s,le=\"+Inf\"} 3\n".formatted(labels));
+      soft.assertThat(text).contains("oanda_request_seconds_count{%s} 3\n".formatted(labels));
+      soft.assertThat(text).doesNotContain("oanda_retries_total");
+    });
+  }
+
+}
@@ -0,0 +1,66 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.OandaCandlesDecoder;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Instant;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+class OandaCandlesDecoderTest {
+
+  private static final String PAYLOAD = """
+      {
+        "instrument": "USD_JPY",
+        "granularity": "M1",
+        "candles": [
+          {
+            "complete": true,
+            "volume": 42,
+            "time": "2024-02-29T23:59:00.000000000Z",
+            "bid": {"o": "150.001", "h": "150.010", "l": "149.990", "c": "150.000"},
+            "mid": {"o": "150.006", "h": "150.015", "l": "149.995", "c": "150.005"}
+          },
+          {
+            "mid": {"o": "0.65432", "h": "0.65450", "l": "0.65400", "c": "0.65441"},
+            "time": "2024-03-01T00:00:00Z",
+            "volume": 7,
+            "complete": false
+          }
+        ]
+      }
+      """;
+
+  @Test
+  void should_decodeCandlesToPrimitiveColumns() throws IOException {
+    var soft = new SoftAssertions();
+
+    var block = OandaCandlesDecoder.decode(new ByteArrayInputStream(PAYLOAD.getBytes(UTF_8)));
+
+    soft.assertThat(block.size()).isEqualTo(2);
+    soft.assertThat(block.time(0)).isEqualTo(Instant.parse("2024-02-29T23:59:00Z").getEpochSecond());
+    soft.assertThat(block.open(0)).isEqualTo(150.006);
+    soft.assertThat(block.high(0)).isEqualTo(150.015);
+    soft.assertThat(block.low(0)).isEqualTo(149.995);
+    soft.assertThat(block.close(0)).isEqualTo(150.005);
+    soft.assertThat(block.volume(0)).isEqualTo(42);
+    soft.assertThat(block.complete(0)).isTrue();
+    soft.assertThat(block.time(1)).isEqualTo(Instant.parse("2024-03-01T00:00:00Z").getEpochSecond());
+    soft.assertThat(block.open(1)).isEqualTo(Double.parseDouble("0.65432"));
+    soft.assertThat(block.close(1)).isEqualTo(Double.parseDouble("0.65441"));
+    soft.assertThat(block.volume(1)).isEqualTo(7);
+    soft.assertThat(block.complete(1)).isFalse();
+    soft.assertAll();
+  }
+
+  @Test
+  void should_returnEmptyBlock_whenNoCandles() throws IOException {
+    var block = OandaCandlesDecoder.decode(new ByteArrayInputStream("{\"candles\":[]}".getBytes(UTF_8)));
+
+    SoftAssertions.assertSoftly(soft -> soft.assertThat(block.isEmpty()).isTrue());
+  }
+
+}
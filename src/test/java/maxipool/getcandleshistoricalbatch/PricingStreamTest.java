@@ -0,0 +1,78 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.sun.net.httpserver.HttpServer;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.stream.M1CandleBuilder;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.stream.PricingStreamClient;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.net.InetSocketAddress;
+import java.net.http.HttpClient;
+import java.time.Instant;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+class PricingStreamTest {
+
+  @Test
+  void should_buildM1Candles_fromThePricesOfTheStream() throws Exception {
+    var lines = String.join("\n",
+        // the first minute may miss prices from before the stream was opened: dropped
+        price("EUR_USD", "2024-03-05T10:00:59Z", "1.08000", "1.08002"),
+        price("EUR_USD", "2024-03-05T10:01:00.1Z", "1.08010", "1.08012"),
+        price("EUR_USD", "2024-03-05T10:01:20Z", "1.08030", "1.08033"),
+        "not json",
+        price("EUR_USD", "2024-03-05T10:01:40Z", "1.07990", "1.07992"),
+        price("EUR_USD", "2024-03-05T10:01:59.9Z", "1.08020", "1.08022"),
+        "{\"type\":\"HEARTBEAT\",\"time\":\"2024-03-05T10:02:01Z\"}",
+        // the minute in progress when the stream ends is not over
+        price("EUR_USD", "2024-03-05T10:02:03Z", "1.08100", "1.08102"),
+        "");
+    var authorization = new AtomicReference<String>();
+    var server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+    server.createContext("/v3/accounts/001/pricing/stream", exchange -> {
+      authorization.set(exchange.getRequestHeaders().getFirst("Authorization"));
+      var body = lines.getBytes(UTF_8);
+      exchange.sendResponseHeaders(200, body.length);
+      try (var out = exchange.getResponseBody()) {
+        out.write(body);
+      }
+    });
+    server.start();
+    try {
+      var client = new PricingStreamClient(
+          HttpClient.newHttpClient(), "http://127.0.0.1:%d".formatted(server.getAddress().getPort()), "token");
+      var builder = new M1CandleBuilder(instrument -> 5);
+
+      client.stream("001", List.of("EUR_USD"), builder);
+      var candles = builder.drain();
+
+      var m1 = candles.get("EUR_USD");
+      SoftAssertions.assertSoftly(soft -> {
+        soft.assertThat(authorization.get()).isEqualTo("Bearer token");
+        soft.assertThat(candles).containsOnlyKeys("EUR_USD");
+        soft.assertThat(m1.size()).isEqualTo(1);
+        soft.assertThat(m1.time(0)).isEqualTo(Instant.parse("2024-03-05T10:01:00Z").getEpochSecond());
+        soft.assertThat(m1.open(0)).isEqualTo(1.08011);
+        soft.assertThat(m1.high(0)).isEqualTo(1.080315);
+        soft.assertThat(m1.low(0)).isEqualTo(1.07991);
+        soft.assertThat(m1.close(0)).isEqualTo(1.08021);
+        soft.assertThat(m1.volume(0)).isEqualTo(4);
+        soft.assertThat(m1.complete(0)).isTrue();
+        soft.assertThat(builder.drain()).isEmpty();
+      });
+    } finally {
+      server.stop(0);
+    }
+  }
+
+  private static String price(String instrument, String time, String bid, String ask) {
+    return """
+        {"type":"PRICE","instrument":"%s","time":"%s","bids":[{"price":"%s","liquidity":1000000}],\
+        "asks":[{"price":"%s","liquidity":1000000}],"tradeable":true}"""
+        .formatted(instrument, time, bid, ask);
+  }
+
+}
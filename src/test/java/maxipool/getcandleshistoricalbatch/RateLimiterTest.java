@@ -0,0 +1,167 @@
+package maxipool.getcandleshistoricalbatch;
+
+import feign.Request;
+import feign.Request.HttpMethod;
+import feign.Response;
+import maxipool.getcandleshistoricalbatch.common.metrics.Metrics;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.AimdConcurrencyLimiter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.OandaRateLimiter;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.RateLimitedClient;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.ratelimit.TokenBucket;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RateLimitProperties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class RateLimiterTest {
+
+  @Test
+  void should_serveTheBurstAtOnce_thenReserveTokensInDebt() throws InterruptedException {
+    var bucket = new TokenBucket(10, 3);
+
+    var burstNanos = nanosOf(() -> {
+      for (var i = 0; i < 3; i++) {
+        bucket.acquire();
+      }
+    });
+    // 1 token in debt: 100ms at 10 tokens/s
+    var debtNanos = nanosOf(bucket::acquire);
+    bucket.pause(Duration.ofMillis(300));
+    // the pause, then its own token
+    var pausedNanos = nanosOf(bucket::acquire);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(burstNanos).isLessThan(TimeUnit.MILLISECONDS.toNanos(50));
+      soft.assertThat(debtNanos).isBetween(TimeUnit.MILLISECONDS.toNanos(70), TimeUnit.MILLISECONDS.toNanos(300));
+      soft.assertThat(pausedNanos).isGreaterThan(TimeUnit.MILLISECONDS.toNanos(350));
+    });
+  }
+
+  @Test
+  void should_growByOnePerRoundTrip_andHalveOncePerCooldown() throws InterruptedException {
+    var limiter = new AimdConcurrencyLimiter(4, 1, 6, Duration.ofSeconds(1));
+    var healthy = TimeUnit.MILLISECONDS.toNanos(10);
+    var slow = TimeUnit.SECONDS.toNanos(2);
+
+    // 4 + 1/4 + 1/4.25 + ... crosses 5 at the fifth response
+    roundTrips(limiter, 4, healthy, false);
+    var afterFour = limiter.getLimit();
+    roundTrips(limiter, 1, healthy, false);
+    var afterFive = limiter.getLimit();
+    roundTrips(limiter, 10, slow, false);
+    var afterSlow = limiter.getLimit();
+    roundTrips(limiter, 1, healthy, true);
+    var afterOverload = limiter.getLimit();
+    roundTrips(limiter, 3, healthy, true);
+    var afterBurstOfErrors = limiter.getLimit();
+    Thread.sleep(1_100);
+    roundTrips(limiter, 1, healthy, true);
+    var afterCooldown = limiter.getLimit();
+    roundTrips(limiter, 100, healthy, false);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(afterFour).isEqualTo(4);
+      soft.assertThat(afterFive).isEqualTo(5);
+      soft.assertThat(afterSlow).isEqualTo(5);
+      soft.assertThat(afterOverload).isEqualTo(2);
+      soft.assertThat(afterBurstOfErrors).isEqualTo(2);
+      soft.assertThat(afterCooldown).isEqualTo(1);
+      soft.assertThat(limiter.getLimit()).isEqualTo(6);
+    });
+  }
+
+  @Test
+  void should_holdTheSlotAndTheLatency_untilTheBodyIsClosed() throws Exception {
+    var rateLimiter = singleSlotLimiter();
+    var client = new RateLimitedClient((request, options) -> Response.builder()
+        .status(200)
+        .request(request)
+        .headers(Map.of())
+        .body(new ByteArrayInputStream("{}".getBytes(UTF_8)), 2)
+        .build(), rateLimiter);
+
+    var response = client.execute(request("RL_BODY"), new Request.Options());
+    var next = CompletableFuture.runAsync(() -> acquire(rateLimiter));
+    Thread.sleep(300);
+    var isWaitingWhileStreaming = !next.isDone();
+    try (var body = response.body().asInputStream()) {
+      body.readAllBytes();
+    }
+    // closed twice, released once
+    response.close();
+    next.get(1, TimeUnit.SECONDS);
+    rateLimiter.release(0, 200);
+    var metrics = Metrics.scrape();
+
+    var labels = "endpoint=\"candles\",instrument=\"RL_BODY\",granularity=\"M1\",status=\"200\"";
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isWaitingWhileStreaming).isTrue();
+      soft.assertThat(metrics).contains("oanda_request_seconds_bucket{%s,le=\"0.25\"} 0\n".formatted(labels));
+      soft.assertThat(metrics).contains("oanda_request_seconds_count{%s} 1\n".formatted(labels));
+    });
+  }
+
+  @Test
+  void should_releaseTheSlotAtOnce_whenTheRequestFails() throws Exception {
+    var rateLimiter = singleSlotLimiter();
+    var client = new RateLimitedClient((request, options) -> {
+      throw new IOException("connection reset");
+    }, rateLimiter);
+
+    assertThatThrownBy(() -> client.execute(request("RL_FAIL"), new Request.Options())).isInstanceOf(IOException.class);
+
+    CompletableFuture.runAsync(() -> acquire(rateLimiter)).get(1, TimeUnit.SECONDS);
+  }
+
+  private interface Interruptible {
+    void run() throws InterruptedException;
+  }
+
+  private static long nanosOf(Interruptible action) throws InterruptedException {
+    var start = System.nanoTime();
+    action.run();
+    return System.nanoTime() - start;
+  }
+
+  private static void roundTrips(AimdConcurrencyLimiter limiter, int count, long latencyNanos, boolean isOverloaded)
+      throws InterruptedException {
+    for (var i = 0; i < count; i++) {
+      limiter.acquire();
+      limiter.release(latencyNanos, isOverloaded);
+    }
+  }
+
+  private static OandaRateLimiter singleSlotLimiter() {
+    var rateLimit = RateLimitProperties.builder()
+        .requestsPerSecond(1_000d)
+        .burst(10)
+        .initialConcurrency(1)
+        .minConcurrency(1)
+        .maxConcurrency(1)
+        .build();
+    return new OandaRateLimiter(TestProperties.of(rateLimit));
+  }
+
+  private static void acquire(OandaRateLimiter rateLimiter) {
+    try {
+      rateLimiter.acquire();
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  private static Request request(String instrument) {
+    return Request.create(HttpMethod.GET,
+        "http://localhost/v3/instruments/%s/candles?granularity=M1".formatted(instrument), Map.of(), null, UTF_8, null);
+  }
+
+}
@@ -0,0 +1,80 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry.RetryEntry;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.retry.RetryQueue;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.CandlestickProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RetryProperties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+
+class RetryQueueTest {
+
+  private static final IG IG_M1 = new IG("EUR_USD", CandlestickGranularity.M1);
+  private static final IG IG_M15 = new IG("EUR_USD", CandlestickGranularity.M15);
+  private static final Instant FROM = Instant.parse("2024-03-01T10:00:00Z");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_keepFailuresAcrossInstances_withTheirWindowAndBackoff() {
+    var queue = newQueue();
+    var before = Instant.now();
+    queue.recordFailure(IG_M1, FROM, FROM.plusSeconds(3_600));
+    // a second failure, later, of a pair whose file was not located
+    queue.recordFailure(IG_M1, null, FROM.plusSeconds(7_200));
+    queue.recordFailure(IG_M15, null, FROM);
+    var after = Instant.now();
+
+    var reloaded = newQueue();
+    var m1 = reloaded.get(IG_M1).orElseThrow();
+    var due = reloaded.due(Instant.now().plus(Duration.ofMinutes(1)));
+    var dueLater = reloaded.due(Instant.now().plus(Duration.ofMinutes(3)));
+    reloaded.remove(IG_M15);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(m1.from()).isEqualTo(FROM);
+      soft.assertThat(m1.to()).isEqualTo(FROM.plusSeconds(7_200));
+      soft.assertThat(m1.attempts()).isEqualTo(2);
+      // 1 minute doubled once
+      soft.assertThat(m1.nextAttemptAt())
+          .isBetween(before.plus(Duration.ofMinutes(2)), after.plus(Duration.ofMinutes(2)));
+      soft.assertThat(reloaded.get(IG_M15).map(RetryEntry::from)).isEmpty();
+      soft.assertThat(due).extracting(RetryEntry::ig).containsExactly(IG_M15);
+      soft.assertThat(dueLater).extracting(RetryEntry::ig).containsExactly(IG_M15, IG_M1);
+      soft.assertThat(newQueue().get(IG_M15)).isEmpty();
+      soft.assertThat(newQueue().nextAttemptAt()).contains(m1.nextAttemptAt());
+    });
+  }
+
+  @Test
+  void should_capTheBackoff() {
+    var queue = newQueue();
+    var before = Instant.now();
+    for (var i = 0; i < 10; i++) {
+      queue.recordFailure(IG_M1, FROM, FROM);
+    }
+    var after = Instant.now();
+
+    var entry = queue.get(IG_M1).orElseThrow();
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(entry.attempts()).isEqualTo(10);
+      soft.assertThat(entry.nextAttemptAt())
+          .isBetween(before.plus(Duration.ofMinutes(5)), after.plus(Duration.ofMinutes(5)));
+    });
+  }
+
+  private RetryQueue newQueue() {
+    var retry = RetryProperties.builder().initialDelay(Duration.ofMinutes(1)).maxDelay(Duration.ofMinutes(5)).build();
+    var candlestick = CandlestickProperties.builder().outputPath(tempDir.toString()).retry(retry).build();
+    return new RetryQueue(TestProperties.of(candlestick));
+  }
+
+}
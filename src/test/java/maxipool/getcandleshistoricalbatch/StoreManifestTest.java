@@ -0,0 +1,118 @@
+package maxipool.getcandleshistoricalbatch;
+
+import com.oanda.v20.instrument.CandlestickGranularity;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.ManifestEntry;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.model.IG;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.appendCandlesToFile;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+
+class StoreManifestTest {
+
+  private static final IG IG_M1 = new IG("EUR_USD", CandlestickGranularity.M1);
+  private static final Instant START = Instant.parse("2024-03-01T00:00:00Z");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_keepEntryAcrossInstances_onceFlushed_untilFileChanges() throws IOException {
+    var file = tempDir.resolve("EUR_USD-M1-2024_03.csv");
+    writeCandlesToFileThatDoesntExist(file, candles(0, 100));
+    var entry = StoreManifest.scan(file).orElseThrow();
+    var manifest = newManifest();
+    manifest.put(IG_M1, entry);
+    var isSavedBeforeFlush = Files.exists(tempDir.resolve(StoreManifest.FILE_NAME));
+    manifest.flush();
+
+    var soft = new SoftAssertions();
+    soft.assertThat(isSavedBeforeFlush).isFalse();
+    // located from its last row alone
+    soft.assertThat(entry.rowCount()).isEqualTo(ManifestEntry.UNKNOWN_ROW_COUNT);
+    soft.assertThat(entry.lastCandleTime()).isEqualTo(START.plusSeconds(99 * 60));
+    soft.assertThat(newManifest().getIfCurrent(IG_M1, file)).contains(entry);
+
+    appendCandlesToFile(file, candles(100, 1));
+    soft.assertThat(newManifest().getIfCurrent(IG_M1, file)).isEmpty();
+
+    var appended = StoreManifest.describe(file, START.plusSeconds(100 * 60), entry.rowCountAfter(1));
+    soft.assertThat(appended).isEqualTo(StoreManifest.scan(file).orElseThrow());
+    soft.assertAll();
+  }
+
+  @Test
+  void should_removeStaleEntry() throws IOException {
+    var file = tempDir.resolve("EUR_USD-M1-2024_03.csv");
+    writeCandlesToFileThatDoesntExist(file, candles(0, 10));
+    var manifest = newManifest();
+    manifest.put(IG_M1, StoreManifest.scan(file).orElseThrow());
+    manifest.flush();
+
+    manifest.removeIfStale(IG_M1, tempDir);
+    var kept = manifest.get(IG_M1);
+    appendCandlesToFile(file, candles(10, 1));
+    manifest.removeIfStale(IG_M1, tempDir);
+    manifest.flush();
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(kept).isPresent();
+      soft.assertThat(manifest.get(IG_M1)).isEmpty();
+      soft.assertThat(newManifest().get(IG_M1)).isEmpty();
+    });
+  }
+
+  @Test
+  void should_trustTheStat_andReadTheLastRowOnlyWhenTheTimeDiffers() throws IOException {
+    var file = tempDir.resolve("EUR_USD-M1-2024_03.csv");
+    writeCandlesToFileThatDoesntExist(file, candles(0, 10));
+    var manifest = newManifest();
+    var entry = StoreManifest.scan(file).orElseThrow();
+    manifest.put(IG_M1, entry);
+    var recorded = Files.getLastModifiedTime(file);
+
+    // same size, same time: the changed last row is not read
+    Files.writeString(file, Files.readString(file).replace("1.15,9,", "1.16,9,"));
+    Files.setLastModifiedTime(file, recorded);
+    var afterStat = manifest.getIfCurrent(IG_M1, file);
+    Files.setLastModifiedTime(file, FileTime.from(recorded.toInstant().plusSeconds(1)));
+    var afterTail = manifest.getIfCurrent(IG_M1, file);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(entry.lastModified()).isEqualTo(recorded.toInstant());
+      soft.assertThat(afterStat).contains(entry);
+      soft.assertThat(afterTail).isEmpty();
+    });
+  }
+
+  private StoreManifest newManifest() {
+    return new StoreManifest(TestProperties.withOutputPath(tempDir));
+  }
+
+  private static List<CsvCandle> candles(int from, int count) {
+    return IntStream
+        .range(from, from + count)
+        .mapToObj(i -> CsvCandle.builder()
+            .time(ZonedDateTime.ofInstant(START.plusSeconds(i * 60L), ZoneId.of("UTC")))
+            .open(1.1).high(1.2).low(1.0).close(1.15)
+            .volume((long) i)
+            .isComplete(1)
+            .build())
+        .toList();
+  }
+
+}
@@ -0,0 +1,115 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandleParser;
+import maxipool.getcandleshistoricalbatch.common.file.CopyFileUtil;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.StoreVerifyService;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.checksum.ChecksumManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.manifest.StoreManifest;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.verify.MonthCheck;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.candles.verify.MonthChecker;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.VerifyProperties;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.YearMonth;
+import java.util.Arrays;
+
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.rewriteCandlesToFile;
+
+class StoreVerifyServiceTest {
+
+  private static final YearMonth JANUARY = YearMonth.of(2024, 1);
+  private static final long T0 = Instant.parse("2024-01-02T03:00:00Z").getEpochSecond();
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_countEachKindOfBadCandle_andKeepTheSaneOnesOfTheMonth() {
+    var candles = badMonth();
+
+    var check = MonthChecker.check(candles, JANUARY, 2);
+    var repaired = MonthChecker.repair(candles, JANUARY);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(check).isEqualTo(new MonthCheck(6, 2, 1, 1, 1, 1));
+      soft.assertThat(check.isBad()).isTrue();
+      soft.assertThat(MonthChecker.check(repaired, JANUARY, 0).isBad()).isFalse();
+      soft.assertThat(repaired.size()).isEqualTo(3);
+      soft.assertThat(repaired.time(0)).isEqualTo(T0);
+      soft.assertThat(repaired.time(1)).isEqualTo(T0 + 60);
+      soft.assertThat(repaired.time(2)).isEqualTo(T0 + 120);
+      // the first one read of a duplicated time
+      soft.assertThat(repaired.close(1)).isEqualTo(1.15);
+    });
+  }
+
+  @Test
+  void should_onlyReportWhenVerifying_andRewriteTheBadFileOnBothDisksWhenRepairing() throws IOException {
+    var props = v20Properties();
+    var subDir = tempDir.resolve("primary/EUR_USD/M1");
+    Files.createDirectories(subDir);
+    var bad = subDir.resolve("EUR_USD-M1-2024_01.csv");
+    rewriteCandlesToFile(bad, badMonth());
+    Files.writeString(bad, "2024-01-02T03:09:00Z,1.1,abc,1.0,1.15,42,1\n", StandardOpenOption.APPEND);
+    var good = subDir.resolve("EUR_USD-M1-2024_02.csv");
+    var february = new CandleBlock();
+    february.add(Instant.parse("2024-02-01T00:00:00Z").getEpochSecond(), 1.1, 1.2, 1.0, 1.15, 10, true);
+    rewriteCandlesToFile(good, february);
+    var badBytes = Files.readAllBytes(bad);
+    var goodBytes = Files.readAllBytes(good);
+
+    var service = new StoreVerifyService(props, null, new StoreManifest(props), new ChecksumManifest(props));
+    var isVerified = service.verify();
+    var isUntouched = Arrays.equals(badBytes, Files.readAllBytes(bad));
+    var isRepaired = service.repair();
+    var rewritten = CsvCandleParser.parse(bad);
+    var isGoodUntouched = Arrays.equals(goodBytes, Files.readAllBytes(good));
+    var copy = CopyFileUtil.secondDiskFile(
+        props.candlestick().copyOutputPath(), "EUR_USD", "M1", bad.getFileName().toString());
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(isVerified).isFalse();
+      soft.assertThat(isUntouched).isTrue();
+      soft.assertThat(isRepaired).isTrue();
+      soft.assertThat(rewritten.rejectedRows()).isZero();
+      soft.assertThat(rewritten.candles().size()).isEqualTo(3);
+      soft.assertThat(copy).exists().hasSameBinaryContentAs(bad);
+      soft.assertThat(isGoodUntouched).isTrue();
+      soft.assertThat(service.verify()).isTrue();
+    });
+  }
+
+  /**
+   * One candle of each kind of problem, around three good ones.
+   */
+  private static CandleBlock badMonth() {
+    var candles = new CandleBlock();
+    candles.add(T0, 1.1, 1.2, 1.0, 1.15, 10, true);
+    candles.add(T0 + 120, 1.1, 1.2, 1.0, 1.15, 10, true);
+    // out of order
+    candles.add(T0 + 60, 1.1, 1.2, 1.0, 1.15, 10, true);
+    // duplicated
+    candles.add(T0 + 60, 1.1, 1.2, 1.0, 1.16, 10, true);
+    // high below the close
+    candles.add(T0 + 180, 1.1, 1.2, 1.0, 1.25, 10, true);
+    // of February
+    candles.add(Instant.parse("2024-02-01T00:00:00Z").getEpochSecond(), 1.1, 1.2, 1.0, 1.15, 10, true);
+    return candles;
+  }
+
+  private V20Properties v20Properties() {
+    return TestProperties.of(TestProperties.twoDisks(tempDir)
+        .verify(VerifyProperties.builder().storeParallelism(2).build())
+        .build());
+  }
+
+}
@@ -0,0 +1,84 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.csv.CsvCandle;
+import maxipool.getcandleshistoricalbatch.common.file.ReadFileUtil;
+import maxipool.getcandleshistoricalbatch.common.file.TailReader;
+import org.assertj.core.api.SoftAssertions;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.ZonedDateTime;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static maxipool.getcandleshistoricalbatch.common.candle.EpochSecondUtil.NOT_PARSED;
+import static maxipool.getcandleshistoricalbatch.common.file.WriteFileUtil.writeCandlesToFileThatDoesntExist;
+
+class TailReaderTest {
+
+  private static final Instant START = Instant.parse("2024-03-01T00:00:00Z");
+
+  @TempDir
+  Path tempDir;
+
+  @Test
+  void should_readTheLastRows_acrossBlocks() throws IOException {
+    // 4,000 rows: more than the largest block
+    var file = tempDir.resolve("EUR_USD-M1-2024_03.csv");
+    writeCandlesToFileThatDoesntExist(file, candles(4_000));
+
+    var size = Files.size(file);
+    var lines = TailReader.lastLines(file, 2_000);
+    var candles = TailReader.lastCandles(file, 5);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(size).isGreaterThan(2L * 64 * 1_024);
+      soft.assertThat(lines).hasSize(2_000);
+      soft.assertThat(lines.getFirst()).startsWith("2024-03-02T09:20:00Z,");
+      soft.assertThat(lines.getLast()).startsWith("2024-03-03T18:39:00Z,");
+      soft.assertThat(candles.size()).isEqualTo(5);
+      soft.assertThat(candles.time(0)).isEqualTo(START.plusSeconds(3_995 * 60).getEpochSecond());
+      soft.assertThat(candles.time(4)).isEqualTo(START.plusSeconds(3_999 * 60).getEpochSecond());
+      soft.assertThat(candles.close(4)).isEqualTo(1.5);
+    });
+  }
+
+  @Test
+  void should_stopAtTheStartOfTheFile_withoutTheHeader() throws IOException {
+    var file = tempDir.resolve("EUR_USD-M1-2024_03.csv");
+    writeCandlesToFileThatDoesntExist(file, candles(3));
+    var crlf = tempDir.resolve("crlf.csv");
+    Files.writeString(crlf, "time,open\r\n2024-03-01T00:00:00Z,1.0\r\n\r\n");
+    var empty = Files.createFile(tempDir.resolve("empty.csv"));
+
+    var candles = TailReader.lastCandles(file, 10);
+    var lastLine = ReadFileUtil.getLastLineFromCsvCandleFile(crlf);
+    var crlfLines = TailReader.lastLines(crlf, 5);
+    var lastTime = TailReader.lastCandleTime(file);
+    var emptyLastTime = TailReader.lastCandleTime(empty);
+    var emptyLines = TailReader.lastLines(empty, 1);
+
+    SoftAssertions.assertSoftly(soft -> {
+      soft.assertThat(candles.size()).isEqualTo(3);
+      soft.assertThat(candles.time(0)).isEqualTo(START.getEpochSecond());
+      soft.assertThat(lastLine).isEqualTo("2024-03-01T00:00:00Z,1.0");
+      soft.assertThat(crlfLines).containsExactly("time,open", "2024-03-01T00:00:00Z,1.0");
+      soft.assertThat(lastTime).isEqualTo(START.plusSeconds(2 * 60).getEpochSecond());
+      soft.assertThat(emptyLastTime).isEqualTo(NOT_PARSED);
+      soft.assertThat(emptyLines).isEmpty();
+    });
+  }
+
+  private static List<CsvCandle> candles(int count) {
+    return IntStream.range(0, count)
+        .mapToObj(i -> new CsvCandle(
+            ZonedDateTime.ofInstant(START.plusSeconds(i * 60L), ZoneId.of("UTC")), 1.0, 2.0, 0.5, 1.5, 10L + i, 1))
+        .toList();
+  }
+
+}
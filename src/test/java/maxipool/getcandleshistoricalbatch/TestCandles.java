@@ -0,0 +1,47 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.common.candle.CandleBlock;
+
+import java.util.Random;
+
+/**
+ * Candle blocks for the tests.
+ */
+final class TestCandles {
+
+  static final long START = 1_704_067_200L; // 2024-01-01T00:00:00Z
+
+  private TestCandles() {
+  }
+
+  /**
+   * The same candle every minute of {@code [from, to)}.
+   */
+  static CandleBlock everyMinute(long from, long to) {
+    var candles = new CandleBlock();
+    for (var t = from; t < to; t += 60) {
+      candles.add(t, 1.1, 1.2, 1.0, 1.15, 10, true);
+    }
+    return candles;
+  }
+
+  /**
+   * A random walk, like real quotes: consecutive candles are close to each other. The candles are the minutes
+   * {@code from} to {@code from + count} after {@link #START}, and the same {@code from} gives the same candles.
+   */
+  static CandleBlock randomWalk(int from, int count, int precision) {
+    var random = new Random(from);
+    var pow10 = Math.pow(10, precision);
+    var block = new CandleBlock();
+    var close = 110_000;
+    for (var i = from; i < from + count; i++) {
+      // one division of integers, like parsing the decimal text
+      var open = close + random.nextInt(3) - 1;
+      close = open + random.nextInt(21) - 10;
+      block.add(START + i * 60L, open / pow10, (Math.max(open, close) + random.nextInt(5)) / pow10,
+          (Math.min(open, close) - random.nextInt(5)) / pow10, close / pow10, 50 + random.nextInt(200), true);
+    }
+    return block;
+  }
+
+}
@@ -0,0 +1,43 @@
+package maxipool.getcandleshistoricalbatch;
+
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.CandlestickProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.FetchProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.RateLimitProperties;
+import maxipool.getcandleshistoricalbatch.infra.oanda.v20.properties.V20Properties;
+
+import java.nio.file.Path;
+
+/**
+ * {@link V20Properties} for the tests: what is not given is null, i.e. the default.
+ */
+final class TestProperties {
+
+  private TestProperties() {
+  }
+
+  static V20Properties withOutputPath(Path outputPath) {
+    return of(CandlestickProperties.builder().outputPath(outputPath.toString()).build());
+  }
+
+  /**
+   * @return candlestick properties writing to {@code dir/primary}, and copying to {@code dir/copy}
+   */
+  static CandlestickProperties.CandlestickPropertiesBuilder twoDisks(Path dir) {
+    return CandlestickProperties.builder()
+        .outputPath(dir.resolve("primary").toString())
+        .copyOutputPath(dir.resolve("copy").toString());
+  }
+
+  static V20Properties of(CandlestickProperties candlestick) {
+    return new V20Properties(null, null, null, null, null, null, false, candlestick, null, null);
+  }
+
+  static V20Properties of(RateLimitProperties rateLimit) {
+    return new V20Properties(null, null, null, null, null, null, false, null, rateLimit, null);
+  }
+
+  static V20Properties of(FetchProperties fetch) {
+    return new V20Properties(null, null, null, null, null, null, false, null, null, fetch);
+  }
+
+}